@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *     
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests;
+
+import junit.framework.TestCase;
+
+import com.keepassdroid.database.BinaryPool;
+import com.keepassdroid.database.security.ProtectedBinary;
+
+public class BinaryPoolTest extends TestCase {
+
+	public void testDeduplicates() {
+		BinaryPool pool = new BinaryPool();
+
+		ProtectedBinary a = new ProtectedBinary(false, new byte[] {1, 2, 3});
+		ProtectedBinary b = new ProtectedBinary(false, new byte[] {1, 2, 3});
+		ProtectedBinary c = new ProtectedBinary(true, new byte[] {1, 2, 3});
+		ProtectedBinary d = new ProtectedBinary(false, new byte[] {3, 2, 1});
+
+		pool.poolAdd(a);
+		pool.poolAdd(b);
+		pool.poolAdd(c);
+		pool.poolAdd(d);
+
+		assertEquals(3, pool.size());
+		assertEquals(0, pool.poolFind(b));
+		assertEquals(1, pool.poolFind(c));
+		assertEquals(2, pool.poolFind(d));
+		assertSame(a, pool.poolIntern(b));
+	}
+
+	public void testPutReplacesIndex() {
+		BinaryPool pool = new BinaryPool();
+
+		ProtectedBinary a = new ProtectedBinary(false, new byte[] {1});
+		ProtectedBinary b = new ProtectedBinary(false, new byte[] {2});
+
+		pool.put(5, a);
+		pool.put(5, b);
+
+		assertEquals(-1, pool.poolFind(a));
+		assertEquals(5, pool.poolFind(b));
+
+		// New binaries get keys after the highest one in use
+		ProtectedBinary c = new ProtectedBinary(false, new byte[] {3});
+		pool.poolAdd(c);
+		assertEquals(6, pool.poolFind(c));
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests;
+
+import java.util.Date;
+
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.database.PwGroupV4;
+
+/** Builds version 4 entries for tests, with only the fields a test cares about set */
+public class EntryBuilder {
+	private final PwDatabaseV4 db;
+	private PwGroupV4 group;
+	private String title;
+	private String url;
+	private String notes;
+	private String tags;
+	private Date expiry;
+	private Date lastAccess;
+
+	/** Fields are protected as the default database settings say */
+	public EntryBuilder() {
+		this(new PwDatabaseV4());
+	}
+
+	/** Fields are protected as the database settings say */
+	public EntryBuilder(PwDatabaseV4 db) {
+		this.db = db;
+	}
+
+	/** Add the entry to the group, and so to the database, when it is built */
+	public EntryBuilder group(PwGroupV4 group) {
+		this.group = group;
+		return this;
+	}
+
+	public EntryBuilder title(String title) {
+		this.title = title;
+		return this;
+	}
+
+	public EntryBuilder url(String url) {
+		this.url = url;
+		return this;
+	}
+
+	public EntryBuilder notes(String notes) {
+		this.notes = notes;
+		return this;
+	}
+
+	public EntryBuilder tags(String tags) {
+		this.tags = tags;
+		return this;
+	}
+
+	public EntryBuilder expires(long time) {
+		this.expiry = new Date(time);
+		return this;
+	}
+
+	public EntryBuilder lastAccess(Date lastAccess) {
+		this.lastAccess = lastAccess;
+		return this;
+	}
+
+	public PwEntryV4 build() {
+		PwEntryV4 entry = group != null ? new PwEntryV4(group) : new PwEntryV4();
+		if (title != null) {
+			entry.setTitle(title, db);
+		}
+		if (url != null) {
+			entry.setUrl(url, db);
+		}
+		if (notes != null) {
+			entry.setNotes(notes, db);
+		}
+		if (tags != null) {
+			entry.tags = tags;
+		}
+		if (expiry != null) {
+			entry.setExpires(true);
+			entry.setExpiryTime(expiry);
+		}
+		if (lastAccess != null) {
+			entry.setLastAccessTime(lastAccess);
+		}
+
+		if (group != null) {
+			db.addEntryTo(entry, group);
+		}
+		return entry;
+	}
+}
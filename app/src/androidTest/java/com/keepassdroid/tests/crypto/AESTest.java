@@ -36,6 +36,8 @@ import javax.crypto.spec.SecretKeySpec;
 import junit.framework.TestCase;
 
 import com.keepassdroid.crypto.CipherFactory;
+import com.keepassdroid.crypto.NativeAESContextPool;
+import com.keepassdroid.crypto.NativeLib;
 
 public class AESTest extends TestCase {
 	
@@ -78,6 +80,21 @@ public class AESTest extends TestCase {
 		
 		assertArrayEquals("Arrays differ on size: " + dataSize, outAndroid, outNative);
 	}
-	
-	
+
+	public void testContextPool() throws Exception {
+		if ( !NativeLib.loaded() ) {
+			return;
+		}
+
+		int live = NativeAESContextPool.getLiveCount();
+		long created = NativeAESContextPool.getCreatedCount();
+
+		for (int i = 0; i < 20; i++) {
+			testFinal(mRand.nextInt(500));
+		}
+
+		assertTrue("Contexts not returned after doFinal", NativeAESContextPool.getLiveCount() <= live);
+		assertTrue("Contexts not reused", NativeAESContextPool.getCreatedCount() - created < 20);
+	}
+
 }
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import android.util.Log;
+
+import com.keepassdroid.crypto.keyDerivation.Argon2Java;
+import com.keepassdroid.crypto.keyDerivation.Argon2Kdf;
+import com.keepassdroid.crypto.keyDerivation.Argon2Native;
+import com.keepassdroid.crypto.keyDerivation.KdfEngine;
+import com.keepassdroid.crypto.keyDerivation.KdfFactory;
+import com.keepassdroid.crypto.keyDerivation.KdfParameters;
+
+public class Argon2Test extends TestCase {
+	private static final long VERSION_13 = 0x13;
+
+	// Test vectors from RFC 9106, sections 5.1 and 5.3
+	private static final byte[] RFC_ARGON2D = hex(
+			"512b391b6f1162975371d30919734294f868e3be3984f3c1a13a4db9fabe4acb");
+	private static final byte[] RFC_ARGON2ID = hex(
+			"0d640df58d78766c08c037a34a8b53c9d01ef0452d75b65eb52520e96b01e659");
+
+	@Override
+	protected void tearDown() throws Exception {
+		Argon2Native.selectImplementation(null);
+
+		super.tearDown();
+	}
+
+	public void testImplementationsAvailable() {
+		String[] impls = Argon2Native.getImplementations();
+		assertTrue(Arrays.asList(impls).contains("ref"));
+	}
+
+	public void testKnownVector() throws IOException {
+		for (String impl : Argon2Native.getImplementations()) {
+			assertTrue(Argon2Native.selectImplementation(impl));
+
+			assertArrayEquals("Wrong output from " + impl, RFC_ARGON2D, rfcVector(Argon2Kdf.TypeD));
+			assertArrayEquals("Wrong output from " + impl, RFC_ARGON2ID, rfcVector(Argon2Kdf.TypeId));
+		}
+	}
+
+	public void testJavaKnownVector() throws IOException {
+		assertArrayEquals(RFC_ARGON2D, rfcVectorJava(Argon2Kdf.TypeD));
+		assertArrayEquals(RFC_ARGON2ID, rfcVectorJava(Argon2Kdf.TypeId));
+	}
+
+	public void testJavaMatchesNative() throws IOException {
+		Random rand = new Random();
+		byte[] password = new byte[32];
+		byte[] salt = new byte[32];
+		rand.nextBytes(password);
+		rand.nextBytes(salt);
+
+		for (long version : new long[] { 0x10, VERSION_13 }) {
+			byte[] expected = Argon2Native.transformKey(Argon2Kdf.TypeId, password, salt, 3,
+					1024 * 1024, 2, null, null, version);
+			byte[] actual = Argon2Java.transformKey(Argon2Kdf.TypeId, password, salt, 3,
+					1024 * 1024, 2, null, null, version);
+
+			assertArrayEquals("Mismatch for version " + version, expected, actual);
+		}
+	}
+
+	public void testBenchmark() throws IOException {
+		byte[] password = new byte[32];
+		byte[] salt = new byte[32];
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		long memory = 16 * 1024 * 1024;
+
+		long start = System.nanoTime();
+		byte[] nativeKey = Argon2Native.transformKey(Argon2Kdf.TypeD, password, salt, parallelism,
+				memory, 2, null, null, VERSION_13);
+		long nativeTime = (System.nanoTime() - start) / 1000000;
+
+		start = System.nanoTime();
+		byte[] javaKey = Argon2Java.transformKey(Argon2Kdf.TypeD, password, salt, parallelism,
+				memory, 2, null, null, VERSION_13);
+		long javaTime = (System.nanoTime() - start) / 1000000;
+
+		Log.i("Argon2Test", "16 MiB, 2 iterations, " + parallelism + " lanes: native "
+				+ nativeTime + " ms, java " + javaTime + " ms");
+		assertArrayEquals(nativeKey, javaKey);
+	}
+
+	public void testArgon2idRegistered() throws IOException {
+		KdfEngine engine = KdfFactory.get(Argon2Kdf.CIPHER_UUID_ID);
+		assertNotNull(engine);
+		assertEquals(Argon2Kdf.TypeId, ((Argon2Kdf) engine).getType());
+
+		KdfParameters p = engine.getDefaultParameters();
+		engine.randomize(p);
+		assertEquals(32, engine.transform(new byte[32], p).length);
+	}
+
+	public void testCalibrate() throws IOException {
+		Argon2Kdf kdf = (Argon2Kdf) KdfFactory.get(Argon2Kdf.CIPHER_UUID_ID);
+		KdfParameters p = kdf.getDefaultParameters();
+		kdf.randomize(p);
+
+		kdf.calibrate(p, 200, 4 * 1024 * 1024);
+
+		assertTrue(p.getUInt64(Argon2Kdf.ParamIterations) >= 1);
+		assertTrue(p.getUInt64(Argon2Kdf.ParamMemory) <= 4 * 1024 * 1024);
+		assertTrue(p.getUInt32(Argon2Kdf.ParamParallelism) >= 1);
+		assertNotNull(p.getByteArray(Argon2Kdf.ParamSalt));
+	}
+
+	public void testImplementationsMatch() throws IOException {
+		Random rand = new Random();
+		byte[] password = new byte[32];
+		byte[] salt = new byte[32];
+		rand.nextBytes(password);
+		rand.nextBytes(salt);
+
+		assertTrue(Argon2Native.selectImplementation("ref"));
+		byte[] expected = Argon2Native.transformKey(password, salt, 2, 1024 * 1024, 3,
+				null, null, VERSION_13);
+
+		for (String impl : Argon2Native.getImplementations()) {
+			assertTrue(Argon2Native.selectImplementation(impl));
+			byte[] actual = Argon2Native.transformKey(password, salt, 2, 1024 * 1024, 3,
+					null, null, VERSION_13);
+
+			assertArrayEquals("Mismatch from " + impl, expected, actual);
+		}
+	}
+
+	public void testUnknownImplementation() {
+		assertFalse(Argon2Native.selectImplementation("none"));
+	}
+
+	private static byte[] rfcVector(int type) throws IOException {
+		byte[] password = filled(32, 0x01);
+		byte[] salt = filled(16, 0x02);
+		byte[] secret = filled(8, 0x03);
+		byte[] ad = filled(12, 0x04);
+
+		return Argon2Native.transformKey(type, password, salt, 4, 32 * 1024, 3, secret, ad, VERSION_13);
+	}
+
+	private static byte[] rfcVectorJava(int type) throws IOException {
+		return Argon2Java.transformKey(type, filled(32, 0x01), filled(16, 0x02), 4, 32 * 1024, 3,
+				filled(8, 0x03), filled(12, 0x04), VERSION_13);
+	}
+
+	private static byte[] filled(int length, int value) {
+		byte[] data = new byte[length];
+		Arrays.fill(data, (byte) value);
+		return data;
+	}
+
+	private static byte[] hex(String s) {
+		byte[] data = new byte[s.length() / 2];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+		}
+		return data;
+	}
+
+}
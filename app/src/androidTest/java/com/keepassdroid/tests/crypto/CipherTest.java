@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Random;
 
 import javax.crypto.BadPaddingException;
@@ -37,13 +38,34 @@ import javax.crypto.NoSuchPaddingException;
 
 import junit.framework.TestCase;
 
+import org.spongycastle.crypto.StreamCipher;
+import org.spongycastle.crypto.engines.ChaCha7539Engine;
+import org.spongycastle.crypto.engines.Salsa20Engine;
+import org.spongycastle.crypto.params.KeyParameter;
+import org.spongycastle.crypto.params.ParametersWithIV;
+
 import com.keepassdroid.crypto.CipherFactory;
+import com.keepassdroid.crypto.KeystreamBuffer;
+import com.keepassdroid.crypto.NativeChaCha20Engine;
+import com.keepassdroid.crypto.NativeSalsa20Engine;
+import com.keepassdroid.crypto.ParallelCbcDecryptor;
 import com.keepassdroid.crypto.engine.AesEngine;
+import com.keepassdroid.crypto.engine.ChaCha20Engine;
 import com.keepassdroid.crypto.engine.CipherEngine;
+import com.keepassdroid.crypto.engine.TwofishEngine;
 import com.keepassdroid.stream.BetterCipherInputStream;
 import com.keepassdroid.stream.LEDataInputStream;
+import com.keepassdroid.stream.ParallelCbcInputStream;
 
 public class CipherTest extends TestCase {
+	// Twofish paper, 256 bit zero key and block
+	private static final byte[] TWOFISH_ZERO = hex("57ff739d4dc92c1bd7fc01700cc8216f");
+
+	// RFC 8439 appendix A.2, test vector 1
+	private static final byte[] CHACHA20_ZERO = hex(
+			"76b8e0ada0f13d90405d6ae55386bd28bdd219b8a08ded1aa836efcc8b770dc7"
+			+ "da41597c5157488d7724e03fb8d84a376a43b8f41518a11cc387b669b2ee6586");
+
 	private Random rand = new Random();
 	
 	public void testCipherFactory() throws InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException, InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException {
@@ -97,4 +119,159 @@ public class CipherTest extends TestCase {
 		
 		assertArrayEquals("Encryption and decryption failed", plaintext, decrypttext);
 	}
+
+	public void testNativeTwofish() throws Exception {
+		// Below, at and above the block size, plus empty input for the padding
+		int[] sizes = { 0, 15, 16, 17, 32, rand.nextInt(5000) + 33 };
+		for (int size : sizes) {
+			compareWithJava(CipherFactory.getInstance(TwofishEngine.CIPHER_UUID), size);
+		}
+	}
+
+	public void testKnownAnswers() throws Exception {
+		CipherEngine twofish = CipherFactory.getInstance(TwofishEngine.CIPHER_UUID);
+		CipherEngine chacha = CipherFactory.getInstance(ChaCha20Engine.CIPHER_UUID);
+
+		// Native first, then the java implementations
+		for (boolean androidOverride : new boolean[] { false, true }) {
+			// A single CBC block with a zero IV is the plain block cipher
+			byte[] secret = twofish.getCipher(Cipher.ENCRYPT_MODE, new byte[32], new byte[16], androidOverride)
+					.doFinal(new byte[16]);
+			assertArrayEquals("Twofish encryption", TWOFISH_ZERO, Arrays.copyOf(secret, 16));
+
+			byte[] plain = twofish.getCipher(Cipher.DECRYPT_MODE, new byte[32], new byte[16], androidOverride)
+					.doFinal(TWOFISH_ZERO);
+			assertArrayEquals("Twofish decryption", new byte[16], plain);
+
+			byte[] stream = chacha.getCipher(Cipher.ENCRYPT_MODE, new byte[32], new byte[12], androidOverride)
+					.doFinal(new byte[64]);
+			assertArrayEquals("ChaCha20 keystream", CHACHA20_ZERO, stream);
+		}
+	}
+
+	public void testNativeChaCha20() throws Exception {
+		int[] sizes = { 0, 1, 63, 64, 65, rand.nextInt(5000) + 66 };
+		for (int size : sizes) {
+			compareWithJava(CipherFactory.getInstance(ChaCha20Engine.CIPHER_UUID), size);
+		}
+	}
+
+	public void testParallelCbc() throws Exception {
+		// Below the block size, a few pieces per core, and regions ending mid stream
+		int[] sizes = { 0, 15, 16, 1000, 3 * 1024 * 1024 + 5 };
+		for (int size : sizes) {
+			compareParallel(CipherFactory.getInstance(AesEngine.CIPHER_UUID), size);
+			compareParallel(CipherFactory.getInstance(TwofishEngine.CIPHER_UUID), size);
+		}
+	}
+
+	private void compareParallel(CipherEngine engine, int size) throws Exception {
+		byte[] key = new byte[32];
+		byte[] iv = new byte[16];
+		byte[] plaintext = new byte[size];
+
+		rand.nextBytes(key);
+		rand.nextBytes(iv);
+		rand.nextBytes(plaintext);
+
+		byte[] secrettext = engine.getCipher(Cipher.ENCRYPT_MODE, key, iv).doFinal(plaintext);
+		byte[] expected = engine.getCipher(Cipher.DECRYPT_MODE, key, iv).doFinal(secrettext);
+
+		ParallelCbcDecryptor decryptor = engine.getParallelDecryptor(key, false);
+		ParallelCbcInputStream pis = new ParallelCbcInputStream(new ByteArrayInputStream(secrettext), decryptor, iv, 256 * 1024);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = pis.read(buffer)) != -1) {
+			bos.write(buffer, 0, read);
+		}
+
+		assertArrayEquals("Parallel stream differs for " + size + " bytes", expected, bos.toByteArray());
+
+		byte[] inPlace = new byte[secrettext.length + 16];
+		System.arraycopy(secrettext, 0, inPlace, 0, secrettext.length);
+		int length = decryptor.decrypt(iv, inPlace, 0, secrettext.length, inPlace, 0);
+		assertEquals(expected.length, length);
+		for (int i = 0; i < length; i++) {
+			assertEquals("Parallel in place decryption differs at " + i, expected[i], inPlace[i]);
+		}
+	}
+
+	/** Encrypt and decrypt with the native cipher and the java one in odd sized pieces,
+	 *  the output has to be identical
+	 */
+	private void compareWithJava(CipherEngine engine, int size) throws Exception {
+		byte[] key = new byte[32];
+		byte[] iv = new byte[engine.ivLength()];
+		byte[] plaintext = new byte[size];
+
+		rand.nextBytes(key);
+		rand.nextBytes(iv);
+		rand.nextBytes(plaintext);
+
+		byte[] nativeSecret = process(engine.getCipher(Cipher.ENCRYPT_MODE, key, iv, false), plaintext);
+		byte[] javaSecret = process(engine.getCipher(Cipher.ENCRYPT_MODE, key, iv, true), plaintext);
+		assertArrayEquals("Encryption differs for " + size + " bytes", javaSecret, nativeSecret);
+
+		byte[] nativePlain = process(engine.getCipher(Cipher.DECRYPT_MODE, key, iv, false), javaSecret);
+		byte[] javaPlain = process(engine.getCipher(Cipher.DECRYPT_MODE, key, iv, true), javaSecret);
+		assertArrayEquals("Decryption differs for " + size + " bytes", javaPlain, nativePlain);
+	}
+
+	private byte[] process(Cipher cipher, byte[] input) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+		int offset = 0;
+		while (input.length - offset > 100) {
+			int length = rand.nextInt(100);
+			byte[] output = cipher.update(input, offset, length);
+			if (output != null) {
+				bos.write(output);
+			}
+			offset += length;
+		}
+		bos.write(cipher.doFinal(input, offset, input.length - offset));
+
+		return bos.toByteArray();
+	}
+
+	public void testKeystreamBuffer() throws Exception {
+		compareKeystream(new Salsa20Engine(), new KeystreamBuffer(new NativeSalsa20Engine()), 8);
+		compareKeystream(new ChaCha7539Engine(), new KeystreamBuffer(new NativeChaCha20Engine()), 12);
+		compareKeystream(new Salsa20Engine(), new KeystreamBuffer(new Salsa20Engine(), 100), 8);
+	}
+
+	/** Protected values are short and come one at a time, with the odd large binary */
+	private void compareKeystream(StreamCipher expected, StreamCipher actual, int ivLength) {
+		byte[] key = new byte[32];
+		byte[] iv = new byte[ivLength];
+		rand.nextBytes(key);
+		rand.nextBytes(iv);
+
+		ParametersWithIV params = new ParametersWithIV(new KeyParameter(key), iv);
+		expected.init(true, params);
+		actual.init(true, params);
+
+		for (int i = 0; i < 1000; i++) {
+			int length = (i % 100 == 0) ? rand.nextInt(20000) : rand.nextInt(40);
+			byte[] input = new byte[length];
+			rand.nextBytes(input);
+
+			byte[] expectedOut = new byte[length];
+			byte[] actualOut = new byte[length];
+			expected.processBytes(input, 0, length, expectedOut, 0);
+			actual.processBytes(input, 0, length, actualOut, 0);
+			assertArrayEquals("Keystream differs at value " + i, expectedOut, actualOut);
+
+			assertEquals(expected.returnByte((byte) i), actual.returnByte((byte) i));
+		}
+	}
+
+	private static byte[] hex(String s) {
+		byte[] data = new byte[s.length() / 2];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+		}
+		return data;
+	}
 }
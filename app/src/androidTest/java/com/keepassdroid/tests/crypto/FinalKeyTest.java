@@ -22,12 +22,21 @@ package com.keepassdroid.tests.crypto;
 import static org.junit.Assert.assertArrayEquals;
 
 import java.io.IOException;
+import java.security.MessageDigest;
 import java.util.Random;
 
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
 import junit.framework.TestCase;
 
+import android.util.Log;
+
 import com.keepassdroid.crypto.finalkey.AndroidFinalKey;
 import com.keepassdroid.crypto.finalkey.NativeFinalKey;
+import com.keepassdroid.crypto.keyDerivation.AesKdf;
+import com.keepassdroid.crypto.keyDerivation.KdfParameters;
+import com.keepassdroid.database.PwDatabaseV4;
 
 public class FinalKeyTest extends TestCase {
 	private Random mRand;
@@ -63,4 +72,108 @@ public class FinalKeyTest extends TestCase {
 		assertArrayEquals("Does not match", androidKey, nativeKey);
 		
 	}
+
+	public void testNativeImplementations() throws IOException {
+		byte[] seed = new byte[32];
+		byte[] key = new byte[32];
+		mRand.nextBytes(seed);
+		mRand.nextBytes(key);
+
+		byte[] expected = new AndroidFinalKey().transformMasterKey(seed, key, 1001);
+
+		NativeFinalKey nKey = new NativeFinalKey();
+		try {
+			for (String name : NativeFinalKey.getImplementations()) {
+				assertTrue(NativeFinalKey.selectImplementation(name));
+				assertEquals(name, NativeFinalKey.getImplementation());
+				assertArrayEquals(name + " does not match", expected,
+						nKey.transformMasterKey(seed, key, 1001));
+			}
+		} finally {
+			NativeFinalKey.selectImplementation(null);
+		}
+
+		assertFalse(NativeFinalKey.selectImplementation("missing"));
+	}
+
+	public void testAndroidMatchesCipher() throws Exception {
+		// Below and above the rounds where the second half moves to its own thread
+		for (long rounds : new long[] { 0, 1, 6, 2047, 2048, 5001 }) {
+			byte[] seed = new byte[32];
+			byte[] key = new byte[32];
+			mRand.nextBytes(seed);
+			mRand.nextBytes(key);
+
+			assertArrayEquals("Does not match for " + rounds + " rounds",
+					cipherFinalKey(seed, key, rounds),
+					new AndroidFinalKey().transformMasterKey(seed, key, rounds));
+		}
+	}
+
+	public void testAndroidSpeed() throws Exception {
+		byte[] seed = new byte[32];
+		byte[] key = new byte[32];
+		mRand.nextBytes(seed);
+		mRand.nextBytes(key);
+		long rounds = 200000;
+
+		long start = System.nanoTime();
+		byte[] cipherKey = cipherFinalKey(seed, key, rounds);
+		long cipherTime = (System.nanoTime() - start) / 1000000;
+
+		start = System.nanoTime();
+		byte[] androidKey = new AndroidFinalKey().transformMasterKey(seed, key, rounds);
+		long androidTime = (System.nanoTime() - start) / 1000000;
+
+		Log.i("FinalKeyTest", rounds + " rounds: Cipher.update " + cipherTime + " ms, AndroidFinalKey "
+				+ androidTime + " ms");
+		assertArrayEquals(cipherKey, androidKey);
+	}
+
+	public void testAesKdfCalibrate() throws IOException {
+		AesKdf kdf = new AesKdf();
+		KdfParameters p = kdf.getDefaultParameters();
+		kdf.randomize(p);
+
+		kdf.calibrate(p, 500);
+		long rounds = kdf.getRounds(p);
+		assertTrue(rounds >= PwDatabaseV4.DEFAULT_ROUNDS);
+		assertNotNull(p.getByteArray(AesKdf.ParamSeed));
+
+		long start = System.nanoTime();
+		kdf.transform(new byte[32], p);
+		long elapsed = (System.nanoTime() - start) / 1000000;
+
+		Log.i("FinalKeyTest", "Calibrated to " + rounds + " rounds for 500 ms, took " + elapsed + " ms");
+	}
+
+	public void testV4RoundsFollowKdf() throws IOException {
+		PwDatabaseV4 db = new PwDatabaseV4();
+		db.setNumRounds(123456);
+		assertEquals(123456, new AesKdf().getRounds(db.kdfParameters));
+		assertEquals(123456, db.numKeyEncRounds);
+
+		KdfParameters p = db.getKdfParameters();
+		new AesKdf().setRounds(p, 654321);
+		assertEquals(123456, db.getNumRounds());
+
+		db.setKdfParameters(p);
+		assertEquals(654321, db.getNumRounds());
+		assertEquals(654321, db.numKeyEncRounds);
+	}
+
+	/** The AES-KDF as AndroidFinalKey used to do it, one Cipher.update per round */
+	private static byte[] cipherFinalKey(byte[] seed, byte[] key, long rounds) throws Exception {
+		Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+		cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(seed, "AES"));
+
+		byte[] newKey = key.clone();
+		byte[] destKey = new byte[key.length];
+		for (long i = 0; i < rounds; i++) {
+			cipher.update(newKey, 0, newKey.length, destKey, 0);
+			System.arraycopy(destKey, 0, newKey, 0, newKey.length);
+		}
+
+		return MessageDigest.getInstance("SHA-256").digest(newKey);
+	}
 }
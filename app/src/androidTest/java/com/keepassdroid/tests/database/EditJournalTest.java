@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.database;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Date;
+
+import android.content.res.AssetManager;
+import android.test.AndroidTestCase;
+
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.database.PwGroupV4;
+import com.keepassdroid.database.journal.EditJournal;
+import com.keepassdroid.database.journal.JournalRecord;
+import com.keepassdroid.database.load.ImporterV4;
+import com.keepassdroid.tests.TestUtil;
+
+public class EditJournalTest extends AndroidTestCase {
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		file = new File(TestUtil.getAppPath(getContext(), "test.kdbx.journal"));
+		file.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+
+		super.tearDown();
+	}
+
+	public void testReplay() throws Exception {
+		PwDatabaseV4 db = open();
+		EditJournal journal = EditJournal.create(file, db);
+		PwEntry deleted = db.entries.values().iterator().next();
+
+		PwEntryV4 added = new PwEntryV4((PwGroupV4) db.rootGroup);
+		added.setTitle("Journaled", db);
+		db.addEntryTo(added, db.rootGroup);
+		journal.append(JournalRecord.putEntry(added));
+
+		db.deleteEntry(deleted);
+		journal.append(JournalRecord.deleteEntry(deleted));
+
+		PwDatabaseV4 reloaded = open();
+		EditJournal replayed = EditJournal.open(file, reloaded);
+		assertNotNull(replayed);
+		assertFalse(replayed.isEmpty());
+
+		PwEntry entry = reloaded.entries.get(added.getUUID());
+		assertNotNull("Added entry not replayed", entry);
+		assertEquals("Journaled", entry.getTitle());
+		assertSame(reloaded.rootGroup, entry.getParent());
+		assertNull("Deleted entry not replayed", reloaded.entries.get(deleted.getUUID()));
+	}
+
+	public void testTornTail() throws Exception {
+		PwDatabaseV4 db = open();
+		EditJournal journal = EditJournal.create(file, db);
+
+		PwEntryV4 added = new PwEntryV4((PwGroupV4) db.rootGroup);
+		db.addEntryTo(added, db.rootGroup);
+		journal.append(JournalRecord.putEntry(added));
+		long goodLength = file.length();
+
+		FileOutputStream fos = new FileOutputStream(file, true);
+		fos.write(new byte[] { 0, 0, 1, 0, 7, 7, 7 });
+		fos.close();
+
+		PwDatabaseV4 reloaded = open();
+		assertNotNull(EditJournal.open(file, reloaded));
+		assertNotNull(reloaded.entries.get(added.getUUID()));
+		assertEquals("Torn tail not truncated", goodLength, file.length());
+	}
+
+	public void testStaleDeletedExternally() throws Exception {
+		PwDatabaseV4 db = open();
+		EditJournal journal = EditJournal.create(file, db);
+		PwEntryV4 edited = (PwEntryV4) db.entries.values().iterator().next();
+
+		edited.setTitle("Journaled", db);
+		edited.setLastModificationTime(new Date(System.currentTimeMillis() - 60 * 1000));
+		journal.append(JournalRecord.putEntry(edited));
+
+		// Another client deleted the entry after the journaled edit and saved the file
+		PwDatabaseV4 reloaded = open();
+		reloaded.deleteEntry(reloaded.entries.get(edited.getUUID()));
+		makeStale(reloaded);
+
+		assertNotNull(EditJournal.open(file, reloaded));
+		assertNull("Externally deleted entry re-added", reloaded.entries.get(edited.getUUID()));
+	}
+
+	public void testStaleModifiedAfterDelete() throws Exception {
+		PwDatabaseV4 db = open();
+		EditJournal journal = EditJournal.create(file, db);
+		PwEntry deleted = db.entries.values().iterator().next();
+
+		db.deleteEntry(deleted);
+		journal.append(JournalRecord.deleteEntry(deleted));
+
+		// Another client changed the entry after the journaled delete and saved the file
+		PwDatabaseV4 reloaded = open();
+		PwEntryV4 modified = (PwEntryV4) reloaded.entries.get(deleted.getUUID());
+		modified.setTitle("Modified", reloaded);
+		modified.setLastModificationTime(new Date(System.currentTimeMillis() + 60 * 1000));
+		makeStale(reloaded);
+
+		assertNotNull(EditJournal.open(file, reloaded));
+		PwEntry entry = reloaded.entries.get(deleted.getUUID());
+		assertNotNull("Newer external edit deleted", entry);
+		assertEquals("Modified", entry.getTitle());
+	}
+
+	/** Make the journal look like it was started against an older version of the file */
+	private void makeStale(PwDatabaseV4 db) {
+		db.hashOfHeader = db.hashOfHeader.clone();
+		db.hashOfHeader[0] ^= 1;
+	}
+
+	private PwDatabaseV4 open() throws Exception {
+		AssetManager am = getContext().getAssets();
+		InputStream is = am.open("test.kdbx", AssetManager.ACCESS_STREAMING);
+
+		ImporterV4 importer = new ImporterV4();
+		PwDatabaseV4 db = importer.openDatabase(is, "12345", null);
+		db.populateGlobals(db.rootGroup);
+		is.close();
+
+		return db;
+	}
+
+}
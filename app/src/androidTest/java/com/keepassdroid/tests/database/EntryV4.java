@@ -19,8 +19,11 @@
  */
 package com.keepassdroid.tests.database;
 
+import java.util.Locale;
+
 import junit.framework.TestCase;
 
+import com.keepassdroid.database.NormalizedFields;
 import com.keepassdroid.database.PwDatabaseV4;
 import com.keepassdroid.database.PwEntryV4;
 
@@ -49,4 +52,35 @@ public class EntryV4 extends TestCase {
 		assertEquals("User2", backup.getUsername());
 	}
 
+	public void testNormalizedFields() {
+		PwDatabaseV4 db = new PwDatabaseV4();
+
+		PwEntryV4 entry = new PwEntryV4();
+		entry.setTitle("Title1", db);
+
+		NormalizedFields fields = entry.getNormalizedFields(Locale.ENGLISH);
+		assertSame("Cached between searches", fields, entry.getNormalizedFields(Locale.ENGLISH));
+		assertEquals("title1", fields.get(titleIndex(fields), false));
+
+		entry.setTitle("Title2", db);
+		fields = entry.getNormalizedFields(Locale.ENGLISH);
+		assertEquals("title2", fields.get(titleIndex(fields), false));
+
+		PwEntryV4 edited = (PwEntryV4) entry.clone(true);
+		edited.setTitle("Title3", db);
+		entry.assign(edited);
+		fields = entry.getNormalizedFields(Locale.ENGLISH);
+		assertEquals("title3", fields.get(titleIndex(fields), false));
+	}
+
+	private int titleIndex(NormalizedFields fields) {
+		for (int i = 0; i < fields.size(); i++) {
+			if (fields.getKind(i) == NormalizedFields.TITLE) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.database;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+
+import android.content.res.AssetManager;
+import android.test.AndroidTestCase;
+
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.cache.ModelCache;
+import com.keepassdroid.database.exception.InvalidPasswordException;
+import com.keepassdroid.database.load.ImporterV4;
+import com.keepassdroid.tests.TestUtil;
+import com.keepassdroid.utils.Util;
+
+public class ModelCacheTest extends AndroidTestCase {
+	private File source;
+	private File cacheFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		source = new File(TestUtil.getAppPath(getContext(), "cache-test.kdbx"));
+		AssetManager am = getContext().getAssets();
+		InputStream is = am.open("test.kdbx", AssetManager.ACCESS_STREAMING);
+		FileOutputStream fos = new FileOutputStream(source);
+		Util.copyStream(is, fos);
+		fos.close();
+		is.close();
+
+		cacheFile = ModelCache.getFile(getContext().getCacheDir(), source.getPath());
+		cacheFile.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		cacheFile.delete();
+		source.delete();
+
+		super.tearDown();
+	}
+
+	public void testRoundTrip() throws Exception {
+		PwDatabaseV4 parsed = open("12345", null);
+		new ModelCache(cacheFile, source).save(parsed);
+
+		ModelCache cache = new ModelCache(cacheFile, source);
+		PwDatabaseV4 cached = open("12345", cache);
+		assertTrue("Cache not used", cache.isLoaded());
+
+		assertEquals(parsed.name, cached.name);
+		assertEquals(parsed.entries.size(), cached.entries.size());
+		assertEquals(parsed.groups.size(), cached.groups.size());
+		for (PwEntry entry : parsed.entries.values()) {
+			PwEntry other = cached.entries.get(entry.getUUID());
+			assertNotNull(other);
+			assertEquals(entry.getTitle(), other.getTitle());
+			assertEquals(entry.getPassword(), other.getPassword());
+			assertEquals(entry.getParent().getId(), other.getParent().getId());
+		}
+	}
+
+	public void testChangedFileIgnored() throws Exception {
+		PwDatabaseV4 parsed = open("12345", null);
+		new ModelCache(cacheFile, source).save(parsed);
+
+		source.setLastModified(source.lastModified() - 10000);
+
+		ModelCache cache = new ModelCache(cacheFile, source);
+		open("12345", cache);
+		assertFalse("Stale cache used", cache.isLoaded());
+	}
+
+	public void testWrongPassword() throws Exception {
+		PwDatabaseV4 parsed = open("12345", null);
+		new ModelCache(cacheFile, source).save(parsed);
+
+		ModelCache cache = new ModelCache(cacheFile, source);
+		try {
+			open("wrong", cache);
+			fail("Wrong password accepted");
+		} catch (InvalidPasswordException e) {
+			// expected
+		}
+		assertFalse(cache.isLoaded());
+	}
+
+	private PwDatabaseV4 open(String password, ModelCache cache) throws Exception {
+		InputStream is = new FileInputStream(source);
+
+		ImporterV4 importer = new ImporterV4();
+		importer.setModelCache(cache);
+		PwDatabaseV4 db = importer.openDatabase(is, password, null);
+		db.populateGlobals(db.rootGroup);
+		is.close();
+
+		return db;
+	}
+
+}
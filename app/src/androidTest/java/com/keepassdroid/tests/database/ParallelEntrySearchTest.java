@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.keepassdroid.database.EntryHandler;
+import com.keepassdroid.database.ParallelEntrySearch;
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV4;
+
+public class ParallelEntrySearchTest extends TestCase {
+	private List<PwEntry> entries;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		PwDatabaseV4 db = new PwDatabaseV4();
+		entries = new ArrayList<PwEntry>();
+		for (int i = 0; i < 3 * ParallelEntrySearch.MIN_ENTRIES; i++) {
+			PwEntryV4 entry = new PwEntryV4();
+			entry.setTitle("Entry " + i, db);
+			entries.add(entry);
+		}
+	}
+
+	public void testOrderPreserved() {
+		List<PwEntry> expected = new ArrayList<PwEntry>();
+		for (PwEntry entry : entries) {
+			if (entry.getTitle().contains("7")) {
+				expected.add(entry);
+			}
+		}
+
+		List<PwEntry> results = new ArrayList<PwEntry>();
+		assertTrue(ParallelEntrySearch.search(entries, new TitleSearch("7", null), results));
+		assertEquals(expected, results);
+	}
+
+	public void testStopped() {
+		PwEntry last = entries.get(entries.size() / 2);
+
+		List<PwEntry> results = new ArrayList<PwEntry>();
+		assertFalse(ParallelEntrySearch.search(entries, new TitleSearch("", last), results));
+		assertEquals("Matches up to where the search stopped", entries.size() / 2, results.size());
+		assertSame(entries.get(results.size() - 1), results.get(results.size() - 1));
+	}
+
+	/** Matches titles containing text, and stops the search at stopAt */
+	private static class TitleSearch implements ParallelEntrySearch.HandlerFactory {
+		private final String text;
+		private final PwEntry stopAt;
+
+		TitleSearch(String text, PwEntry stopAt) {
+			this.text = text;
+			this.stopAt = stopAt;
+		}
+
+		@Override
+		public EntryHandler<PwEntry> create(final List<PwEntry> results) {
+			return new EntryHandler<PwEntry>() {
+				@Override
+				public boolean operate(PwEntry entry) {
+					if (entry == stopAt) {
+						return false;
+					}
+
+					if (entry.getTitle().contains(text)) {
+						results.add(entry);
+					}
+					return true;
+				}
+			};
+		}
+	}
+
+}
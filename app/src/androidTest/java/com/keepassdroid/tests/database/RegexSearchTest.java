@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.database.PwGroupV4;
+import com.keepassdroid.database.PwIconStandard;
+import com.keepassdroid.database.SearchParametersV4;
+import com.keepassdroid.tests.EntryBuilder;
+
+public class RegexSearchTest extends TestCase {
+	private PwDatabaseV4 db;
+	private PwGroupV4 root;
+	private PwEntryV4 mail;
+	private PwEntryV4 bank;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		db = new PwDatabaseV4();
+		root = new PwGroupV4(true, true, "Root", new PwIconStandard(PwIconStandard.FOLDER));
+		db.rootGroup = root;
+
+		mail = new EntryBuilder(db).group(root).title("Mail").url("https://mail.example.com").build();
+		bank = new EntryBuilder(db).group(root).title("Bank 2").url("https://bank.example.org").build();
+	}
+
+	private List<PwEntry> search(SearchParametersV4 sp) {
+		List<PwEntry> results = new ArrayList<PwEntry>();
+		root.searchEntries(sp, results);
+		return results;
+	}
+
+	private SearchParametersV4 regex(String str) {
+		SearchParametersV4 sp = new SearchParametersV4();
+		sp.regularExpression = true;
+		sp.searchString = str;
+		return sp;
+	}
+
+	public void testRegex() {
+		List<PwEntry> results = search(regex("\\.example\\.(com|net)$"));
+		assertEquals(1, results.size());
+		assertSame(mail, results.get(0));
+
+		results = search(regex("bank \\d"));
+		assertEquals(1, results.size());
+		assertSame(bank, results.get(0));
+	}
+
+	public void testCaseSensitive() {
+		SearchParametersV4 sp = regex("^bank");
+		sp.ignoreCase = false;
+		assertEquals(0, search(sp).size());
+
+		sp.searchString = "^Bank";
+		assertEquals(1, search(sp).size());
+	}
+
+	public void testIgnoreCaseTurkishLocale() {
+		Locale saved = Locale.getDefault();
+		Locale.setDefault(new Locale("tr"));
+		try {
+			PwEntryV4 login = new EntryBuilder(db).group(root).title("Login id").build();
+
+			List<PwEntry> results = search(regex("ID"));
+			assertEquals("The literal prefilter folds case like the expression", 1, results.size());
+			assertSame(login, results.get(0));
+		} finally {
+			Locale.setDefault(saved);
+		}
+	}
+
+	public void testIgnoreAccents() {
+		PwEntryV4 cafe = new EntryBuilder(db).group(root).title("Caf\u00e9 Cr\u00e8me").build();
+
+		SearchParametersV4 sp = regex("caf\u00e9\\s+cr[\u00e8\u00e9]me");
+		sp.ignoreAccents = true;
+		List<PwEntry> results = search(sp);
+		assertEquals("Accented expression matches folded text", 1, results.size());
+		assertSame(cafe, results.get(0));
+
+		sp = regex("cafe creme");
+		sp.ignoreAccents = true;
+		assertEquals(1, search(sp).size());
+
+		sp = regex("caf\u00e9");
+		sp.ignoreAccents = false;
+		assertEquals(1, search(sp).size());
+	}
+
+	public void testInvalid() {
+		assertEquals("Nothing matches an invalid expression", 0, search(regex("(unclosed")).size());
+	}
+
+	public void testTimeLimit() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 40; i++) {
+			sb.append('a');
+		}
+		new EntryBuilder(db).group(root).title(sb.toString()).build();
+
+		SearchParametersV4 sp = regex("(a|aa)+[bc]");
+		sp.regexTimeLimitMillis = 100;
+
+		long start = System.currentTimeMillis();
+		assertEquals(0, search(sp).size());
+		assertTrue("Search stopped at the time limit", System.currentTimeMillis() - start < 10000);
+	}
+
+	public void testCancelled() {
+		SearchParametersV4 sp = regex("example");
+		sp.cancelled = new AtomicBoolean(true);
+
+		assertEquals(0, search(sp).size());
+	}
+}
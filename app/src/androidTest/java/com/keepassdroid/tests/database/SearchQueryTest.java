@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.database.PwGroupV4;
+import com.keepassdroid.database.PwIconStandard;
+import com.keepassdroid.database.SearchParametersV4;
+import com.keepassdroid.database.SearchQuery;
+import com.keepassdroid.tests.EntryBuilder;
+
+public class SearchQueryTest extends TestCase {
+	private PwDatabaseV4 db;
+	private PwGroupV4 root;
+	private PwEntryV4 shop;
+	private PwEntryV4 prime;
+	private PwEntryV4 bank;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		db = new PwDatabaseV4();
+		root = new PwGroupV4(true, true, "Root", new PwIconStandard(PwIconStandard.FOLDER));
+		db.rootGroup = root;
+
+		shop = new EntryBuilder(db).group(root).title("Amazon Shop").build();
+		prime = new EntryBuilder(db).group(root).title("Amazon Prime Video").build();
+		bank = new EntryBuilder(db).group(root).title("Bank").build();
+	}
+
+	private List<PwEntry> search(String str) {
+		SearchParametersV4 sp = new SearchParametersV4();
+		sp.searchString = str;
+
+		List<PwEntry> results = new ArrayList<PwEntry>();
+		root.searchEntries(sp, results);
+		return results;
+	}
+
+	public void testParse() {
+		SearchQuery query = SearchQuery.parse("amazon -\"prime video\" -");
+		assertEquals(3, query.terms.size());
+
+		assertEquals("amazon", query.terms.get(0).text);
+		assertFalse(query.terms.get(0).negated);
+		assertEquals("prime video", query.terms.get(1).text);
+		assertTrue(query.terms.get(1).negated);
+		assertEquals("A lone dash is not a negation", "-", query.terms.get(2).text);
+		assertFalse(query.terms.get(2).negated);
+	}
+
+	public void testAllTerms() {
+		List<PwEntry> results = search("prime amazon");
+		assertEquals(1, results.size());
+		assertSame(prime, results.get(0));
+	}
+
+	public void testNegation() {
+		List<PwEntry> results = search("amazon -prime");
+		assertEquals(1, results.size());
+		assertSame(shop, results.get(0));
+
+		results = search("-amazon");
+		assertEquals(1, results.size());
+		assertSame(bank, results.get(0));
+	}
+
+	public void testQuoted() {
+		assertEquals(1, search("\"prime video\"").size());
+		assertEquals(0, search("\"video prime\"").size());
+	}
+
+	public void testTreeOrder() {
+		List<PwEntry> results = search("a -nothing");
+		assertEquals(3, results.size());
+		assertSame(shop, results.get(0));
+		assertSame(prime, results.get(1));
+		assertSame(bank, results.get(2));
+	}
+}
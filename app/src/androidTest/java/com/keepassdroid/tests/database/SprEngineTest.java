@@ -29,9 +29,11 @@ import biz.source_code.base64Coder.Base64Coder;
 
 import com.keepassdroid.database.PwDatabaseV4;
 import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.database.PwGroupV4;
 import com.keepassdroid.database.load.ImporterV4;
 import com.keepassdroid.utils.SprEngine;
 import com.keepassdroid.utils.Types;
+import com.keepassdroid.utils.UuidUtil;
 
 public class SprEngineTest extends AndroidTestCase {
 	private PwDatabaseV4 db;
@@ -67,6 +69,25 @@ public class SprEngineTest extends AndroidTestCase {
 		
 	}
 	
+	public void testRefInTextByFullUuid() {
+		PwGroupV4 root = (PwGroupV4) db.rootGroup;
+		UUID uuid = UUID.randomUUID();
+
+		// Same hex string up to the last byte, found first by a search for a cut off UUID
+		PwEntryV4 decoy = new PwEntryV4(root);
+		decoy.setUUID(new UUID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits() ^ (0xFFL << 56)));
+		decoy.setUsername("decoy", db);
+		db.addEntryTo(decoy, root);
+
+		PwEntryV4 target = new PwEntryV4(root);
+		target.setUUID(uuid);
+		target.setUsername("target", db);
+		db.addEntryTo(target, root);
+
+		String ref = "{REF:U@I:" + UuidUtil.toHexString(uuid) + "}";
+		assertEquals("User: target", spr.compile("User: " + ref, target, db));
+	}
+
 	private UUID decodeUUID(String encoded) {
 		if (encoded == null || encoded.length() == 0 ) {
 			return PwDatabaseV4.UUID_ZERO;
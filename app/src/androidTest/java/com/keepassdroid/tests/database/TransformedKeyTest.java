@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import android.content.res.AssetManager;
+import android.test.AndroidTestCase;
+
+import com.keepassdroid.crypto.keyDerivation.AesKdf;
+import com.keepassdroid.crypto.keyDerivation.TransformedKey;
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.load.ImporterV4;
+import com.keepassdroid.database.save.PwDbOutput;
+
+public class TransformedKeyTest extends AndroidTestCase {
+
+	public void testNotKeptByDefault() throws Exception {
+		AssetManager am = getContext().getAssets();
+		InputStream is = am.open("test.kdbx", AssetManager.ACCESS_STREAMING);
+		PwDatabaseV4 db = new ImporterV4().openDatabase(is, "12345", null);
+		is.close();
+
+		assertNull(db.transformedKey);
+	}
+
+	public void testForget() throws Exception {
+		PwDatabaseV4 db = open(null, "12345");
+		TransformedKey key = db.transformedKey;
+		byte[] transformed = key.getTransformed();
+
+		db.forgetTransformedKey();
+		assertNull(db.transformedKey);
+		assertFalse(Arrays.equals(transformed, key.getTransformed()));
+	}
+
+	public void testOpenWithKey() throws Exception {
+		PwDatabaseV4 db = open(null, "12345");
+		assertNotNull(db.transformedKey);
+
+		TransformedKey key = TransformedKey.deserialize(db.transformedKey.serialize());
+		PwDatabaseV4 reopened = open(key, null);
+
+		assertEquals(db.name, reopened.name);
+		assertEquals(db.entries.size(), reopened.entries.size());
+		assertNull(reopened.masterKey);
+	}
+
+	public void testSerializedWithoutMasterKey() throws Exception {
+		PwDatabaseV4 db = open(null, "12345");
+		byte[] data = db.transformedKey.serialize();
+
+		for (int i = 0; i + db.masterKey.length <= data.length; i++) {
+			assertFalse("Composite key stored", Arrays.equals(db.masterKey,
+					Arrays.copyOfRange(data, i, i + db.masterKey.length)));
+		}
+
+		TransformedKey key = TransformedKey.deserialize(data);
+		assertTrue(key.matches(null, db.kdfParameters));
+		assertFalse(key.matches(db.masterKey, db.kdfParameters));
+	}
+
+	public void testSaveAfterQuickUnlock() throws Exception {
+		PwDatabaseV4 db = open(null, "12345");
+		TransformedKey key = TransformedKey.deserialize(db.transformedKey.serialize());
+
+		PwDatabaseV4 reopened = open(key, null);
+		byte[] seed = reopened.kdfParameters.getByteArray(AesKdf.ParamSeed);
+		byte[] masterSeed = reopened.masterSeed.clone();
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		PwDbOutput.getInstance(reopened, bos).output();
+
+		// Same key derivation, but a new master seed and so a new final key
+		assertTrue(Arrays.equals(seed, reopened.kdfParameters.getByteArray(AesKdf.ParamSeed)));
+		assertFalse(Arrays.equals(masterSeed, reopened.masterSeed));
+
+		PwDatabaseV4 saved = open(bos.toByteArray(), key, null);
+		assertEquals(db.entries.size(), saved.entries.size());
+
+		saved = open(bos.toByteArray(), null, "12345");
+		assertEquals(db.entries.size(), saved.entries.size());
+	}
+
+	public void testMatches() throws Exception {
+		PwDatabaseV4 db = open(null, "12345");
+		TransformedKey key = db.transformedKey;
+
+		assertTrue(key.matches(db.masterKey, db.kdfParameters));
+
+		byte[] otherKey = db.masterKey.clone();
+		otherKey[0] ^= 1;
+		assertFalse(key.matches(otherKey, db.kdfParameters));
+	}
+
+	private PwDatabaseV4 open(TransformedKey key, String password) throws Exception {
+		AssetManager am = getContext().getAssets();
+		InputStream is = am.open("test.kdbx", AssetManager.ACCESS_STREAMING);
+
+		try {
+			return open(is, key, password);
+		} finally {
+			is.close();
+		}
+	}
+
+	private PwDatabaseV4 open(byte[] data, TransformedKey key, String password) throws Exception {
+		return open(new ByteArrayInputStream(data), key, password);
+	}
+
+	private PwDatabaseV4 open(InputStream is, TransformedKey key, String password) throws Exception {
+		ImporterV4 importer = new ImporterV4();
+		importer.setTransformedKey(key);
+		importer.setKeepTransformedKey(true);
+
+		return importer.openDatabase(is, password, null);
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.output;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import biz.source_code.base64Coder.Base64Coder;
+
+import com.keepassdroid.database.PwDatabaseV4XML;
+import com.keepassdroid.database.save.KdbxXmlSerializer;
+import com.keepassdroid.database.save.KdbxXmlWriter;
+import com.keepassdroid.database.save.PlatformXmlWriter;
+
+public class KdbxXmlSerializerTest extends TestCase {
+
+	public void testMatchesPlatformSerializer() throws IOException {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		writeSample(new PlatformXmlWriter(expected));
+
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		writeSample(new KdbxXmlSerializer(actual));
+
+		assertArrayEquals("Serializer output doesn't match.", expected.toByteArray(), actual.toByteArray());
+	}
+
+	public void testBase64() throws IOException {
+		for (int length = 0; length < 8; length++) {
+			byte[] data = new byte[length];
+			for (int i = 0; i < length; i++) {
+				data[i] = (byte) (i * 77 + 3);
+			}
+
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			KdbxXmlSerializer fast = new KdbxXmlSerializer(bos);
+			fast.base64(data, 0, length);
+			fast.flush();
+
+			assertEquals(String.valueOf(Base64Coder.encode(data)), bos.toString("UTF-8"));
+		}
+	}
+
+	public void testNumber() throws IOException {
+		long[] values = { 0, 7, -7, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE };
+		for (long value : values) {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			KdbxXmlSerializer fast = new KdbxXmlSerializer(bos);
+			fast.number(value);
+			fast.flush();
+
+			assertEquals(String.valueOf(value), bos.toString("UTF-8"));
+		}
+	}
+
+	private void writeSample(KdbxXmlWriter xml) throws IOException {
+		xml.startDocument();
+		xml.startTag(PwDatabaseV4XML.ElemDocNode);
+		xml.startTag(PwDatabaseV4XML.ElemMeta);
+
+		xml.startTag(PwDatabaseV4XML.ElemDbName);
+		xml.text("Name with <markup> & \"quotes\"\nand lines");
+		xml.endTag(PwDatabaseV4XML.ElemDbName);
+
+		xml.startTag(PwDatabaseV4XML.ElemNotes);
+		xml.text("Accents \u00e9\u00e8, euro \u20ac, emoji \ud83d\ude00");
+		xml.endTag(PwDatabaseV4XML.ElemNotes);
+
+		xml.startTag(PwDatabaseV4XML.ElemTags);
+		xml.endTag(PwDatabaseV4XML.ElemTags);
+
+		xml.startTag(PwDatabaseV4XML.ElemValue);
+		xml.attribute(PwDatabaseV4XML.AttrProtected, PwDatabaseV4XML.ValTrue);
+		xml.attribute("Custom", "a\"b&c<d>");
+		xml.text("");
+		xml.endTag(PwDatabaseV4XML.ElemValue);
+
+		xml.startTag(PwDatabaseV4XML.ElemUsageCount);
+		xml.number(-42);
+		xml.endTag(PwDatabaseV4XML.ElemUsageCount);
+
+		xml.startTag(PwDatabaseV4XML.ElemUuid);
+		xml.base64(new byte[] { 1, 2, 3, 4, 5, (byte) 0xFF, 7 }, 1, 5);
+		xml.endTag(PwDatabaseV4XML.ElemUuid);
+
+		xml.startTag("NotAKnownElement");
+		xml.text("x");
+		xml.endTag("NotAKnownElement");
+
+		xml.endTag(PwDatabaseV4XML.ElemMeta);
+		xml.endTag(PwDatabaseV4XML.ElemDocNode);
+		xml.endDocument();
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.database.PwGroup;
+import com.keepassdroid.database.PwGroupV4;
+import com.keepassdroid.search.ExpiryIndex;
+import com.keepassdroid.tests.EntryBuilder;
+
+public class ExpiryIndexTest extends TestCase {
+	private static final long DAY = 24L * 60 * 60 * 1000;
+
+	private long now;
+	private PwEntryV4 expired;
+	private PwEntryV4 soon;
+	private PwEntryV4 never;
+	private PwEntryV4 later;
+	private PwGroupV4 group;
+	private ExpiryIndex index;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		now = System.currentTimeMillis();
+		expired = new EntryBuilder().expires(now - DAY).build();
+		soon = new EntryBuilder().expires(now + 2 * DAY).build();
+		never = new EntryBuilder().build();
+		later = new EntryBuilder().expires(now + 10 * DAY).build();
+
+		group = new PwGroupV4();
+		group.setExpires(true);
+		group.setExpiryTime(new Date(now + DAY));
+
+		List<PwEntry> entries = new ArrayList<PwEntry>();
+		entries.add(later);
+		entries.add(never);
+		entries.add(soon);
+		entries.add(expired);
+
+		List<PwGroup> groups = new ArrayList<PwGroup>();
+		groups.add(group);
+		groups.add(new PwGroupV4());
+
+		index = new ExpiryIndex();
+		index.build(entries, groups);
+	}
+
+	private void setExpiry(PwEntryV4 entry, long expiry) {
+		entry.setExpires(expiry >= 0);
+		if (expiry >= 0) {
+			entry.setExpiryTime(new Date(expiry));
+		}
+	}
+
+	public void testLookups() {
+		assertEquals(Arrays.asList(expired), index.getEntries(now));
+		assertEquals(Arrays.asList(expired, soon), index.getEntries(now + 3 * DAY));
+		assertEquals(Arrays.asList(expired, soon, later), index.getEntries(Long.MAX_VALUE));
+
+		assertTrue(index.getGroups(now).isEmpty());
+		assertEquals(Arrays.<PwGroup>asList(group), index.getGroups(now + 3 * DAY));
+
+		Set<PwEntry> excluded = index.getExpiredEntries(now);
+		assertEquals(1, excluded.size());
+		assertTrue(excluded.contains(expired));
+
+		assertEquals(now + DAY, index.getNextExpiry(now));
+		assertEquals(now + 2 * DAY, index.getNextExpiry(now + DAY + 1));
+		assertEquals(-1, index.getNextExpiry(now + 11 * DAY));
+	}
+
+	public void testExpiredAfterItsTime() {
+		long time = soon.getExpiryTime().getTime();
+		assertFalse("Not expired at its expiry time", index.getEntries(time).contains(soon));
+		assertTrue(index.getEntries(time + 1).contains(soon));
+		assertEquals(time, index.getNextExpiry(time));
+	}
+
+	public void testEdits() {
+		setExpiry(soon, now - 2 * DAY);
+		index.put(soon);
+		assertEquals(Arrays.asList(soon, expired), index.getEntries(now));
+
+		setExpiry(never, now - DAY);
+		index.put(never);
+		assertEquals("Same time goes after the ones indexed before",
+				Arrays.asList(soon, expired, never), index.getEntries(now));
+
+		setExpiry(expired, -1);
+		index.put(expired);
+		index.remove(soon);
+		assertEquals(Arrays.asList(never), index.getEntries(now));
+
+		index.remove(group);
+		assertEquals(later.getExpiryTime().getTime(), index.getNextExpiry(now));
+		assertTrue(index.getGroups(Long.MAX_VALUE).isEmpty());
+	}
+}
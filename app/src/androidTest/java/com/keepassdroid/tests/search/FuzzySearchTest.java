@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.search;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.search.FuzzySearch;
+import com.keepassdroid.tests.EntryBuilder;
+
+public class FuzzySearchTest extends TestCase {
+	private static final Date LONG_AGO = new Date(0);
+
+	private PwDatabaseV4 db;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		db = new PwDatabaseV4();
+	}
+
+	private List<PwEntry> search(String query, List<PwEntry> entries, int limit) {
+		List<PwEntry> results = new ArrayList<PwEntry>();
+		FuzzySearch fuzzy = new FuzzySearch(query, Locale.ENGLISH, false);
+		assertTrue(fuzzy.search(entries, limit, results, null));
+		return results;
+	}
+
+	public void testDistance() {
+		FuzzySearch fuzzy = new FuzzySearch("github", Locale.ENGLISH, false);
+		assertEquals(0, fuzzy.distance("https://github.com"));
+		assertEquals(1, fuzzy.distance("https://gitbub.com"));
+		assertEquals("Swapped letters at the end", 1, fuzzy.distance("githbu"));
+		assertEquals("Capped past the errors allowed", 3, fuzzy.distance("nothing alike"));
+	}
+
+	public void testTypo() {
+		PwEntryV4 github = new EntryBuilder(db).title("GitHub").url("https://github.com").lastAccess(LONG_AGO).build();
+		PwEntryV4 bank = new EntryBuilder(db).title("Bank").url("https://bank.example.com").lastAccess(LONG_AGO).build();
+
+		List<PwEntry> entries = new ArrayList<PwEntry>();
+		entries.add(bank);
+		entries.add(github);
+
+		List<PwEntry> results = search("githbu", entries, 10);
+		assertEquals(1, results.size());
+		assertSame(github, results.get(0));
+	}
+
+	public void testFieldWeights() {
+		PwEntryV4 inNotes = new EntryBuilder(db).title("Other").notes("see github").lastAccess(LONG_AGO).build();
+		PwEntryV4 inUrl = new EntryBuilder(db).title("Code").url("https://github.com").lastAccess(LONG_AGO).build();
+		PwEntryV4 inTitle = new EntryBuilder(db).title("GitHub").lastAccess(LONG_AGO).build();
+
+		List<PwEntry> entries = new ArrayList<PwEntry>();
+		entries.add(inNotes);
+		entries.add(inUrl);
+		entries.add(inTitle);
+
+		List<PwEntry> results = search("github", entries, 10);
+		assertEquals(3, results.size());
+		assertSame(inTitle, results.get(0));
+		assertSame(inUrl, results.get(1));
+		assertSame(inNotes, results.get(2));
+	}
+
+	public void testUsageBoost() {
+		PwEntryV4 rare = new EntryBuilder(db).title("Mail").lastAccess(LONG_AGO).build();
+		PwEntryV4 used = new EntryBuilder(db).title("Mail").lastAccess(LONG_AGO).build();
+		used.setUsageCount(50);
+		used.setLastAccessTime(new Date());
+
+		List<PwEntry> entries = new ArrayList<PwEntry>();
+		entries.add(rare);
+		entries.add(used);
+
+		List<PwEntry> results = search("mail", entries, 10);
+		assertSame(used, results.get(0));
+		assertSame("Ties keep tree order", rare, results.get(1));
+	}
+
+	public void testLimit() {
+		List<PwEntry> entries = new ArrayList<PwEntry>();
+		for (int i = 0; i < 500; i++) {
+			entries.add(new EntryBuilder(db).title("Entry " + i).lastAccess(LONG_AGO).build());
+		}
+
+		List<PwEntry> results = search("entry", entries, 20);
+		assertEquals(20, results.size());
+		assertSame("Equal scores keep tree order", entries.get(0), results.get(0));
+	}
+}
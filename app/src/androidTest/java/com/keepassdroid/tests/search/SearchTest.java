@@ -61,6 +61,33 @@ public class SearchTest extends AndroidTestCase {
 		assertFalse("Search result found, but should not have been.", results.childEntries.size() > 0);
 	}
 	
+	public void testRefinedSearch() {
+		mDb.Search("Am");
+		PwGroup refined = mDb.Search("Amazon");
+		PwGroup full = mDb.searchHelper.search(mDb, "Amazon");
+		
+		assertTrue("Search result not found.", refined.childEntries.size() > 0);
+		assertEquals(full.childEntries, refined.childEntries);
+	}
+	
+	public void testShortenedSearch() {
+		mDb.Search("Amazon");
+		PwGroup widened = mDb.Search("Am");
+		PwGroup full = mDb.searchHelper.search(mDb, "Am");
+		
+		assertEquals("Deleting characters searches everything again", full.childEntries, widened.childEntries);
+	}
+	
+	public void testSettingChangeNotRefined() {
+		updateOmitSetting(true);
+		mDb.Search("Backup");
+		
+		updateOmitSetting(false);
+		PwGroup results = mDb.Search("BackupOnly");
+		
+		assertTrue("Search result not found.", results.childEntries.size() > 0);
+	}
+	
 	private void updateOmitSetting(boolean setting) {
 		Context ctx = getContext();
 		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.search.TagIndex;
+import com.keepassdroid.tests.EntryBuilder;
+
+public class TagIndexTest extends TestCase {
+	private PwEntryV4 work;
+	private PwEntryV4 home;
+	private PwEntryV4 both;
+	private PwEntryV4 none;
+	private List<PwEntry> entries;
+	private TagIndex index;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		work = new EntryBuilder().tags("Work; Mail").build();
+		home = new EntryBuilder().tags("home,family").build();
+		both = new EntryBuilder().tags("work:Home").build();
+		none = new EntryBuilder().tags("").build();
+
+		entries = new ArrayList<PwEntry>();
+		entries.add(work);
+		entries.add(home);
+		entries.add(both);
+		entries.add(none);
+
+		index = new TagIndex();
+		index.build(entries);
+	}
+
+	private List<PwEntry> filter(String str) {
+		return index.filter(TagIndex.Filter.parse(str));
+	}
+
+	public void testParse() {
+		assertEquals(Arrays.asList("a", "b c", "d"), TagIndex.parseTags(" a ;b c,, d:A"));
+		assertTrue(TagIndex.parseTags(null).isEmpty());
+
+		assertNull("Not only tags", TagIndex.Filter.parse("tag:work mail"));
+		assertNull(TagIndex.Filter.parse("tag:"));
+	}
+
+	public void testFormat() {
+		List<String> tags = Arrays.asList("work", "home");
+		assertEquals("work;home", TagIndex.formatTags(tags, null));
+		assertEquals("Keeps the separator in use", "work,home", TagIndex.formatTags(tags, "a,b"));
+		assertEquals(tags, TagIndex.parseTags(TagIndex.formatTags(tags, "")));
+	}
+
+	public void testFilter() {
+		assertEquals(Arrays.asList(work, both), filter("tag:WORK"));
+		assertEquals(Arrays.asList(both), filter("tag:work tag:home"));
+		assertEquals(Arrays.asList(work, home, both), filter("tag:mail|home"));
+		assertEquals(Arrays.asList(home, none), filter("-tag:work"));
+		assertEquals(Arrays.asList(work), filter("tag:work -tag:home"));
+		assertTrue(filter("tag:unknown").isEmpty());
+	}
+
+	public void testFacets() {
+		Map<String, Integer> facets = index.getFacets();
+		Iterator<Map.Entry<String, Integer>> it = facets.entrySet().iterator();
+
+		Map.Entry<String, Integer> first = it.next();
+		assertEquals("home", first.getKey());
+		assertEquals(2, (int) first.getValue());
+		assertEquals("Work", it.next().getKey());
+		assertEquals(4, facets.size());
+
+		facets = index.getFacets(Arrays.<PwEntry>asList(work));
+		assertEquals(2, facets.size());
+		assertEquals(1, (int) facets.get("Mail"));
+	}
+
+	public void testEdits() {
+		none.tags = "work";
+		index.put(none);
+		assertEquals(Arrays.asList(work, both, none), filter("tag:work"));
+
+		index.remove(work);
+		assertEquals(Arrays.asList(both, none), filter("tag:work"));
+		assertFalse(index.getFacets().containsKey("Mail"));
+
+		// Reuses the ordinal freed by the removed entry
+		PwEntryV4 added = new EntryBuilder().tags("new").build();
+		index.put(added);
+		assertEquals(Arrays.asList(added), filter("tag:new"));
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.search.TrigramIndex;
+import com.keepassdroid.tests.EntryBuilder;
+
+public class TrigramIndexTest extends TestCase {
+	private PwDatabaseV4 db;
+	private PwEntryV4 amazon;
+	private PwEntryV4 bank;
+	private PwEntryV4 hidden;
+	private List<PwEntry> entries;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		db = new PwDatabaseV4();
+		amazon = new EntryBuilder(db).title("Amazon").url("https://www.amazon.com").build();
+		bank = new EntryBuilder(db).title("Bank").url("https://bank.example.com").build();
+
+		hidden = new EntryBuilder(db).title("Other").build();
+		hidden.setString("PIN", "SecretCode", true);
+
+		entries = new ArrayList<PwEntry>();
+		entries.add(amazon);
+		entries.add(bank);
+		entries.add(hidden);
+	}
+
+	public void testCandidates() {
+		TrigramIndex index = new TrigramIndex(Locale.ENGLISH, false, false);
+		assertNull("Not ready before building", index.candidates("amazon", Locale.ENGLISH, false));
+
+		index.build(entries);
+		Set<PwEntry> result = index.candidates("amazon", Locale.ENGLISH, false);
+		assertTrue(result.contains(amazon));
+		assertFalse(result.contains(bank));
+
+		result = index.candidates("example", Locale.ENGLISH, false);
+		assertTrue(result.contains(bank));
+		assertFalse(result.contains(amazon));
+
+		assertNull("Too short to narrow down", index.candidates("am", Locale.ENGLISH, false));
+		assertNull("Indexed with another locale", index.candidates("amazon", Locale.GERMAN, false));
+		assertNull("Indexed with accents", index.candidates("amazon", Locale.ENGLISH, true));
+	}
+
+	public void testProtectedFields() {
+		TrigramIndex index = new TrigramIndex(Locale.ENGLISH, false, false);
+		index.build(entries);
+
+		Set<PwEntry> result = index.candidates("nothing", Locale.ENGLISH, false);
+		assertEquals("Entry with an unindexed protected field is always a candidate", 1, result.size());
+		assertTrue(result.contains(hidden));
+
+		index = new TrigramIndex(Locale.ENGLISH, false, true);
+		index.build(entries);
+
+		assertTrue(index.candidates("nothing", Locale.ENGLISH, false).isEmpty());
+		assertTrue(index.candidates("secret", Locale.ENGLISH, false).contains(hidden));
+	}
+
+	public void testIncrementalUpdates() {
+		TrigramIndex index = new TrigramIndex(Locale.ENGLISH, false, false);
+		index.build(entries);
+
+		PwEntryV4 added = new EntryBuilder(db).title("Github").url("https://github.com").build();
+		index.put(added);
+		assertTrue(index.candidates("github", Locale.ENGLISH, false).contains(added));
+
+		added.setTitle("Gitlab", db);
+		added.setUrl("https://gitlab.com", db);
+		index.put(added);
+		assertFalse(index.candidates("github", Locale.ENGLISH, false).contains(added));
+		assertTrue(index.candidates("gitlab", Locale.ENGLISH, false).contains(added));
+
+		index.remove(amazon);
+		assertFalse(index.candidates("amazon", Locale.ENGLISH, false).contains(amazon));
+	}
+
+	public void testRemoveWhileBuilding() {
+		TrigramIndex index = new TrigramIndex(Locale.ENGLISH, false, false);
+		index.remove(amazon);
+		index.build(entries);
+
+		assertFalse(index.candidates("amazon", Locale.ENGLISH, false).contains(amazon));
+		assertTrue(index.candidates("bank", Locale.ENGLISH, false).contains(bank));
+	}
+
+}
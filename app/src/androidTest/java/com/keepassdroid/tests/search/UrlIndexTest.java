@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.search;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.database.PwGroupV4;
+import com.keepassdroid.database.PwIconStandard;
+import com.keepassdroid.search.UrlIndex;
+import com.keepassdroid.utils.UuidUtil;
+import com.keepassdroid.tests.EntryBuilder;
+
+public class UrlIndexTest extends TestCase {
+	private PwDatabaseV4 db;
+	private PwGroupV4 root;
+	private PwEntryV4 login;
+	private PwEntryV4 shop;
+	private PwEntryV4 other;
+	private UrlIndex index;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		db = new PwDatabaseV4();
+		root = new PwGroupV4(true, true, "Root", new PwIconStandard(PwIconStandard.FOLDER));
+		db.rootGroup = root;
+
+		login = new EntryBuilder(db).group(root).title("Login").url("https://login.example.co.uk/signin").build();
+		shop = new EntryBuilder(db).group(root).title("Shop").url("shop.example.co.uk").build();
+		other = new EntryBuilder(db).group(root).title("Other").url("https://other.org").build();
+
+		index = new UrlIndex(db);
+		index.build(root.getEntriesRecursive());
+	}
+
+	public void testHost() {
+		assertEquals("login.example.co.uk", UrlIndex.getHost("https://user@Login.Example.co.uk:8443/path"));
+		assertEquals("example.com", UrlIndex.getHost("example.com/login"));
+		assertNull(UrlIndex.getHost("not a url"));
+
+		assertEquals("example.co.uk", UrlIndex.getDomain("login.example.co.uk"));
+		assertEquals("github.com", UrlIndex.getDomain("www.github.com"));
+		assertEquals("192.168.0.1", UrlIndex.getDomain("192.168.0.1"));
+	}
+
+	public void testLookup() {
+		List<PwEntry> results = index.lookup("https://login.example.co.uk/other/page");
+		assertEquals(2, results.size());
+		assertSame("Same host first", login, results.get(0));
+		assertSame(shop, results.get(1));
+
+		results = index.lookupHost("shop.example.co.uk");
+		assertEquals(1, results.size());
+		assertSame(shop, results.get(0));
+
+		assertTrue(index.lookup("https://example.net").isEmpty());
+	}
+
+	public void testOverrideUrl() {
+		other.overrideURL = "https://override.example.net";
+		index.put(other);
+
+		assertSame(other, index.lookup("https://override.example.net").get(0));
+		assertSame(other, index.lookup("https://other.org").get(0));
+	}
+
+	public void testEdits() {
+		shop.setUrl("https://shop.example.com", db);
+		index.put(shop);
+		assertEquals(1, index.lookup("https://login.example.co.uk").size());
+		assertSame(shop, index.lookup("https://www.example.com").get(0));
+
+		index.remove(login);
+		assertTrue(index.lookup("https://login.example.co.uk").isEmpty());
+	}
+
+	public void testReference() {
+		PwEntryV4 ref = new EntryBuilder(db).group(root).title("Reference").url("{REF:A@I:" + UuidUtil.toHexString(other.getUUID()) + "}").build();
+		index.put(ref);
+
+		List<PwEntry> results = index.lookup("https://other.org");
+		assertEquals(2, results.size());
+		assertTrue(results.contains(ref));
+
+		// Follows the entry it refers to
+		other.setUrl("https://moved.org", db);
+		index.put(other);
+
+		results = index.lookup("https://moved.org");
+		assertEquals(2, results.size());
+		assertTrue(results.contains(ref));
+		assertTrue(index.lookup("https://other.org").isEmpty());
+	}
+}
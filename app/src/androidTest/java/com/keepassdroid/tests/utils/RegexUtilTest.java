@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.utils;
+
+import junit.framework.TestCase;
+
+import com.keepassdroid.utils.RegexUtil;
+
+public class RegexUtilTest extends TestCase {
+
+	public void testRequiredLiteral() {
+		assertEquals("abc", RegexUtil.requiredLiteral("abc"));
+		assertEquals("foo", RegexUtil.requiredLiteral("foo.*bar"));
+		assertEquals(" bank", RegexUtil.requiredLiteral("^[0-9]+ bank\\b"));
+		assertEquals("Optional character dropped", "a", RegexUtil.requiredLiteral("ab?c"));
+		assertEquals("Escaped characters are literal", "cd.e", RegexUtil.requiredLiteral("[ab]cd\\.e"));
+		assertEquals("Groups are skipped", "yz", RegexUtil.requiredLiteral("x(?:a|b)yz"));
+	}
+
+	public void testNoLiteral() {
+		assertNull(RegexUtil.requiredLiteral("abc|def"));
+		assertNull(RegexUtil.requiredLiteral("(?i)abc"));
+		assertNull(RegexUtil.requiredLiteral("\\x41bc"));
+		assertNull(RegexUtil.requiredLiteral("[abc]+\\d*"));
+	}
+
+	public void testCompileCached() {
+		assertSame(RegexUtil.compile("a+b", true), RegexUtil.compile("a+b", true));
+		assertNotSame(RegexUtil.compile("a+b", true), RegexUtil.compile("a+b", false));
+	}
+}
@@ -19,6 +19,7 @@
  */
 package com.keepassdroid.tests.utils;
 
+import java.util.List;
 import java.util.Locale;
 
 import com.keepassdroid.utils.StrUtil;
@@ -41,6 +42,13 @@ public class StrUtilTest extends TestCase {
 	public void testIndexOfIgnoreCase3() {
 		assertEquals(-1, StrUtil.indexOfIgnoreCase(text, badSearch, Locale.ENGLISH));
 	}
+
+	public void testIndexOfIgnoreCaseLocale() {
+		// Upper case I lower cases to the dotless i in Turkish
+		assertEquals(0, StrUtil.indexOfIgnoreCase("TITLE", "title", Locale.ENGLISH));
+		assertEquals(-1, StrUtil.indexOfIgnoreCase("TITLE", "title", new Locale("tr")));
+		assertEquals(0, StrUtil.indexOfIgnoreCase("TITLE", "t\u0131tle", new Locale("tr")));
+	}
 	
 	private final String repText = "AbCtestingaBc";
 	private final String repSearch = "ABc";
@@ -54,4 +62,25 @@ public class StrUtilTest extends TestCase {
 	public void testReplaceAllIgnoresCase2() {
 		assertEquals(repText, StrUtil.replaceAllIgnoresCase(repText, repSearchBad, repNew, Locale.ENGLISH));
 	}
+
+	public void testSplitSearchTerms() {
+		List<String> terms = StrUtil.splitSearchTerms(" foo\t\"bar baz\"  -qux ");
+		assertEquals(3, terms.size());
+		assertEquals("foo", terms.get(0));
+		assertEquals("bar baz", terms.get(1));
+		assertEquals("-qux", terms.get(2));
+	}
+
+	public void testFoldAccents() {
+		assertEquals("creme brulee", StrUtil.foldAccents("cr\u00e8me br\u00fbl\u00e9e"));
+
+		String ascii = "plain";
+		assertSame(ascii, StrUtil.foldAccents(ascii));
+	}
+
+	public void testNormalizeForSearch() {
+		assertEquals("caf\u00e9", StrUtil.normalizeForSearch("CAF\u00c9", Locale.ENGLISH, false));
+		assertEquals("cafe", StrUtil.normalizeForSearch("CAF\u00c9", Locale.ENGLISH, true));
+		assertEquals("", StrUtil.normalizeForSearch(null, Locale.ENGLISH, false));
+	}
 }
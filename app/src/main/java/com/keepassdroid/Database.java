@@ -29,7 +29,14 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.SyncFailedException;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import android.content.ContentResolver;
 import android.content.Context;
@@ -39,18 +46,32 @@ import android.preference.PreferenceManager;
 import android.util.Log;
 
 import com.android.keepass.R;
+import com.keepassdroid.crypto.keyDerivation.TransformedKey;
 import com.keepassdroid.database.PwDatabase;
 import com.keepassdroid.database.PwDatabaseV3;
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwEntry;
 import com.keepassdroid.database.PwGroup;
+import com.keepassdroid.database.cache.ModelCache;
 import com.keepassdroid.database.exception.ContentFileNotFoundException;
 import com.keepassdroid.database.exception.InvalidDBException;
 import com.keepassdroid.database.exception.InvalidPasswordException;
 import com.keepassdroid.database.exception.PwDbOutputException;
+import com.keepassdroid.database.journal.EditJournal;
+import com.keepassdroid.database.journal.JournalRecord;
 import com.keepassdroid.database.load.Importer;
 import com.keepassdroid.database.load.ImporterFactory;
+import com.keepassdroid.database.load.ImporterV4;
 import com.keepassdroid.database.save.PwDbOutput;
+import com.keepassdroid.fingerprint.QuickUnlockStore;
 import com.keepassdroid.icons.DrawableFactory;
+import com.keepassdroid.search.ExpiryIndex;
 import com.keepassdroid.search.SearchDbHelper;
+import com.keepassdroid.search.SearchSession;
+import com.keepassdroid.search.TagIndex;
+import com.keepassdroid.search.TrigramIndex;
+import com.keepassdroid.search.UrlIndex;
+import com.keepassdroid.timers.ExpiryAlarm;
 import com.keepassdroid.utils.UriUtil;
 
 /**
@@ -61,13 +82,32 @@ public class Database {
     public PwDatabase pm;
     public Uri mUri;
     public SearchDbHelper searchHelper;
+    public volatile TrigramIndex searchIndex;
+    public SearchSession searchSession;
+    public volatile UrlIndex urlIndex;
+    public volatile TagIndex tagIndex;
+    public volatile ExpiryIndex expiryIndex;
     public boolean readOnly = false;
     public boolean passwordEncodingError = false;
+    public EditJournal journal;
+
+    // Held while the model is changed and saved, so the journal compaction writes a whole edit
+    public final Object editLock = new Object();
+
+    // How long edits have to stop before the journal is folded into the database file
+    private static final long COMPACT_DELAY = 30 * 1000;
 
     public DrawableFactory drawFactory = new DrawableFactory();
 
     private boolean loaded = false;
 
+    // Used to schedule the expiry alarm as entries are edited
+    private Context appContext;
+    private long scheduledExpiry = -1;
+
+    private ScheduledExecutorService compactExecutor;
+    private ScheduledFuture<?> pendingCompaction;
+
     public boolean Loaded() {
         return loaded;
     }
@@ -88,7 +128,19 @@ public class Database {
         LoadData(ctx, uri, password, keyfile, status, !Importer.DEBUG);
     }
 
+    /**
+     * Load with a key remembered by quick unlock, which skips the key derivation
+     * while the database keeps the same key derivation parameters.
+     */
+    public void LoadData(Context ctx, Uri uri, TransformedKey key, UpdateStatus status) throws IOException, FileNotFoundException, InvalidDBException {
+        LoadData(ctx, uri, null, null, key, status, !Importer.DEBUG);
+    }
+
     public void LoadData(Context ctx, Uri uri, String password, Uri keyfile, UpdateStatus status, boolean debug) throws IOException, FileNotFoundException, InvalidDBException {
+        LoadData(ctx, uri, password, keyfile, null, status, debug);
+    }
+
+    private void LoadData(Context ctx, Uri uri, String password, Uri keyfile, TransformedKey key, UpdateStatus status, boolean debug) throws IOException, FileNotFoundException, InvalidDBException {
         mUri = uri;
         readOnly = false;
         if (uri.getScheme().equals("file")) {
@@ -96,17 +148,133 @@ public class Database {
             readOnly = !file.canWrite();
         }
 
+        ModelCache cache = getModelCache(ctx);
         try {
-            passUrisAsInputStreams(ctx, uri, password, keyfile, status, debug, 0);
+            passUrisAsInputStreams(ctx, uri, password, keyfile, status, debug, 0, cache, key);
         } catch (InvalidPasswordException e) {
+            if (key != null) {
+                throw e;
+            }
+
             // Retry with rounds fix
             try {
-                passUrisAsInputStreams(ctx, uri, password, keyfile, status, debug, getFixRounds(ctx));
+                passUrisAsInputStreams(ctx, uri, password, keyfile, status, debug, getFixRounds(ctx), cache, null);
             } catch (Exception e2) {
                 // Rethrow original exception
                 throw e;
             }
         }
+
+        if (cache != null && !cache.isLoaded()) {
+            saveModelCache(cache);
+        }
+
+        openJournal(ctx);
+    }
+
+    /**
+     * Get the cache of the parsed model for the current file, or null if caching is off
+     * or not possible for this location.
+     */
+    private ModelCache getModelCache(Context ctx) {
+        if (mUri == null || !mUri.getScheme().equals("file")) {
+            return null;
+        }
+
+        File cacheFile;
+        try {
+            cacheFile = ModelCache.getFile(ctx.getCacheDir(), mUri.getPath());
+        } catch (IOException e) {
+            return null;
+        }
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
+        if (!prefs.getBoolean(ctx.getString(R.string.model_cache_key), ctx.getResources().getBoolean(R.bool.model_cache_default))) {
+            cacheFile.delete();
+            return null;
+        }
+
+        return new ModelCache(cacheFile, new File(mUri.getPath()));
+    }
+
+    private void saveModelCache(ModelCache cache) {
+        if (!(pm instanceof PwDatabaseV4)) {
+            return;
+        }
+
+        try {
+            cache.save((PwDatabaseV4) pm);
+        } catch (IOException e) {
+            Log.e("KPD", "Database::saveModelCache", e);
+            cache.delete();
+        }
+    }
+
+    private boolean journalEnabled(Context ctx) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
+        return prefs.getBoolean(ctx.getString(R.string.journal_key), ctx.getResources().getBoolean(R.bool.journal_default));
+    }
+
+    private boolean canJournal() {
+        return pm instanceof PwDatabaseV4 && mUri != null && mUri.getScheme().equals("file") && !readOnly;
+    }
+
+    /**
+     * Replay edits saved to the journal since the database file was last written,
+     * and fold them back into the file if the journal is due for compaction.
+     */
+    private void openJournal(Context ctx) {
+        journal = null;
+        if (!canJournal()) {
+            return;
+        }
+
+        File file = EditJournal.getFile(mUri.getPath());
+        try {
+            journal = EditJournal.open(file, (PwDatabaseV4) pm);
+        } catch (Exception e) {
+            Log.e("KPD", "Database::openJournal", e);
+
+            // Keep the unreadable journal around rather than overwriting it on the next save
+            file.renameTo(new File(file.getPath() + ".bad"));
+            return;
+        }
+
+        if (journal != null) {
+            // The index was started before the journaled edits were replayed
+            startSearchIndex(ctx);
+            if (searchSession != null) {
+                searchSession.invalidate();
+            }
+        }
+
+        if (journal != null && (journal.needsCompaction() || !journalEnabled(ctx))) {
+            try {
+                SaveData(ctx);
+            } catch (Exception e) {
+                Log.e("KPD", "Database::openJournal", e);
+            }
+        }
+    }
+
+    private void resetJournal(Context ctx) {
+        journal = null;
+        if (mUri == null || !mUri.getScheme().equals("file")) {
+            return;
+        }
+
+        File file = EditJournal.getFile(mUri.getPath());
+        if (!canJournal() || !journalEnabled(ctx)) {
+            file.delete();
+            return;
+        }
+
+        try {
+            journal = EditJournal.create(file, (PwDatabaseV4) pm);
+        } catch (IOException e) {
+            Log.e("KPD", "Database::resetJournal", e);
+            file.delete();
+        }
     }
 
     private long getFixRounds(Context ctx) {
@@ -115,7 +283,7 @@ public class Database {
     }
 
 
-    private void passUrisAsInputStreams(Context ctx, Uri uri, String password, Uri keyfile, UpdateStatus status, boolean debug, long roundsFix) throws IOException, FileNotFoundException, InvalidDBException {
+    private void passUrisAsInputStreams(Context ctx, Uri uri, String password, Uri keyfile, UpdateStatus status, boolean debug, long roundsFix, ModelCache cache, TransformedKey key) throws IOException, FileNotFoundException, InvalidDBException {
         InputStream is, kfIs;
         try {
             is = UriUtil.getUriInputStream(ctx, uri);
@@ -130,7 +298,7 @@ public class Database {
             Log.e("KPD", "Database::LoadData", e);
             throw ContentFileNotFoundException.getInstance(keyfile);
         }
-        LoadData(ctx, is, password, kfIs, status, debug, roundsFix);
+        LoadData(ctx, is, password, kfIs, status, debug, roundsFix, cache, key);
     }
 
     public void LoadData(Context ctx, InputStream is, String password, InputStream kfIs, boolean debug) throws IOException, InvalidDBException {
@@ -142,6 +310,10 @@ public class Database {
     }
 
     public void LoadData(Context ctx, InputStream is, String password, InputStream kfIs, UpdateStatus status, boolean debug, long roundsFix) throws IOException, InvalidDBException {
+        LoadData(ctx, is, password, kfIs, status, debug, roundsFix, null, null);
+    }
+
+    private void LoadData(Context ctx, InputStream is, String password, InputStream kfIs, UpdateStatus status, boolean debug, long roundsFix, ModelCache cache, TransformedKey key) throws IOException, InvalidDBException {
         BufferedInputStream bis = new BufferedInputStream(is);
 
         if ( ! bis.markSupported() ) {
@@ -155,6 +327,14 @@ public class Database {
 
         bis.reset();  // Return to the start
 
+        if (imp instanceof ImporterV4) {
+            ((ImporterV4) imp).setModelCache(cache);
+            ((ImporterV4) imp).setTransformedKey(key);
+            ((ImporterV4) imp).setKeepTransformedKey(new QuickUnlockStore(ctx).isEnabled());
+        } else if (key != null) {
+            throw new InvalidPasswordException();
+        }
+
         pm = imp.openDatabase(bis, password, kfIs, status, roundsFix);
         if ( pm != null ) {
             PwGroup root = pm.rootGroup;
@@ -165,22 +345,252 @@ public class Database {
     }
 
     public void LoadData(Context ctx, PwDatabase pm, String password, InputStream keyInputStream, UpdateStatus status) {
-        if ( pm != null ) {
+        if ( pm != null && password != null ) {
             passwordEncodingError = !pm.validatePasswordEncoding(password);
         }
         searchHelper = new SearchDbHelper(ctx);
+        searchSession = new SearchSession(this);
+        startSearchIndex(ctx);
         loaded = true;
     }
 
+    private boolean indexProtectedFields(Context ctx) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
+        return prefs.getBoolean(ctx.getString(R.string.search_index_protected_key), ctx.getResources().getBoolean(R.bool.search_index_protected_default));
+    }
+
+    private boolean ignoreAccents(Context ctx) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
+        return prefs.getBoolean(ctx.getString(R.string.search_ignore_accents_key), ctx.getResources().getBoolean(R.bool.search_ignore_accents_default));
+    }
+
+    /**
+     * Build the search index in the background. Searches scan all entries until it is ready.
+     * The URL, tag and expiry indexes are quick to build and are built right away.
+     */
+    private void startSearchIndex(Context ctx) {
+        if (searchIndex != null) {
+            searchIndex.close();
+        }
+        searchIndex = null;
+        urlIndex = null;
+        tagIndex = null;
+        expiryIndex = null;
+        appContext = ctx.getApplicationContext();
+
+        if (pm == null || pm.rootGroup == null) {
+            return;
+        }
+
+        final List<PwEntry> entries = pm.rootGroup.getEntriesRecursive();
+
+        UrlIndex urls = new UrlIndex(pm);
+        urls.build(entries);
+        urlIndex = urls;
+
+        TagIndex tags = new TagIndex();
+        tags.build(entries);
+        tagIndex = tags;
+
+        ExpiryIndex expiry = new ExpiryIndex();
+        expiry.build(entries, pm.getGroups());
+        expiryIndex = expiry;
+        scheduleExpiryAlarm();
+
+        final TrigramIndex index = new TrigramIndex(Locale.getDefault(), ignoreAccents(ctx), indexProtectedFields(ctx));
+        searchIndex = index;
+
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                index.build(entries);
+            }
+        }, "SearchIndex");
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    /**
+     * Update the search indexes after an entry was added or edited, the results kept for
+     * refining searches are dropped.
+     */
+    public void indexEntry(PwEntry entry) {
+        if (searchSession != null) {
+            searchSession.invalidate();
+        }
+
+        TrigramIndex index = searchIndex;
+        if (index != null) {
+            index.put(entry);
+        }
+
+        UrlIndex urls = urlIndex;
+        if (urls != null) {
+            urls.put(entry);
+        }
+
+        TagIndex tags = tagIndex;
+        if (tags != null) {
+            tags.put(entry);
+        }
+
+        ExpiryIndex expiry = expiryIndex;
+        if (expiry != null) {
+            expiry.put(entry);
+            scheduleExpiryAlarm();
+        }
+    }
+
+    /**
+     * Drop a deleted entry from the search indexes and the results kept for refining searches.
+     */
+    public void unindexEntry(PwEntry entry) {
+        if (searchSession != null) {
+            searchSession.invalidate();
+        }
+
+        TrigramIndex index = searchIndex;
+        if (index != null) {
+            index.remove(entry);
+        }
+
+        UrlIndex urls = urlIndex;
+        if (urls != null) {
+            urls.remove(entry);
+        }
+
+        TagIndex tags = tagIndex;
+        if (tags != null) {
+            tags.remove(entry);
+        }
+
+        ExpiryIndex expiry = expiryIndex;
+        if (expiry != null) {
+            expiry.remove(entry);
+            scheduleExpiryAlarm();
+        }
+    }
+
+    /**
+     * Drop a deleted group from the expiry index.
+     */
+    public void unindexGroup(PwGroup group) {
+        ExpiryIndex expiry = expiryIndex;
+        if (expiry != null) {
+            expiry.remove(group);
+            scheduleExpiryAlarm();
+        }
+    }
+
+    /**
+     * Set the alarm for the next entry or group to expire, or cancel it if none will.
+     */
+    public synchronized void scheduleExpiryAlarm() {
+        ExpiryIndex expiry = expiryIndex;
+        if (expiry == null || appContext == null) {
+            return;
+        }
+
+        long next = expiry.getNextExpiry(System.currentTimeMillis());
+        if (next == scheduledExpiry) {
+            return;
+        }
+
+        scheduledExpiry = next;
+        if (next < 0) {
+            ExpiryAlarm.cancel(appContext);
+        } else {
+            ExpiryAlarm.schedule(appContext, next);
+        }
+    }
+
     public PwGroup Search(String str) {
-        if (searchHelper == null) { return null; }
-        return searchHelper.search(this, str);
+        if (searchSession == null) { return null; }
+        return searchSession.search(str);
     }
 
     public void SaveData(Context ctx) throws IOException, PwDbOutputException {
         SaveData(ctx, mUri);
     }
 
+    /**
+     * Save an edit described by records, appending it to the journal when possible.
+     * Falls back to writing the whole database.
+     */
+    public void SaveData(Context ctx, List<JournalRecord> records) throws IOException, PwDbOutputException {
+        if (records != null && journal != null && canJournal() && journalEnabled(ctx)
+                && !journal.needsCompaction()) {
+            journal.append(records);
+            scheduleCompaction(journal.needsCompaction() ? 0 : COMPACT_DELAY);
+            return;
+        }
+
+        SaveData(ctx);
+    }
+
+    /**
+     * Fold the journal into the database file now, rather than after edits have stopped
+     * for a while or on the next open.
+     */
+    public void syncJournal(Context ctx) throws IOException, PwDbOutputException {
+        cancelCompaction();
+
+        synchronized (editLock) {
+            if (journal != null && !journal.isEmpty()) {
+                SaveData(ctx);
+            }
+        }
+    }
+
+    private synchronized void scheduleCompaction(long delay) {
+        if (compactExecutor == null) {
+            compactExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "JournalCompaction");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+        }
+
+        if (pendingCompaction != null) {
+            pendingCompaction.cancel(false);
+        }
+
+        final EditJournal target = journal;
+        pendingCompaction = compactExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                compactJournal(target);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void cancelCompaction() {
+        if (pendingCompaction != null) {
+            pendingCompaction.cancel(false);
+            pendingCompaction = null;
+        }
+    }
+
+    private void compactJournal(EditJournal target) {
+        synchronized (editLock) {
+            // The database was saved, closed or reopened since this was scheduled
+            if (journal != target || journal.isEmpty() || appContext == null) {
+                return;
+            }
+
+            try {
+                SaveData(appContext);
+            } catch (Exception e) {
+                // The edits are still in the journal and are replayed on the next open
+                Log.e("KPD", "Database::compactJournal", e);
+            }
+        }
+    }
+
     public void SaveData(Context ctx, Uri uri) throws IOException, PwDbOutputException {
         if (uri.getScheme().equals("file")) {
             String filename = uri.getPath();
@@ -221,16 +631,66 @@ public class Database {
             os.close();
         }
         mUri = uri;
+
+        ModelCache cache = getModelCache(ctx);
+        if (cache != null) {
+            saveModelCache(cache);
+        }
+
+        resetJournal(ctx);
+
+        if (pm instanceof PwDatabaseV4 && ((PwDatabaseV4) pm).transformedKey != null) {
+            PwDatabaseV4 db = (PwDatabaseV4) pm;
+            QuickUnlockStore quickUnlock = new QuickUnlockStore(ctx);
+            if (quickUnlock.isEnabled()) {
+                // A save with a new key derivation seed derives a new key, keep a remembered one usable
+                quickUnlock.refresh(uri, db.transformedKey);
+            } else if (db.masterKey != null) {
+                // Quick unlock was turned off since the database was opened. After a quick
+                // unlock the derived key is the only one, it goes when the database is closed.
+                db.keepTransformedKey = false;
+                db.forgetTransformedKey();
+            }
+        }
     }
 
     public void clear() {
         dirty.clear();
         drawFactory.clear();
 
-        pm = null;
-        mUri = null;
-        loaded = false;
-        passwordEncodingError = false;
+        if (searchIndex != null) {
+            searchIndex.close();
+            searchIndex = null;
+        }
+        urlIndex = null;
+        tagIndex = null;
+        expiryIndex = null;
+
+        synchronized (this) {
+            if (appContext != null) {
+                ExpiryAlarm.cancel(appContext);
+            }
+            scheduledExpiry = -1;
+        }
+
+        if (searchSession != null) {
+            searchSession.cancel();
+            searchSession = null;
+        }
+
+        // Edits not compacted yet stay in the journal, wait for a compaction already writing
+        cancelCompaction();
+        synchronized (editLock) {
+            if (pm instanceof PwDatabaseV4) {
+                ((PwDatabaseV4) pm).forgetTransformedKey();
+            }
+
+            pm = null;
+            mUri = null;
+            journal = null;
+            loaded = false;
+            passwordEncodingError = false;
+        }
     }
 
     public void markAllGroupsAsDirty() {
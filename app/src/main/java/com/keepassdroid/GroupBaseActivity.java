@@ -44,6 +44,8 @@ import com.android.keepass.R;
 import com.keepassdroid.app.App;
 import com.keepassdroid.database.PwGroup;
 import com.keepassdroid.database.edit.OnFinish;
+import com.keepassdroid.database.edit.SyncDB;
+import com.keepassdroid.search.SearchResults;
 import com.keepassdroid.settings.AppSettingsActivity;
 import com.keepassdroid.utils.Util;
 import com.keepassdroid.view.ClickView;
@@ -193,6 +195,9 @@ public abstract class GroupBaseActivity extends LockCloseListActivity {
 		}
 		
 		setSortMenuText(menu);
+
+		// Only journaled edits can be waiting to be written
+		menu.findItem(R.id.menu_sync).setVisible(App.getDB().journal != null);
 		
 		return true;
 	}
@@ -219,6 +224,16 @@ public abstract class GroupBaseActivity extends LockCloseListActivity {
 			onSearchRequested();
 			return true;
 			
+		case R.id.menu_expiring:
+			SearchResults.launchExpiring(this, getResources().getInteger(R.integer.expiring_days));
+			return true;
+			
+		case R.id.menu_sync:
+			SyncDB sync = new SyncDB(this, App.getDB(), new RefreshTask(new Handler()));
+			ProgressTask pt = new ProgressTask(this, sync, R.string.saving_database);
+			pt.run();
+			return true;
+
 		case R.id.menu_app_settings:
 			AppSettingsActivity.Launch(this);
 			return true;
@@ -21,6 +21,7 @@ package com.keepassdroid;
 
 import android.Manifest;
 import android.app.Activity;
+import android.app.KeyguardManager;
 import android.app.backup.BackupManager;
 import android.content.ActivityNotFoundException;
 import android.content.Context;
@@ -60,12 +61,15 @@ import com.android.keepass.KeePass;
 import com.android.keepass.R;
 import com.keepassdroid.app.App;
 import com.keepassdroid.compat.ClipDataCompat;
+import com.keepassdroid.compat.KeyguardManagerCompat;
 import com.keepassdroid.compat.StorageAF;
+import com.keepassdroid.crypto.keyDerivation.TransformedKey;
 import com.keepassdroid.database.edit.LoadDB;
 import com.keepassdroid.database.edit.OnFinish;
 import com.keepassdroid.dialog.PasswordEncodingDialogHelper;
 import com.keepassdroid.fileselect.BrowserDialog;
 import com.keepassdroid.fingerprint.FingerPrintHelper;
+import com.keepassdroid.fingerprint.QuickUnlockStore;
 import com.keepassdroid.intents.Intents;
 import com.keepassdroid.settings.AppSettingsActivity;
 import com.keepassdroid.utils.EmptyUtils;
@@ -92,6 +96,7 @@ public class PasswordActivity extends LockingActivity implements FingerPrintHelp
     private static final int FILE_BROWSE = 256;
     public static final int GET_CONTENT = 257;
     private static final int OPEN_DOC = 258;
+    private static final int CONFIRM_CREDENTIAL = 259;
 
     private static final String[] READ_WRITE_PERMISSIONS =
             {Manifest.permission.READ_EXTERNAL_STORAGE, Manifest.permission.WRITE_EXTERNAL_STORAGE};
@@ -115,6 +120,8 @@ public class PasswordActivity extends LockingActivity implements FingerPrintHelp
     private TextView confirmationView;
     private EditText passwordView;
     private Button confirmButton;
+    private Button quickUnlockButton;
+    private QuickUnlockStore quickUnlockStore;
 
     public static void Launch(
             Activity act,
@@ -198,6 +205,11 @@ public class PasswordActivity extends LockingActivity implements FingerPrintHelp
                     }
                 }
                 break;
+            case CONFIRM_CREDENTIAL:
+                if (resultCode == RESULT_OK) {
+                    quickUnlock(false);
+                }
+                break;
         }
     }
 
@@ -217,6 +229,8 @@ public class PasswordActivity extends LockingActivity implements FingerPrintHelp
         fingerprintView = findViewById(R.id.fingerprint);
         confirmationView = (TextView) findViewById(R.id.fingerprint_label);
         passwordView = (EditText) findViewById(R.id.password);
+        quickUnlockButton = (Button) findViewById(R.id.quick_unlock);
+        quickUnlockStore = new QuickUnlockStore(this);
 
         new InitTask().execute(i);
 
@@ -239,6 +253,54 @@ public class PasswordActivity extends LockingActivity implements FingerPrintHelp
 
         // checks if fingerprint is available, will also start listening for fingerprints when available
         checkAvailability();
+
+        updateQuickUnlock();
+    }
+
+    private void updateQuickUnlock() {
+        boolean available = mDbUri != null && quickUnlockStore.isEnabled()
+                && quickUnlockStore.has(mDbUri);
+        quickUnlockButton.setVisibility(available ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Reopen the database with its remembered key. The key store only releases it shortly
+     * after the device was unlocked, otherwise the user is asked to confirm the device
+     * credential first.
+     */
+    private void quickUnlock(boolean canConfirm) {
+        TransformedKey key;
+        try {
+            key = quickUnlockStore.load(mDbUri);
+        } catch (QuickUnlockStore.AuthenticationRequiredException e) {
+            KeyguardManager keyguardManager = (KeyguardManager) getSystemService(Context.KEYGUARD_SERVICE);
+            Intent intent = KeyguardManagerCompat.createConfirmDeviceCredentialIntent(keyguardManager, null,
+                    getString(R.string.quick_unlock_confirm));
+            if (canConfirm && intent != null) {
+                startActivityForResult(intent, CONFIRM_CREDENTIAL);
+                return;
+            }
+            key = null;
+        } catch (Exception e) {
+            quickUnlockStore.clear(mDbUri);
+            key = null;
+        }
+
+        if (key == null) {
+            updateQuickUnlock();
+            errorMessage(R.string.quick_unlock_expired);
+            return;
+        }
+
+        Database db = App.getDB();
+        db.clear();
+
+        App.clearShutdown();
+
+        Handler handler = new Handler();
+        LoadDB task = new LoadDB(db, PasswordActivity.this, mDbUri, key, mKeyUri, new AfterLoad(handler, db));
+        ProgressTask pt = new ProgressTask(PasswordActivity.this, task, R.string.loading_database);
+        pt.run();
     }
 
     private void retrieveSettings() {
@@ -720,6 +782,7 @@ public class PasswordActivity extends LockingActivity implements FingerPrintHelp
             } else if (mSuccess) {
                 GroupActivity.Launch(PasswordActivity.this);
             } else {
+                updateQuickUnlock();
                 displayMessage(PasswordActivity.this);
             }
         }
@@ -794,6 +857,13 @@ public class PasswordActivity extends LockingActivity implements FingerPrintHelp
 
             confirmButton.setOnClickListener(new OkClickHandler());
 
+            quickUnlockButton.setOnClickListener(new View.OnClickListener() {
+                public void onClick(View v) {
+                    quickUnlock(true);
+                }
+            });
+            updateQuickUnlock();
+
             CheckBox checkBox = (CheckBox) findViewById(R.id.show_password);
             // Show or hide password
             checkBox.setOnCheckedChangeListener(new OnCheckedChangeListener() {
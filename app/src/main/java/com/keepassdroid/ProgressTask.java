@@ -24,6 +24,7 @@ import android.content.Context;
 import android.os.Handler;
 
 import com.android.keepass.R;
+import com.keepassdroid.app.App;
 import com.keepassdroid.database.edit.OnFinish;
 import com.keepassdroid.database.edit.RunnableOnFinish;
 
@@ -61,8 +62,16 @@ public class ProgressTask implements Runnable {
 		// Show process dialog
 		mPd.show();
 		
-		// Start Thread to Run task
-		Thread t = new Thread(mTask);
+		// Start Thread to Run task, keeping the journal compaction out of the edit
+		final Database db = App.getDB();
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (db.editLock) {
+					mTask.run();
+				}
+			}
+		});
 		t.start();
 	}
 	
@@ -25,7 +25,9 @@ import android.app.Application;
 
 import com.keepassdroid.Database;
 import com.keepassdroid.compat.PRNGFixes;
+import com.keepassdroid.crypto.NativeAESContextPool;
 import com.keepassdroid.fileselect.RecentFileHistory;
+import com.keepassdroid.fingerprint.QuickUnlockStore;
 
 public class App extends Application {
 	private static Database db = null;
@@ -76,6 +78,15 @@ public class App extends Application {
 		fileHistory = new RecentFileHistory(this);
 		
 		PRNGFixes.apply();
+
+		new QuickUnlockStore(this).purge();
+	}
+
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+
+		NativeAESContextPool.trim();
 	}
 
 	@Override
@@ -31,6 +31,7 @@ public class KeyGenParameterSpecCompat {
     private static Method setBlockModes;
     private static Method setUserAuthReq;
     private static Method setEncPad;
+    private static Method setUserAuthValidity;
 
     private static boolean available;
 
@@ -42,6 +43,7 @@ public class KeyGenParameterSpecCompat {
             setBlockModes = builder.getMethod("setBlockModes", String[].class);
             setUserAuthReq = builder.getMethod("setUserAuthenticationRequired", new Class []{boolean.class});
             setEncPad = builder.getMethod("setEncryptionPaddings", String[].class);
+            setUserAuthValidity = builder.getMethod("setUserAuthenticationValidityDurationSeconds", new Class []{int.class});
 
 
             available = true;
@@ -52,6 +54,15 @@ public class KeyGenParameterSpecCompat {
 
     public static AlgorithmParameterSpec build(String keystoreAlias, int purpose, String blockMode,
                                         boolean userAuthReq, String encPadding) {
+        return build(keystoreAlias, purpose, blockMode, userAuthReq, -1, encPadding);
+    }
+
+    /**
+     * @param userAuthValiditySeconds How long the key stays usable after the user authenticates
+     *                                to the device, or -1 to require authentication for every use
+     */
+    public static AlgorithmParameterSpec build(String keystoreAlias, int purpose, String blockMode,
+                                        boolean userAuthReq, int userAuthValiditySeconds, String encPadding) {
 
         if (!available) {
             return null;
@@ -61,6 +72,9 @@ public class KeyGenParameterSpecCompat {
             Object inst = buildConst.newInstance(keystoreAlias, purpose);
             inst = setBlockModes.invoke(inst, new Object[] {new String[] {blockMode}});
             inst = setUserAuthReq.invoke(inst, userAuthReq);
+            if (userAuthReq && userAuthValiditySeconds > 0) {
+                inst = setUserAuthValidity.invoke(inst, userAuthValiditySeconds);
+            }
             inst = setEncPad.invoke(inst, new Object[] {new String[] {encPadding}});
 
             return (AlgorithmParameterSpec) builderBuild.invoke(inst, null);
@@ -20,13 +20,16 @@
 package com.keepassdroid.compat;
 
 import android.app.KeyguardManager;
+import android.content.Intent;
 
 import java.lang.reflect.Method;
 
 public class KeyguardManagerCompat {
     private static Method isKeyguardSecure;
+    private static Method createConfirmDeviceCredentialIntent;
 
     private static boolean available;
+    private static boolean confirmAvailable;
 
     static {
         try {
@@ -36,6 +39,15 @@ public class KeyguardManagerCompat {
         } catch (Exception e) {
             available = false;
         }
+
+        try {
+            createConfirmDeviceCredentialIntent = KeyguardManager.class.getMethod(
+                    "createConfirmDeviceCredentialIntent", CharSequence.class, CharSequence.class);
+
+            confirmAvailable = true;
+        } catch (Exception e) {
+            confirmAvailable = false;
+        }
     }
 
     public static boolean isKeyguardSecure(KeyguardManager inst) {
@@ -50,4 +62,19 @@ public class KeyguardManagerCompat {
             return false;
         }
     }
+
+    /** Intent asking the user to confirm the device credential, or null if there is none */
+    public static Intent createConfirmDeviceCredentialIntent(KeyguardManager inst, CharSequence title,
+                                                             CharSequence description) {
+        if (!confirmAvailable) {
+            return null;
+        }
+
+        try {
+            return (Intent) createConfirmDeviceCredentialIntent.invoke(inst, title, description);
+
+        } catch (Exception e) {
+            return null;
+        }
+    }
 }
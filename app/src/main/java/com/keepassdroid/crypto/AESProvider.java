@@ -31,6 +31,8 @@ public final class AESProvider extends Provider {
 	public AESProvider() {
 		super("AESProvider", 1.0, "");
 		put("Cipher.AES",com.keepassdroid.crypto.NativeAESCipherSpi.class.getName());
+		put("Cipher.Twofish",com.keepassdroid.crypto.NativeTwofishCipherSpi.class.getName());
+		put("Cipher.ChaCha7539",com.keepassdroid.crypto.NativeChaCha20CipherSpi.class.getName());
 	}
 
 }
@@ -53,7 +53,7 @@ public class CipherFactory {
 	}
 	
 	public static Cipher getInstance(String transformation, boolean androidOverride) throws NoSuchAlgorithmException, NoSuchPaddingException {
-		// Return the native AES if it is possible
+		// Return the native cipher if it is possible
 		if ( (!deviceBlacklisted()) && (!androidOverride) && hasNativeImplementation(transformation) && NativeLib.loaded() ) {
 			return Cipher.getInstance(transformation, new AESProvider());
 		} else {
@@ -72,7 +72,10 @@ public class CipherFactory {
 	}
 	
 	private static boolean hasNativeImplementation(String transformation) {
-		return transformation.equals("AES/CBC/PKCS5Padding");
+		return transformation.equals("AES/CBC/PKCS5Padding")
+				|| transformation.equals("Twofish/CBC/NoPadding")
+				|| transformation.equals("Twofish/CBC/ZeroBytePadding")
+				|| transformation.equals("ChaCha7539");
 	}
 
 
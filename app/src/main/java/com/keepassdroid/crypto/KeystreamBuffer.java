@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.crypto;
+
+import java.util.Arrays;
+
+import org.spongycastle.crypto.CipherParameters;
+import org.spongycastle.crypto.DataLengthException;
+import org.spongycastle.crypto.OutputLengthException;
+import org.spongycastle.crypto.StreamCipher;
+
+/** Stream cipher that generates the keystream of another one in large blocks and XORs
+ *  from that.
+ *
+ * The inner random stream is applied to each protected value on its own, usually only a
+ * few bytes at a time. This turns those thousands of small calls into a few large ones.
+ * The output is identical to using the wrapped cipher directly.
+ */
+public class KeystreamBuffer implements StreamCipher {
+	private static final int DEFAULT_SIZE = 4096;
+
+	private final StreamCipher source;
+	private final byte[] zeros;
+	private final byte[] keystream;
+	private int pos;
+
+	/**
+	 * @param source Initialized stream cipher to take the keystream from
+	 */
+	public KeystreamBuffer(StreamCipher source) {
+		this(source, DEFAULT_SIZE);
+	}
+
+	public KeystreamBuffer(StreamCipher source, int size) {
+		this.source = source;
+		zeros = new byte[size];
+		keystream = new byte[size];
+		pos = size;
+	}
+
+	@Override
+	public void init(boolean forEncryption, CipherParameters params) throws IllegalArgumentException {
+		source.init(forEncryption, params);
+		discard();
+	}
+
+	@Override
+	public String getAlgorithmName() {
+		return source.getAlgorithmName();
+	}
+
+	@Override
+	public byte returnByte(byte in) {
+		if ( pos == keystream.length ) {
+			refill();
+		}
+
+		return (byte) (in ^ keystream[pos++]);
+	}
+
+	@Override
+	public int processBytes(byte[] in, int inOff, int len, byte[] out, int outOff) throws DataLengthException {
+		if ( inOff + len > in.length ) {
+			throw new DataLengthException("input buffer too short");
+		}
+		if ( outOff + len > out.length ) {
+			throw new OutputLengthException("output buffer too short");
+		}
+
+		int done = 0;
+		while ( done < len ) {
+			int remaining = len - done;
+
+			if ( pos == keystream.length ) {
+				// Whole buffers worth go straight through the source
+				if ( remaining >= keystream.length ) {
+					int direct = remaining - remaining % keystream.length;
+					source.processBytes(in, inOff + done, direct, out, outOff + done);
+					done += direct;
+					continue;
+				}
+
+				refill();
+			}
+
+			int count = Math.min(remaining, keystream.length - pos);
+			for (int i = 0; i < count; i++) {
+				out[outOff + done + i] = (byte) (in[inOff + done + i] ^ keystream[pos + i]);
+			}
+			pos += count;
+			done += count;
+		}
+
+		return len;
+	}
+
+	@Override
+	public void reset() {
+		source.reset();
+		discard();
+	}
+
+	private void refill() {
+		source.processBytes(zeros, 0, zeros.length, keystream, 0);
+		pos = 0;
+	}
+
+	private void discard() {
+		Arrays.fill(keystream, (byte) 0);
+		pos = keystream.length;
+	}
+
+}
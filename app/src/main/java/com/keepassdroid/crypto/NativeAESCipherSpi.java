@@ -19,9 +19,6 @@
  */
 package com.keepassdroid.crypto;
 
-import java.lang.ref.PhantomReference;
-import java.lang.ref.Reference;
-import java.lang.ref.ReferenceQueue;
 import java.security.AlgorithmParameters;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
@@ -30,7 +27,6 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.AlgorithmParameterSpec;
 import java.security.spec.InvalidParameterSpecException;
-import java.util.HashMap;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -40,67 +36,39 @@ import javax.crypto.NoSuchPaddingException;
 import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 
-import android.util.Log;
-
 public class NativeAESCipherSpi extends CipherSpi {
 	
-	private static boolean mIsStaticInit = false;
-	private static HashMap<PhantomReference<NativeAESCipherSpi>, Long> mCleanup = new HashMap<PhantomReference<NativeAESCipherSpi>, Long>();
-	private static ReferenceQueue<NativeAESCipherSpi> mQueue;
-	
 	private final int AES_BLOCK_SIZE = 16;
 	private byte[] mIV;
+	private byte[] mKey;
 	
 	private boolean mIsInited = false;
 	private boolean mEncrypting = false;
-	private long mCtxPtr;
+	private NativeAESContextPool.Context mContext;
 	
 	private boolean mPadding  = false;
 	
-	private static void staticInit() {
-		mIsStaticInit = true;
-
-		// Init queue here to guarentee it isn't null in the cleanup thread
-		mQueue = new ReferenceQueue<NativeAESCipherSpi>();
-
-		// Start the cipher context cleanup thread to run forever
-		(new Thread(new Cleanup())).start();
-	}
-	
-	private static void addToCleanupQueue(NativeAESCipherSpi ref, long ptr) {
-		Log.d("KeepassDroid", "queued cipher context: " + ptr);
-		mCleanup.put(new PhantomReference<NativeAESCipherSpi>(ref, mQueue), ptr);
-	}
-	
-	/** Work with the garbage collector to clean up openssl memory when the cipher
-	 *  context is garbage collected.
-	 * @author bpellin
-	 *
-	 */
-	private static class Cleanup implements Runnable {
-
-		public void run() {
-			while (true) {
-				try {
-					Reference<? extends NativeAESCipherSpi> ref = mQueue.remove();
-
-					long ctx = mCleanup.remove(ref);
-					nCleanup(ctx);
-					Log.d("KeePassDroid", "Cleaned up cipher context: " + ctx);
-					
-				} catch (InterruptedException e) {
-					// Do nothing, but resume looping if mQueue.remove is interrupted
-				}
+	/** Native context for this cipher, taken from the pool when there is data to process */
+	private long ctx() {
+		if ( mContext == null ) {
+			NativeAESContextPool.Context context = NativeAESContextPool.acquire(this);
+			try {
+				nInit(context.ptr, mEncrypting, mKey, mIV);
+			} catch (RuntimeException e) {
+				NativeAESContextPool.release(context);
+				throw e;
 			}
+			mContext = context;
 		}
 		
+		return mContext.ptr;
 	}
 	
-	private static native void nCleanup(long ctxPtr);
-
-	public NativeAESCipherSpi() {
-		if ( ! mIsStaticInit ) {
-			staticInit();
+	/** doFinal is done with the context, the next use starts over from the key and IV */
+	private void releaseContext() {
+		if ( mContext != null ) {
+			NativeAESContextPool.release(mContext);
+			mContext = null;
 		}
 	}
 	
@@ -146,21 +114,31 @@ public class NativeAESCipherSpi extends CipherSpi {
 	private int doFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) 
 			throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
 		
-		int outputSize = engineGetOutputSize(inputLen);
-		
-		int updateAmt;
-		if (input != null && inputLen > 0) {
-			updateAmt = nUpdate(mCtxPtr, input, inputOffset, inputLen, output, outputOffset, outputSize);
-		} else {
-			updateAmt = 0;
+		boolean hasInput = input != null && inputLen > 0;
+		if ( mContext == null && !hasInput && !mEncrypting ) {
+			// Nothing was decrypted, e.g. a stream closed after it already finished
+			if ( mPadding ) {
+				throw new BadPaddingException("No data to decrypt");
+			}
+			return 0;
 		}
 		
-		int finalAmt = nFinal(mCtxPtr, mPadding, output, outputOffset + updateAmt, outputSize - updateAmt); 
-		
-		int out = updateAmt + finalAmt;
-		
-		
-		return out;
+		try {
+			int outputSize = engineGetOutputSize(inputLen);
+			
+			int updateAmt;
+			if (hasInput) {
+				updateAmt = nUpdate(ctx(), input, inputOffset, inputLen, output, outputOffset, outputSize);
+			} else {
+				updateAmt = 0;
+			}
+			
+			int finalAmt = nFinal(ctx(), mPadding, output, outputOffset + updateAmt, outputSize - updateAmt); 
+			
+			return updateAmt + finalAmt;
+		} finally {
+			releaseContext();
+		}
 	}
 	
 	private native int nFinal(long ctxPtr, boolean usePadding, byte[] output, int outputOffest, int outputSize)
@@ -178,7 +156,8 @@ public class NativeAESCipherSpi extends CipherSpi {
 
 	@Override
 	protected int engineGetOutputSize(int inputLen) {
-		return inputLen + nGetCacheSize(mCtxPtr) + AES_BLOCK_SIZE;
+		int cacheSize = mContext == null ? 0 : nGetCacheSize(mContext.ptr);
+		return inputLen + cacheSize + AES_BLOCK_SIZE;
 	}
 	
 	private native int nGetCacheSize(long ctxPtr);
@@ -240,12 +219,11 @@ public class NativeAESCipherSpi extends CipherSpi {
 		}
 		
 		mIV = params.getIV();
+		mKey = key.getEncoded();
 		mEncrypting = opmode == Cipher.ENCRYPT_MODE;
-		mCtxPtr = nInit(mEncrypting, key.getEncoded(), mIV);
-		addToCleanupQueue(this, mCtxPtr);
 	}
 	
-	private native long nInit(boolean encrypting, byte[] key, byte[] iv);
+	private native void nInit(long ctxPtr, boolean encrypting, byte[] key, byte[] iv);
 	
 	@Override
 	protected void engineSetMode(String mode) throws NoSuchAlgorithmException {
@@ -309,7 +287,7 @@ public class NativeAESCipherSpi extends CipherSpi {
 	int update(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) {
 		int outputSize = engineGetOutputSize(inputLen);
 		
-		int out = nUpdate(mCtxPtr, input, inputOffset, inputLen, output, outputOffset, outputSize);
+		int out = nUpdate(ctx(), input, inputOffset, inputLen, output, outputOffset, outputSize);
 		
 		
 		return out;
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.crypto;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+
+import android.util.Log;
+
+/** Native AES contexts for {@link NativeAESCipherSpi}, reused between ciphers.
+ *
+ * A cipher takes a context when it first has data to process and gives it back as soon as
+ * doFinal is done, which a cipher stream does when it is closed. The context is wiped on
+ * return and a few are kept for the next cipher, the rest are freed.
+ *
+ * Ciphers that are dropped without finishing are found through a phantom reference the
+ * next time a context is taken, without a thread of its own. The counters show how many
+ * contexts are out, and how many had to be reclaimed like that.
+ */
+public final class NativeAESContextPool {
+	private static final String TAG = "KeePassDroid";
+
+	private static final int MAX_IDLE = 4;
+
+	private static final ArrayDeque<Long> mIdle = new ArrayDeque<Long>();
+	private static final Set<Context> mLeased = new HashSet<Context>();
+	private static final ReferenceQueue<Object> mQueue = new ReferenceQueue<Object>();
+
+	private static long mCreated = 0;
+	private static long mReused = 0;
+	private static long mReclaimed = 0;
+
+	private NativeAESContextPool() {}
+
+	/** Context in use by a cipher, found again through the queue if the owner is collected first */
+	static final class Context extends PhantomReference<Object> {
+		final long ptr;
+
+		private Context(Object owner, long ptr) {
+			super(owner, mQueue);
+			this.ptr = ptr;
+		}
+	}
+
+	static synchronized Context acquire(Object owner) {
+		expunge();
+
+		long ptr;
+		Long idle = mIdle.poll();
+		if ( idle != null ) {
+			ptr = idle;
+			mReused++;
+		} else {
+			ptr = nAlloc();
+			mCreated++;
+		}
+
+		Context context = new Context(owner, ptr);
+		mLeased.add(context);
+
+		return context;
+	}
+
+	static synchronized void release(Context context) {
+		if ( ! mLeased.remove(context) ) {
+			// Already returned
+			return;
+		}
+		context.clear();
+
+		recycle(context.ptr);
+	}
+
+	/** Free the idle contexts, e.g. when the app is asked to trim memory */
+	public static synchronized void trim() {
+		expunge();
+
+		Long ptr;
+		while ( (ptr = mIdle.poll()) != null ) {
+			nFree(ptr);
+		}
+	}
+
+	/** Contexts held by ciphers at the moment */
+	public static synchronized int getLiveCount() {
+		expunge();
+		return mLeased.size();
+	}
+
+	/** Contexts waiting to be reused */
+	public static synchronized int getIdleCount() {
+		return mIdle.size();
+	}
+
+	/** Contexts allocated since start */
+	public static synchronized long getCreatedCount() {
+		return mCreated;
+	}
+
+	/** Times a cipher got a pooled context instead of a new one */
+	public static synchronized long getReusedCount() {
+		return mReused;
+	}
+
+	/** Contexts given back only because their cipher was garbage collected */
+	public static synchronized long getReclaimedCount() {
+		return mReclaimed;
+	}
+
+	private static void recycle(long ptr) {
+		if ( mIdle.size() < MAX_IDLE ) {
+			nClear(ptr);
+			mIdle.push(ptr);
+		} else {
+			nFree(ptr);
+		}
+	}
+
+	private static void expunge() {
+		Reference<?> ref;
+		while ( (ref = mQueue.poll()) != null ) {
+			Context context = (Context) ref;
+			if ( mLeased.remove(context) ) {
+				mReclaimed++;
+				Log.d(TAG, "Reclaimed cipher context of an unfinished cipher: " + context.ptr);
+				recycle(context.ptr);
+			}
+		}
+	}
+
+	private static native long nAlloc();
+
+	private static native void nClear(long ctxPtr);
+
+	private static native void nFree(long ctxPtr);
+
+}
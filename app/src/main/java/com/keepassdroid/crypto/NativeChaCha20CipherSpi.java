@@ -0,0 +1,190 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.crypto;
+
+import java.security.AlgorithmParameters;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
+
+import javax.crypto.CipherSpi;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+
+/** ChaCha20 as in RFC 7539 (96 bit nonce, 32 bit counter starting at 0), behaving like the
+ * "ChaCha7539" cipher from BouncyCastle.
+ *
+ * The cipher state lives in a Java int array that the native code works on directly, so
+ * there is no native memory to clean up. doFinal resets to the initial key and nonce.
+ */
+public class NativeChaCha20CipherSpi extends CipherSpi {
+	private static final int KEY_LENGTH = 32;
+	private static final int NONCE_LENGTH = 12;
+
+	private byte[] mKey;
+	private byte[] mNonce;
+	private int[] mState;
+
+	@Override
+	protected void engineSetMode(String mode) throws NoSuchAlgorithmException {
+		if ( mode.length() != 0 && ! mode.equals("NONE") ) {
+			throw new NoSuchAlgorithmException("ChaCha20 is a stream cipher and has no modes");
+		}
+	}
+
+	@Override
+	protected void engineSetPadding(String padding) throws NoSuchPaddingException {
+		if ( padding.length() != 0 && ! padding.equals("NoPadding") ) {
+			throw new NoSuchPaddingException("ChaCha20 does not support padding");
+		}
+	}
+
+	@Override
+	protected int engineGetBlockSize() {
+		return 0;
+	}
+
+	@Override
+	protected int engineGetOutputSize(int inputLen) {
+		return inputLen;
+	}
+
+	@Override
+	protected byte[] engineGetIV() {
+		return mNonce == null ? null : mNonce.clone();
+	}
+
+	@Override
+	protected AlgorithmParameters engineGetParameters() {
+		return null;
+	}
+
+	@Override
+	protected void engineInit(int opmode, Key key, SecureRandom random) throws InvalidKeyException {
+		byte[] nonce = new byte[NONCE_LENGTH];
+		random.nextBytes(nonce);
+
+		try {
+			init(key, new IvParameterSpec(nonce));
+		} catch (InvalidAlgorithmParameterException e) {
+			// The nonce is always the right length here
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	protected void engineInit(int opmode, Key key, AlgorithmParameterSpec params, SecureRandom random)
+			throws InvalidKeyException, InvalidAlgorithmParameterException {
+		if ( ! (params instanceof IvParameterSpec) ) {
+			throw new InvalidAlgorithmParameterException("params must be an IvParameterSpec.");
+		}
+
+		init(key, (IvParameterSpec) params);
+	}
+
+	@Override
+	protected void engineInit(int opmode, Key key, AlgorithmParameters params, SecureRandom random)
+			throws InvalidKeyException, InvalidAlgorithmParameterException {
+		try {
+			engineInit(opmode, key, params.getParameterSpec(IvParameterSpec.class), random);
+		} catch (InvalidParameterSpecException e) {
+			throw new InvalidAlgorithmParameterException(e);
+		}
+	}
+
+	private void init(Key key, IvParameterSpec params) throws InvalidKeyException, InvalidAlgorithmParameterException {
+		byte[] keyBytes = key.getEncoded();
+		if ( keyBytes == null || keyBytes.length != KEY_LENGTH ) {
+			throw new InvalidKeyException("ChaCha20 requires a 256 bit key");
+		}
+
+		byte[] nonce = params.getIV();
+		if ( nonce.length != NONCE_LENGTH ) {
+			throw new InvalidAlgorithmParameterException("ChaCha20 requires a 96 bit nonce");
+		}
+
+		NativeLib.init();
+
+		mKey = keyBytes;
+		mNonce = nonce;
+		mState = nInit(mKey, mNonce);
+	}
+
+	@Override
+	protected byte[] engineUpdate(byte[] input, int inputOffset, int inputLen) {
+		byte[] output = new byte[inputLen];
+		process(input, inputOffset, inputLen, output, 0);
+
+		return output;
+	}
+
+	@Override
+	protected int engineUpdate(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+			throws ShortBufferException {
+		if ( output.length - outputOffset < inputLen ) {
+			throw new ShortBufferException("Insufficient buffer.");
+		}
+
+		process(input, inputOffset, inputLen, output, outputOffset);
+
+		return inputLen;
+	}
+
+	@Override
+	protected byte[] engineDoFinal(byte[] input, int inputOffset, int inputLen) {
+		byte[] output = engineUpdate(input, inputOffset, inputLen);
+		reset();
+
+		return output;
+	}
+
+	@Override
+	protected int engineDoFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+			throws ShortBufferException {
+		int result = engineUpdate(input, inputOffset, inputLen, output, outputOffset);
+		reset();
+
+		return result;
+	}
+
+	private void process(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) {
+		if ( mState == null ) {
+			throw new IllegalStateException("Cipher not initialized");
+		}
+
+		if ( inputLen > 0 ) {
+			nProcess(mState, input, inputOffset, inputLen, output, outputOffset);
+		}
+	}
+
+	private void reset() {
+		mState = nInit(mKey, mNonce);
+	}
+
+	static native int[] nInit(byte[] key, byte[] nonce);
+
+	static native void nProcess(int[] state, byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset);
+
+}
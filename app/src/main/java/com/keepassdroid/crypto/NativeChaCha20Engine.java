@@ -0,0 +1,40 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.crypto;
+
+/** Drop in replacement for ChaCha7539Engine using the native ChaCha20 */
+public class NativeChaCha20Engine extends NativeStreamCipher {
+
+	@Override
+	public String getAlgorithmName() {
+		return "ChaCha7539";
+	}
+
+	@Override
+	protected int[] nativeInit(byte[] key, byte[] nonce) {
+		return NativeChaCha20CipherSpi.nInit(key, nonce);
+	}
+
+	@Override
+	protected void nativeProcess(int[] state, byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) {
+		NativeChaCha20CipherSpi.nProcess(state, input, inputOffset, inputLen, output, outputOffset);
+	}
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.crypto;
+
+/** Drop in replacement for Salsa20Engine using the native Salsa20 */
+public class NativeSalsa20Engine extends NativeStreamCipher {
+
+	@Override
+	public String getAlgorithmName() {
+		return "Salsa20";
+	}
+
+	@Override
+	protected int[] nativeInit(byte[] key, byte[] nonce) {
+		return nInit(key, nonce);
+	}
+
+	@Override
+	protected void nativeProcess(int[] state, byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) {
+		nProcess(state, input, inputOffset, inputLen, output, outputOffset);
+	}
+
+	private static native int[] nInit(byte[] key, byte[] nonce);
+
+	private static native void nProcess(int[] state, byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset);
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.crypto;
+
+import org.spongycastle.crypto.CipherParameters;
+import org.spongycastle.crypto.DataLengthException;
+import org.spongycastle.crypto.OutputLengthException;
+import org.spongycastle.crypto.StreamCipher;
+import org.spongycastle.crypto.params.KeyParameter;
+import org.spongycastle.crypto.params.ParametersWithIV;
+
+/** Stream cipher from the native library, with its state kept in a Java int array.
+ *
+ * Each call crosses JNI, so this is meant to be used in large pieces, behind a
+ * {@link KeystreamBuffer} when the caller works a few bytes at a time.
+ */
+abstract class NativeStreamCipher implements StreamCipher {
+	private byte[] mKey;
+	private byte[] mNonce;
+	private int[] mState;
+
+	private final byte[] mOneByte = new byte[1];
+
+	protected abstract int[] nativeInit(byte[] key, byte[] nonce);
+
+	protected abstract void nativeProcess(int[] state, byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset);
+
+	@Override
+	public void init(boolean forEncryption, CipherParameters params) throws IllegalArgumentException {
+		if ( ! (params instanceof ParametersWithIV) ) {
+			throw new IllegalArgumentException(getAlgorithmName() + " init requires an IV");
+		}
+
+		ParametersWithIV ivParams = (ParametersWithIV) params;
+		if ( ! (ivParams.getParameters() instanceof KeyParameter) ) {
+			throw new IllegalArgumentException(getAlgorithmName() + " init requires a key");
+		}
+
+		NativeLib.init();
+
+		mKey = ((KeyParameter) ivParams.getParameters()).getKey().clone();
+		mNonce = ivParams.getIV().clone();
+		mState = nativeInit(mKey, mNonce);
+	}
+
+	@Override
+	public byte returnByte(byte in) {
+		mOneByte[0] = in;
+		processBytes(mOneByte, 0, 1, mOneByte, 0);
+
+		return mOneByte[0];
+	}
+
+	@Override
+	public int processBytes(byte[] in, int inOff, int len, byte[] out, int outOff) throws DataLengthException {
+		if ( mState == null ) {
+			throw new IllegalStateException(getAlgorithmName() + " not initialised");
+		}
+		if ( inOff + len > in.length ) {
+			throw new DataLengthException("input buffer too short");
+		}
+		if ( outOff + len > out.length ) {
+			throw new OutputLengthException("output buffer too short");
+		}
+
+		if ( len > 0 ) {
+			nativeProcess(mState, in, inOff, len, out, outOff);
+		}
+
+		return len;
+	}
+
+	@Override
+	public void reset() {
+		if ( mKey != null ) {
+			mState = nativeInit(mKey, mNonce);
+		}
+	}
+
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.crypto;
+
+import java.security.AlgorithmParameters;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherSpi;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+
+/** Twofish in CBC mode, with no padding or BouncyCastle compatible ZeroBytePadding.
+ *
+ * Whole blocks go straight to the native code, only a partial block is buffered here.
+ * With padding the last block is held back until doFinal, which always adds padding,
+ * a full block of zeros if the data is already aligned, as BouncyCastle does.
+ */
+public class NativeTwofishCipherSpi extends CipherSpi {
+	private static final int BLOCK_SIZE = 16;
+
+	private int[] mKey;
+	private byte[] mInitialIV;
+	private byte[] mIV;
+	private boolean mEncrypting;
+	private boolean mPadding = false;
+
+	private final byte[] mBuffer = new byte[BLOCK_SIZE];
+	private int mBuffered = 0;
+
+	@Override
+	protected void engineSetMode(String mode) throws NoSuchAlgorithmException {
+		if ( ! mode.equals("CBC") ) {
+			throw new NoSuchAlgorithmException("This only supports CBC mode");
+		}
+	}
+
+	@Override
+	protected void engineSetPadding(String padding) throws NoSuchPaddingException {
+		if ( padding.length() == 0 || padding.equals("NoPadding") ) {
+			mPadding = false;
+		} else if ( padding.equals("ZeroBytePadding") ) {
+			mPadding = true;
+		} else {
+			throw new NoSuchPaddingException("Only supports NoPadding and ZeroBytePadding.");
+		}
+	}
+
+	@Override
+	protected int engineGetBlockSize() {
+		return BLOCK_SIZE;
+	}
+
+	@Override
+	protected int engineGetOutputSize(int inputLen) {
+		int total = mBuffered + inputLen;
+		if ( mPadding && mEncrypting ) {
+			return (total / BLOCK_SIZE + 1) * BLOCK_SIZE;
+		}
+
+		return total - total % BLOCK_SIZE;
+	}
+
+	@Override
+	protected byte[] engineGetIV() {
+		return mInitialIV == null ? null : mInitialIV.clone();
+	}
+
+	@Override
+	protected AlgorithmParameters engineGetParameters() {
+		return null;
+	}
+
+	@Override
+	protected void engineInit(int opmode, Key key, SecureRandom random) throws InvalidKeyException {
+		byte[] iv = new byte[BLOCK_SIZE];
+		random.nextBytes(iv);
+
+		try {
+			init(opmode, key, new IvParameterSpec(iv));
+		} catch (InvalidAlgorithmParameterException e) {
+			// The IV is always the right length here
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	protected void engineInit(int opmode, Key key, AlgorithmParameterSpec params, SecureRandom random)
+			throws InvalidKeyException, InvalidAlgorithmParameterException {
+		if ( ! (params instanceof IvParameterSpec) ) {
+			throw new InvalidAlgorithmParameterException("params must be an IvParameterSpec.");
+		}
+
+		init(opmode, key, (IvParameterSpec) params);
+	}
+
+	@Override
+	protected void engineInit(int opmode, Key key, AlgorithmParameters params, SecureRandom random)
+			throws InvalidKeyException, InvalidAlgorithmParameterException {
+		try {
+			engineInit(opmode, key, params.getParameterSpec(IvParameterSpec.class), random);
+		} catch (InvalidParameterSpecException e) {
+			throw new InvalidAlgorithmParameterException(e);
+		}
+	}
+
+	private void init(int opmode, Key key, IvParameterSpec params) throws InvalidKeyException, InvalidAlgorithmParameterException {
+		byte[] keyBytes = key.getEncoded();
+		if ( keyBytes == null || (keyBytes.length != 16 && keyBytes.length != 24 && keyBytes.length != 32) ) {
+			throw new InvalidKeyException("Twofish requires a 128, 192 or 256 bit key");
+		}
+
+		byte[] iv = params.getIV();
+		if ( iv.length != BLOCK_SIZE ) {
+			throw new InvalidAlgorithmParameterException("IV must be " + BLOCK_SIZE + " bytes");
+		}
+
+		NativeLib.init();
+
+		mKey = nInit(keyBytes);
+		Arrays.fill(keyBytes, (byte) 0);
+
+		mEncrypting = opmode == Cipher.ENCRYPT_MODE || opmode == Cipher.WRAP_MODE;
+		mInitialIV = iv;
+		reset();
+	}
+
+	@Override
+	protected byte[] engineUpdate(byte[] input, int inputOffset, int inputLen) {
+		byte[] output = new byte[updateSize(inputLen)];
+		update(input, inputOffset, inputLen, output, 0);
+
+		return output;
+	}
+
+	@Override
+	protected int engineUpdate(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+			throws ShortBufferException {
+		if ( output.length - outputOffset < updateSize(inputLen) ) {
+			throw new ShortBufferException("Insufficient buffer.");
+		}
+
+		return update(input, inputOffset, inputLen, output, outputOffset);
+	}
+
+	@Override
+	protected byte[] engineDoFinal(byte[] input, int inputOffset, int inputLen) throws IllegalBlockSizeException {
+		byte[] output = new byte[engineGetOutputSize(inputLen)];
+
+		int finalSize;
+		try {
+			finalSize = doFinal(input, inputOffset, inputLen, output, 0);
+		} catch (ShortBufferException e) {
+			// This shouldn't be possible rethrow as RuntimeException
+			throw new RuntimeException("Short buffer exception shouldn't be possible from here.");
+		}
+
+		if ( finalSize == output.length ) {
+			return output;
+		}
+
+		byte[] exact = new byte[finalSize];
+		System.arraycopy(output, 0, exact, 0, finalSize);
+		return exact;
+	}
+
+	@Override
+	protected int engineDoFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+			throws ShortBufferException, IllegalBlockSizeException {
+		return doFinal(input, inputOffset, inputLen, output, outputOffset);
+	}
+
+	/** Bytes the next update produces. With padding the last block, even if complete,
+	 * stays buffered for doFinal.
+	 */
+	private int updateSize(int inputLen) {
+		int total = mBuffered + inputLen;
+		if ( mPadding ) {
+			return total == 0 ? 0 : (total - 1) / BLOCK_SIZE * BLOCK_SIZE;
+		}
+
+		return total - total % BLOCK_SIZE;
+	}
+
+	private int update(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) {
+		if ( mKey == null ) {
+			throw new IllegalStateException("Cipher not initialized");
+		}
+
+		int processLen = updateSize(inputLen);
+
+		if ( input == output && inputLen > 0 ) {
+			// The output trails the input by the buffered bytes, so in place work could overwrite unread input
+			input = Arrays.copyOfRange(input, inputOffset, inputOffset + inputLen);
+			inputOffset = 0;
+		}
+
+		int written = 0;
+		if ( mBuffered > 0 && processLen > 0 ) {
+			int fill = BLOCK_SIZE - mBuffered;
+			System.arraycopy(input, inputOffset, mBuffer, mBuffered, fill);
+			inputOffset += fill;
+			inputLen -= fill;
+			mBuffered = 0;
+
+			nProcess(mKey, mEncrypting, mIV, mBuffer, 0, BLOCK_SIZE, output, outputOffset);
+			written = BLOCK_SIZE;
+		}
+
+		int direct = processLen - written;
+		if ( direct > 0 ) {
+			nProcess(mKey, mEncrypting, mIV, input, inputOffset, direct, output, outputOffset + written);
+			inputOffset += direct;
+			inputLen -= direct;
+		}
+
+		System.arraycopy(input, inputOffset, mBuffer, mBuffered, inputLen);
+		mBuffered += inputLen;
+
+		return processLen;
+	}
+
+	private int doFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+			throws ShortBufferException, IllegalBlockSizeException {
+		int total = mBuffered + inputLen;
+		if ( (! mPadding || ! mEncrypting) && total % BLOCK_SIZE != 0 ) {
+			reset();
+			throw new IllegalBlockSizeException("Input length not multiple of " + BLOCK_SIZE + " bytes");
+		}
+		if ( mPadding && ! mEncrypting && total == 0 ) {
+			reset();
+			throw new IllegalBlockSizeException("Last block incomplete in decryption");
+		}
+
+		int finalSize = engineGetOutputSize(inputLen);
+		if ( output.length - outputOffset < finalSize ) {
+			throw new ShortBufferException("Insufficient buffer.");
+		}
+
+		int written = update(input, inputOffset, inputLen, output, outputOffset);
+
+		if ( mPadding ) {
+			if ( mEncrypting ) {
+				if ( mBuffered == BLOCK_SIZE ) {
+					nProcess(mKey, true, mIV, mBuffer, 0, BLOCK_SIZE, output, outputOffset + written);
+					written += BLOCK_SIZE;
+					mBuffered = 0;
+				}
+
+				Arrays.fill(mBuffer, mBuffered, BLOCK_SIZE, (byte) 0);
+				nProcess(mKey, true, mIV, mBuffer, 0, BLOCK_SIZE, output, outputOffset + written);
+				written += BLOCK_SIZE;
+			} else {
+				nProcess(mKey, false, mIV, mBuffer, 0, BLOCK_SIZE, mBuffer, 0);
+
+				int length = BLOCK_SIZE;
+				while ( length > 0 && mBuffer[length - 1] == 0 ) {
+					length--;
+				}
+
+				System.arraycopy(mBuffer, 0, output, outputOffset + written, length);
+				written += length;
+			}
+		}
+
+		reset();
+
+		return written;
+	}
+
+	private void reset() {
+		mIV = mInitialIV.clone();
+		Arrays.fill(mBuffer, (byte) 0);
+		mBuffered = 0;
+	}
+
+	private static native int[] nInit(byte[] key);
+
+	private static native void nProcess(int[] key, boolean encrypting, byte[] iv, byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset);
+
+}
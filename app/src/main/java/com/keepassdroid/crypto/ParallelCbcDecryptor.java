@@ -0,0 +1,221 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.crypto;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.keepassdroid.utils.WorkerPool;
+
+/** CBC decryption split across cores.
+ *
+ * Each plaintext block only depends on its own and the preceding ciphertext block, so a run
+ * of blocks can be cut into pieces that are decrypted independently, each by its own
+ * unpadded cipher using the ciphertext block before the piece as IV. Only the final block
+ * goes through the padded cipher, which checks and removes the padding.
+ */
+public class ParallelCbcDecryptor {
+	public static final int BLOCK_SIZE = 16;
+
+	/** Pieces smaller than this are not worth a thread */
+	private static final int MIN_PIECE_LENGTH = 64 * 1024;
+
+	private final String transformation;
+	private final String unpaddedTransformation;
+	private final SecretKeySpec key;
+	private final boolean androidOverride;
+	private final int threads;
+
+	/**
+	 * @param transformation Cipher used for the final block, including the padding
+	 * @param unpaddedTransformation The same cipher in CBC mode without padding
+	 */
+	public ParallelCbcDecryptor(String transformation, String unpaddedTransformation, byte[] key, boolean androidOverride) {
+		this.transformation = transformation;
+		this.unpaddedTransformation = unpaddedTransformation;
+		this.key = new SecretKeySpec(key, "AES");
+		this.androidOverride = androidOverride;
+		this.threads = Runtime.getRuntime().availableProcessors();
+	}
+
+	/** Whether there is more than one core to split the work across */
+	public boolean isParallel() {
+		return threads > 1;
+	}
+
+	/** Whether a ciphertext of this length is long enough to be split across cores */
+	public boolean isParallel(int inputLen) {
+		return isParallel() && inputLen >= 2 * MIN_PIECE_LENGTH;
+	}
+
+	/** Decrypt a whole ciphertext, removing the padding.
+	 *
+	 * @param iv Initialization vector
+	 * @return Length of the plaintext written to output
+	 */
+	public int decrypt(byte[] iv, byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+			throws IOException, BadPaddingException {
+		iv = iv.clone();
+
+		int blocksLen = inputLen > BLOCK_SIZE ? (inputLen - 1) / BLOCK_SIZE * BLOCK_SIZE : 0;
+		decryptBlocks(iv, input, inputOffset, blocksLen, output, outputOffset);
+
+		return blocksLen + decryptFinal(iv, input, inputOffset + blocksLen, inputLen - blocksLen, output, outputOffset + blocksLen);
+	}
+
+	/** Decrypt whole blocks, leaving any padding in place. Input and output may be the
+	 *  same region.
+	 *
+	 * @param iv Ciphertext block preceding the input, or the initialization vector. It is
+	 *           replaced with the last ciphertext block of the input, to continue from there.
+	 */
+	public void decryptBlocks(byte[] iv, byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+			throws IOException {
+		if ( inputLen % BLOCK_SIZE != 0 ) {
+			throw new IOException("Invalid block size");
+		}
+		if ( inputLen == 0 ) {
+			return;
+		}
+
+		int blocks = inputLen / BLOCK_SIZE;
+		int pieces = Math.max(1, Math.min(threads, inputLen / MIN_PIECE_LENGTH));
+
+		// Take the IVs first, decrypting in place overwrites the ciphertext they come from
+		List<Piece> tasks = new ArrayList<Piece>(pieces);
+		int start = 0;
+		for (int i = 0; i < pieces; i++) {
+			int end = (int) ((long) blocks * (i + 1) / pieces) * BLOCK_SIZE;
+
+			byte[] pieceIv = new byte[BLOCK_SIZE];
+			if ( start == 0 ) {
+				System.arraycopy(iv, 0, pieceIv, 0, BLOCK_SIZE);
+			} else {
+				System.arraycopy(input, inputOffset + start - BLOCK_SIZE, pieceIv, 0, BLOCK_SIZE);
+			}
+
+			tasks.add(new Piece(pieceIv, input, inputOffset + start, end - start, output, outputOffset + start));
+			start = end;
+		}
+		System.arraycopy(input, inputOffset + inputLen - BLOCK_SIZE, iv, 0, BLOCK_SIZE);
+
+		if ( pieces == 1 ) {
+			tasks.get(0).call();
+			return;
+		}
+
+		List<Future<Void>> results = new ArrayList<Future<Void>>(pieces - 1);
+		try {
+			// invokeAll would wait for the others before this thread starts on the first piece
+			for (Piece task : tasks.subList(1, pieces)) {
+				results.add(WorkerPool.get().submit(task));
+			}
+
+			tasks.get(0).call();
+			for (Future<Void> result : results) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Decryption interrupted");
+		} catch (ExecutionException e) {
+			if ( e.getCause() instanceof IOException ) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Decryption failed: " + e.getCause());
+		} finally {
+			// After a failure, drop the pieces still waiting for a thread
+			for (Future<Void> result : results) {
+				result.cancel(false);
+			}
+		}
+	}
+
+	/** Decrypt the end of the ciphertext and remove the padding
+	 *
+	 * @param iv Ciphertext block preceding the input, or the initialization vector
+	 * @return Length of the plaintext written to output
+	 */
+	public int decryptFinal(byte[] iv, byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+			throws IOException, BadPaddingException {
+		Cipher cipher = getCipher(transformation, iv);
+		try {
+			return cipher.doFinal(input, inputOffset, inputLen, output, outputOffset);
+		} catch (IllegalBlockSizeException e) {
+			throw new IOException("Invalid block size");
+		} catch (BadPaddingException e) {
+			throw e;
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Decryption failed: " + e.getMessage());
+		}
+	}
+
+	private Cipher getCipher(String transformation, byte[] iv) throws IOException {
+		try {
+			Cipher cipher = CipherFactory.getInstance(transformation, androidOverride);
+			cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+			return cipher;
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Invalid algorithm: " + transformation);
+		}
+	}
+
+	private class Piece implements Callable<Void> {
+		private final byte[] iv;
+		private final byte[] input;
+		private final int inputOffset;
+		private final int inputLen;
+		private final byte[] output;
+		private final int outputOffset;
+
+		Piece(byte[] iv, byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) {
+			this.iv = iv;
+			this.input = input;
+			this.inputOffset = inputOffset;
+			this.inputLen = inputLen;
+			this.output = output;
+			this.outputOffset = outputOffset;
+		}
+
+		@Override
+		public Void call() throws IOException {
+			Cipher cipher = getCipher(unpaddedTransformation, iv);
+			try {
+				cipher.doFinal(input, inputOffset, inputLen, output, outputOffset);
+			} catch (GeneralSecurityException e) {
+				throw new IOException("Decryption failed: " + e.getMessage());
+			}
+
+			return null;
+		}
+	}
+
+}
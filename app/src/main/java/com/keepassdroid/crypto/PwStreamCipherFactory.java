@@ -37,6 +37,10 @@ public class PwStreamCipherFactory {
 			return null;
 		}
 	}
+
+	private static boolean useNative() {
+		return (!CipherFactory.deviceBlacklisted()) && NativeLib.loaded();
+	}
 	
 	
 	private static final byte[] SALSA_IV = new byte[]{ (byte)0xE8, 0x30, 0x09, 0x4B,
@@ -49,7 +53,13 @@ public class PwStreamCipherFactory {
 		KeyParameter keyParam = new KeyParameter(key32);
 		ParametersWithIV ivParam = new ParametersWithIV(keyParam, SALSA_IV);
 
-		StreamCipher cipher = new Salsa20Engine();
+		StreamCipher cipher;
+		if ( useNative() ) {
+			// Protected values are only a few bytes each, so take the keystream from JNI in bulk
+			cipher = new KeystreamBuffer(new NativeSalsa20Engine());
+		} else {
+			cipher = new Salsa20Engine();
+		}
 		cipher.init(true, ivParam);
 
 		return cipher;
@@ -67,7 +77,12 @@ public class PwStreamCipherFactory {
 		KeyParameter keyParam = new KeyParameter(key32);
 		ParametersWithIV ivParam = new ParametersWithIV(keyParam, iv);
 
-        StreamCipher cipher = new ChaCha7539Engine();
+		StreamCipher cipher;
+		if ( useNative() ) {
+			cipher = new KeystreamBuffer(new NativeChaCha20Engine());
+		} else {
+			cipher = new ChaCha7539Engine();
+		}
 		cipher.init(true, ivParam);
 		
 		return cipher;
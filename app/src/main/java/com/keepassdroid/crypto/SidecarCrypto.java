@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.crypto;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/** Encryption for the files kept alongside a KDBX database, such as the model cache and
+ * the edit journal. Their keys are derived from the database HMAC key, one per purpose.
+ */
+public class SidecarCrypto {
+	private SidecarCrypto() {}
+
+	/** SHA-256 of the HMAC key followed by the purpose label */
+	public static byte[] deriveKey(byte[] hmacKey, String purpose) throws IOException {
+		byte[] label = purpose.getBytes("UTF-8");
+		byte[] data = new byte[hmacKey.length + label.length];
+		System.arraycopy(hmacKey, 0, data, 0, hmacKey.length);
+		System.arraycopy(label, 0, data, hmacKey.length, label.length);
+
+		try {
+			return CryptoUtil.hashSha256(data);
+		} finally {
+			Arrays.fill(data, (byte) 0);
+		}
+	}
+
+	public static Mac getMac(byte[] key) throws IOException {
+		try {
+			Mac hmac = Mac.getInstance("HmacSHA256");
+			hmac.init(new SecretKeySpec(key, "HmacSHA256"));
+			return hmac;
+		} catch (GeneralSecurityException e) {
+			throw new IOException("No HmacSHA256 implementation");
+		}
+	}
+
+	/** AES-CBC with PKCS5 padding, in Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE */
+	public static byte[] crypt(int mode, byte[] key, byte[] iv, byte[] data, int offset, int length) throws IOException {
+		try {
+			Cipher cipher = CipherFactory.getInstance("AES/CBC/PKCS5Padding");
+			cipher.init(mode, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+			return cipher.doFinal(data, offset, length);
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Failed to process sidecar file: " + e.getMessage());
+		}
+	}
+
+	public static byte[] readFile(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			byte[] data = new byte[(int) file.length()];
+			new DataInputStream(fis).readFully(data);
+			return data;
+		} finally {
+			fis.close();
+		}
+	}
+
+}
@@ -21,6 +21,7 @@ package com.keepassdroid.crypto.engine;
 
 
 import com.keepassdroid.crypto.CipherFactory;
+import com.keepassdroid.crypto.ParallelCbcDecryptor;
 import com.keepassdroid.utils.Types;
 
 import java.security.InvalidAlgorithmParameterException;
@@ -47,4 +48,9 @@ public class AesEngine extends CipherEngine {
 
         return cipher;
     }
+
+    @Override
+    public ParallelCbcDecryptor getParallelDecryptor(byte[] key, boolean androidOverride) {
+        return new ParallelCbcDecryptor("AES/CBC/PKCS5Padding", "AES/CBC/NoPadding", key, androidOverride);
+    }
 }
@@ -19,10 +19,9 @@
  */
 package com.keepassdroid.crypto.engine;
 
+import com.keepassdroid.crypto.CipherFactory;
 import com.keepassdroid.utils.Types;
 
-import org.spongycastle.jce.provider.BouncyCastleProvider;
-
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -46,7 +45,7 @@ public class ChaCha20Engine extends CipherEngine {
 
     @Override
     public Cipher getCipher(int opmode, byte[] key, byte[] IV, boolean androidOverride) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException {
-        Cipher cipher = Cipher.getInstance("Chacha7539", new BouncyCastleProvider());
+        Cipher cipher = CipherFactory.getInstance("ChaCha7539", androidOverride);
         cipher.init(opmode, new SecretKeySpec(key, "ChaCha7539"), new IvParameterSpec(IV));
         return cipher;
     }
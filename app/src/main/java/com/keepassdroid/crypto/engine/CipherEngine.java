@@ -26,6 +26,8 @@ import java.security.NoSuchAlgorithmException;
 import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
 
+import com.keepassdroid.crypto.ParallelCbcDecryptor;
+
 public abstract class CipherEngine {
     public int keyLength() {
         return 32;
@@ -41,4 +43,9 @@ public abstract class CipherEngine {
         return getCipher(opmode, key, IV, false);
     }
 
+    /** Decryptor splitting the work across cores, or null if the cipher is not a block cipher in CBC mode */
+    public ParallelCbcDecryptor getParallelDecryptor(byte[] key, boolean androidOverride) {
+        return null;
+    }
+
 }
@@ -20,6 +20,7 @@
 package com.keepassdroid.crypto.engine;
 
 import com.keepassdroid.crypto.CipherFactory;
+import com.keepassdroid.crypto.ParallelCbcDecryptor;
 import com.keepassdroid.utils.Types;
 
 import java.security.InvalidAlgorithmParameterException;
@@ -50,4 +51,10 @@ public class TwofishEngine extends CipherEngine {
 
         return cipher;
     }
+
+    @Override
+    public ParallelCbcDecryptor getParallelDecryptor(byte[] key, boolean androidOverride) {
+        // Decryption never removed the padding, the stream formats inside find their own end
+        return new ParallelCbcDecryptor("Twofish/CBC/NoPadding", "Twofish/CBC/NoPadding", key, androidOverride);
+    }
 }
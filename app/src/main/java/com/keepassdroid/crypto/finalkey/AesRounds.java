@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.crypto.finalkey;
+
+/** AES-256 encryption of one block many times over, for the AES-KDF.
+ *
+ * Uses the usual 32 bit T-tables and keeps the state in locals between rounds, so there is
+ * no cipher dispatch or copying per round like with a JCE Cipher. Only what the key
+ * transformation needs is here, it is not a general purpose AES.
+ */
+final class AesRounds {
+	static final int KEY_LENGTH = 32;
+	static final int BLOCK_LENGTH = 16;
+
+	private static final int NR = 14;
+
+	private static final int[] S = new int[256];
+	private static final int[] TE0 = new int[256];
+	private static final int[] TE1 = new int[256];
+	private static final int[] TE2 = new int[256];
+	private static final int[] TE3 = new int[256];
+
+	static {
+		// S-box from the multiplicative inverse in GF(2^8) followed by the affine transform
+		int p = 1, q = 1;
+		do {
+			p = (p ^ (p << 1) ^ ((p & 0x80) != 0 ? 0x1B : 0)) & 0xFF;
+
+			q ^= q << 1;
+			q ^= q << 2;
+			q ^= q << 4;
+			q &= 0xFF;
+			if ((q & 0x80) != 0) {
+				q ^= 0x09;
+			}
+
+			int x = q ^ rotl8(q, 1) ^ rotl8(q, 2) ^ rotl8(q, 3) ^ rotl8(q, 4);
+			S[p] = (x ^ 0x63) & 0xFF;
+		} while (p != 1);
+		S[0] = 0x63;
+
+		for (int i = 0; i < 256; i++) {
+			int s = S[i];
+			int s2 = xtime(s);
+			int t = (s2 << 24) | (s << 16) | (s << 8) | (s2 ^ s);
+			TE0[i] = t;
+			TE1[i] = Integer.rotateRight(t, 8);
+			TE2[i] = Integer.rotateRight(t, 16);
+			TE3[i] = Integer.rotateRight(t, 24);
+		}
+	}
+
+	private AesRounds() {}
+
+	/** Expand a 256 bit key into the 60 round key words */
+	static int[] expandKey(byte[] key) {
+		int[] w = new int[4 * (NR + 1)];
+		for (int i = 0; i < 8; i++) {
+			w[i] = getInt(key, 4 * i);
+		}
+
+		int rcon = 1;
+		for (int i = 8; i < w.length; i++) {
+			int t = w[i - 1];
+			if (i % 8 == 0) {
+				t = subWord(Integer.rotateLeft(t, 8)) ^ (rcon << 24);
+				rcon = xtime(rcon);
+			} else if (i % 8 == 4) {
+				t = subWord(t);
+			}
+			w[i] = w[i - 8] ^ t;
+		}
+
+		return w;
+	}
+
+	/** Encrypt the block at offset in place, rounds times */
+	static void encrypt(int[] rk, byte[] block, int offset, long rounds) {
+		int s0 = getInt(block, offset);
+		int s1 = getInt(block, offset + 4);
+		int s2 = getInt(block, offset + 8);
+		int s3 = getInt(block, offset + 12);
+
+		final int[] te0 = TE0, te1 = TE1, te2 = TE2, te3 = TE3, sb = S;
+
+		for (long n = 0; n < rounds; n++) {
+			s0 ^= rk[0];
+			s1 ^= rk[1];
+			s2 ^= rk[2];
+			s3 ^= rk[3];
+
+			int k = 4;
+			for (int r = 1; r < NR; r++) {
+				int t0 = te0[s0 >>> 24] ^ te1[(s1 >>> 16) & 0xFF] ^ te2[(s2 >>> 8) & 0xFF] ^ te3[s3 & 0xFF] ^ rk[k];
+				int t1 = te0[s1 >>> 24] ^ te1[(s2 >>> 16) & 0xFF] ^ te2[(s3 >>> 8) & 0xFF] ^ te3[s0 & 0xFF] ^ rk[k + 1];
+				int t2 = te0[s2 >>> 24] ^ te1[(s3 >>> 16) & 0xFF] ^ te2[(s0 >>> 8) & 0xFF] ^ te3[s1 & 0xFF] ^ rk[k + 2];
+				int t3 = te0[s3 >>> 24] ^ te1[(s0 >>> 16) & 0xFF] ^ te2[(s1 >>> 8) & 0xFF] ^ te3[s2 & 0xFF] ^ rk[k + 3];
+				s0 = t0;
+				s1 = t1;
+				s2 = t2;
+				s3 = t3;
+				k += 4;
+			}
+
+			// Last round has no MixColumns
+			int t0 = (sb[s0 >>> 24] << 24) | (sb[(s1 >>> 16) & 0xFF] << 16) | (sb[(s2 >>> 8) & 0xFF] << 8) | sb[s3 & 0xFF];
+			int t1 = (sb[s1 >>> 24] << 24) | (sb[(s2 >>> 16) & 0xFF] << 16) | (sb[(s3 >>> 8) & 0xFF] << 8) | sb[s0 & 0xFF];
+			int t2 = (sb[s2 >>> 24] << 24) | (sb[(s3 >>> 16) & 0xFF] << 16) | (sb[(s0 >>> 8) & 0xFF] << 8) | sb[s1 & 0xFF];
+			int t3 = (sb[s3 >>> 24] << 24) | (sb[(s0 >>> 16) & 0xFF] << 16) | (sb[(s1 >>> 8) & 0xFF] << 8) | sb[s2 & 0xFF];
+			s0 = t0 ^ rk[k];
+			s1 = t1 ^ rk[k + 1];
+			s2 = t2 ^ rk[k + 2];
+			s3 = t3 ^ rk[k + 3];
+		}
+
+		putInt(block, offset, s0);
+		putInt(block, offset + 4, s1);
+		putInt(block, offset + 8, s2);
+		putInt(block, offset + 12, s3);
+	}
+
+	private static int subWord(int w) {
+		return (S[w >>> 24] << 24) | (S[(w >>> 16) & 0xFF] << 16) | (S[(w >>> 8) & 0xFF] << 8) | S[w & 0xFF];
+	}
+
+	private static int xtime(int b) {
+		return ((b << 1) ^ ((b & 0x80) != 0 ? 0x1B : 0)) & 0xFF;
+	}
+
+	private static int rotl8(int b, int shift) {
+		return ((b << shift) | (b >>> (8 - shift))) & 0xFF;
+	}
+
+	private static int getInt(byte[] b, int offset) {
+		return (b[offset] << 24) | ((b[offset + 1] & 0xFF) << 16) | ((b[offset + 2] & 0xFF) << 8) | (b[offset + 3] & 0xFF);
+	}
+
+	private static void putInt(byte[] b, int offset, int v) {
+		b[offset] = (byte) (v >>> 24);
+		b[offset + 1] = (byte) (v >>> 16);
+		b[offset + 2] = (byte) (v >>> 8);
+		b[offset + 3] = (byte) v;
+	}
+
+}
@@ -20,45 +20,50 @@
 package com.keepassdroid.crypto.finalkey;
 
 import java.io.IOException;
-import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
-import javax.crypto.Cipher;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.ShortBufferException;
-import javax.crypto.spec.SecretKeySpec;
-
+/** Java AES-KDF, used when the native library can't be.
+ *
+ * The two halves of the key are independent, so the second one is encrypted on another
+ * thread like the native implementation does.
+ */
 public class AndroidFinalKey extends FinalKey {
+	// Below this, starting a thread costs more than it saves
+	private static final long THREAD_ROUNDS = 2048;
 
 	@Override
 	public byte[] transformMasterKey(byte[] pKeySeed, byte[] pKey, long rounds) throws IOException {
-		Cipher cipher;
-		try {
-			cipher = Cipher.getInstance("AES/ECB/NoPadding");
-		} catch (NoSuchAlgorithmException e) {
-			throw new IOException("NoSuchAlgorithm: " + e.getMessage());
-		} catch (NoSuchPaddingException e) {
-			throw new IOException("NoSuchPadding: " + e.getMessage());
+		if (pKeySeed.length != AesRounds.KEY_LENGTH) {
+			throw new IOException("InvalidPasswordException: Invalid key seed length");
 		}
-
-		try {
-			cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(pKeySeed, "AES"));
-		} catch (InvalidKeyException e) {
-			throw new IOException("InvalidPasswordException: " + e.getMessage());
+		if (pKey.length != 2 * AesRounds.BLOCK_LENGTH) {
+			throw new IOException("Invalid key length");
 		}
 
+		final int[] rk = AesRounds.expandKey(pKeySeed);
+		final long count = rounds;
+
 		// Encrypt key rounds times
-		byte[] newKey = new byte[pKey.length];
+		final byte[] newKey = new byte[pKey.length];
 		System.arraycopy(pKey, 0, newKey, 0, pKey.length);
-		byte[] destKey = new byte[pKey.length];
-		for (int i = 0; i < rounds; i++) {
-			try {
-				cipher.update(newKey, 0, newKey.length, destKey, 0);
-				System.arraycopy(destKey, 0, newKey, 0, newKey.length);
+		if (rounds < THREAD_ROUNDS) {
+			AesRounds.encrypt(rk, newKey, 0, rounds);
+			AesRounds.encrypt(rk, newKey, AesRounds.BLOCK_LENGTH, rounds);
+		} else {
+			Thread second = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					AesRounds.encrypt(rk, newKey, AesRounds.BLOCK_LENGTH, count);
+				}
+			});
+			second.start();
+			AesRounds.encrypt(rk, newKey, 0, rounds);
 
-			} catch (ShortBufferException e) {
-				throw new IOException("Short buffer: " + e.getMessage());
+			try {
+				second.join();
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while transforming the key");
 			}
 		}
 
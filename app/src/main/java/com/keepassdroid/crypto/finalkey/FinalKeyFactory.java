@@ -28,11 +28,20 @@ public class FinalKeyFactory {
 	
 	public static FinalKey createFinalKey(boolean androidOverride) {
 		// Prefer the native final key implementation
-		if ( !CipherFactory.deviceBlacklisted() && !androidOverride && NativeFinalKey.availble() ) {
+		if ( useNative(androidOverride) ) {
 			return new NativeFinalKey();
 		} else {
 			// Fall back on the android crypto implementation
 			return new AndroidFinalKey();
 		}
 	}
+
+	/** True if createFinalKey returns an implementation that uses the AES instructions of the CPU */
+	public static boolean isHardwareAccelerated() {
+		return useNative(false) && !NativeFinalKey.getImplementation().equals("gladman");
+	}
+
+	private static boolean useNative(boolean androidOverride) {
+		return !CipherFactory.deviceBlacklisted() && !androidOverride && NativeFinalKey.availble();
+	}
 }
@@ -38,8 +38,40 @@ public class NativeFinalKey extends FinalKey {
 
 	}
 	
+	/** Name of the implementation used for the AES rounds, "gladman" when the CPU has no AES instructions */
+	public static String getImplementation() {
+		NativeLib.init();
+
+		return nSelectedImplementation();
+	}
+
+	/** Names of the AES round implementations this CPU supports, fastest first */
+	public static String[] getImplementations() {
+		NativeLib.init();
+
+		return nImplementations();
+	}
+
+	/**
+	 * Use the named implementation for all following transforms, or the fastest one for null.
+	 * Meant for tests comparing the implementations.
+	 *
+	 * @return false if the implementation is unknown or not supported by this CPU
+	 */
+	public static boolean selectImplementation(String name) {
+		NativeLib.init();
+
+		return nSelectImplementation(name);
+	}
+
 	private static native byte[] nTransformMasterKey(byte[] seed, byte[] key, long rounds);
 
+	private static native String nSelectedImplementation();
+
+	private static native String[] nImplementations();
+
+	private static native boolean nSelectImplementation(String name);
+
 	// For testing
 	/*
 	public static byte[] reflect(byte[] key) {
@@ -38,6 +38,10 @@ public class AesKdf extends KdfEngine {
     public static final String ParamRounds = "R";
     public static final String ParamSeed = "S";
 
+    // Calibration measures for about half of this, or half the target if that is shorter
+    private static final long CalibrationWindowMillis = 250;
+    private static final long MaxRounds = Integer.MAX_VALUE;
+
     public AesKdf() {
         uuid = CIPHER_UUID;
     }
@@ -45,7 +49,7 @@ public class AesKdf extends KdfEngine {
     @Override
     public KdfParameters getDefaultParameters() {
         KdfParameters p = super.getDefaultParameters();
-        p.setUInt32(ParamRounds, PwDatabaseV4.DEFAULT_ROUNDS);
+        p.setUInt64(ParamRounds, PwDatabaseV4.DEFAULT_ROUNDS);
 
         return p;
     }
@@ -76,4 +80,39 @@ public class AesKdf extends KdfEngine {
 
         p.setByteArray(ParamSeed, seed);
     }
+
+    @Override
+    public void calibrate(KdfParameters p, long targetMillis) throws IOException {
+        FinalKey key = FinalKeyFactory.createFinalKey();
+        byte[] seed = new byte[32];
+        byte[] masterKey = new byte[32];
+        long windowNanos = Math.min(targetMillis, CalibrationWindowMillis) * 1000000 / 2;
+
+        long rounds = 1024;
+        long elapsed;
+        while (true) {
+            long start = System.nanoTime();
+            key.transformMasterKey(seed, masterKey, rounds);
+            elapsed = Math.max(System.nanoTime() - start, 1);
+
+            if (elapsed >= windowNanos || rounds >= MaxRounds) {
+                break;
+            }
+            rounds *= 2;
+        }
+
+        double perMilli = rounds * 1000000.0 / elapsed;
+        long target = (long) Math.min(perMilli * targetMillis, MaxRounds);
+        setRounds(p, Math.max(target, PwDatabaseV4.DEFAULT_ROUNDS));
+    }
+
+    @Override
+    public long getRounds(KdfParameters p) {
+        return p.getUInt64(ParamRounds);
+    }
+
+    @Override
+    public void setRounds(KdfParameters p, long rounds) {
+        p.setUInt64(ParamRounds, rounds);
+    }
 }
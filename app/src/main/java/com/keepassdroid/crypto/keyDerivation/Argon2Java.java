@@ -0,0 +1,498 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.crypto.keyDerivation;
+
+import org.spongycastle.crypto.digests.Blake2bDigest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Argon2 in Java, for devices where the native library can't be loaded. Produces the same
+ * output as Argon2Native.
+ *
+ * All blocks live in one long[] arena. The lanes of each slice are filled in parallel on a
+ * thread pool, with the slice boundaries as synchronization points.
+ */
+public class Argon2Java {
+    private static final int BLOCK_SIZE = 1024;
+    private static final int QWORDS_IN_BLOCK = BLOCK_SIZE / 8;
+    private static final int ADDRESSES_IN_BLOCK = 128;
+    private static final int SYNC_POINTS = 4;
+    private static final int PREHASH_DIGEST_LENGTH = 64;
+    private static final int HASH_LENGTH = 32;
+
+    private static final long VERSION_10 = 0x10;
+
+    /**
+     * Same arguments as Argon2Native.transformKey, memory is in bytes
+     */
+    public static byte[] transformKey(int type, byte[] password, byte[] salt, int parallelism,
+                                      long memory, long iterations, byte[] secretKey,
+                                      byte[] associatedData, long version) throws IOException {
+        if (parallelism < 1 || iterations < 1) {
+            throw new IOException("Invalid Argon2 parameters");
+        }
+
+        // Truncated to 32 bits like the native code
+        long memoryCost = (memory & 0xFFFFFFFFL) / BLOCK_SIZE;
+        if (memoryCost < 2L * SYNC_POINTS * parallelism) {
+            throw new IOException("Argon2 memory too small");
+        }
+        if (memoryCost > Integer.MAX_VALUE / QWORDS_IN_BLOCK) {
+            throw new IOException("Not enough memory for Argon2");
+        }
+
+        int segmentLength = (int) (memoryCost / (parallelism * SYNC_POINTS));
+        Instance instance = new Instance(type, version, parallelism, iterations, segmentLength);
+
+        try {
+            instance.memory = new long[instance.memoryBlocks * QWORDS_IN_BLOCK];
+        } catch (OutOfMemoryError e) {
+            throw new IOException("Not enough memory for Argon2");
+        }
+
+        try {
+            byte[] h0 = initialHash(instance, (int) memoryCost, password, salt, secretKey,
+                    associatedData);
+            fillFirstBlocks(instance, h0);
+            Arrays.fill(h0, (byte) 0);
+
+            fillMemory(instance);
+
+            return finalHash(instance);
+        } finally {
+            Arrays.fill(instance.memory, 0);
+        }
+    }
+
+    private static class Instance {
+        final int type;
+        final long version;
+        final int lanes;
+        final long passes;
+        final int segmentLength;
+        final int laneLength;
+        final int memoryBlocks;
+        long[] memory;
+
+        Instance(int type, long version, int lanes, long passes, int segmentLength) {
+            this.type = type;
+            this.version = version;
+            this.lanes = lanes;
+            this.passes = passes;
+            this.segmentLength = segmentLength;
+            laneLength = segmentLength * SYNC_POINTS;
+            memoryBlocks = laneLength * lanes;
+        }
+    }
+
+    private static byte[] initialHash(Instance instance, int memoryCost, byte[] password,
+                                      byte[] salt, byte[] secretKey, byte[] associatedData) {
+        Blake2bDigest digest = new Blake2bDigest(PREHASH_DIGEST_LENGTH * 8);
+        updateInt(digest, instance.lanes);
+        updateInt(digest, HASH_LENGTH);
+        updateInt(digest, memoryCost);
+        updateInt(digest, (int) instance.passes);
+        updateInt(digest, (int) instance.version);
+        updateInt(digest, instance.type);
+        updateBytes(digest, password);
+        updateBytes(digest, salt);
+        updateBytes(digest, secretKey);
+        updateBytes(digest, associatedData);
+
+        byte[] h0 = new byte[PREHASH_DIGEST_LENGTH];
+        digest.doFinal(h0, 0);
+        return h0;
+    }
+
+    private static void fillFirstBlocks(Instance instance, byte[] h0) {
+        byte[] input = new byte[PREHASH_DIGEST_LENGTH + 8];
+        System.arraycopy(h0, 0, input, 0, PREHASH_DIGEST_LENGTH);
+        byte[] blockBytes = new byte[BLOCK_SIZE];
+
+        for (int lane = 0; lane < instance.lanes; lane++) {
+            for (int i = 0; i < 2; i++) {
+                storeInt(input, PREHASH_DIGEST_LENGTH, i);
+                storeInt(input, PREHASH_DIGEST_LENGTH + 4, lane);
+                hashLong(blockBytes, input);
+
+                int offset = (lane * instance.laneLength + i) * QWORDS_IN_BLOCK;
+                for (int j = 0; j < QWORDS_IN_BLOCK; j++) {
+                    instance.memory[offset + j] = loadLong(blockBytes, j * 8);
+                }
+            }
+        }
+
+        Arrays.fill(input, (byte) 0);
+        Arrays.fill(blockBytes, (byte) 0);
+    }
+
+    private static void fillMemory(final Instance instance) throws IOException {
+        int threads = Math.min(instance.lanes, Runtime.getRuntime().availableProcessors());
+        if (threads <= 1) {
+            Segment segment = new Segment(instance);
+            for (long pass = 0; pass < instance.passes; pass++) {
+                for (int slice = 0; slice < SYNC_POINTS; slice++) {
+                    for (int lane = 0; lane < instance.lanes; lane++) {
+                        segment.fill(pass, lane, slice);
+                    }
+                }
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<SegmentTask> tasks = new ArrayList<SegmentTask>(instance.lanes);
+            for (int lane = 0; lane < instance.lanes; lane++) {
+                tasks.add(new SegmentTask(new Segment(instance), lane));
+            }
+
+            for (long pass = 0; pass < instance.passes; pass++) {
+                for (int slice = 0; slice < SYNC_POINTS; slice++) {
+                    for (SegmentTask task : tasks) {
+                        task.pass = pass;
+                        task.slice = slice;
+                    }
+
+                    // invokeAll returns once every lane finished, which is the sync point
+                    for (Future<Void> result : executor.invokeAll(tasks)) {
+                        result.get();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Argon2 interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Argon2 failed: " + e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class SegmentTask implements Callable<Void> {
+        private final Segment segment;
+        private final int lane;
+        long pass;
+        int slice;
+
+        SegmentTask(Segment segment, int lane) {
+            this.segment = segment;
+            this.lane = lane;
+        }
+
+        @Override
+        public Void call() {
+            segment.fill(pass, lane, slice);
+            return null;
+        }
+    }
+
+    /** Fills segments of one lane, with scratch blocks reused between calls */
+    private static class Segment {
+        private final Instance instance;
+        private final long[] r = new long[QWORDS_IN_BLOCK];
+        private final long[] tmp = new long[QWORDS_IN_BLOCK];
+        private final long[] address = new long[QWORDS_IN_BLOCK];
+        private final long[] input = new long[QWORDS_IN_BLOCK];
+        private final long[] zero = new long[QWORDS_IN_BLOCK];
+
+        Segment(Instance instance) {
+            this.instance = instance;
+        }
+
+        void fill(long pass, int lane, int slice) {
+            long[] memory = instance.memory;
+            boolean dataIndependent = instance.type == Argon2Kdf.TypeI
+                    || (instance.type == Argon2Kdf.TypeId && pass == 0 && slice < SYNC_POINTS / 2);
+
+            if (dataIndependent) {
+                Arrays.fill(input, 0);
+                input[0] = pass;
+                input[1] = lane;
+                input[2] = slice;
+                input[3] = instance.memoryBlocks;
+                input[4] = instance.passes;
+                input[5] = instance.type;
+            }
+
+            int startingIndex = 0;
+            if (pass == 0 && slice == 0) {
+                // The first two blocks are already filled
+                startingIndex = 2;
+                if (dataIndependent) {
+                    nextAddresses();
+                }
+            }
+
+            int currOffset = lane * instance.laneLength + slice * instance.segmentLength + startingIndex;
+            int prevOffset;
+            if (currOffset % instance.laneLength == 0) {
+                prevOffset = currOffset + instance.laneLength - 1;
+            } else {
+                prevOffset = currOffset - 1;
+            }
+
+            for (int i = startingIndex; i < instance.segmentLength; i++, currOffset++, prevOffset++) {
+                if (currOffset % instance.laneLength == 1) {
+                    prevOffset = currOffset - 1;
+                }
+
+                long pseudoRand;
+                if (dataIndependent) {
+                    if (i % ADDRESSES_IN_BLOCK == 0) {
+                        nextAddresses();
+                    }
+                    pseudoRand = address[i % ADDRESSES_IN_BLOCK];
+                } else {
+                    pseudoRand = memory[prevOffset * QWORDS_IN_BLOCK];
+                }
+
+                int refLane = (int) ((pseudoRand >>> 32) % instance.lanes);
+                if (pass == 0 && slice == 0) {
+                    refLane = lane;
+                }
+
+                int refIndex = indexAlpha(pass, slice, i, pseudoRand & 0xFFFFFFFFL, refLane == lane);
+                int refOffset = instance.laneLength * refLane + refIndex;
+
+                boolean withXor = instance.version != VERSION_10 && pass != 0;
+                fillBlock(memory, prevOffset * QWORDS_IN_BLOCK, memory, refOffset * QWORDS_IN_BLOCK,
+                        memory, currOffset * QWORDS_IN_BLOCK, withXor);
+            }
+        }
+
+        private int indexAlpha(long pass, int slice, int index, long pseudoRand, boolean sameLane) {
+            long segmentLength = instance.segmentLength;
+            long laneLength = instance.laneLength;
+            long referenceAreaSize;
+
+            if (pass == 0) {
+                if (slice == 0) {
+                    referenceAreaSize = index - 1;
+                } else if (sameLane) {
+                    referenceAreaSize = slice * segmentLength + index - 1;
+                } else {
+                    referenceAreaSize = slice * segmentLength + (index == 0 ? -1 : 0);
+                }
+            } else {
+                if (sameLane) {
+                    referenceAreaSize = laneLength - segmentLength + index - 1;
+                } else {
+                    referenceAreaSize = laneLength - segmentLength + (index == 0 ? -1 : 0);
+                }
+            }
+
+            long relativePosition = (pseudoRand * pseudoRand) >>> 32;
+            relativePosition = referenceAreaSize - 1 - ((referenceAreaSize * relativePosition) >>> 32);
+
+            long startPosition = 0;
+            if (pass != 0) {
+                startPosition = (slice == SYNC_POINTS - 1) ? 0 : (slice + 1) * segmentLength;
+            }
+
+            return (int) ((startPosition + relativePosition) % laneLength);
+        }
+
+        private void nextAddresses() {
+            input[6]++;
+            Arrays.fill(zero, 0);
+            fillBlock(zero, 0, input, 0, address, 0, false);
+            Arrays.fill(zero, 0);
+            fillBlock(zero, 0, address, 0, address, 0, false);
+        }
+
+        private void fillBlock(long[] prev, int prevOffset, long[] ref, int refOffset,
+                               long[] next, int nextOffset, boolean withXor) {
+            for (int i = 0; i < QWORDS_IN_BLOCK; i++) {
+                r[i] = ref[refOffset + i] ^ prev[prevOffset + i];
+            }
+
+            if (withXor) {
+                for (int i = 0; i < QWORDS_IN_BLOCK; i++) {
+                    tmp[i] = r[i] ^ next[nextOffset + i];
+                }
+            } else {
+                System.arraycopy(r, 0, tmp, 0, QWORDS_IN_BLOCK);
+            }
+
+            // Columns of 16 words, then rows of pairs
+            for (int i = 0; i < 8; i++) {
+                int b = 16 * i;
+                roundNoMsg(r, b, b + 1, b + 2, b + 3, b + 4, b + 5, b + 6, b + 7,
+                        b + 8, b + 9, b + 10, b + 11, b + 12, b + 13, b + 14, b + 15);
+            }
+            for (int i = 0; i < 8; i++) {
+                int b = 2 * i;
+                roundNoMsg(r, b, b + 1, b + 16, b + 17, b + 32, b + 33, b + 48, b + 49,
+                        b + 64, b + 65, b + 80, b + 81, b + 96, b + 97, b + 112, b + 113);
+            }
+
+            for (int i = 0; i < QWORDS_IN_BLOCK; i++) {
+                next[nextOffset + i] = tmp[i] ^ r[i];
+            }
+        }
+    }
+
+    private static void roundNoMsg(long[] v, int v0, int v1, int v2, int v3, int v4, int v5,
+                                   int v6, int v7, int v8, int v9, int v10, int v11, int v12,
+                                   int v13, int v14, int v15) {
+        g(v, v0, v4, v8, v12);
+        g(v, v1, v5, v9, v13);
+        g(v, v2, v6, v10, v14);
+        g(v, v3, v7, v11, v15);
+        g(v, v0, v5, v10, v15);
+        g(v, v1, v6, v11, v12);
+        g(v, v2, v7, v8, v13);
+        g(v, v3, v4, v9, v14);
+    }
+
+    private static void g(long[] v, int ia, int ib, int ic, int id) {
+        long a = v[ia], b = v[ib], c = v[ic], d = v[id];
+
+        a = fBlaMka(a, b);
+        d = Long.rotateRight(d ^ a, 32);
+        c = fBlaMka(c, d);
+        b = Long.rotateRight(b ^ c, 24);
+        a = fBlaMka(a, b);
+        d = Long.rotateRight(d ^ a, 16);
+        c = fBlaMka(c, d);
+        b = Long.rotateRight(b ^ c, 63);
+
+        v[ia] = a;
+        v[ib] = b;
+        v[ic] = c;
+        v[id] = d;
+    }
+
+    private static long fBlaMka(long x, long y) {
+        long xy = (x & 0xFFFFFFFFL) * (y & 0xFFFFFFFFL);
+        return x + y + 2 * xy;
+    }
+
+    private static byte[] finalHash(Instance instance) {
+        long[] memory = instance.memory;
+        long[] last = new long[QWORDS_IN_BLOCK];
+        for (int lane = 0; lane < instance.lanes; lane++) {
+            int offset = (lane * instance.laneLength + instance.laneLength - 1) * QWORDS_IN_BLOCK;
+            for (int i = 0; i < QWORDS_IN_BLOCK; i++) {
+                last[i] ^= memory[offset + i];
+            }
+        }
+
+        byte[] lastBytes = new byte[BLOCK_SIZE];
+        for (int i = 0; i < QWORDS_IN_BLOCK; i++) {
+            storeLong(lastBytes, i * 8, last[i]);
+        }
+
+        byte[] out = new byte[HASH_LENGTH];
+        hashLong(out, lastBytes);
+        Arrays.fill(lastBytes, (byte) 0);
+        Arrays.fill(last, 0);
+
+        return out;
+    }
+
+    /** Variable length hash H' from the Argon2 specification, fills all of out */
+    private static void hashLong(byte[] out, byte[] input) {
+        int outLength = out.length;
+        if (outLength <= PREHASH_DIGEST_LENGTH) {
+            Blake2bDigest digest = new Blake2bDigest(outLength * 8);
+            updateInt(digest, outLength);
+            digest.update(input, 0, input.length);
+            digest.doFinal(out, 0);
+            return;
+        }
+
+        byte[] v = new byte[PREHASH_DIGEST_LENGTH];
+        Blake2bDigest digest = new Blake2bDigest(PREHASH_DIGEST_LENGTH * 8);
+        updateInt(digest, outLength);
+        digest.update(input, 0, input.length);
+        digest.doFinal(v, 0);
+
+        int half = PREHASH_DIGEST_LENGTH / 2;
+        int pos = 0;
+        System.arraycopy(v, 0, out, pos, half);
+        pos += half;
+
+        while (outLength - pos > PREHASH_DIGEST_LENGTH) {
+            digest = new Blake2bDigest(PREHASH_DIGEST_LENGTH * 8);
+            digest.update(v, 0, v.length);
+            digest.doFinal(v, 0);
+            System.arraycopy(v, 0, out, pos, half);
+            pos += half;
+        }
+
+        int remaining = outLength - pos;
+        digest = new Blake2bDigest(remaining * 8);
+        digest.update(v, 0, v.length);
+        byte[] tail = new byte[remaining];
+        digest.doFinal(tail, 0);
+        System.arraycopy(tail, 0, out, pos, remaining);
+
+        Arrays.fill(v, (byte) 0);
+        Arrays.fill(tail, (byte) 0);
+    }
+
+    private static void updateInt(Blake2bDigest digest, int value) {
+        byte[] buf = new byte[4];
+        storeInt(buf, 0, value);
+        digest.update(buf, 0, 4);
+    }
+
+    private static void updateBytes(Blake2bDigest digest, byte[] data) {
+        if (data == null) {
+            updateInt(digest, 0);
+            return;
+        }
+
+        updateInt(digest, data.length);
+        digest.update(data, 0, data.length);
+    }
+
+    private static void storeInt(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) value;
+        buf[offset + 1] = (byte) (value >>> 8);
+        buf[offset + 2] = (byte) (value >>> 16);
+        buf[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static void storeLong(byte[] buf, int offset, long value) {
+        storeInt(buf, offset, (int) value);
+        storeInt(buf, offset + 4, (int) (value >>> 32));
+    }
+
+    private static long loadLong(byte[] buf, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = (value << 8) | (buf[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -19,6 +19,7 @@
  */
 package com.keepassdroid.crypto.keyDerivation;
 
+import com.keepassdroid.crypto.NativeLib;
 import com.keepassdroid.utils.Types;
 
 import java.io.IOException;
@@ -31,6 +32,16 @@ public class Argon2Kdf extends KdfEngine {
                     (byte) 0x91, (byte) 0xF7, (byte) 0xA9, (byte) 0xA4, (byte)0x03, (byte) 0xE3, (byte) 0x0A, (byte) 0x0C
             });
 
+    public static final UUID CIPHER_UUID_ID = Types.bytestoUUID(
+            new byte[]{(byte) 0x9E, (byte) 0x29, (byte) 0x8B, (byte) 0x19, (byte) 0x56, (byte) 0xDB, (byte) 0x47, (byte) 0x73,
+                    (byte) 0xB2, (byte) 0x3D, (byte) 0xFC, (byte) 0x3E, (byte) 0xC6, (byte) 0xF0, (byte) 0xA1, (byte) 0xE6
+            });
+
+    // Values of argon2_type in argon2.h
+    public static final int TypeD = 0;
+    public static final int TypeI = 1;
+    public static final int TypeId = 2;
+
     public static final String ParamSalt = "S"; // byte[]
     public static final String ParamParallelism = "P"; // UInt32
     public static final String ParamMemory = "M"; // UInt64
@@ -58,8 +69,22 @@ public class Argon2Kdf extends KdfEngine {
     private static final long DefaultMemory = 1024 * 1024;
     private static final long DefaultParallelism = 2;
 
+    private static final int MaxCalibrationParallelism = 8;
+    private static final long MaxCalibrationMemory = 64 * 1024 * 1024;
+
+    private final int type;
+
     public Argon2Kdf() {
-        uuid = CIPHER_UUID;
+        this(TypeD);
+    }
+
+    public Argon2Kdf(int type) {
+        this.type = type;
+        uuid = (type == TypeId) ? CIPHER_UUID_ID : CIPHER_UUID;
+    }
+
+    public int getType() {
+        return type;
     }
 
     @Override
@@ -67,6 +92,7 @@ public class Argon2Kdf extends KdfEngine {
         KdfParameters p = super.getDefaultParameters();
 
         p.setUInt32(ParamVersion, MaxVersion);
+        p.setUInt64(ParamIterations, DefaultIterations);
         p.setUInt64(ParamMemory, DefaultMemory);
         p.setUInt32(ParamParallelism, DefaultParallelism);
 
@@ -84,10 +110,84 @@ public class Argon2Kdf extends KdfEngine {
         byte[] secretKey = p.getByteArray(ParamSecretKey);
         byte[] assocData = p.getByteArray(ParamAssocData);
 
-        return Argon2Native.transformKey(masterKey, salt, parallelism, memory, iterations,
+        return transformKey(type, masterKey, salt, parallelism, memory, iterations,
                 secretKey, assocData, version);
     }
 
+    /** Native Argon2 when the library loads, the Java implementation otherwise */
+    private static byte[] transformKey(int type, byte[] password, byte[] salt, int parallelism,
+                                       long memory, long iterations, byte[] secretKey,
+                                       byte[] associatedData, long version) throws IOException {
+        if (NativeLib.init()) {
+            return Argon2Native.transformKey(type, password, salt, parallelism, memory, iterations,
+                    secretKey, associatedData, version);
+        }
+
+        return Argon2Java.transformKey(type, password, salt, parallelism, memory, iterations,
+                secretKey, associatedData, version);
+    }
+
+    /** Calibrate with up to 64 MiB, less when the Java implementation has to fit in the heap */
+    @Override
+    public void calibrate(KdfParameters p, long targetMillis) throws IOException {
+        long maxMemory = MaxCalibrationMemory;
+        if (!NativeLib.init()) {
+            maxMemory = Math.min(maxMemory, Runtime.getRuntime().maxMemory() / 4);
+        }
+
+        calibrate(p, targetMillis, maxMemory);
+    }
+
+    /**
+     * Pick parameters that take about targetMillis to transform a key on this device.
+     *
+     * Parallelism follows the number of cores. Memory starts at maxMemory and is halved
+     * until a single iteration fits in the target, and the rest of the time goes to
+     * iterations.
+     *
+     * @param p Parameters to update, the salt is kept
+     */
+    public void calibrate(KdfParameters p, long targetMillis, long maxMemory) throws IOException {
+        int parallelism = Math.min(Runtime.getRuntime().availableProcessors(), MaxCalibrationParallelism);
+        parallelism = Math.max(parallelism, MinParallelism);
+
+        long memory = Math.max(Math.min(maxMemory, MaxMemory), MinMemory);
+        // Argon2 needs at least 8 blocks of 1 KiB per lane
+        memory = Math.max(memory, 8 * 1024L * parallelism);
+
+        byte[] key = new byte[32];
+        byte[] salt = new byte[32];
+        long elapsed;
+        while (true) {
+            long start = System.nanoTime();
+            transformKey(type, key, salt, parallelism, memory, 1, null, null, MaxVersion);
+            elapsed = Math.max((System.nanoTime() - start) / 1000000, 1);
+
+            long halved = memory / 2;
+            if (elapsed <= targetMillis || halved < Math.max(MinMemory, 8 * 1024L * parallelism)) {
+                break;
+            }
+            memory = halved;
+        }
+
+        long iterations = Math.max(targetMillis / elapsed, MinIterations);
+
+        p.setUInt32(ParamVersion, MaxVersion);
+        p.setUInt32(ParamParallelism, parallelism);
+        p.setUInt64(ParamMemory, memory);
+        p.setUInt64(ParamIterations, iterations);
+    }
+
+    @Override
+    public long getRounds(KdfParameters p) {
+        return p.getUInt64(ParamIterations);
+    }
+
+    @Override
+    public void setRounds(KdfParameters p, long rounds) {
+        p.setUInt64(ParamIterations, Math.max(Math.min(rounds, MaxIterations), MinIterations));
+    }
+
     @Override
     public void randomize(KdfParameters p) {
         SecureRandom random = new SecureRandom();
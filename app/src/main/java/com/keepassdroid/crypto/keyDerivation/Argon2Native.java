@@ -28,12 +28,45 @@ public class Argon2Native {
     public static byte[] transformKey(byte[] password, byte[] salt, int parallelism,
                                               long memory, long iterations, byte[] secretKey,
                                               byte[] associatedData, long version) throws IOException {
+        return transformKey(Argon2Kdf.TypeD, password, salt, parallelism, memory, iterations,
+                secretKey, associatedData, version);
+    }
+
+    /**
+     * @param type Argon2Kdf.TypeD or Argon2Kdf.TypeId
+     */
+    public static byte[] transformKey(int type, byte[] password, byte[] salt, int parallelism,
+                                              long memory, long iterations, byte[] secretKey,
+                                              byte[] associatedData, long version) throws IOException {
+        NativeLib.init();
+
+        return nTransformMasterKey(type, password, salt, parallelism, memory, iterations, secretKey, associatedData, version);
+    }
+
+    /** Names of the block filling implementations this CPU supports, fastest first */
+    public static String[] getImplementations() {
         NativeLib.init();
 
-        return nTransformMasterKey(password, salt, parallelism, memory, iterations, secretKey, associatedData, version);
+        return nImplementations();
     }
 
-    private static native byte[] nTransformMasterKey(byte[] password, byte[] salt, int parallelism,
+    /**
+     * Use the named implementation for all following transforms, or the fastest one for null.
+     * Meant for tests comparing the implementations.
+     *
+     * @return false if the implementation is unknown or not supported by this CPU
+     */
+    public static boolean selectImplementation(String name) {
+        NativeLib.init();
+
+        return nSelectImplementation(name);
+    }
+
+    private static native String[] nImplementations();
+
+    private static native boolean nSelectImplementation(String name);
+
+    private static native byte[] nTransformMasterKey(int type, byte[] password, byte[] salt, int parallelism,
                                               long memory, long iterations, byte[] secretKey,
                                               byte[] associatedData, long version) throws IOException;
 }
@@ -23,6 +23,9 @@ import java.io.IOException;
 import java.util.UUID;
 
 public abstract class KdfEngine {
+    /** Unlock time new databases are calibrated for */
+    public static final long DefaultCalibrationMillis = 1000;
+
     public UUID uuid;
 
     public KdfParameters getDefaultParameters() {
@@ -33,4 +36,16 @@ public abstract class KdfEngine {
 
     public abstract void randomize(KdfParameters p);
 
+    /**
+     * Benchmark this device and set the work factor of the parameters so transform takes
+     * about targetMillis. Uses the same implementation as transform, so the result is only
+     * meaningful for this device.
+     */
+    public abstract void calibrate(KdfParameters p, long targetMillis) throws IOException;
+
+    /** Work factor of the parameters, the AES-KDF rounds or Argon2 iterations */
+    public abstract long getRounds(KdfParameters p);
+
+    public abstract void setRounds(KdfParameters p, long rounds);
+
 }
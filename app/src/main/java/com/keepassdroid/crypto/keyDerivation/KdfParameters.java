@@ -37,6 +37,9 @@ public class KdfParameters extends VariantDictionary {
 
     public KdfParameters(UUID uuid) {
         kdfUUID = uuid;
+
+        // Serialized parameters have to name their KDF, or they can not be read back
+        setByteArray(ParamUUID, Types.UUIDtoBytes(uuid));
     }
 
     public static KdfParameters deserialize(byte[] data) throws IOException {
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.crypto.keyDerivation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/** Result of a key derivation, together with the parameters it was derived with, so the
+ * derivation can be skipped when they are unchanged.
+ *
+ * The composite key it was derived from is only held in memory, to notice a changed
+ * password. It is not serialized, a stored key only opens the file for parameters that
+ * still match. A deserialized key matches a database without a composite key, one opened
+ * with it.
+ *
+ * Parameters are compared in serialized form. A spurious mismatch only means the key
+ * derivation runs again.
+ */
+public class TransformedKey {
+	private final byte[] masterKey;
+	private final byte[] kdfParameters;
+	private final byte[] transformed;
+
+	public TransformedKey(byte[] masterKey, KdfParameters kdfP, byte[] transformed) throws IOException {
+		this(masterKey == null ? null : masterKey.clone(), KdfParameters.serialize(kdfP), transformed.clone());
+	}
+
+	private TransformedKey(byte[] masterKey, byte[] kdfParameters, byte[] transformed) {
+		this.masterKey = masterKey;
+		this.kdfParameters = kdfParameters;
+		this.transformed = transformed;
+	}
+
+	public byte[] getTransformed() {
+		return transformed.clone();
+	}
+
+	public boolean matches(byte[] masterKey, KdfParameters kdfP) throws IOException {
+		boolean sameKey;
+		if (this.masterKey == null || masterKey == null) {
+			sameKey = this.masterKey == masterKey;
+		} else {
+			sameKey = MessageDigest.isEqual(this.masterKey, masterKey);
+		}
+
+		return sameKey && Arrays.equals(kdfParameters, KdfParameters.serialize(kdfP));
+	}
+
+	/** The parameters and derived key, without the composite key */
+	public byte[] serialize() throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bos);
+		writeBytes(dos, kdfParameters);
+		writeBytes(dos, transformed);
+		dos.flush();
+
+		return bos.toByteArray();
+	}
+
+	public static TransformedKey deserialize(byte[] data) throws IOException {
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		byte[] kdfParameters = readBytes(dis);
+		byte[] transformed = readBytes(dis);
+		if (dis.available() != 0) {
+			throw new IOException("Invalid transformed key");
+		}
+
+		return new TransformedKey(null, kdfParameters, transformed);
+	}
+
+	/** Overwrite the key material */
+	public void destroy() {
+		if (masterKey != null) {
+			Arrays.fill(masterKey, (byte) 0);
+		}
+		Arrays.fill(transformed, (byte) 0);
+	}
+
+	private static void writeBytes(DataOutputStream dos, byte[] data) throws IOException {
+		dos.writeInt(data.length);
+		dos.write(data);
+	}
+
+	private static byte[] readBytes(DataInputStream dis) throws IOException {
+		int length = dis.readInt();
+		if (length < 0 || length > dis.available()) {
+			throw new IOException("Invalid transformed key");
+		}
+
+		byte[] data = new byte[length];
+		dis.readFully(data);
+
+		return data;
+	}
+
+}
@@ -19,8 +19,10 @@
  */
 package com.keepassdroid.database;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -29,6 +31,10 @@ import com.keepassdroid.database.security.ProtectedBinary;
 
 public class BinaryPool {
 	private HashMap<Integer, ProtectedBinary> pool = new HashMap<Integer, ProtectedBinary>();
+
+	/** Pool keys by (length, content hash), so lookups only compare contents on collisions */
+	private HashMap<Long, List<Integer>> index = new HashMap<Long, List<Integer>>();
+	private int nextKey = 0;
 	
 	public BinaryPool() {
 		
@@ -43,9 +49,22 @@ public class BinaryPool {
 	}
 	
 	public ProtectedBinary put(int key, ProtectedBinary value) {
-		return pool.put(key, value);
+		ProtectedBinary previous = pool.put(key, value);
+		if (previous != null) {
+			removeFromIndex(key, previous);
+		}
+
+		addToIndex(key, value);
+		if (key >= nextKey) {
+			nextKey = key + 1;
+		}
+
+		return previous;
 	}
 
+	public int size() {
+		return pool.size();
+	}
 
 	public Set<Entry<Integer, ProtectedBinary>> entrySet() {
 		return pool.entrySet();
@@ -53,6 +72,8 @@ public class BinaryPool {
 
 	public void clear() {
 		pool.clear();
+		index.clear();
+		nextKey = 0;
 	}
 
 	public Collection<ProtectedBinary> binaries() {
@@ -86,16 +107,76 @@ public class BinaryPool {
 		
 		if (poolFind(pb) != -1) return;
 		
-		pool.put(pool.size(), pb);
+		put(nextKey, pb);
+	}
+
+	/** Returns the pooled binary equal to pb, adding pb to the pool if there is none,
+	 *  so identical attachments share a single instance.
+	 */
+	public ProtectedBinary poolIntern(ProtectedBinary pb) {
+		assert(pb != null);
+
+		int key = poolFind(pb);
+		if (key != -1) {
+			return pool.get(key);
+		}
+
+		put(nextKey, pb);
+		return pb;
+	}
+
+	/** Returns the pooled binary equal to pb, or pb itself if there is none */
+	public ProtectedBinary findEqual(ProtectedBinary pb) {
+		int key = poolFind(pb);
+		if (key == -1) {
+			return pb;
+		}
+
+		return pool.get(key);
 	}
 	
 	public int poolFind(ProtectedBinary pb) {
-		for (Entry<Integer, ProtectedBinary> pair : pool.entrySet()) {
-			if (pair.getValue().equals(pb)) return pair.getKey();
+		List<Integer> keys = index.get(indexKey(pb));
+		if (keys == null) return -1;
+
+		for (int i = 0; i < keys.size(); i++) {
+			Integer key = keys.get(i);
+			if (pool.get(key).equals(pb)) return key;
 		}
 		
 		return -1;
 	}
+
+	private static Long indexKey(ProtectedBinary pb) {
+		return ((long) pb.length() << 32) | (pb.contentHash() & 0xFFFFFFFFL);
+	}
+
+	private void addToIndex(int key, ProtectedBinary pb) {
+		Long k = indexKey(pb);
+		List<Integer> keys = index.get(k);
+		if (keys == null) {
+			keys = new ArrayList<Integer>(1);
+			index.put(k, keys);
+		}
+
+		// Keep the lowest key first, that's the one references are written with
+		int i = 0;
+		while (i < keys.size() && keys.get(i) < key) {
+			i++;
+		}
+		keys.add(i, key);
+	}
+
+	private void removeFromIndex(int key, ProtectedBinary pb) {
+		Long k = indexKey(pb);
+		List<Integer> keys = index.get(k);
+		if (keys == null) return;
+
+		keys.remove(Integer.valueOf(key));
+		if (keys.isEmpty()) {
+			index.remove(k);
+		}
+	}
 	
 	private void build(PwGroupV4 rootGroup) {
 		EntryHandler eh = new AddBinaries();
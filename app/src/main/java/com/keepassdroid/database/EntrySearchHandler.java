@@ -21,13 +21,29 @@ package com.keepassdroid.database;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
-import com.keepassdroid.database.iterator.EntrySearchStringIterator;
+import com.keepassdroid.utils.RegexUtil;
+import com.keepassdroid.utils.StrUtil;
 
 public abstract class EntrySearchHandler extends EntryHandler<PwEntry> {
 	private List<PwEntry> listStorage;
 	private SearchParameters sp;
 	private Date now;
+	private String term;
+	protected final Locale locale;
+
+	// Regular expression searches
+	private Pattern pattern;
+	private String literal;
+	private long deadline;
+	private boolean timedOut = false;
+
+	// Entries of a group are visited together, so the last group name is usually the one needed
+	private PwGroup lastGroup;
+	private String lastGroupName;
 	
 	public static EntrySearchHandler getInstance(PwGroup group, SearchParameters sp, List<PwEntry> listStorage) {
 		if (group instanceof PwGroupV3) {
@@ -44,10 +60,41 @@ public abstract class EntrySearchHandler extends EntryHandler<PwEntry> {
 		this.sp = sp;
 		this.listStorage = listStorage;
 		now = new Date();
+		locale = Locale.getDefault();
+		term = normalize(sp.searchString);
+
+		if (sp.regularExpression) {
+			// The text is folded before matching, so accented letters in the expression are too
+			String regex = foldIfNeeded(sp.searchString);
+			try {
+				pattern = RegexUtil.compile(regex, sp.ignoreCase);
+			} catch (PatternSyntaxException e) {
+				// Nothing matches an invalid expression
+				pattern = null;
+			}
+
+			literal = RegexUtil.requiredLiteral(regex);
+
+			deadline = sp.regexTimeLimitMillis > 0 ? System.nanoTime() + sp.regexTimeLimitMillis * 1000000L : Long.MAX_VALUE;
+		}
 	}
 
 	@Override
 	public boolean operate(PwEntry entry) {
+		if (sp.cancelled != null && sp.cancelled.get()) {
+			return false;
+		}
+
+		if (sp.regularExpression) {
+			if (pattern == null) {
+				return true;
+			}
+
+			if (timedOut || System.nanoTime() > deadline) {
+				return false;
+			}
+		}
+
 		if (sp.respectEntrySearchingDisabled && !entry.isSearchingEnabled()) {
 			return true;
 		}
@@ -56,12 +103,7 @@ public abstract class EntrySearchHandler extends EntryHandler<PwEntry> {
 			return true;
 		}
 		
-		String term = sp.searchString;
-		if (sp.ignoreCase) {
-			term = term.toLowerCase();
-		}
-		
-		if (searchStrings(entry, term)) { 
+		if (searchStrings(entry)) { 
             listStorage.add(entry);
 			return true; 
         }
@@ -69,13 +111,18 @@ public abstract class EntrySearchHandler extends EntryHandler<PwEntry> {
 		if (sp.searchInGroupNames) {
 			PwGroup parent = entry.getParent();
 			if (parent != null) {
-                String groupName = parent.getName();
-                if (groupName != null) {
-                	if (sp.ignoreCase) {
-                		groupName = groupName.toLowerCase();
+                if (parent != lastGroup) {
+                	lastGroup = parent;
+                	if (parent.getName() == null) {
+                		lastGroupName = null;
+                	} else {
+                		lastGroupName = pattern != null ? foldIfNeeded(parent.getName()) : normalize(parent.getName());
                 	}
+                }
 
-                	if (groupName.indexOf(term) >= 0) {
+                String groupName = lastGroupName;
+                if (groupName != null) {
+                	if (pattern != null ? find(groupName) : groupName.indexOf(term) >= 0) {
                         listStorage.add(entry);
                         return true;
                 	}
@@ -88,28 +135,151 @@ public abstract class EntrySearchHandler extends EntryHandler<PwEntry> {
             return true;
 		}
 		
-		return true;
+		return !timedOut;
 	}
 	
 	protected boolean searchID(PwEntry entry) {
 		return false;
 	}
+
+	protected boolean isRegularExpression() {
+		return pattern != null;
+	}
+
+	/** Whether the regular expression is found in text, false once the time limit is
+	 *  exceeded, which stops the search.
+	 */
+	protected boolean find(String text) {
+		if (timedOut) {
+			return false;
+		}
+
+		// Skip text that can not match, without running the expression
+		if (literal != null) {
+			boolean found = sp.ignoreCase ? containsIgnoreCase(text, literal) : text.indexOf(literal) >= 0;
+			if (!found) {
+				return false;
+			}
+		}
+
+		try {
+			return pattern.matcher(new TimeLimitedText(text, deadline)).find();
+		} catch (TimeLimitExceeded e) {
+			timedOut = true;
+			return false;
+		}
+	}
 	
-	private boolean searchStrings(PwEntry entry, String term) {
-		EntrySearchStringIterator iter = EntrySearchStringIterator.getInstance(entry, sp);
-		while (iter.hasNext()) {
-			String str = iter.next();
-			if (str != null & str.length() > 0) {
-				if (sp.ignoreCase) {
-					str = str.toLowerCase();
+	private boolean searchStrings(PwEntry entry) {
+		NormalizedFields fields = entry.getNormalizedFields(locale);
+		for (int i = 0; i < fields.size(); i++) {
+			if (!sp.searchInField(fields.getKind(i))) {
+				continue;
+			}
+
+			String str;
+			if (pattern != null) {
+				// The expression handles case itself
+				str = fields.getRaw(i);
+				if (str == null || str.length() == 0) {
+					continue;
 				}
-				
-				if (str.indexOf(term) >= 0) {
+
+				if (find(foldIfNeeded(str))) {
 					return true;
 				}
+				continue;
+			}
+
+			if (sp.ignoreCase) {
+				str = fields.get(i, sp.ignoreAccents);
+			} else {
+				str = fields.getRaw(i);
+				if (str != null && sp.ignoreAccents) {
+					str = StrUtil.foldAccents(str);
+				}
+			}
+
+			if (str != null && str.length() > 0 && str.indexOf(term) >= 0) {
+				return true;
 			}
 		}
 		
 		return false;
 	}
+
+	/** Compares one character at a time, the way the expression folds case, so that the
+	 *  prefilter never rejects text the expression matches, whatever the locale.
+	 */
+	private static boolean containsIgnoreCase(String text, String search) {
+		int last = text.length() - search.length();
+		for (int i = 0; i <= last; i++) {
+			if (text.regionMatches(true, i, search, 0, search.length())) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private String foldIfNeeded(String str) {
+		return sp.ignoreAccents ? StrUtil.foldAccents(str) : str;
+	}
+
+	private String normalize(String str) {
+		if (sp.ignoreCase) {
+			return StrUtil.normalizeForSearch(str, locale, sp.ignoreAccents);
+		} else if (sp.ignoreAccents) {
+			return StrUtil.foldAccents(str);
+		}
+
+		return str;
+	}
+
+	private static class TimeLimitExceeded extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	/** Text that stops a regular expression running past the deadline, for patterns that
+	 *  backtrack badly. The clock is only read every so many characters.
+	 */
+	private static class TimeLimitedText implements CharSequence {
+		private static final int CHECK_INTERVAL = 4096;
+
+		private final CharSequence text;
+		private final long deadline;
+		private int reads = 0;
+
+		TimeLimitedText(CharSequence text, long deadline) {
+			this.text = text;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (++reads == CHECK_INTERVAL) {
+				reads = 0;
+				if (System.nanoTime() > deadline) {
+					throw new TimeLimitExceeded();
+				}
+			}
+
+			return text.charAt(index);
+		}
+
+		@Override
+		public int length() {
+			return text.length();
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new TimeLimitedText(text.subSequence(start, end), deadline);
+		}
+
+		@Override
+		public String toString() {
+			return text.toString();
+		}
+	}
 }
@@ -22,23 +22,25 @@ package com.keepassdroid.database;
 import java.util.List;
 import java.util.Locale;
 
-import com.keepassdroid.utils.StrUtil;
-import com.keepassdroid.utils.UuidUtil;
-
 public class EntrySearchHandlerV4 extends EntrySearchHandler {
 	private SearchParametersV4 sp;
+	private String uuidTerm;
 
 	protected EntrySearchHandlerV4(SearchParameters sp, List<PwEntry> listStorage) {
 		super(sp, listStorage);
 		this.sp = (SearchParametersV4) sp;
+		uuidTerm = sp.searchString.toLowerCase(Locale.ENGLISH);
 	}
 
 	@Override
-	protected boolean searchID(PwEntry e) {
-		PwEntryV4 entry = (PwEntryV4) e;
+	protected boolean searchID(PwEntry entry) {
 		if (sp.searchInUUIDs) {
-			String hex = UuidUtil.toHexString(entry.uuid);
-			return StrUtil.indexOfIgnoreCase(hex, sp.searchString, Locale.ENGLISH) >= 0;
+			String hex = entry.getNormalizedFields(locale).getUuidHex();
+			if (hex == null) {
+				return false;
+			}
+
+			return isRegularExpression() ? find(hex) : hex.indexOf(uuidTerm) >= 0;
 		}
 		
 		return false;
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.database;
+
+import java.util.Locale;
+import java.util.UUID;
+
+import com.keepassdroid.utils.StrUtil;
+import com.keepassdroid.utils.UuidUtil;
+
+/** The string fields of an entry lower cased for searching, kept with the entry until
+ *  one of its fields changes.
+ *
+ * Each field is only lower cased, or accent folded, the first time a search looks at it,
+ * so a protected value that is never searched is not copied.
+ */
+public class NormalizedFields {
+	public static final int TITLE = 0;
+	public static final int USERNAME = 1;
+	public static final int PASSWORD = 2;
+	public static final int URL = 3;
+	public static final int NOTES = 4;
+	public static final int OTHER = 5;
+
+	public final Locale locale;
+
+	private final String[] raw;
+	private final int[] kinds;
+	private final boolean[] protect;
+	private final String[] lower;
+	private final String[] folded;
+	private final Long[] charMasks;
+	private final Long[] foldedCharMasks;
+	private final UUID uuid;
+	private String uuidHex;
+
+	NormalizedFields(Locale locale, String[] raw, int[] kinds, boolean[] protect, UUID uuid) {
+		this.locale = locale;
+		this.raw = raw;
+		this.kinds = kinds;
+		this.protect = protect;
+		this.uuid = uuid;
+
+		lower = new String[raw.length];
+		folded = new String[raw.length];
+		charMasks = new Long[raw.length];
+		foldedCharMasks = new Long[raw.length];
+	}
+
+	public int size() {
+		return raw.length;
+	}
+
+	/** Which kind of field this is, one of the constants above */
+	public int getKind(int i) {
+		return kinds[i];
+	}
+
+	public boolean isProtected(int i) {
+		return protect[i];
+	}
+
+	/** The field as stored */
+	public String getRaw(int i) {
+		return raw[i];
+	}
+
+	/** The field lower cased, and with accents removed if foldAccents is set */
+	public String get(int i, boolean foldAccents) {
+		String str = lower[i];
+		if (str == null) {
+			str = StrUtil.normalizeForSearch(raw[i], locale, false);
+			lower[i] = str;
+		}
+
+		if (foldAccents) {
+			String f = folded[i];
+			if (f == null) {
+				f = StrUtil.foldAccents(str);
+				folded[i] = f;
+			}
+			str = f;
+		}
+
+		return str;
+	}
+
+	/** Characters present in the normalized field, one bit per character modulo 64, to rule
+	 *  out fields quickly in a fuzzy search. See {@link #charMask(String)}.
+	 */
+	public long getCharMask(int i, boolean foldAccents) {
+		Long[] masks = foldAccents ? foldedCharMasks : charMasks;
+
+		// Boxed so a mask set by another thread is never seen half written
+		Long mask = masks[i];
+		if (mask == null) {
+			mask = charMask(get(i, foldAccents));
+			masks[i] = mask;
+		}
+
+		return mask;
+	}
+
+	public static long charMask(String str) {
+		long mask = 0;
+		for (int i = 0; i < str.length(); i++) {
+			mask |= 1L << (str.charAt(i) & 63);
+		}
+
+		return mask;
+	}
+
+	/** The entry UUID as lower case hex, or null if it has none */
+	public String getUuidHex() {
+		if (uuidHex == null && uuid != null) {
+			String hex = UuidUtil.toHexString(uuid);
+			if (hex != null) {
+				uuidHex = hex.toLowerCase(Locale.ENGLISH);
+			}
+		}
+
+		return uuidHex;
+	}
+
+}
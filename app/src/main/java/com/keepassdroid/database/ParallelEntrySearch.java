@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.keepassdroid.utils.WorkerPool;
+
+/** Runs a search handler over a list of entries, split across the cores for large
+ *  databases.
+ *
+ * Each thread takes a contiguous slice of the list with a handler of its own, and the
+ * matches of the slices are joined in order, so the results come out in the same order
+ * as from a single thread. Small lists are searched on the calling thread.
+ */
+public class ParallelEntrySearch {
+	/** Lists shorter than this are not worth starting threads for */
+	public static final int MIN_ENTRIES = 2000;
+	private static final int MIN_SLICE = 500;
+
+	public interface HandlerFactory {
+		/** A new handler that adds the entries it matches to results */
+		EntryHandler<PwEntry> create(List<PwEntry> results);
+	}
+
+	private ParallelEntrySearch() {}
+
+	/**
+	 * @return false if a handler stopped the search, results then hold the matches up to
+	 *         that point as in a single threaded search
+	 */
+	public static boolean search(List<PwEntry> entries, HandlerFactory factory, List<PwEntry> results) {
+		int slices = 1;
+		if (entries.size() >= MIN_ENTRIES) {
+			int threads = Runtime.getRuntime().availableProcessors();
+			slices = Math.max(1, Math.min(threads, entries.size() / MIN_SLICE));
+		}
+
+		if (slices == 1) {
+			return new Slice(entries, factory.create(results), results).call();
+		}
+
+		List<Slice> tasks = new ArrayList<Slice>(slices);
+		int start = 0;
+		for (int i = 0; i < slices; i++) {
+			int end = (int) ((long) entries.size() * (i + 1) / slices);
+			List<PwEntry> sliceResults = new ArrayList<PwEntry>();
+			tasks.add(new Slice(entries.subList(start, end), factory.create(sliceResults), sliceResults));
+			start = end;
+		}
+
+		List<Future<Boolean>> others = new ArrayList<Future<Boolean>>(slices - 1);
+		try {
+			for (Slice task : tasks.subList(1, slices)) {
+				others.add(WorkerPool.get().submit(task));
+			}
+
+			boolean completed = tasks.get(0).call();
+			results.addAll(tasks.get(0).results);
+
+			for (int i = 1; i < slices && completed; i++) {
+				completed = others.get(i - 1).get();
+				results.addAll(tasks.get(i).results);
+			}
+
+			return completed;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			// Slices after a stop are not needed, drop the ones still waiting for a thread
+			for (Future<Boolean> other : others) {
+				other.cancel(false);
+			}
+		}
+	}
+
+	private static class Slice implements Callable<Boolean> {
+		private final List<PwEntry> entries;
+		private final EntryHandler<PwEntry> handler;
+		final List<PwEntry> results;
+
+		Slice(List<PwEntry> entries, EntryHandler<PwEntry> handler, List<PwEntry> results) {
+			this.entries = entries;
+			this.handler = handler;
+			this.results = results;
+		}
+
+		@Override
+		public Boolean call() {
+			for (int i = 0; i < entries.size(); i++) {
+				if (!handler.operate(entries.get(i))) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+}
@@ -40,6 +40,7 @@ import android.os.DropBoxManager.Entry;
 
 import com.keepassdroid.crypto.finalkey.FinalKey;
 import com.keepassdroid.crypto.finalkey.FinalKeyFactory;
+import com.keepassdroid.crypto.keyDerivation.KdfParameters;
 import com.keepassdroid.database.exception.InvalidKeyFileException;
 import com.keepassdroid.database.exception.KeyFileEmptyException;
 import com.keepassdroid.stream.NullOutputStream;
@@ -252,6 +253,11 @@ public abstract class PwDatabase {
 
     public abstract void setNumRounds(long rounds) throws NumberFormatException;
 
+    /** Copy of the key derivation parameters, AES-KDF ones for databases that only have rounds */
+    public abstract KdfParameters getKdfParameters() throws IOException;
+
+    public abstract void setKdfParameters(KdfParameters p);
+
     public abstract boolean appSettingsEnabled();
 
     public abstract PwEncryptionAlgorithm getEncAlgorithm();
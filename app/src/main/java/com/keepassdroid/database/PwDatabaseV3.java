@@ -53,6 +53,8 @@ import java.util.List;
 import java.util.Random;
 import java.util.UUID;
 
+import com.keepassdroid.crypto.keyDerivation.AesKdf;
+import com.keepassdroid.crypto.keyDerivation.KdfParameters;
 import com.keepassdroid.database.exception.InvalidKeyFileException;
 
 /**
@@ -262,6 +264,20 @@ public class PwDatabaseV3 extends PwDatabase {
 		numKeyEncRounds = (int) rounds;
 	}
 
+	@Override
+	public KdfParameters getKdfParameters() {
+		AesKdf kdf = new AesKdf();
+		KdfParameters p = kdf.getDefaultParameters();
+		kdf.setRounds(p, numKeyEncRounds);
+
+		return p;
+	}
+
+	@Override
+	public void setKdfParameters(KdfParameters p) {
+		setNumRounds(Math.min(new AesKdf().getRounds(p), Integer.MAX_VALUE));
+	}
+
 	@Override
 	public boolean appSettingsEnabled() {
 		return true;
@@ -56,6 +56,7 @@ import com.keepassdroid.crypto.keyDerivation.AesKdf;
 import com.keepassdroid.crypto.keyDerivation.KdfEngine;
 import com.keepassdroid.crypto.keyDerivation.KdfFactory;
 import com.keepassdroid.crypto.keyDerivation.KdfParameters;
+import com.keepassdroid.crypto.keyDerivation.TransformedKey;
 import com.keepassdroid.database.exception.InvalidKeyFileException;
 import com.keepassdroid.utils.EmptyUtils;
 
@@ -70,6 +71,14 @@ public class PwDatabaseV4 extends PwDatabase {
 	private static final String RECYCLEBIN_NAME = "RecycleBin";
 
 	public byte[] hmacKey;
+	public byte[] masterSeed;
+	public byte[] hashOfHeader;
+	/** Output of the last key derivation, reused while the key and parameters are unchanged.
+	 * Only kept when keepTransformedKey is set, for quick unlock. After a quick unlock
+	 * masterKey is null and this is the only key.
+	 */
+	public TransformedKey transformedKey;
+	public boolean keepTransformedKey = false;
 	public UUID dataCipher = AesEngine.CIPHER_UUID;
 	public CipherEngine dataEngine = new AesEngine();
 	public PwCompressionAlgorithm compressionAlgorithm = PwCompressionAlgorithm.Gzip;
@@ -160,56 +169,96 @@ public class PwDatabaseV4 extends PwDatabase {
 
 		byte[] transformedMasterKey = transformMasterKey(masterSeed2, masterKey, numRounds);
 
+		byte[] cmpKey = compositeKey(masterSeed, transformedMasterKey);
+		finalKey = CryptoUtil.resizeKey(cmpKey, 0, 64, dataEngine.keyLength());
+		hmacKey = computeHmacKey(cmpKey);
+	}
+	public void makeFinalKey(byte[] masterSeed, KdfParameters kdfP) throws IOException {
+    	makeFinalKey(masterSeed, kdfP, 0);
+	}
 
-		byte[] cmpKey = new byte[65];
-		System.arraycopy(masterSeed, 0, cmpKey, 0, 32);
-		System.arraycopy(transformedMasterKey, 0, cmpKey, 32, 32);
+	public void makeFinalKey(byte[] masterSeed, KdfParameters kdfP, long roundsFix)
+			throws IOException {
+
+		// Set to 6000 rounds to open corrupted database
+		if (roundsFix > 0 && kdfP.kdfUUID.equals(AesKdf.CIPHER_UUID)) {
+			kdfP.setUInt64(AesKdf.ParamRounds, roundsFix);
+			numKeyEncRounds = roundsFix;
+		}
+
+		byte[] transformedMasterKey = transformMasterKey(kdfP);
+		if (!keepTransformedKey && masterKey != null) {
+			forgetTransformedKey();
+		} else if (transformedKey == null || !transformedKey.matches(masterKey, kdfP)) {
+			forgetTransformedKey();
+			transformedKey = new TransformedKey(masterKey, kdfP, transformedMasterKey);
+		}
+
+		byte[] cmpKey = compositeKey(masterSeed, transformedMasterKey);
 		finalKey = CryptoUtil.resizeKey(cmpKey, 0, 64, dataEngine.keyLength());
+		this.masterSeed = masterSeed.clone();
+		hmacKey = computeHmacKey(cmpKey);
+	}
 
-		MessageDigest md;
+	/** Computes the HMAC key the database had when it was written with masterSeed and kdfP,
+	 * without changing the current keys. Runs the full key derivation unless kdfP are the
+	 * current parameters.
+	 */
+	public byte[] deriveHmacKey(byte[] masterSeed, KdfParameters kdfP) throws IOException {
+		byte[] transformedMasterKey = transformMasterKey(kdfP);
 		try {
-			md = MessageDigest.getInstance("SHA-512");
-			cmpKey[64] = 1;
-			hmacKey = md.digest(cmpKey);
-		} catch (NoSuchAlgorithmException e) {
-			throw new IOException("No SHA-512 implementation");
+			return computeHmacKey(compositeKey(masterSeed, transformedMasterKey));
 		} finally {
-			Arrays.fill(cmpKey, (byte)0);
+			Arrays.fill(transformedMasterKey, (byte)0);
 		}
 	}
-	public void makeFinalKey(byte[] masterSeed, KdfParameters kdfP) throws IOException {
-    	makeFinalKey(masterSeed, kdfP, 0);
+
+	/** Overwrite and drop the remembered key derivation output */
+	public void forgetTransformedKey() {
+		if (transformedKey != null) {
+			transformedKey.destroy();
+			transformedKey = null;
+		}
 	}
 
-	public void makeFinalKey(byte[] masterSeed, KdfParameters kdfP, long roundsFix)
-			throws IOException {
+	/** Runs the key derivation on the master key, or reuses the last result for the same parameters */
+	private byte[] transformMasterKey(KdfParameters kdfP) throws IOException {
+		if (transformedKey != null && transformedKey.matches(masterKey, kdfP)) {
+			return transformedKey.getTransformed();
+		}
+
+		if (masterKey == null) {
+			throw new IOException("The database has to be opened with its password to change the key derivation");
+		}
 
 		KdfEngine kdfEngine = KdfFactory.get(kdfP.kdfUUID);
 		if (kdfEngine == null) {
 			throw new IOException("Unknown key derivation function");
 		}
 
-		// Set to 6000 rounds to open corrupted database
-		if (roundsFix > 0 && kdfP.kdfUUID.equals(AesKdf.CIPHER_UUID)) {
-			kdfP.setUInt32(AesKdf.ParamRounds, roundsFix);
-			numKeyEncRounds = roundsFix;
-		}
-
 		byte[] transformedMasterKey = kdfEngine.transform(masterKey, kdfP);
 		if (transformedMasterKey.length != 32) {
 			transformedMasterKey = CryptoUtil.hashSha256(transformedMasterKey);
 		}
 
-        byte[] cmpKey = new byte[65];
+		return transformedMasterKey;
+	}
+
+	/** Master seed followed by the transformed key, with room for the HMAC key suffix */
+	private static byte[] compositeKey(byte[] masterSeed, byte[] transformedMasterKey) {
+		byte[] cmpKey = new byte[65];
 		System.arraycopy(masterSeed, 0, cmpKey, 0, 32);
-        System.arraycopy(transformedMasterKey, 0, cmpKey, 32, 32);
-		finalKey = CryptoUtil.resizeKey(cmpKey, 0, 64, dataEngine.keyLength());
+		System.arraycopy(transformedMasterKey, 0, cmpKey, 32, 32);
+
+		return cmpKey;
+	}
 
-        MessageDigest md;
+	/** Hashes the composite key into the HMAC key, then clears the composite key */
+	private static byte[] computeHmacKey(byte[] cmpKey) throws IOException {
 		try {
-			md = MessageDigest.getInstance("SHA-512");
+			MessageDigest md = MessageDigest.getInstance("SHA-512");
 			cmpKey[64] = 1;
-			hmacKey = md.digest(cmpKey);
+			return md.digest(cmpKey);
 		} catch (NoSuchAlgorithmException e) {
 			throw new IOException("No SHA-512 implementation");
 		} finally {
@@ -296,13 +345,39 @@ public class PwDatabaseV4 extends PwDatabase {
 
 	@Override
 	public long getNumRounds() {
-		return numKeyEncRounds;
+		KdfEngine kdfEngine = KdfFactory.get(kdfParameters.kdfUUID);
+		if (kdfEngine == null) {
+			return numKeyEncRounds;
+		}
+
+		return kdfEngine.getRounds(kdfParameters);
 	}
 
 	@Override
 	public void setNumRounds(long rounds) throws NumberFormatException {
-		numKeyEncRounds = rounds;
-		
+		KdfEngine kdfEngine = KdfFactory.get(kdfParameters.kdfUUID);
+		if (kdfEngine != null) {
+			kdfEngine.setRounds(kdfParameters, rounds);
+		}
+
+		if (kdfParameters.kdfUUID.equals(AesKdf.CIPHER_UUID)) {
+			numKeyEncRounds = rounds;
+		}
+	}
+
+	@Override
+	public KdfParameters getKdfParameters() throws IOException {
+		return KdfParameters.deserialize(KdfParameters.serialize(kdfParameters));
+	}
+
+	@Override
+	public void setKdfParameters(KdfParameters p) {
+		kdfParameters = p;
+
+		KdfEngine kdfEngine = KdfFactory.get(p.kdfUUID);
+		if (kdfEngine != null && p.kdfUUID.equals(AesKdf.CIPHER_UUID)) {
+			numKeyEncRounds = kdfEngine.getRounds(p);
+		}
 	}
 
 	@Override
@@ -21,6 +21,7 @@ package com.keepassdroid.database;
 
 import java.util.Comparator;
 import java.util.Date;
+import java.util.Locale;
 import java.util.UUID;
 
 import com.keepassdroid.database.iterator.EntrySearchStringIterator;
@@ -40,6 +41,8 @@ public abstract class PwEntry implements Cloneable {
 	
 	public PwIconStandard icon = PwIconStandard.FIRST;
 
+	private volatile NormalizedFields normalizedFields;
+
 	public PwEntry() {
 		
 	}
@@ -69,6 +72,7 @@ public abstract class PwEntry implements Cloneable {
 			assert(false);
 			throw new RuntimeException("Clone should be supported");
 		}
+		newEntry.normalizedFields = null;
 		
 		return newEntry;
 	}
@@ -77,6 +81,9 @@ public abstract class PwEntry implements Cloneable {
 		return (PwEntry) clone();
 	}
 	
+	/** Copy source into this entry. Subclasses invalidate the normalized fields once they
+	 *  have copied their own fields.
+	 */
 	public void assign(PwEntry source) {
 		icon = source.icon;
 	}
@@ -152,6 +159,26 @@ public abstract class PwEntry implements Cloneable {
 	public EntrySearchStringIterator stringIterator() {
 		return EntrySearchStringIterator.getInstance(this);
 	}
+
+	/** The searchable fields of this entry lower cased with locale, cached until a field
+	 *  changes
+	 */
+	public NormalizedFields getNormalizedFields(Locale locale) {
+		NormalizedFields fields = normalizedFields;
+		if (fields == null || !fields.locale.equals(locale)) {
+			fields = createNormalizedFields(locale);
+			normalizedFields = fields;
+		}
+
+		return fields;
+	}
+
+	/** Drop the cached search fields, for anything that changes a field */
+	public void invalidateNormalizedFields() {
+		normalizedFields = null;
+	}
+
+	protected abstract NormalizedFields createNormalizedFields(Locale locale);
 	
 	public void touch(boolean modified, boolean touchParents) {
 		Date now = new Date();
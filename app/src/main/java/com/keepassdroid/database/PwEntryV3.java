@@ -46,6 +46,7 @@ package com.keepassdroid.database;
 import java.io.UnsupportedEncodingException;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Locale;
 import java.util.Random;
 import java.util.UUID;
 
@@ -294,7 +295,7 @@ public class PwEntryV3 extends PwEntry {
 		
 		PwEntryV3 src = (PwEntryV3) source;
 		assign(src);
-	
+		invalidateNormalizedFields();
 	}
 
 	private void assign(PwEntryV3 source) {
@@ -432,6 +433,7 @@ public class PwEntryV3 extends PwEntry {
 	@Override
 	public void setUsername(String user, PwDatabase db) {
 		username = user;
+		invalidateNormalizedFields();
 	}
 
 	@Override
@@ -442,6 +444,7 @@ public class PwEntryV3 extends PwEntry {
 	@Override
 	public void setTitle(String title, PwDatabase db) {
 		this.title = title;
+		invalidateNormalizedFields();
 	}
 
 	@Override
@@ -452,6 +455,7 @@ public class PwEntryV3 extends PwEntry {
 	@Override
 	public void setNotes(String notes, PwDatabase db) {
 		additional = notes;
+		invalidateNormalizedFields();
 	}
 
 	@Override
@@ -462,12 +466,23 @@ public class PwEntryV3 extends PwEntry {
 	@Override
 	public void setUrl(String url, PwDatabase db) {
 		this.url = url;
+		invalidateNormalizedFields();
 	}
 
 	@Override
 	public boolean expires() {
 		return ! IsNever(tExpire.getJDate());
 	}
+
+	@Override
+	protected NormalizedFields createNormalizedFields(Locale locale) {
+		// Same fields as EntrySearchStringIteratorV3, the password is not searched
+		String[] raw = { title, url, username, additional };
+		int[] kinds = { NormalizedFields.TITLE, NormalizedFields.URL, NormalizedFields.USERNAME, NormalizedFields.NOTES };
+		boolean[] protect = new boolean[raw.length];
+
+		return new NormalizedFields(locale, raw, kinds, protect, uuid == null ? null : getUUID());
+	}
 	
 	public void populateBlankFields(PwDatabaseV3 db) {
 		if (icon == null) {
@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -96,6 +97,10 @@ public class PwEntryV4 extends PwEntry implements ITimeLogger {
 			return windowSeqPairs.entrySet();
 		}
 
+		public int size() {
+			return windowSeqPairs.size();
+		}
+
 	}
 	
 	public PwEntryV4() {
@@ -157,6 +162,7 @@ public class PwEntryV4 extends PwEntry implements ITimeLogger {
 		
 		PwEntryV4 src = (PwEntryV4) source;
 		assign(src);
+		invalidateNormalizedFields();
 	}
 
 	private void assign(PwEntryV4 source) {
@@ -323,6 +329,41 @@ public class PwEntryV4 extends PwEntry implements ITimeLogger {
 	public void setString(String key, String value, boolean protect) {
 		ProtectedString ps = new ProtectedString(protect, value);
 		strings.put(key, ps);
+		invalidateNormalizedFields();
+	}
+
+	@Override
+	protected NormalizedFields createNormalizedFields(Locale locale) {
+		int size = strings.size();
+		String[] raw = new String[size];
+		int[] kinds = new int[size];
+		boolean[] protect = new boolean[size];
+
+		int i = 0;
+		for (Entry<String, ProtectedString> pair : strings.entrySet()) {
+			raw[i] = pair.getValue().toString();
+			kinds[i] = getFieldKind(pair.getKey());
+			protect[i] = pair.getValue().isProtected();
+			i++;
+		}
+
+		return new NormalizedFields(locale, raw, kinds, protect, uuid);
+	}
+
+	private static int getFieldKind(String key) {
+		if (key.equals(STR_TITLE)) {
+			return NormalizedFields.TITLE;
+		} else if (key.equals(STR_USERNAME)) {
+			return NormalizedFields.USERNAME;
+		} else if (key.equals(STR_PASSWORD)) {
+			return NormalizedFields.PASSWORD;
+		} else if (key.equals(STR_URL)) {
+			return NormalizedFields.URL;
+		} else if (key.equals(STR_NOTES)) {
+			return NormalizedFields.NOTES;
+		} else {
+			return NormalizedFields.OTHER;
+		}
 	}
 
 	public Date getLocationChanged() {
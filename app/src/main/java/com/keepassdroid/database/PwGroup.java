@@ -25,8 +25,6 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 
-import com.keepassdroid.utils.StrUtil;
-
 public abstract class PwGroup {
 	public List<PwGroup> childGroups = new ArrayList<PwGroup>();
 	public List<PwEntry> childEntries = new ArrayList<PwEntry>();
@@ -105,78 +103,57 @@ public abstract class PwGroup {
 		if (sp == null)  { return; }
 		if (listStorage == null) { return; }
 		
-		List<String> terms = StrUtil.splitSearchTerms(sp.searchString);
-		if (terms.size() <= 1 || sp.regularExpression) {
+		SearchQuery query = SearchQuery.parse(sp.searchString);
+		if (sp.regularExpression || query.terms.size() == 0) {
 			searchEntriesSingle(sp, listStorage);
 			return;
 		}
 		
-		// Search longest term first
-		Comparator<String> stringLengthComparator = new Comparator<String>() {
-	
-			@Override
-			public int compare(String lhs, String rhs) {
-				return lhs.length() - rhs.length();
-			}
-			
-		};
-		Collections.sort(terms, stringLengthComparator);
-		
-		String fullSearch = sp.searchString;
-		List<PwEntry> pg = this.childEntries;
-		for (int i = 0; i < terms.size(); i ++) {
-			List<PwEntry> pgNew = new ArrayList<PwEntry>();
-			
-			sp.searchString = terms.get(i);
-			
-			boolean negate = false;
-			if (sp.searchString.startsWith("-")) {
-				sp.searchString.substring(1);
-				negate = sp.searchString.length() > 0;
-			}
-			
-			if (!searchEntriesSingle(sp, pgNew)) {
-				pg = null;
-				break;
-			}
-			
-			List<PwEntry> complement = new ArrayList<PwEntry>();
-			if (negate) {
-				for (PwEntry entry: pg) {
-					if (!pgNew.contains(entry)) {
-						complement.add(entry);
-					}
-				}
-				
-				pg = complement;
-			}
-			else {
-				pg = pgNew;
-			}
+		if (query.isSingleTerm()) {
+			// Same as a plain search, without the quotes
+			SearchParameters single = (SearchParameters) sp.clone();
+			single.searchString = query.terms.get(0).text;
+			searchEntriesSingle(single, listStorage);
+			return;
 		}
 		
-		if (pg != null) {
-			listStorage.addAll(pg);
-		}
-		sp.searchString = fullSearch;
-
+		query.search(this, getEntriesRecursive(), sp, listStorage);
 	}
 	
 	private boolean searchEntriesSingle(SearchParameters spIn, List<PwEntry> listStorage) {
-		SearchParameters sp = (SearchParameters) spIn.clone();
+		final SearchParameters sp = (SearchParameters) spIn.clone();
 		
-		EntryHandler<PwEntry> eh;
-		if (sp.searchString.length() <= 0) {
-			eh = new EntrySearchHandlerAll(sp, listStorage);
-		} else {
-			eh = EntrySearchHandler.getInstance(this, sp, listStorage);
-		}
+		// Large trees are searched on several threads, each with its own handler
+		ParallelEntrySearch.HandlerFactory factory = new ParallelEntrySearch.HandlerFactory() {
+			@Override
+			public EntryHandler<PwEntry> create(List<PwEntry> results) {
+				if (sp.searchString.length() <= 0) {
+					return new EntrySearchHandlerAll(sp, results);
+				} else {
+					return EntrySearchHandler.getInstance(PwGroup.this, sp, results);
+				}
+			}
+		};
 		
-		if (!preOrderTraverseTree(null, eh)) { return false; }
+		if (!ParallelEntrySearch.search(getEntriesRecursive(), factory, listStorage)) { return false; }
 		
 		return true;
 	}
 
+	/** All entries in this group and its subgroups, in the order of preOrderTraverseTree */
+	public List<PwEntry> getEntriesRecursive() {
+		final List<PwEntry> list = new ArrayList<PwEntry>();
+		preOrderTraverseTree(null, new EntryHandler<PwEntry>() {
+			@Override
+			public boolean operate(PwEntry entry) {
+				list.add(entry);
+				return true;
+			}
+		});
+		
+		return list;
+	}
+
 	public boolean preOrderTraverseTree(GroupHandler<PwGroup> groupHandler, EntryHandler<PwEntry> entryHandler) {
 		if (entryHandler != null) {
 			for (PwEntry entry : childEntries) {
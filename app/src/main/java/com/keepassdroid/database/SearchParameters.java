@@ -19,6 +19,8 @@
  */
 package com.keepassdroid.database;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * @author bpellin
  * Parameters for searching strings in the database.
@@ -37,10 +39,17 @@ public class SearchParameters implements Cloneable {
 	public boolean searchInGroupNames = false;
 	public boolean searchInNotes = true;
 	public boolean ignoreCase = true;
+	public boolean ignoreAccents = false;
 	public boolean ignoreExpired = false;
 	public boolean respectEntrySearchingDisabled = true;
 	public boolean excludeExpired = false;
 	
+	/** Regular expression searches give up after this long, 0 for no limit */
+	public long regexTimeLimitMillis = 2000;
+	
+	/** Set to stop a search in progress, shared by the clones of these parameters */
+	public AtomicBoolean cancelled;
+	
 	@Override
 	public Object clone() {
 		try {
@@ -50,6 +59,24 @@ public class SearchParameters implements Cloneable {
 		}
 	}
 	
+	/** Whether a field of this kind is searched, see {@link NormalizedFields} */
+	public boolean searchInField(int kind) {
+		switch (kind) {
+		case NormalizedFields.TITLE:
+			return searchInTitles;
+		case NormalizedFields.USERNAME:
+			return searchInUserNames;
+		case NormalizedFields.PASSWORD:
+			return searchInPasswords;
+		case NormalizedFields.URL:
+			return searchInUrls;
+		case NormalizedFields.NOTES:
+			return searchInNotes;
+		default:
+			return false;
+		}
+	}
+	
 	public void setupNone() {
 		searchInTitles = false;
 		searchInUserNames = false;
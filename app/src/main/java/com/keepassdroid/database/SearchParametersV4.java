@@ -31,6 +31,15 @@ public class SearchParametersV4 extends SearchParameters implements Cloneable {
 		return super.clone();
 	}
 
+	@Override
+	public boolean searchInField(int kind) {
+		if (kind == NormalizedFields.OTHER) {
+			return searchInOther;
+		}
+
+		return super.searchInField(kind);
+	}
+
 	@Override
 	public void setupNone() {
 		super.setupNone();
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import com.keepassdroid.utils.StrUtil;
+
+/** A search string split into terms that an entry has to match all of.
+ *
+ * Terms are separated by whitespace, double quotes keep words together in one term, and
+ * a term starting with '-' excludes the entries it matches. The terms are searched one
+ * after another, each only among the entries that passed the previous ones, so the term
+ * expected to match the fewest entries goes first and exclusions come last.
+ */
+public class SearchQuery {
+	/** Below this many entries ordering by anything but term length is not worth it */
+	private static final int MIN_ESTIMATE_ENTRIES = 256;
+	private static final int SAMPLE_SIZE = 64;
+
+	public static class Term {
+		public final String text;
+		public final boolean negated;
+
+		Term(String text, boolean negated) {
+			this.text = text;
+			this.negated = negated;
+		}
+	}
+
+	public final List<Term> terms;
+
+	private SearchQuery(List<Term> terms) {
+		this.terms = terms;
+	}
+
+	public static SearchQuery parse(String search) {
+		List<Term> terms = new ArrayList<Term>();
+		for (String str : StrUtil.splitSearchTerms(search)) {
+			// A lone '-' is searched for as it is
+			if (str.length() > 1 && str.charAt(0) == '-') {
+				terms.add(new Term(str.substring(1), true));
+			} else {
+				terms.add(new Term(str, false));
+			}
+		}
+
+		return new SearchQuery(terms);
+	}
+
+	/** Whether this is a single term searched as in a plain search */
+	public boolean isSingleTerm() {
+		return terms.size() == 1 && !terms.get(0).negated;
+	}
+
+	/** Add the entries matching all terms to listStorage, in the order of entries
+	 *
+	 * @param group Group searched, decides the kind of handler used
+	 * @param sp Everything but the search string is used for each term
+	 * @return false if a handler stopped the search
+	 */
+	public boolean search(PwGroup group, List<PwEntry> entries, SearchParameters sp, List<PwEntry> listStorage) {
+		List<Term> positive = new ArrayList<Term>();
+		List<Term> negative = new ArrayList<Term>();
+		for (Term term : terms) {
+			if (term.negated) {
+				negative.add(term);
+			} else {
+				positive.add(term);
+			}
+		}
+
+		sortBySelectivity(group, entries, sp, positive);
+
+		List<PwEntry> survivors;
+		if (positive.isEmpty()) {
+			survivors = new ArrayList<PwEntry>();
+			if (!searchTerm(group, entries, sp, "", survivors)) {
+				return false;
+			}
+		} else {
+			survivors = entries;
+			for (Term term : positive) {
+				List<PwEntry> matched = new ArrayList<PwEntry>();
+				if (!searchTerm(group, survivors, sp, term.text, matched)) {
+					return false;
+				}
+
+				survivors = matched;
+				if (survivors.isEmpty()) {
+					return true;
+				}
+			}
+		}
+
+		for (Term term : negative) {
+			List<PwEntry> matched = new ArrayList<PwEntry>();
+			if (!searchTerm(group, survivors, sp, term.text, matched)) {
+				return false;
+			}
+
+			if (matched.isEmpty()) {
+				continue;
+			}
+
+			Set<PwEntry> excluded = Collections.newSetFromMap(new IdentityHashMap<PwEntry, Boolean>());
+			excluded.addAll(matched);
+
+			List<PwEntry> remaining = new ArrayList<PwEntry>(survivors.size() - matched.size());
+			for (PwEntry entry : survivors) {
+				if (!excluded.contains(entry)) {
+					remaining.add(entry);
+				}
+			}
+
+			survivors = remaining;
+		}
+
+		listStorage.addAll(survivors);
+		return true;
+	}
+
+	/** Order the terms by the share of a sample of entries they match, fewest first.
+	 *  Ties, and small databases, put the longest term first.
+	 */
+	private static void sortBySelectivity(PwGroup group, List<PwEntry> entries, SearchParameters sp, List<Term> positive) {
+		if (positive.size() <= 1) {
+			return;
+		}
+
+		final IdentityHashMap<Term, Integer> estimates = new IdentityHashMap<Term, Integer>();
+		if (entries.size() >= MIN_ESTIMATE_ENTRIES) {
+			List<PwEntry> sample = new ArrayList<PwEntry>(SAMPLE_SIZE);
+			for (int i = 0; i < SAMPLE_SIZE; i++) {
+				sample.add(entries.get((int) ((long) entries.size() * i / SAMPLE_SIZE)));
+			}
+
+			for (Term term : positive) {
+				List<PwEntry> matched = new ArrayList<PwEntry>();
+				EntryHandler<PwEntry> handler = newHandler(group, sp, term.text, matched);
+				for (PwEntry entry : sample) {
+					handler.operate(entry);
+				}
+
+				estimates.put(term, matched.size());
+			}
+		}
+
+		Collections.sort(positive, new Comparator<Term>() {
+			@Override
+			public int compare(Term lhs, Term rhs) {
+				Integer lhsEstimate = estimates.get(lhs);
+				Integer rhsEstimate = estimates.get(rhs);
+				if (lhsEstimate != null && rhsEstimate != null && !lhsEstimate.equals(rhsEstimate)) {
+					return lhsEstimate - rhsEstimate;
+				}
+
+				return rhs.text.length() - lhs.text.length();
+			}
+		});
+	}
+
+	private static boolean searchTerm(final PwGroup group, List<PwEntry> entries, final SearchParameters sp,
+			final String text, List<PwEntry> matched) {
+		return ParallelEntrySearch.search(entries, new ParallelEntrySearch.HandlerFactory() {
+			@Override
+			public EntryHandler<PwEntry> create(List<PwEntry> results) {
+				return newHandler(group, sp, text, results);
+			}
+		}, matched);
+	}
+
+	/** Handler matching text, or every searchable entry if text is empty */
+	private static EntryHandler<PwEntry> newHandler(PwGroup group, SearchParameters spIn, String text, List<PwEntry> results) {
+		SearchParameters sp = (SearchParameters) spIn.clone();
+		sp.searchString = text;
+
+		if (text.length() <= 0) {
+			return new EntrySearchHandlerAll(sp, results);
+		} else {
+			return EntrySearchHandler.getInstance(group, sp, results);
+		}
+	}
+}
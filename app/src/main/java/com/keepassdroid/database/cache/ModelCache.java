@@ -0,0 +1,197 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.database.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+
+import com.keepassdroid.crypto.CryptoUtil;
+import com.keepassdroid.crypto.SidecarCrypto;
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.load.PwModelInputV4;
+import com.keepassdroid.database.save.PwModelOutputV4;
+
+/** Encrypted copy of the parsed model of a KDBX file, so an unchanged database can be
+ * reopened without decrypting, inflating and parsing the XML again.
+ *
+ * The cache is tagged with the size, modification time and header hash of the database
+ * file, and is encrypted and authenticated with keys derived from the database HMAC key.
+ * The key derivation still runs on every open, so the cache is no easier to attack than
+ * the database itself.
+ */
+public class ModelCache {
+	private static final int MAGIC = 0x4B504D43;
+	private static final int VERSION = 1;
+	private static final int IV_LENGTH = 16;
+	private static final int MAC_LENGTH = 32;
+
+	private final File file;
+	private final long sourceLength;
+	private final long sourceModified;
+	private boolean loaded = false;
+
+	public ModelCache(File file, File source) {
+		this.file = file;
+		sourceLength = source.length();
+		sourceModified = source.lastModified();
+	}
+
+	public static File getFile(File cacheDir, String dbPath) throws IOException {
+		byte[] hash = CryptoUtil.hashSha256(dbPath.getBytes("UTF-8"));
+
+		StringBuilder sb = new StringBuilder("model-");
+		for (int i = 0; i < 16; i++) {
+			sb.append(String.format("%02x", hash[i]));
+		}
+
+		return new File(cacheDir, sb.toString());
+	}
+
+	/** True if the last call to load filled in the database from the cache */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/** Fill in the database from the cache
+	 *
+	 * @param db Database whose header has been read and whose keys have been derived
+	 * @return false if the cache is missing, stale, or can't be authenticated with the key
+	 */
+	public boolean load(PwDatabaseV4 db) throws IOException {
+		loaded = false;
+		if (!file.exists() || db.hashOfHeader == null || db.hmacKey == null) {
+			return false;
+		}
+
+		byte[] data = SidecarCrypto.readFile(file);
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+		byte[] iv;
+		int ctLength;
+		try {
+			if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+				return false;
+			}
+
+			if (dis.readLong() != sourceLength || dis.readLong() != sourceModified) {
+				return false;
+			}
+
+			int hashLength = dis.readInt();
+			if (hashLength < 0 || hashLength > dis.available()) {
+				return false;
+			}
+
+			byte[] hashOfHeader = new byte[hashLength];
+			dis.readFully(hashOfHeader);
+			if (!Arrays.equals(hashOfHeader, db.hashOfHeader)) {
+				return false;
+			}
+
+			iv = new byte[IV_LENGTH];
+			dis.readFully(iv);
+			ctLength = dis.available() - MAC_LENGTH;
+			if (ctLength <= 0) {
+				return false;
+			}
+		} catch (EOFException e) {
+			return false;
+		}
+
+		int ctStart = data.length - MAC_LENGTH - ctLength;
+		byte[] storedMac = Arrays.copyOfRange(data, data.length - MAC_LENGTH, data.length);
+		Mac hmac = SidecarCrypto.getMac(SidecarCrypto.deriveKey(db.hmacKey, "Cache Authentication"));
+		hmac.update(data, 0, data.length - MAC_LENGTH);
+		if (!MessageDigest.isEqual(storedMac, hmac.doFinal())) {
+			// Most likely a wrong password, let the full load report it
+			return false;
+		}
+
+		byte[] plain = SidecarCrypto.crypt(Cipher.DECRYPT_MODE, SidecarCrypto.deriveKey(db.hmacKey, "Cache Encryption"), iv,
+				data, ctStart, ctLength);
+
+		PwModelInputV4 in = new PwModelInputV4(new ByteArrayInputStream(plain), db);
+		in.readDatabase();
+
+		loaded = true;
+		return true;
+	}
+
+	/** Write the database model, as it is in the tagged database file */
+	public void save(PwDatabaseV4 db) throws IOException {
+		if (db.hashOfHeader == null || db.hmacKey == null) {
+			throw new IOException("Database keys are not available");
+		}
+
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		PwModelOutputV4 out = new PwModelOutputV4(plain);
+		out.writeDatabase(db);
+		out.flush();
+
+		byte[] iv = new byte[IV_LENGTH];
+		new SecureRandom().nextBytes(iv);
+		byte[] pt = plain.toByteArray();
+		byte[] ct = SidecarCrypto.crypt(Cipher.ENCRYPT_MODE, SidecarCrypto.deriveKey(db.hmacKey, "Cache Encryption"), iv,
+				pt, 0, pt.length);
+		Arrays.fill(pt, (byte) 0);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(ct.length + 128);
+		DataOutputStream dos = new DataOutputStream(bos);
+		dos.writeInt(MAGIC);
+		dos.writeInt(VERSION);
+		dos.writeLong(sourceLength);
+		dos.writeLong(sourceModified);
+		dos.writeInt(db.hashOfHeader.length);
+		dos.write(db.hashOfHeader);
+		dos.write(iv);
+		dos.write(ct);
+		dos.write(SidecarCrypto.getMac(SidecarCrypto.deriveKey(db.hmacKey, "Cache Authentication")).doFinal(bos.toByteArray()));
+
+		File tempFile = new File(file.getPath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tempFile);
+		try {
+			bos.writeTo(fos);
+		} finally {
+			fos.close();
+		}
+
+		if (!tempFile.renameTo(file)) {
+			tempFile.delete();
+			throw new IOException("Failed to store model cache.");
+		}
+	}
+
+	public void delete() {
+		file.delete();
+	}
+
+}
@@ -25,6 +25,7 @@ import com.keepassdroid.Database;
 import com.keepassdroid.database.PwDatabase;
 import com.keepassdroid.database.PwEntry;
 import com.keepassdroid.database.PwGroup;
+import com.keepassdroid.database.journal.JournalRecord;
 
 public class AddEntry extends RunnableOnFinish {
 	protected Database mDb;
@@ -50,7 +51,7 @@ public class AddEntry extends RunnableOnFinish {
 		mDb.pm.addEntryTo(mEntry, mEntry.getParent());
 		
 		// Commit to disk
-		SaveDB save = new SaveDB(ctx, mDb, mFinish);
+		SaveDB save = new SaveDB(ctx, mDb, mFinish, false, JournalRecord.putEntry(mEntry));
 		save.run();
 	}
 	
@@ -69,6 +70,8 @@ public class AddEntry extends RunnableOnFinish {
 
 				// Mark parent group dirty
 				mDb.dirty.add(parent);
+
+				mDb.indexEntry(mEntry);
 				
 			} else {
 				pm.removeEntryFrom(mEntry, mEntry.getParent());
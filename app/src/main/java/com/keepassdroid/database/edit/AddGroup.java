@@ -24,6 +24,7 @@ import android.content.Context;
 import com.keepassdroid.Database;
 import com.keepassdroid.database.PwDatabase;
 import com.keepassdroid.database.PwGroup;
+import com.keepassdroid.database.journal.JournalRecord;
 
 public class AddGroup extends RunnableOnFinish {
 	protected Database mDb;
@@ -66,7 +67,7 @@ public class AddGroup extends RunnableOnFinish {
 		//mParent.sortGroupsByName();
 		
 		// Commit to disk
-		SaveDB save = new SaveDB(ctx, mDb, mFinish, mDontSave);
+		SaveDB save = new SaveDB(ctx, mDb, mFinish, mDontSave, JournalRecord.putGroup(mGroup));
 		save.run();
 	}
 	
@@ -19,12 +19,16 @@
  */
 package com.keepassdroid.database.edit;
 
+import java.io.IOException;
 
 import android.content.Context;
 import android.net.Uri;
 
 import com.keepassdroid.Database;
 import com.keepassdroid.app.App;
+import com.keepassdroid.crypto.keyDerivation.KdfEngine;
+import com.keepassdroid.crypto.keyDerivation.KdfFactory;
+import com.keepassdroid.crypto.keyDerivation.KdfParameters;
 import com.keepassdroid.database.PwDatabase;
 import com.keepassdroid.database.PwDatabaseV3;
 import com.keepassdroid.database.PwEncryptionAlgorithm;
@@ -54,6 +58,7 @@ public class CreateDB extends RunnableOnFinish {
 		
 		PwDatabase pm = PwDatabase.getNewDBInstance(mFilename);
 		pm.initNew(mFilename);
+		calibrate(pm);
 		
 		// Set Database state
 		db.pm = pm;
@@ -67,4 +72,18 @@ public class CreateDB extends RunnableOnFinish {
 		mFinish = null;
 		save.run();
 	}
+
+	/** Size the key derivation for this device instead of using the fixed default */
+	private void calibrate(PwDatabase pm) {
+		try {
+			KdfParameters p = pm.getKdfParameters();
+			KdfEngine kdfEngine = KdfFactory.get(p.kdfUUID);
+			if (kdfEngine != null) {
+				kdfEngine.calibrate(p, KdfEngine.DefaultCalibrationMillis);
+				pm.setKdfParameters(p);
+			}
+		} catch (IOException e) {
+			// Keep the defaults
+		}
+	}
 }
@@ -21,10 +21,13 @@ package com.keepassdroid.database.edit;
 
 import android.content.Context;
 
+import java.util.List;
+
 import com.keepassdroid.Database;
 import com.keepassdroid.database.PwDatabase;
 import com.keepassdroid.database.PwEntry;
 import com.keepassdroid.database.PwGroup;
+import com.keepassdroid.database.journal.JournalRecord;
 
 /** Task to delete entries
  * @author bpellin
@@ -58,18 +61,21 @@ public class DeleteEntry extends RunnableOnFinish {
 
 		// Remove Entry from parent
 		boolean recycle = pm.canRecycle(mEntry);
+		List<JournalRecord> records;
 		if (recycle) {
 			pm.recycle(mEntry);
+			records = JournalRecord.recycleEntry(mEntry, pm.getRecycleBin());
 		}
 		else {
 			pm.deleteEntry(mEntry);
+			records = JournalRecord.deleteEntry(mEntry);
 		}
 		
 		// Save
 		mFinish = new AfterDelete(mFinish, parent, mEntry, recycle);
 		
 		// Commit database
-		SaveDB save = new SaveDB(ctx, mDb, mFinish, mDontSave);
+		SaveDB save = new SaveDB(ctx, mDb, mFinish, mDontSave, records);
 		save.run();
 	
 		
@@ -102,6 +108,11 @@ public class DeleteEntry extends RunnableOnFinish {
 					PwGroup recycleBin = pm.getRecycleBin();
 					mDb.dirty.add(recycleBin);
 					mDb.dirty.add(mDb.pm.rootGroup);
+
+					// Still searchable in the recycle bin unless backups are omitted
+					mDb.indexEntry(mEntry);
+				} else {
+					mDb.unindexEntry(mEntry);
 				}
 			} else {
 				if (recycled) {
@@ -104,6 +104,7 @@ public class DeleteGroup extends RunnableOnFinish {
 			if ( mSuccess ) {
 				// Remove from group global
 				mDb.pm.groups.remove(mGroup.getId());
+				mDb.unindexGroup(mGroup);
 				
 				// Remove group from the dirty global (if it is present), not a big deal if this fails
 				mDb.dirty.remove(mGroup);
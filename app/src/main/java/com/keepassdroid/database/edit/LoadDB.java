@@ -30,6 +30,8 @@ import android.preference.PreferenceManager;
 import com.android.keepass.R;
 import com.keepassdroid.Database;
 import com.keepassdroid.app.App;
+import com.keepassdroid.crypto.keyDerivation.TransformedKey;
+import com.keepassdroid.database.PwDatabaseV4;
 import com.keepassdroid.database.exception.ArcFourException;
 import com.keepassdroid.database.exception.ContentFileNotFoundException;
 import com.keepassdroid.database.exception.InvalidAlgorithmException;
@@ -39,11 +41,13 @@ import com.keepassdroid.database.exception.InvalidDBVersionException;
 import com.keepassdroid.database.exception.InvalidKeyFileException;
 import com.keepassdroid.database.exception.InvalidPasswordException;
 import com.keepassdroid.database.exception.KeyFileEmptyException;
+import com.keepassdroid.fingerprint.QuickUnlockStore;
 
 public class LoadDB extends RunnableOnFinish {
     private Uri mUri;
     private String mPass;
     private Uri mKey;
+    private TransformedKey mTransformedKey;
     private Database mDb;
     private Context mCtx;
     private boolean mRememberKeyfile;
@@ -61,10 +65,26 @@ public class LoadDB extends RunnableOnFinish {
         mRememberKeyfile = prefs.getBoolean(ctx.getString(R.string.keyfile_key), ctx.getResources().getBoolean(R.bool.keyfile_default));
     }
 
+    /** Reopen a database with a key remembered for quick unlock */
+    public LoadDB(Database db, Context ctx, Uri uri, TransformedKey transformedKey, Uri key, OnFinish finish) {
+        this(db, ctx, uri, null, key, finish);
+
+        mTransformedKey = transformedKey;
+    }
+
     @Override
     public void run() {
+        QuickUnlockStore quickUnlock = new QuickUnlockStore(mCtx);
         try {
-            mDb.LoadData(mCtx, mUri, mPass, mKey, mStatus);
+            if (mTransformedKey != null) {
+                mDb.LoadData(mCtx, mUri, mTransformedKey, mStatus);
+            } else {
+                mDb.LoadData(mCtx, mUri, mPass, mKey, mStatus);
+
+                if (mDb.pm instanceof PwDatabaseV4) {
+                    quickUnlock.store(mUri, ((PwDatabaseV4) mDb.pm).transformedKey);
+                }
+            }
 
             saveFileData(mUri, mKey);
 
@@ -72,6 +92,12 @@ public class LoadDB extends RunnableOnFinish {
             finish(false, mCtx.getString(R.string.error_arc4));
             return;
         } catch (InvalidPasswordException e) {
+            if (mTransformedKey != null) {
+                // The database key changed since it was remembered
+                quickUnlock.clear(mUri);
+                finish(false, mCtx.getString(R.string.quick_unlock_expired));
+                return;
+            }
             finish(false, mCtx.getString(R.string.InvalidPassword));
             return;
         } catch (ContentFileNotFoundException e) {
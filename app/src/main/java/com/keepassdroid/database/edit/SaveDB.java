@@ -22,14 +22,17 @@ package com.keepassdroid.database.edit;
 import android.content.Context;
 
 import java.io.IOException;
+import java.util.List;
 
 import com.keepassdroid.Database;
 import com.keepassdroid.database.exception.PwDbOutputException;
+import com.keepassdroid.database.journal.JournalRecord;
 
 public class SaveDB extends RunnableOnFinish {
 	private Database mDb;
 	private boolean mDontSave;
 	private Context mCtx;
+	private List<JournalRecord> mRecords;
 
 	public SaveDB(Context ctx, Database db, OnFinish finish, boolean dontSave) {
 		super(finish);
@@ -47,12 +50,19 @@ public class SaveDB extends RunnableOnFinish {
 		mCtx = ctx;
 	}
 
+	/** Save an edit described by records, which can be journaled instead of writing the whole database */
+	public SaveDB(Context ctx, Database db, OnFinish finish, boolean dontSave, List<JournalRecord> records) {
+		this(ctx, db, finish, dontSave);
+
+		mRecords = records;
+	}
+
 	@Override
 	public void run() {
 
 		if ( ! mDontSave ) {
 			try {
-				mDb.SaveData(mCtx);
+				mDb.SaveData(mCtx, mRecords);
 			} catch (IOException e) {
 				finish(false, e.getMessage());
 				return;
@@ -69,8 +69,8 @@ public class SetPassword extends RunnableOnFinish {
 	public void run() {
 		PwDatabase pm = mDb.pm;
 		
-		byte[] backupKey = new byte[pm.masterKey.length];
-		System.arraycopy(pm.masterKey, 0, backupKey, 0, backupKey.length);
+		// No master key after a quick unlock
+		byte[] backupKey = pm.masterKey == null ? null : pm.masterKey.clone();
 
 		// Set key
 		try {
@@ -24,6 +24,7 @@ import android.content.Context;
 import com.keepassdroid.Database;
 import com.keepassdroid.database.PwEntry;
 import com.keepassdroid.database.PwGroup;
+import com.keepassdroid.database.journal.JournalRecord;
 
 public class UpdateEntry extends RunnableOnFinish {
 	private Database mDb;
@@ -54,7 +55,7 @@ public class UpdateEntry extends RunnableOnFinish {
 		
 		
 		// Commit to disk
-		SaveDB save = new SaveDB(ctx, mDb, mFinish);
+		SaveDB save = new SaveDB(ctx, mDb, mFinish, false, JournalRecord.putEntry(mOldE));
 		save.run();
 	}
 	
@@ -70,6 +71,8 @@ public class UpdateEntry extends RunnableOnFinish {
 		@Override
 		public void run() {
 			if ( mSuccess ) {
+				mDb.indexEntry(mOldE);
+
 				// Mark group dirty if title or icon changes
 				if ( ! mBackup.getTitle().equals(mNewE.getTitle()) || ! mBackup.getIcon().equals(mNewE.getIcon()) ) {
 					PwGroup parent = mBackup.getParent();
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.database.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.SyncFailedException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+
+import com.keepassdroid.crypto.SidecarCrypto;
+import com.keepassdroid.crypto.keyDerivation.KdfParameters;
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.load.PwModelInputV4;
+import com.keepassdroid.database.save.PwModelOutputV4;
+
+/** Append-only, encrypted log of edits made since the database file was last written.
+ *
+ * Each save appends one authenticated batch of records instead of rewriting the whole
+ * database. The journal is bound to the database file through the header hash, and is
+ * folded back into the file (compacted) by a full save. Database compacts in the background
+ * once edits stop for a while, on "Sync now", and on open when the journal is over MAX_SIZE
+ * or MAX_AGE.
+ *
+ * File layout: header (magic, version, creation time, header hash, master seed and KDF
+ * parameters of the database file), header MAC, then one block per batch:
+ * length, IV, AES-CBC ciphertext, and an HMAC-SHA256 chained over the previous MAC.
+ */
+public class EditJournal {
+	private static final int MAGIC = 0x4B504A4C;
+	private static final int VERSION = 1;
+	private static final int IV_LENGTH = 16;
+	private static final int MAC_LENGTH = 32;
+	private static final int MAX_BLOCK_LENGTH = 64 * 1024 * 1024;
+
+	public static final long MAX_SIZE = 256 * 1024;
+	public static final long MAX_AGE = 24 * 60 * 60 * 1000L;
+
+	private final File file;
+	private final byte[] encKey;
+	private final byte[] macKey;
+	private final long created;
+	private byte[] lastMac;
+	private int seq = 0;
+	private long length;
+	private boolean stale = false;
+
+	private EditJournal(File file, byte[] hmacKey, long created) throws IOException {
+		this.file = file;
+		this.created = created;
+		encKey = SidecarCrypto.deriveKey(hmacKey, "Journal Encryption");
+		macKey = SidecarCrypto.deriveKey(hmacKey, "Journal Authentication");
+	}
+
+	public static File getFile(String dbPath) {
+		return new File(dbPath + ".journal");
+	}
+
+	/** Start an empty journal for the database as it was just loaded or saved */
+	public static EditJournal create(File file, PwDatabaseV4 db) throws IOException {
+		if (db.hmacKey == null || db.hashOfHeader == null || db.masterSeed == null) {
+			throw new IOException("Database keys are not available");
+		}
+
+		EditJournal journal = new EditJournal(file, db.hmacKey, System.currentTimeMillis());
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bos);
+		dos.writeInt(MAGIC);
+		dos.writeInt(VERSION);
+		dos.writeLong(journal.created);
+		writeBytes(dos, db.hashOfHeader);
+		writeBytes(dos, db.masterSeed);
+		writeBytes(dos, KdfParameters.serialize(db.kdfParameters));
+		byte[] header = bos.toByteArray();
+
+		journal.lastMac = journal.mac(header);
+
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write(header);
+			fos.write(journal.lastMac);
+			sync(fos);
+		} finally {
+			fos.close();
+		}
+		journal.length = header.length + MAC_LENGTH;
+
+		return journal;
+	}
+
+	/** Open an existing journal and replay its edits into the database
+	 *
+	 * If the database file was changed since the journal was started, the journal key is
+	 * derived again from the parameters stored in the journal, and only edits newer than the
+	 * database are applied. Such a journal is marked for compaction.
+	 *
+	 * @return The journal, or null if there is none or it can't be read with this key
+	 */
+	public static EditJournal open(File file, PwDatabaseV4 db) throws IOException {
+		if (!file.exists()) {
+			return null;
+		}
+
+		byte[] data = SidecarCrypto.readFile(file);
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+		byte[] hashOfHeader, masterSeed;
+		KdfParameters kdfParameters;
+		long created;
+		try {
+			if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+				return null;
+			}
+			created = dis.readLong();
+			hashOfHeader = readBytes(dis);
+			masterSeed = readBytes(dis);
+			kdfParameters = KdfParameters.deserialize(readBytes(dis));
+		} catch (EOFException e) {
+			return null;
+		}
+
+		int headerLength = data.length - dis.available();
+		if (data.length < headerLength + MAC_LENGTH) {
+			return null;
+		}
+
+		boolean sameFile = Arrays.equals(hashOfHeader, db.hashOfHeader);
+		byte[] hmacKey = sameFile ? db.hmacKey : db.deriveHmacKey(masterSeed, kdfParameters);
+
+		EditJournal journal = new EditJournal(file, hmacKey, created);
+		journal.stale = !sameFile;
+
+		byte[] headerMac = Arrays.copyOfRange(data, headerLength, headerLength + MAC_LENGTH);
+		if (!MessageDigest.isEqual(headerMac, journal.mac(Arrays.copyOf(data, headerLength)))) {
+			// Wrong key, or the journal belongs to another database
+			return null;
+		}
+		journal.lastMac = headerMac;
+
+		int pos = headerLength + MAC_LENGTH;
+		while (pos < data.length) {
+			int next = journal.replayBlock(data, pos, db, !sameFile);
+			if (next < 0) {
+				break;
+			}
+			pos = next;
+		}
+
+		if (pos < data.length) {
+			// Drop a torn or damaged tail so later appends chain from the last good block
+			truncate(file, pos);
+		}
+		journal.length = pos;
+
+		return journal;
+	}
+
+	/** Append one batch of records, durably, before returning */
+	public void append(List<JournalRecord> records) throws IOException {
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		PwModelOutputV4 out = new PwModelOutputV4(plain);
+		out.writeInt(records.size());
+		for (JournalRecord record : records) {
+			record.write(out);
+		}
+		out.flush();
+
+		byte[] iv = new byte[IV_LENGTH];
+		new SecureRandom().nextBytes(iv);
+		byte[] ct = crypt(Cipher.ENCRYPT_MODE, iv, plain.toByteArray());
+		byte[] blockMac = blockMac(seq, iv, ct);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(4 + IV_LENGTH + ct.length + MAC_LENGTH);
+		DataOutputStream dos = new DataOutputStream(bos);
+		dos.writeInt(ct.length);
+		dos.write(iv);
+		dos.write(ct);
+		dos.write(blockMac);
+
+		FileOutputStream fos = new FileOutputStream(file, true);
+		try {
+			fos.write(bos.toByteArray());
+			sync(fos);
+		} finally {
+			fos.close();
+		}
+
+		lastMac = blockMac;
+		seq++;
+		length += bos.size();
+	}
+
+	/** True when the journal should be folded back into the database by a full save */
+	public boolean needsCompaction() {
+		return stale || length > MAX_SIZE || System.currentTimeMillis() - created > MAX_AGE;
+	}
+
+	public boolean isEmpty() {
+		return seq == 0;
+	}
+
+	public void delete() {
+		file.delete();
+	}
+
+	private int replayBlock(byte[] data, int pos, PwDatabaseV4 db, boolean onlyIfNewer) throws IOException {
+		if (data.length - pos < 4 + IV_LENGTH + MAC_LENGTH) {
+			return -1;
+		}
+
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data, pos, 4));
+		int ctLength = dis.readInt();
+		if (ctLength <= 0 || ctLength > MAX_BLOCK_LENGTH || data.length - pos - 4 - IV_LENGTH - MAC_LENGTH < ctLength) {
+			return -1;
+		}
+
+		int ivStart = pos + 4;
+		int ctStart = ivStart + IV_LENGTH;
+		int macStart = ctStart + ctLength;
+		byte[] iv = Arrays.copyOfRange(data, ivStart, ctStart);
+		byte[] ct = Arrays.copyOfRange(data, ctStart, macStart);
+		byte[] storedMac = Arrays.copyOfRange(data, macStart, macStart + MAC_LENGTH);
+
+		byte[] expectedMac = blockMac(seq, iv, ct);
+		if (!MessageDigest.isEqual(storedMac, expectedMac)) {
+			return -1;
+		}
+
+		byte[] plain = crypt(Cipher.DECRYPT_MODE, iv, ct);
+		PwModelInputV4 in = new PwModelInputV4(new ByteArrayInputStream(plain), db);
+		int count = in.readInt();
+		List<JournalRecord> records = new ArrayList<JournalRecord>(count);
+		for (int i = 0; i < count; i++) {
+			records.add(JournalRecord.read(in));
+		}
+
+		for (JournalRecord record : records) {
+			record.apply(db, onlyIfNewer);
+		}
+
+		lastMac = storedMac;
+		seq++;
+
+		return macStart + MAC_LENGTH;
+	}
+
+	private byte[] blockMac(int seq, byte[] iv, byte[] ct) throws IOException {
+		Mac hmac = SidecarCrypto.getMac(macKey);
+		hmac.update(lastMac);
+		hmac.update(new byte[] { (byte) (seq >>> 24), (byte) (seq >>> 16), (byte) (seq >>> 8), (byte) seq });
+		hmac.update(iv);
+		hmac.update(ct);
+
+		return hmac.doFinal();
+	}
+
+	private byte[] mac(byte[] data) throws IOException {
+		return SidecarCrypto.getMac(macKey).doFinal(data);
+	}
+
+	private byte[] crypt(int mode, byte[] iv, byte[] data) throws IOException {
+		return SidecarCrypto.crypt(mode, encKey, iv, data, 0, data.length);
+	}
+
+	private static void writeBytes(DataOutputStream dos, byte[] data) throws IOException {
+		dos.writeInt(data.length);
+		dos.write(data);
+	}
+
+	private static byte[] readBytes(DataInputStream dis) throws IOException {
+		int length = dis.readInt();
+		if (length < 0 || length > dis.available()) {
+			throw new EOFException();
+		}
+
+		byte[] data = new byte[length];
+		dis.readFully(data);
+
+		return data;
+	}
+
+	private static void truncate(File file, long length) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(length);
+			raf.getFD().sync();
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void sync(FileOutputStream fos) throws IOException {
+		try {
+			fos.getFD().sync();
+		} catch (SyncFailedException e) {
+			// Ignore if fsync fails. We tried.
+		}
+	}
+
+}
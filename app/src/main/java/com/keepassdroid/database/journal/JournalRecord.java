@@ -0,0 +1,327 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.database.journal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwDeletedObject;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.database.PwGroup;
+import com.keepassdroid.database.PwGroupIdV4;
+import com.keepassdroid.database.PwGroupV4;
+import com.keepassdroid.database.load.PwModelInputV4;
+import com.keepassdroid.database.save.PwModelOutputV4;
+
+/** A single change to the database model, as stored in the edit journal.
+ *
+ * Records carry the full state of the object they touch, so replaying them is
+ * idempotent and does not depend on the previous state of the object.
+ */
+public class JournalRecord {
+	public static final byte PUT_ENTRY = 1;
+	public static final byte DELETE_ENTRY = 2;
+	public static final byte PUT_GROUP = 3;
+	public static final byte PUT_RECYCLE_BIN = 4;
+
+	public final byte type;
+	private UUID parentUuid = PwDatabaseV4.UUID_ZERO;
+	private PwEntryV4 entry;
+	private PwGroupV4 group;
+	private UUID uuid;
+	private Date time;
+
+	private JournalRecord(byte type) {
+		this.type = type;
+	}
+
+	/** Records for an added or changed entry, or null if the database can't be journaled */
+	public static List<JournalRecord> putEntry(PwEntry e) {
+		if (!(e instanceof PwEntryV4)) {
+			return null;
+		}
+
+		List<JournalRecord> records = new ArrayList<JournalRecord>();
+		records.add(putEntryRecord((PwEntryV4) e));
+
+		return records;
+	}
+
+	/** Records for an entry moved to the recycle bin, which may just have been created */
+	public static List<JournalRecord> recycleEntry(PwEntry e, PwGroup recycleBin) {
+		if (!(e instanceof PwEntryV4) || !(recycleBin instanceof PwGroupV4)) {
+			return null;
+		}
+
+		List<JournalRecord> records = new ArrayList<JournalRecord>();
+		records.add(putGroupRecord(PUT_RECYCLE_BIN, (PwGroupV4) recycleBin));
+		records.add(putEntryRecord((PwEntryV4) e));
+
+		return records;
+	}
+
+	/** Records for a permanently deleted entry */
+	public static List<JournalRecord> deleteEntry(PwEntry e) {
+		if (!(e instanceof PwEntryV4)) {
+			return null;
+		}
+
+		JournalRecord record = new JournalRecord(DELETE_ENTRY);
+		record.uuid = e.getUUID();
+		record.time = new Date();
+
+		List<JournalRecord> records = new ArrayList<JournalRecord>();
+		records.add(record);
+
+		return records;
+	}
+
+	/** Records for an added or changed group */
+	public static List<JournalRecord> putGroup(PwGroup g) {
+		if (!(g instanceof PwGroupV4)) {
+			return null;
+		}
+
+		List<JournalRecord> records = new ArrayList<JournalRecord>();
+		records.add(putGroupRecord(PUT_GROUP, (PwGroupV4) g));
+
+		return records;
+	}
+
+	private static JournalRecord putEntryRecord(PwEntryV4 entry) {
+		JournalRecord record = new JournalRecord(PUT_ENTRY);
+		record.entry = entry;
+		if (entry.parent != null) {
+			record.parentUuid = entry.parent.uuid;
+		}
+
+		return record;
+	}
+
+	private static JournalRecord putGroupRecord(byte type, PwGroupV4 group) {
+		JournalRecord record = new JournalRecord(type);
+		record.group = group;
+		if (group.parent != null) {
+			record.parentUuid = group.parent.uuid;
+		}
+
+		return record;
+	}
+
+	void write(PwModelOutputV4 out) throws IOException {
+		out.writeByte(type);
+
+		switch (type) {
+		case PUT_ENTRY:
+			out.writeUUID(parentUuid);
+			out.writeEntry(entry);
+			break;
+		case DELETE_ENTRY:
+			out.writeUUID(uuid);
+			out.writeDate(time);
+			break;
+		case PUT_GROUP:
+		case PUT_RECYCLE_BIN:
+			out.writeUUID(parentUuid);
+			out.writeGroup(group);
+			break;
+		default:
+			throw new IOException("Unknown journal record type");
+		}
+	}
+
+	static JournalRecord read(PwModelInputV4 in) throws IOException {
+		JournalRecord record = new JournalRecord(in.readByte());
+
+		switch (record.type) {
+		case PUT_ENTRY:
+			record.parentUuid = in.readUUID();
+			record.entry = in.readEntry();
+			break;
+		case DELETE_ENTRY:
+			record.uuid = in.readUUID();
+			record.time = in.readDate();
+			break;
+		case PUT_GROUP:
+		case PUT_RECYCLE_BIN:
+			record.parentUuid = in.readUUID();
+			record.group = in.readGroup();
+			break;
+		default:
+			throw new IOException("Unknown journal record type");
+		}
+
+		return record;
+	}
+
+	/** Apply the change to the database
+	 *
+	 * @param onlyIfNewer Skip changes to objects that were modified more recently in the
+	 *                    database, used when the database file was changed by someone else
+	 */
+	void apply(PwDatabaseV4 db, boolean onlyIfNewer) {
+		switch (type) {
+		case PUT_ENTRY:
+			applyPutEntry(db, onlyIfNewer);
+			break;
+		case DELETE_ENTRY:
+			applyDeleteEntry(db, onlyIfNewer);
+			break;
+		case PUT_GROUP:
+		case PUT_RECYCLE_BIN:
+			applyPutGroup(db, onlyIfNewer);
+			break;
+		}
+	}
+
+	private PwGroupV4 findParent(PwDatabaseV4 db) {
+		PwGroupV4 parent = (PwGroupV4) db.groups.get(new PwGroupIdV4(parentUuid));
+		if (parent == null) {
+			parent = (PwGroupV4) db.rootGroup;
+		}
+
+		return parent;
+	}
+
+	private void applyPutEntry(PwDatabaseV4 db, boolean onlyIfNewer) {
+		PwGroupV4 parent = findParent(db);
+		PwEntryV4 existing = (PwEntryV4) db.entries.get(entry.uuid);
+
+		if (existing == null) {
+			if (isDeletedSince(db, entry.uuid, entry.getLastModificationTime(), onlyIfNewer)) {
+				return;
+			}
+
+			db.addEntryTo(entry, parent);
+			return;
+		}
+
+		if (onlyIfNewer && existing.getLastModificationTime().after(entry.getLastModificationTime())) {
+			return;
+		}
+
+		if (existing.parent != parent) {
+			db.removeEntryFrom(existing, existing.parent);
+			db.addEntryTo(existing, parent);
+		}
+
+		entry.parent = parent;
+		existing.assign(entry);
+		existing.tags = entry.tags;
+		existing.customData = entry.customData;
+	}
+
+	private void applyDeleteEntry(PwDatabaseV4 db, boolean onlyIfNewer) {
+		PwEntry existing = db.entries.get(uuid);
+		if (existing != null) {
+			if (onlyIfNewer && existing.getLastModificationTime().after(time)) {
+				// Changed in the database after it was deleted here, keep that version
+				return;
+			}
+
+			db.removeEntryFrom(existing, existing.getParent());
+		}
+
+		PwDeletedObject deleted = new PwDeletedObject(uuid, time);
+		if (!db.deletedObjects.contains(deleted)) {
+			db.deletedObjects.add(deleted);
+		}
+	}
+
+	private void applyPutGroup(PwDatabaseV4 db, boolean onlyIfNewer) {
+		PwGroupV4 parent = findParent(db);
+		PwGroupV4 existing = (PwGroupV4) db.groups.get(group.getId());
+
+		if (type == PUT_RECYCLE_BIN) {
+			db.recycleBinUUID = group.uuid;
+		}
+
+		if (existing == null) {
+			if (isDeletedSince(db, group.uuid, group.getLastModificationTime(), onlyIfNewer)) {
+				return;
+			}
+
+			parent.childGroups.add(group);
+			group.setParent(parent);
+			db.groups.put(group.getId(), group);
+			return;
+		}
+
+		if (existing == db.rootGroup) {
+			parent = null;
+		}
+
+		if (onlyIfNewer && existing.getLastModificationTime().after(group.getLastModificationTime())) {
+			return;
+		}
+
+		if (parent != null && existing.parent != parent && !parent.isContainedIn(existing)) {
+			existing.parent.childGroups.remove(existing);
+			parent.childGroups.add(existing);
+			existing.setParent(parent);
+		}
+
+		existing.name = group.name;
+		existing.notes = group.notes;
+		existing.icon = group.icon;
+		existing.customIcon = group.customIcon;
+		existing.isExpanded = group.isExpanded;
+		existing.defaultAutoTypeSequence = group.defaultAutoTypeSequence;
+		existing.enableAutoType = group.enableAutoType;
+		existing.enableSearching = group.enableSearching;
+		existing.lastTopVisibleEntry = group.lastTopVisibleEntry;
+		existing.setCreationTime(group.getCreationTime());
+		existing.setLastModificationTime(group.getLastModificationTime());
+		existing.setLastAccessTime(group.getLastAccessTime());
+		existing.setExpiryTime(group.getExpiryTime());
+		existing.setExpires(group.expires());
+		existing.setUsageCount(group.getUsageCount());
+		existing.setLocationChanged(group.getLocationChanged());
+		existing.customData = group.customData;
+	}
+
+	/** Whether an object missing from db was deleted there after it was last modified here,
+	 *  in which case the deletion wins. Otherwise it is no longer recorded as deleted, since
+	 *  it is about to be added back.
+	 */
+	private static boolean isDeletedSince(PwDatabaseV4 db, UUID uuid, Date lastMod, boolean onlyIfNewer) {
+		for (int i = 0; i < db.deletedObjects.size(); i++) {
+			PwDeletedObject deleted = db.deletedObjects.get(i);
+			if (!deleted.uuid.equals(uuid)) {
+				continue;
+			}
+
+			if (onlyIfNewer && !lastMod.after(deleted.getDeletionTime())) {
+				return true;
+			}
+
+			db.deletedObjects.remove(i);
+			return false;
+		}
+
+		return false;
+	}
+
+}
@@ -68,6 +68,7 @@ import android.util.Log;
 import com.android.keepass.R;
 import com.keepassdroid.UpdateStatus;
 import com.keepassdroid.crypto.CipherFactory;
+import com.keepassdroid.crypto.ParallelCbcDecryptor;
 import com.keepassdroid.database.PwDatabaseV3;
 import com.keepassdroid.database.PwDate;
 import com.keepassdroid.database.PwDbHeader;
@@ -179,40 +180,55 @@ public class ImporterV3 extends Importer {
 
 		status.updateMessage(R.string.decrypting_db);
 		// Initialize Rijndael algorithm
-		Cipher cipher;
-		try {
-			if ( newManager.algorithm == PwEncryptionAlgorithm.Rjindal ) {
-				cipher = CipherFactory.getInstance("AES/CBC/PKCS5Padding");
-			} else if ( newManager.algorithm == PwEncryptionAlgorithm.Twofish ) {
-				cipher = CipherFactory.getInstance("Twofish/CBC/PKCS7PADDING");
-			} else {
-				throw new IOException( "Encryption algorithm is not supported" );
-			}
-
-		} catch (NoSuchAlgorithmException e1) {
-			throw new IOException("No such algorithm");
-		} catch (NoSuchPaddingException e1) {
-			throw new IOException("No such pdading");
-		}
-
-		try {
-			cipher.init( Cipher.DECRYPT_MODE, new SecretKeySpec( newManager.finalKey, "AES" ), new IvParameterSpec( hdr.encryptionIV ) );
-		} catch (InvalidKeyException e1) {
-			throw new IOException("Invalid key");
-		} catch (InvalidAlgorithmParameterException e1) {
-			throw new IOException("Invalid algorithm parameter.");
+		String transformation;
+		String unpaddedTransformation;
+		if ( newManager.algorithm == PwEncryptionAlgorithm.Rjindal ) {
+			transformation = "AES/CBC/PKCS5Padding";
+			unpaddedTransformation = "AES/CBC/NoPadding";
+		} else if ( newManager.algorithm == PwEncryptionAlgorithm.Twofish ) {
+			transformation = "Twofish/CBC/PKCS7PADDING";
+			unpaddedTransformation = "Twofish/CBC/NoPadding";
+		} else {
+			throw new IOException( "Encryption algorithm is not supported" );
 		}
 
 		// Decrypt! The first bytes aren't encrypted (that's the header)
 		int encryptedPartSize;
-		try {
-			encryptedPartSize = cipher.doFinal(filebuf, PwDbHeaderV3.BUF_SIZE, fileSize - PwDbHeaderV3.BUF_SIZE, filebuf, PwDbHeaderV3.BUF_SIZE );
-		} catch (ShortBufferException e1) {
-			throw new IOException("Buffer too short");
-		} catch (IllegalBlockSizeException e1) {
-			throw new IOException("Invalid block size");
-		} catch (BadPaddingException e1) {
-			throw new InvalidPasswordException();
+		ParallelCbcDecryptor decryptor = new ParallelCbcDecryptor(transformation, unpaddedTransformation, newManager.finalKey, false);
+		if ( decryptor.isParallel(fileSize - PwDbHeaderV3.BUF_SIZE) ) {
+			try {
+				encryptedPartSize = decryptor.decrypt(hdr.encryptionIV, filebuf, PwDbHeaderV3.BUF_SIZE, fileSize - PwDbHeaderV3.BUF_SIZE, filebuf, PwDbHeaderV3.BUF_SIZE);
+			} catch (BadPaddingException e1) {
+				throw new InvalidPasswordException();
+			}
+		} else {
+			// A single cipher keeps the native AES implementation
+			Cipher cipher;
+			try {
+				cipher = CipherFactory.getInstance(transformation);
+			} catch (NoSuchAlgorithmException e1) {
+				throw new IOException("No such algorithm");
+			} catch (NoSuchPaddingException e1) {
+				throw new IOException("No such pdading");
+			}
+
+			try {
+				cipher.init( Cipher.DECRYPT_MODE, new SecretKeySpec( newManager.finalKey, "AES" ), new IvParameterSpec( hdr.encryptionIV ) );
+			} catch (InvalidKeyException e1) {
+				throw new IOException("Invalid key");
+			} catch (InvalidAlgorithmParameterException e1) {
+				throw new IOException("Invalid algorithm parameter.");
+			}
+
+			try {
+				encryptedPartSize = cipher.doFinal(filebuf, PwDbHeaderV3.BUF_SIZE, fileSize - PwDbHeaderV3.BUF_SIZE, filebuf, PwDbHeaderV3.BUF_SIZE );
+			} catch (ShortBufferException e1) {
+				throw new IOException("Buffer too short");
+			} catch (IllegalBlockSizeException e1) {
+				throw new IOException("Invalid block size");
+			} catch (BadPaddingException e1) {
+				throw new InvalidPasswordException();
+			}
 		}
 
 		// Copy decrypted data for testing
@@ -48,8 +48,10 @@ import biz.source_code.base64Coder.Base64Coder;
 
 import com.keepassdroid.UpdateStatus;
 import com.keepassdroid.crypto.CipherFactory;
+import com.keepassdroid.crypto.ParallelCbcDecryptor;
 import com.keepassdroid.crypto.PwStreamCipherFactory;
 import com.keepassdroid.crypto.engine.CipherEngine;
+import com.keepassdroid.crypto.keyDerivation.TransformedKey;
 import com.keepassdroid.database.BinaryPool;
 import com.keepassdroid.database.ITimeLogger;
 import com.keepassdroid.database.PwCompressionAlgorithm;
@@ -60,6 +62,7 @@ import com.keepassdroid.database.PwDeletedObject;
 import com.keepassdroid.database.PwEntryV4;
 import com.keepassdroid.database.PwGroupV4;
 import com.keepassdroid.database.PwIconCustom;
+import com.keepassdroid.database.cache.ModelCache;
 import com.keepassdroid.database.exception.ArcFourException;
 import com.keepassdroid.database.exception.InvalidDBException;
 import com.keepassdroid.database.exception.InvalidPasswordException;
@@ -69,6 +72,7 @@ import com.keepassdroid.stream.BetterCipherInputStream;
 import com.keepassdroid.stream.HashedBlockInputStream;
 import com.keepassdroid.stream.HmacBlockInputStream;
 import com.keepassdroid.stream.LEDataInputStream;
+import com.keepassdroid.stream.ParallelCbcInputStream;
 import com.keepassdroid.utils.DateUtil;
 import com.keepassdroid.utils.EmptyUtils;
 import com.keepassdroid.utils.MemUtil;
@@ -83,12 +87,30 @@ public class ImporterV4 extends Importer {
 	private byte[] pbHeader = null;
 	private long version;
 	private int binNum = 0;
+	private ModelCache modelCache;
+	private TransformedKey transformedKey;
+	private boolean keepTransformedKey = false;
 	Calendar utcCal;
 
 	public ImporterV4() {
 		utcCal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
 	}
 	
+	/** Use the parsed model from cache instead of the file contents when it is up to date */
+	public void setModelCache(ModelCache cache) {
+		modelCache = cache;
+	}
+
+	/** Open with a key remembered from an earlier unlock instead of the password and key file */
+	public void setTransformedKey(TransformedKey key) {
+		transformedKey = key;
+	}
+
+	/** Keep the key derivation output in the database, so it can be remembered for quick unlock */
+	public void setKeepTransformedKey(boolean keep) {
+		keepTransformedKey = keep;
+	}
+
 	protected PwDatabaseV4 createDB() {
 		return new PwDatabaseV4();
 
@@ -114,9 +136,17 @@ public class ImporterV4 extends Importer {
         version = header.version;
 
 		hashOfHeader = hh.hash;
+		db.hashOfHeader = hh.hash;
 		pbHeader = hh.header;
 			
-		db.setMasterKey(password, keyInputStream);
+		db.keepTransformedKey = keepTransformedKey;
+		if (transformedKey != null) {
+			// Only the derived key is remembered, saves keep the key derivation seed
+			db.masterKey = null;
+			db.transformedKey = transformedKey;
+		} else {
+			db.setMasterKey(password, keyInputStream);
+		}
 		db.makeFinalKey(header.masterSeed, db.kdfParameters, roundsFix);
 
 		CipherEngine engine;
@@ -135,10 +165,14 @@ public class ImporterV4 extends Importer {
 			throw new IOException("Invalid algorithm.");
 		}
 
+		if (modelCache != null && modelCache.load(db)) {
+			return db;
+		}
+
 		InputStream isPlain;
 		if (version < PwDbHeaderV4.FILE_VERSION_32_4) {
 
-			InputStream decrypted = AttachCipherStream(inStream, cipher);
+			InputStream decrypted = AttachCipherStream(inStream, engine, cipher, header.encryptionIV);
 			LEDataInputStream dataDecrypted = new LEDataInputStream(decrypted);
 			byte[] storedStartBytes = null;
 			try {
@@ -176,7 +210,7 @@ public class ImporterV4 extends Importer {
 
 			HmacBlockInputStream hmIs = new HmacBlockInputStream(isData, true, hmacKey);
 
-			isPlain = AttachCipherStream(hmIs, cipher);
+			isPlain = AttachCipherStream(hmIs, engine, cipher, header.encryptionIV);
 		}
 
 		InputStream isXml;
@@ -208,7 +242,13 @@ public class ImporterV4 extends Importer {
 		
 	}
 
-	private InputStream AttachCipherStream(InputStream is, Cipher cipher) {
+	private InputStream AttachCipherStream(InputStream is, CipherEngine engine, Cipher cipher, byte[] iv) {
+		// CBC decryption can be split across cores, the cipher is then only used on one core
+		ParallelCbcDecryptor decryptor = engine.getParallelDecryptor(db.finalKey, false);
+		if (decryptor != null && decryptor.isParallel()) {
+			return new ParallelCbcInputStream(is, decryptor, iv);
+		}
+
 		return new BetterCipherInputStream(is, cipher, 50 * 1024);
 	}
 
@@ -252,7 +292,8 @@ public class ImporterV4 extends Importer {
 				byte[] bin = new byte[data.length - 1];
 				System.arraycopy(data, 1, bin, 0, data.length-1);
 				ProtectedBinary pb = new ProtectedBinary(prot, bin);
-				db.binPool.poolAdd(pb);
+				// Keep the position, references are by index in the inner header
+				db.binPool.put(db.binPool.size(), db.binPool.findEqual(pb));
 
 				if (prot) {
 					Arrays.fill(data, (byte)0);
@@ -511,7 +552,7 @@ public class ImporterV4 extends Importer {
 				if ( key != null ) {
 					ProtectedBinary pbData = ReadProtectedBinary(xpp);
 					int id = Integer.parseInt(key);
-					db.binPool.put(id, pbData);
+					db.binPool.put(id, db.binPool.findEqual(pbData));
 				} else {
 					ReadUnknown(xpp);
 				}
@@ -713,6 +754,10 @@ public class ImporterV4 extends Importer {
 				ctxBinaryName = ReadString(xpp);
 			} else if ( name.equalsIgnoreCase(ElemValue) ) {
 				ctxBinaryValue = ReadProtectedBinary(xpp);
+				if (ctxBinaryValue != null) {
+					// Share one instance between identical attachments, e.g. across history
+					ctxBinaryValue = db.binPool.poolIntern(ctxBinaryValue);
+				}
 			}
 			break;
 			
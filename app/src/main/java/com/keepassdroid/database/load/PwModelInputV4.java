@@ -0,0 +1,301 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.database.load;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+
+import com.keepassdroid.database.ITimeLogger;
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwDeletedObject;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.database.PwGroupV4;
+import com.keepassdroid.database.PwIconCustom;
+import com.keepassdroid.database.PwIconStandard;
+import com.keepassdroid.database.security.ProtectedBinary;
+import com.keepassdroid.database.security.ProtectedString;
+
+/** Reads back the model objects written by PwModelOutputV4 */
+public class PwModelInputV4 {
+	private final DataInputStream dis;
+	private final PwDatabaseV4 db;
+
+	public PwModelInputV4(InputStream is, PwDatabaseV4 db) {
+		dis = new DataInputStream(is);
+		this.db = db;
+	}
+
+	/** Reads the meta data and group tree written by PwModelOutputV4.writeDatabase into the database */
+	public void readDatabase() throws IOException {
+		db.name = readString();
+		db.nameChanged = readDate();
+		db.settingsChanged = readDate();
+		db.description = readString();
+		db.descriptionChanged = readDate();
+		db.defaultUserName = readString();
+		db.defaultUserNameChanged = readDate();
+		db.color = readString();
+		db.maintenanceHistoryDays = dis.readLong();
+		db.keyLastChanged = readDate();
+		db.keyChangeRecDays = dis.readLong();
+		db.keyChangeForceDays = dis.readLong();
+		db.keyChangeForceOnce = dis.readBoolean();
+		db.recycleBinEnabled = dis.readBoolean();
+		db.recycleBinUUID = readUUID();
+		db.recycleBinChanged = readDate();
+		db.entryTemplatesGroup = readUUID();
+		db.entryTemplatesGroupChanged = readDate();
+		db.historyMaxItems = dis.readInt();
+		db.historyMaxSize = dis.readLong();
+		db.lastSelectedGroup = readUUID();
+		db.lastTopVisibleGroup = readUUID();
+
+		PwDatabaseV4.MemoryProtectionConfig mp = db.memoryProtection;
+		mp.protectTitle = dis.readBoolean();
+		mp.protectUserName = dis.readBoolean();
+		mp.protectPassword = dis.readBoolean();
+		mp.protectUrl = dis.readBoolean();
+		mp.protectNotes = dis.readBoolean();
+		mp.autoEnableVisualHiding = dis.readBoolean();
+
+		int icons = readCount();
+		for (int i = 0; i < icons; i++) {
+			UUID uuid = readUUID();
+			PwIconCustom icon = new PwIconCustom(uuid, readBytes());
+			db.customIcons.add(icon);
+			db.iconFactory.put(icon);
+		}
+
+		int binaries = readCount();
+		for (int i = 0; i < binaries; i++) {
+			int key = dis.readInt();
+			db.binPool.put(key, db.binPool.findEqual(readBinary()));
+		}
+
+		readStringMap(db.customData);
+
+		int deleted = readCount();
+		for (int i = 0; i < deleted; i++) {
+			UUID uuid = readUUID();
+			db.deletedObjects.add(new PwDeletedObject(uuid, readDate()));
+		}
+
+		db.rootGroup = readGroupTree(null);
+	}
+
+	private PwGroupV4 readGroupTree(PwGroupV4 parent) throws IOException {
+		PwGroupV4 group = readGroup();
+		group.parent = parent;
+
+		int entries = readCount();
+		for (int i = 0; i < entries; i++) {
+			PwEntryV4 entry = readEntry();
+			entry.setParent(group);
+			group.childEntries.add(entry);
+		}
+
+		int groups = readCount();
+		for (int i = 0; i < groups; i++) {
+			group.childGroups.add(readGroupTree(group));
+		}
+
+		return group;
+	}
+
+	public PwEntryV4 readEntry() throws IOException {
+		PwEntryV4 entry = new PwEntryV4();
+
+		entry.uuid = readUUID();
+		entry.icon = readIcon();
+		entry.customIcon = readCustomIcon();
+		entry.foregroundColor = readString();
+		entry.backgroupColor = readString();
+		entry.overrideURL = readString();
+		entry.tags = readString();
+		readTimes(entry);
+
+		int strings = readCount();
+		for (int i = 0; i < strings; i++) {
+			String key = readString();
+			boolean protect = dis.readBoolean();
+			entry.strings.put(key, new ProtectedString(protect, readString()));
+		}
+
+		int binaries = readCount();
+		for (int i = 0; i < binaries; i++) {
+			String key = readString();
+			entry.binaries.put(key, db.binPool.poolIntern(readBinary()));
+		}
+
+		entry.autoType.enabled = dis.readBoolean();
+		entry.autoType.obfuscationOptions = dis.readLong();
+		entry.autoType.defaultSequence = readString();
+		int pairs = readCount();
+		for (int i = 0; i < pairs; i++) {
+			String window = readString();
+			entry.autoType.put(window, readString());
+		}
+
+		readStringMap(entry.customData);
+
+		int history = readCount();
+		for (int i = 0; i < history; i++) {
+			entry.history.add(readEntry());
+		}
+
+		return entry;
+	}
+
+	public PwGroupV4 readGroup() throws IOException {
+		PwGroupV4 group = new PwGroupV4();
+
+		group.uuid = readUUID();
+		group.name = readString();
+		group.notes = readString();
+		group.icon = readIcon();
+		group.customIcon = readCustomIcon();
+		group.isExpanded = dis.readBoolean();
+		group.defaultAutoTypeSequence = readString();
+		group.enableAutoType = readBoolean();
+		group.enableSearching = readBoolean();
+		group.lastTopVisibleEntry = readUUID();
+		readTimes(group);
+		readStringMap(group.customData);
+
+		return group;
+	}
+
+	public UUID readUUID() throws IOException {
+		long msb = dis.readLong();
+		long lsb = dis.readLong();
+
+		if (msb == 0 && lsb == 0) {
+			return PwDatabaseV4.UUID_ZERO;
+		}
+
+		return new UUID(msb, lsb);
+	}
+
+	public Date readDate() throws IOException {
+		return new Date(dis.readLong());
+	}
+
+	public String readString() throws IOException {
+		byte[] data = readBytes();
+		if (data == null) {
+			return null;
+		}
+
+		return new String(data, "UTF-8");
+	}
+
+	public byte[] readBytes() throws IOException {
+		int length = dis.readInt();
+		if (length < 0) {
+			return null;
+		}
+
+		byte[] data = new byte[length];
+		dis.readFully(data);
+
+		return data;
+	}
+
+	public ProtectedBinary readBinary() throws IOException {
+		boolean protect = dis.readBoolean();
+		byte[] data = readBytes();
+		if (data == null) {
+			data = new byte[0];
+		}
+
+		return new ProtectedBinary(protect, data);
+	}
+
+	public Boolean readBoolean() throws IOException {
+		byte value = dis.readByte();
+		if (value < 0) {
+			return null;
+		}
+
+		return value != 0;
+	}
+
+	public int readInt() throws IOException {
+		return dis.readInt();
+	}
+
+	public long readLong() throws IOException {
+		return dis.readLong();
+	}
+
+	public byte readByte() throws IOException {
+		return dis.readByte();
+	}
+
+	public void readStringMap(Map<String, String> map) throws IOException {
+		int count = readCount();
+		for (int i = 0; i < count; i++) {
+			String key = readString();
+			map.put(key, readString());
+		}
+	}
+
+	private int readCount() throws IOException {
+		int count = dis.readInt();
+		if (count < 0) {
+			throw new IOException("Invalid element count");
+		}
+
+		return count;
+	}
+
+	private PwIconStandard readIcon() throws IOException {
+		int iconId = dis.readInt();
+		if (iconId < 0) {
+			return null;
+		}
+
+		return db.iconFactory.getIcon(iconId);
+	}
+
+	private PwIconCustom readCustomIcon() throws IOException {
+		UUID uuid = readUUID();
+		if (uuid.equals(PwDatabaseV4.UUID_ZERO)) {
+			return PwIconCustom.ZERO;
+		}
+
+		return db.iconFactory.getIcon(uuid);
+	}
+
+	private void readTimes(ITimeLogger it) throws IOException {
+		it.setCreationTime(readDate());
+		it.setLastModificationTime(readDate());
+		it.setLastAccessTime(readDate());
+		it.setExpiryTime(readDate());
+		it.setExpires(dis.readBoolean());
+		it.setUsageCount(dis.readLong());
+		it.setLocationChanged(readDate());
+	}
+
+}
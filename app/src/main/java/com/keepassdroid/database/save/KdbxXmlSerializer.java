@@ -0,0 +1,367 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.database.save;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.keepassdroid.database.PwDatabaseV4XML.*;
+
+/** Streaming XML writer specialized for the KDBX document.
+ *
+ * Writes UTF-8 directly into a reusable byte buffer instead of going through
+ * a Writer, escapes using a lookup table, and keeps the element and attribute
+ * names from PwDatabaseV4XML pre-encoded. The output is byte for byte the same
+ * as the one produced by the platform serializer, so the two are
+ * interchangeable.
+ *
+ * Only writes what a KDBX document needs: a standalone UTF-8 document of
+ * elements, attributes and text, without namespaces.
+ */
+public class KdbxXmlSerializer implements KdbxXmlWriter {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final byte[] DOC_START = ascii("<?xml version='1.0' encoding='UTF-8' standalone='yes' ?>");
+	private static final byte[] EMPTY_END = ascii(" />");
+	private static final byte[] TAG_CLOSE_START = ascii("</");
+
+	private static final byte[] BASE64 = ascii("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/");
+
+	/** Escape sequences for ASCII characters, null if the character is written as is */
+	private static final byte[][] TEXT_ESCAPES = new byte[128][];
+	private static final byte[][] ATTR_ESCAPES = new byte[128][];
+
+	static {
+		for (int i = 0; i < 0x20; i++) {
+			if (i != '\t' && i != '\n' && i != '\r') {
+				// Not allowed in XML 1.0 at all, marked with an empty escape
+				TEXT_ESCAPES[i] = new byte[0];
+				ATTR_ESCAPES[i] = TEXT_ESCAPES[i];
+			}
+		}
+		TEXT_ESCAPES['&'] = ascii("&amp;");
+		TEXT_ESCAPES['<'] = ascii("&lt;");
+		TEXT_ESCAPES['>'] = ascii("&gt;");
+
+		ATTR_ESCAPES['&'] = TEXT_ESCAPES['&'];
+		ATTR_ESCAPES['<'] = TEXT_ESCAPES['<'];
+		ATTR_ESCAPES['>'] = TEXT_ESCAPES['>'];
+		ATTR_ESCAPES['"'] = ascii("&quot;");
+		ATTR_ESCAPES['\t'] = ascii("&#9;");
+		ATTR_ESCAPES['\n'] = ascii("&#10;");
+		ATTR_ESCAPES['\r'] = ascii("&#13;");
+	}
+
+	/** Element and attribute names written by PwDbV4Output, kept encoded */
+	private static final String[] KNOWN_NAMES = {
+		ElemDocNode, ElemMeta, ElemRoot, ElemGroup,
+		ElemEntry, ElemGenerator, ElemHeaderHash, ElemSettingsChanged,
+		ElemDbName, ElemDbNameChanged, ElemDbDesc, ElemDbDescChanged,
+		ElemDbDefaultUser, ElemDbDefaultUserChanged, ElemDbMntncHistoryDays, ElemDbColor,
+		ElemDbKeyChanged, ElemDbKeyChangeRec, ElemDbKeyChangeForce, ElemDbKeyChangeForceOnce,
+		ElemRecycleBinEnabled, ElemRecycleBinUuid, ElemRecycleBinChanged, ElemEntryTemplatesGroup,
+		ElemEntryTemplatesGroupChanged, ElemHistoryMaxItems, ElemHistoryMaxSize, ElemLastSelectedGroup,
+		ElemLastTopVisibleGroup, ElemMemoryProt, ElemProtTitle, ElemProtUserName,
+		ElemProtPassword, ElemProtURL, ElemProtNotes, ElemProtAutoHide,
+		ElemCustomIcons, ElemCustomIconItem, ElemCustomIconItemID, ElemCustomIconItemData,
+		ElemAutoType, ElemHistory, ElemName, ElemNotes,
+		ElemUuid, ElemIcon, ElemCustomIconID, ElemFgColor,
+		ElemBgColor, ElemOverrideUrl, ElemTimes, ElemTags,
+		ElemCreationTime, ElemLastModTime, ElemLastAccessTime, ElemExpiryTime,
+		ElemExpires, ElemUsageCount, ElemLocationChanged, ElemGroupDefaultAutoTypeSeq,
+		ElemEnableAutoType, ElemEnableSearching, ElemString, ElemBinary,
+		ElemKey, ElemValue, ElemAutoTypeEnabled, ElemAutoTypeObfuscation,
+		ElemAutoTypeDefaultSeq, ElemAutoTypeItem, ElemWindow, ElemKeystrokeSequence,
+		ElemBinaries, ElemIsExpanded, ElemLastTopVisibleEntry, ElemDeletedObjects,
+		ElemDeletedObject, ElemDeletionTime, ElemCustomData, ElemStringDictExItem,
+		AttrId, AttrRef, AttrProtected, AttrCompressed
+	};
+
+	private static final Map<String, byte[]> NAMES = new HashMap<String, byte[]>();
+
+	static {
+		for (String name : KNOWN_NAMES) {
+			NAMES.put(name, ascii(name));
+		}
+	}
+
+	private final OutputStream os;
+	private final byte[] buf = new byte[BUFFER_SIZE];
+	private int pos = 0;
+
+	private String[] elementStack = new String[16];
+	private int depth = 0;
+	private boolean pending = false;
+
+	private static byte[] ascii(String str) {
+		byte[] out = new byte[str.length()];
+		for (int i = 0; i < out.length; i++) {
+			out[i] = (byte) str.charAt(i);
+		}
+
+		return out;
+	}
+
+	private static byte[] encodeName(String name) {
+		byte[] encoded = NAMES.get(name);
+		if (encoded != null) {
+			return encoded;
+		}
+
+		try {
+			return name.getBytes("UTF-8");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public KdbxXmlSerializer(OutputStream os) {
+		this.os = os;
+	}
+
+	@Override
+	public void startDocument() throws IOException {
+		write(DOC_START);
+	}
+
+	@Override
+	public void endDocument() throws IOException {
+		while (depth > 0) {
+			endTag(elementStack[depth - 1]);
+		}
+
+		flush();
+	}
+
+	@Override
+	public void startTag(String name) throws IOException {
+		closePending();
+
+		if (depth == elementStack.length) {
+			String[] grown = new String[depth * 2];
+			System.arraycopy(elementStack, 0, grown, 0, depth);
+			elementStack = grown;
+		}
+		elementStack[depth++] = name;
+
+		write('<');
+		write(encodeName(name));
+		pending = true;
+	}
+
+	@Override
+	public void attribute(String name, String value) throws IOException {
+		if (!pending) {
+			throw new IllegalStateException("Attribute outside of a start tag");
+		}
+
+		write(' ');
+		write(encodeName(name));
+		write('=');
+		write('"');
+		writeEscaped(value, ATTR_ESCAPES);
+		write('"');
+	}
+
+	@Override
+	public void endTag(String name) throws IOException {
+		if (depth == 0 || !elementStack[depth - 1].equals(name)) {
+			throw new IllegalArgumentException("Mismatched end tag: " + name);
+		}
+		depth--;
+
+		if (pending) {
+			write(EMPTY_END);
+			pending = false;
+		} else {
+			write(TAG_CLOSE_START);
+			write(encodeName(name));
+			write('>');
+		}
+	}
+
+	@Override
+	public void text(String text) throws IOException {
+		closePending();
+		writeEscaped(text, TEXT_ESCAPES);
+	}
+
+	/** Writes the Base64 encoding without building an intermediate String */
+	@Override
+	public void base64(byte[] data, int offset, int length) throws IOException {
+		closePending();
+
+		int end = offset + length;
+		int i = offset;
+		while (end - i >= 3) {
+			if (BUFFER_SIZE - pos < 4) {
+				flushBuffer();
+			}
+
+			int bits = ((data[i] & 0xFF) << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i + 2] & 0xFF);
+			buf[pos++] = BASE64[(bits >>> 18) & 0x3F];
+			buf[pos++] = BASE64[(bits >>> 12) & 0x3F];
+			buf[pos++] = BASE64[(bits >>> 6) & 0x3F];
+			buf[pos++] = BASE64[bits & 0x3F];
+			i += 3;
+		}
+
+		int remaining = end - i;
+		if (remaining > 0) {
+			if (BUFFER_SIZE - pos < 4) {
+				flushBuffer();
+			}
+
+			int bits = (data[i] & 0xFF) << 16;
+			if (remaining == 2) {
+				bits |= (data[i + 1] & 0xFF) << 8;
+			}
+
+			buf[pos++] = BASE64[(bits >>> 18) & 0x3F];
+			buf[pos++] = BASE64[(bits >>> 12) & 0x3F];
+			buf[pos++] = remaining == 2 ? BASE64[(bits >>> 6) & 0x3F] : (byte) '=';
+			buf[pos++] = '=';
+		}
+	}
+
+	@Override
+	public void number(long value) throws IOException {
+		closePending();
+
+		if (value == Long.MIN_VALUE) {
+			write(ascii(Long.toString(value)));
+			return;
+		}
+
+		if (BUFFER_SIZE - pos < 20) {
+			flushBuffer();
+		}
+
+		if (value < 0) {
+			buf[pos++] = '-';
+			value = -value;
+		}
+
+		writeDigits(value);
+	}
+
+	private void writeDigits(long value) {
+		int digits = 1;
+		for (long v = value / 10; v > 0; v /= 10) {
+			digits++;
+		}
+
+		int i = pos + digits;
+		do {
+			buf[--i] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while (value > 0);
+		pos += digits;
+	}
+
+	/** Write out what is buffered */
+	public void flush() throws IOException {
+		closePending();
+		flushBuffer();
+		os.flush();
+	}
+
+	private void closePending() throws IOException {
+		if (pending) {
+			write('>');
+			pending = false;
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if (pos > 0) {
+			os.write(buf, 0, pos);
+			pos = 0;
+		}
+	}
+
+	private void write(int b) throws IOException {
+		if (pos == BUFFER_SIZE) {
+			flushBuffer();
+		}
+
+		buf[pos++] = (byte) b;
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		if (BUFFER_SIZE - pos < bytes.length) {
+			flushBuffer();
+
+			if (bytes.length > BUFFER_SIZE) {
+				os.write(bytes);
+				return;
+			}
+		}
+
+		System.arraycopy(bytes, 0, buf, pos, bytes.length);
+		pos += bytes.length;
+	}
+
+	private void writeEscaped(String str, byte[][] escapes) throws IOException {
+		int len = str.length();
+		for (int i = 0; i < len; i++) {
+			// Worst case for a single char is a 10 byte character reference
+			if (BUFFER_SIZE - pos < 10) {
+				flushBuffer();
+			}
+
+			char c = str.charAt(i);
+			if (c < 0x80) {
+				byte[] escape = escapes[c];
+				if (escape == null) {
+					buf[pos++] = (byte) c;
+				} else if (escape.length == 0) {
+					throw invalidChar(c);
+				} else {
+					System.arraycopy(escape, 0, buf, pos, escape.length);
+					pos += escape.length;
+				}
+			} else if (c < 0x800) {
+				buf[pos++] = (byte) (0xC0 | (c >> 6));
+				buf[pos++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1))) {
+				// Supplementary characters are written as character references, like the platform serializer does
+				int cp = Character.toCodePoint(c, str.charAt(++i));
+				buf[pos++] = '&';
+				buf[pos++] = '#';
+				writeDigits(cp);
+				buf[pos++] = ';';
+			} else if (c <= 0xD7FF || (c >= 0xE000 && c <= 0xFFFD)) {
+				buf[pos++] = (byte) (0xE0 | (c >> 12));
+				buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buf[pos++] = (byte) (0x80 | (c & 0x3F));
+			} else {
+				throw invalidChar(c);
+			}
+		}
+	}
+
+	private static IllegalArgumentException invalidChar(char c) {
+		return new IllegalArgumentException("Illegal character (U+" + Integer.toHexString(c) + ")");
+	}
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.database.save;
+
+import java.io.IOException;
+
+/** The XML output PwDbV4Output needs to write a KDBX document */
+public interface KdbxXmlWriter {
+	/** Write the declaration of a standalone UTF-8 document */
+	void startDocument() throws IOException;
+
+	/** Close the elements still open and flush the output */
+	void endDocument() throws IOException;
+
+	void startTag(String name) throws IOException;
+
+	/** Add an attribute to the element just started */
+	void attribute(String name, String value) throws IOException;
+
+	void endTag(String name) throws IOException;
+
+	void text(String text) throws IOException;
+
+	/** Write a decimal number as element text */
+	void number(long value) throws IOException;
+
+	/** Write the Base64 encoding of length bytes of data from offset as element text */
+	void base64(byte[] data, int offset, int length) throws IOException;
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.database.save;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.xmlpull.v1.XmlSerializer;
+
+import android.util.Xml;
+import biz.source_code.base64Coder.Base64Coder;
+
+/** Writes the KDBX XML with the platform XmlSerializer, to compare with KdbxXmlSerializer */
+public class PlatformXmlWriter implements KdbxXmlWriter {
+	private final XmlSerializer xml;
+
+	public PlatformXmlWriter(OutputStream os) throws IOException {
+		xml = Xml.newSerializer();
+		xml.setOutput(os, "UTF-8");
+	}
+
+	@Override
+	public void startDocument() throws IOException {
+		xml.startDocument("UTF-8", true);
+	}
+
+	@Override
+	public void endDocument() throws IOException {
+		xml.endDocument();
+	}
+
+	@Override
+	public void startTag(String name) throws IOException {
+		xml.startTag(null, name);
+	}
+
+	@Override
+	public void attribute(String name, String value) throws IOException {
+		xml.attribute(null, name, value);
+	}
+
+	@Override
+	public void endTag(String name) throws IOException {
+		xml.endTag(null, name);
+	}
+
+	@Override
+	public void text(String text) throws IOException {
+		xml.text(text);
+	}
+
+	@Override
+	public void number(long value) throws IOException {
+		xml.text(String.valueOf(value));
+	}
+
+	@Override
+	public void base64(byte[] data, int offset, int length) throws IOException {
+		xml.text(String.valueOf(Base64Coder.encode(data, offset, length)));
+	}
+}
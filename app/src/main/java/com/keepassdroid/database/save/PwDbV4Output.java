@@ -38,10 +38,6 @@ import javax.crypto.CipherOutputStream;
 
 import org.joda.time.DateTime;
 import org.spongycastle.crypto.StreamCipher;
-import org.xmlpull.v1.XmlSerializer;
-
-import android.util.Xml;
-import biz.source_code.base64Coder.Base64Coder;
 
 import com.keepassdroid.crypto.CipherFactory;
 import com.keepassdroid.crypto.PwStreamCipherFactory;
@@ -76,22 +72,32 @@ import com.keepassdroid.stream.LEDataOutputStream;
 import com.keepassdroid.utils.DateUtil;
 import com.keepassdroid.utils.EmptyUtils;
 import com.keepassdroid.utils.MemUtil;
-import com.keepassdroid.utils.Types;
 
 public class PwDbV4Output extends PwDbOutput {
 
 	PwDatabaseV4 mPM;
 	private StreamCipher randomStream;
-	private XmlSerializer xml;
+	private KdbxXmlWriter xml;
+	private boolean useAndroidSerializer;
+	private final byte[] scratch = new byte[16];
 	private PwDbHeaderV4 header;
 	private byte[] hashOfHeader;
 	private byte[] headerHmac;
     private CipherEngine engine = null;
 
 	protected PwDbV4Output(PwDatabaseV4 pm, OutputStream os) {
+		this(pm, os, false);
+	}
+
+	/**
+	 * @param useAndroidSerializer Write the XML with the platform XmlSerializer, through
+	 *                             PlatformXmlWriter, instead of KdbxXmlSerializer, for comparison
+	 */
+	public PwDbV4Output(PwDatabaseV4 pm, OutputStream os, boolean useAndroidSerializer) {
 		super(os);
 		
 		mPM = pm;
+		this.useAndroidSerializer = useAndroidSerializer;
 	}
 
 	@Override
@@ -201,17 +207,20 @@ public class PwDbV4Output extends PwDbOutput {
 	
 	private void outputDatabase(OutputStream os) throws IllegalArgumentException, IllegalStateException, IOException {
 
-		xml = Xml.newSerializer();
+		if (useAndroidSerializer) {
+			xml = new PlatformXmlWriter(os);
+		} else {
+			xml = new KdbxXmlSerializer(os);
+		}
 		
-		xml.setOutput(os, "UTF-8");
-		xml.startDocument("UTF-8", true);
+		xml.startDocument();
 		
-		xml.startTag(null, ElemDocNode);
+		xml.startTag(ElemDocNode);
 		
 		writeMeta();
 		
 		PwGroupV4 root = (PwGroupV4) mPM.rootGroup;
-		xml.startTag(null, ElemRoot);
+		xml.startTag(ElemRoot);
 		startGroup(root);
 		Stack<PwGroupV4> groupStack = new Stack<PwGroupV4>();
 		groupStack.push(root);
@@ -219,7 +228,7 @@ public class PwDbV4Output extends PwDbOutput {
 		if (!root.preOrderTraverseTree(new GroupWriter(groupStack), new EntryWriter())) throw new RuntimeException("Writing groups failed");
 		
 		while (groupStack.size() > 1) {
-			xml.endTag(null, ElemGroup);
+			xml.endTag(ElemGroup);
 			groupStack.pop();
 		}
 		
@@ -227,20 +236,20 @@ public class PwDbV4Output extends PwDbOutput {
 		
 		writeList(ElemDeletedObjects, mPM.deletedObjects);
 		
-		xml.endTag(null, ElemRoot);
+		xml.endTag(ElemRoot);
 		
-		xml.endTag(null, ElemDocNode);
+		xml.endTag(ElemDocNode);
 		xml.endDocument();
 		
 	}
 	
 	private void writeMeta() throws IllegalArgumentException, IllegalStateException, IOException {
-		xml.startTag(null, ElemMeta);
+		xml.startTag(ElemMeta);
 		
 		writeObject(ElemGenerator, mPM.localizedAppName);
 		
 		if (hashOfHeader != null) {
-			writeObject(ElemHeaderHash, String.valueOf(Base64Coder.encode(hashOfHeader)));
+			writeObject(ElemHeaderHash, hashOfHeader, hashOfHeader.length);
 		}
 		
 		writeObject(ElemDbName, mPM.name, true);
@@ -275,7 +284,7 @@ public class PwDbV4Output extends PwDbOutput {
 		}
 		writeList(ElemCustomData, mPM.customData);
 		
-		xml.endTag(null, ElemMeta);
+		xml.endTag(ElemMeta);
 		
 	}
 	
@@ -307,9 +316,13 @@ public class PwDbV4Output extends PwDbOutput {
 		}
 		random.nextBytes(h.encryptionIV);
 
-		UUID kdfUUID = mPM.kdfParameters.kdfUUID;
-		KdfEngine kdf = KdfFactory.get(kdfUUID);
-		kdf.randomize(mPM.kdfParameters);
+		// Opened by quick unlock, only the derived key for the current seed is known. The
+		// master seed still changes, and with it the final key.
+		if (mPM.masterKey != null) {
+			UUID kdfUUID = mPM.kdfParameters.kdfUUID;
+			KdfEngine kdf = KdfFactory.get(kdfUUID);
+			kdf.randomize(mPM.kdfParameters);
+		}
 
 		if (h.version < PwDbHeaderV4.FILE_VERSION_32_4) {
 			h.innerRandomStream = CrsAlgorithm.Salsa20;
@@ -346,12 +359,13 @@ public class PwDbV4Output extends PwDbOutput {
 		
 		hashOfHeader = pho.getHashOfHeader();
 		headerHmac = pho.headerHmac;
+		mPM.hashOfHeader = hashOfHeader;
 		
 		return header;
 	}
 	
 	private void startGroup(PwGroupV4 group) throws IllegalArgumentException, IllegalStateException, IOException {
-		xml.startTag(null, ElemGroup);
+		xml.startTag(ElemGroup);
 		writeObject(ElemUuid, group.uuid);
 		writeObject(ElemName, group.name);
 		writeObject(ElemNotes, group.notes);
@@ -371,13 +385,13 @@ public class PwDbV4Output extends PwDbOutput {
 	}
 	
 	private void endGroup() throws IllegalArgumentException, IllegalStateException, IOException {
-		xml.endTag(null, ElemGroup);
+		xml.endTag(ElemGroup);
 	}
 	
 	private void writeEntry(PwEntryV4 entry, boolean isHistory) throws IllegalArgumentException, IllegalStateException, IOException {
 		assert(entry != null);
 		
-		xml.startTag(null, ElemEntry);
+		xml.startTag(ElemEntry);
 		
 		writeObject(ElemUuid, entry.uuid);
 		writeObject(ElemIcon, entry.icon.iconId);
@@ -403,19 +417,19 @@ public class PwDbV4Output extends PwDbOutput {
 			assert(entry.history.size() == 0);
 		}
 		
-		xml.endTag(null, ElemEntry);
+		xml.endTag(ElemEntry);
 	}
 	
 
 	private void writeObject(String key, ProtectedBinary value, boolean allowRef) throws IllegalArgumentException, IllegalStateException, IOException {
 		assert(key != null && value != null);
 		
-		xml.startTag(null, ElemBinary);
-		xml.startTag(null, ElemKey);
+		xml.startTag(ElemBinary);
+		xml.startTag(ElemKey);
 		xml.text(safeXmlString(key));
-		xml.endTag(null, ElemKey);
+		xml.endTag(ElemKey);
 		
-		xml.startTag(null, ElemValue);
+		xml.startTag(ElemValue);
 		String strRef = null;
 		if (allowRef) {
 			int ref = mPM.binPool.poolFind(value);
@@ -423,37 +437,37 @@ public class PwDbV4Output extends PwDbOutput {
 		}
 		
 		if (strRef != null) {
-			xml.attribute(null, AttrRef, strRef);
+			xml.attribute(AttrRef, strRef);
 		}
 		else {
 			subWriteValue(value);
 		}
-		xml.endTag(null, ElemValue);
+		xml.endTag(ElemValue);
 		
-		xml.endTag(null, ElemBinary);
+		xml.endTag(ElemBinary);
 	}
 	
 	private void subWriteValue(ProtectedBinary value) throws IllegalArgumentException, IllegalStateException, IOException {
 		if (value.isProtected()) {
-			xml.attribute(null, AttrProtected, ValTrue);
+			xml.attribute(AttrProtected, ValTrue);
 			
 			int valLength = value.length();
 			if (valLength > 0) {
 				byte[] encoded = new byte[valLength];
 				randomStream.processBytes(value.getData(), 0, valLength, encoded, 0);
 				
-				xml.text(String.valueOf(Base64Coder.encode(encoded)));
+				writeBase64(encoded, valLength);
 			}
 			
 		} else {
 			if (mPM.compressionAlgorithm == PwCompressionAlgorithm.Gzip) {
-				xml.attribute(null, AttrCompressed, ValTrue);
+				xml.attribute(AttrCompressed, ValTrue);
 				byte[] raw = value.getData();
 				byte[] compressed = MemUtil.compress(raw);
-				xml.text(String.valueOf(Base64Coder.encode(compressed)));
+				writeBase64(compressed, compressed.length);
 			} else {
 				byte[] raw = value.getData();
-				xml.text(String.valueOf(Base64Coder.encode(raw)));
+				writeBase64(raw, raw.length);
 			}
 			
 		}
@@ -462,14 +476,14 @@ public class PwDbV4Output extends PwDbOutput {
 	private void writeObject(String name, String value, boolean filterXmlChars) throws IllegalArgumentException, IllegalStateException, IOException {
 		assert(name != null && value != null);
 		
-		xml.startTag(null, name);
+		xml.startTag(name);
 		
 		if (filterXmlChars) {
 			value = safeXmlString(value);
 		}
 		
 		xml.text(value);
-		xml.endTag(null, name);
+		xml.endTag(name);
 	}
 	
 	private void writeObject(String name, String value) throws IllegalArgumentException, IllegalStateException, IOException {
@@ -482,15 +496,26 @@ public class PwDbV4Output extends PwDbOutput {
 		} else {
 			DateTime dt = new DateTime(value);
 			long seconds = DateUtil.convertDateToKDBX4Time(dt);
-			byte[] buf = LEDataOutputStream.writeLongBuf(seconds);
-			String b64 = new String(Base64Coder.encode(buf));
-			writeObject(name, b64);
+			LEDataOutputStream.writeLong(seconds, scratch, 0);
+			writeObject(name, scratch, 8);
 		}
 
 	}
 	
 	private void writeObject(String name, long value) throws IllegalArgumentException, IllegalStateException, IOException {
-		writeObject(name, String.valueOf(value));
+		xml.startTag(name);
+		xml.number(value);
+		xml.endTag(name);
+	}
+
+	private void writeObject(String name, byte[] data, int length) throws IllegalArgumentException, IllegalStateException, IOException {
+		xml.startTag(name);
+		writeBase64(data, length);
+		xml.endTag(name);
+	}
+
+	private void writeBase64(byte[] data, int length) throws IllegalArgumentException, IllegalStateException, IOException {
+		xml.base64(data, 0, length);
 	}
 	
 	private void writeObject(String name, Boolean value) throws IllegalArgumentException, IllegalStateException, IOException {
@@ -509,28 +534,29 @@ public class PwDbV4Output extends PwDbOutput {
 	}
 	
 	private void writeObject(String name, UUID uuid) throws IllegalArgumentException, IllegalStateException, IOException {
-		byte[] data = Types.UUIDtoBytes(uuid);
-		writeObject(name, String.valueOf(Base64Coder.encode(data)));
+		LEDataOutputStream.writeLong(uuid.getMostSignificantBits(), scratch, 0);
+		LEDataOutputStream.writeLong(uuid.getLeastSignificantBits(), scratch, 8);
+		writeObject(name, scratch, 16);
 	}
 	
 	private void writeObject(String name, String keyName, String keyValue, String valueName, String valueValue) throws IllegalArgumentException, IllegalStateException, IOException {
-		xml.startTag(null, name);
+		xml.startTag(name);
 		
-		xml.startTag(null, keyName);
+		xml.startTag(keyName);
 		xml.text(safeXmlString(keyValue));
-		xml.endTag(null, keyName);
+		xml.endTag(keyName);
 		
-		xml.startTag(null, valueName);
+		xml.startTag(valueName);
 		xml.text(safeXmlString(valueValue));
-		xml.endTag(null, valueName);
+		xml.endTag(valueName);
 		
-		xml.endTag(null, name);
+		xml.endTag(name);
 	}
 	
 	private void writeList(String name, AutoType autoType) throws IllegalArgumentException, IllegalStateException, IOException {
 		assert(name != null && autoType != null);
 		
-		xml.startTag(null, name);
+		xml.startTag(name);
 		
 		writeObject(ElemAutoTypeEnabled, autoType.enabled);
 		writeObject(ElemAutoTypeObfuscation, autoType.obfuscationOptions);
@@ -543,7 +569,7 @@ public class PwDbV4Output extends PwDbOutput {
 			writeObject(ElemAutoTypeItem, ElemWindow, pair.getKey(), ElemKeystrokeSequence, pair.getValue());
 		}
 		
-		xml.endTag(null, name);
+		xml.endTag(name);
 		
 	}
 
@@ -560,12 +586,12 @@ public class PwDbV4Output extends PwDbOutput {
 	private void writeObject(String key, ProtectedString value, boolean isEntryString) throws IllegalArgumentException, IllegalStateException, IOException {
 		assert(key !=null && value != null);
 		
-		xml.startTag(null, ElemString);
-		xml.startTag(null, ElemKey);
+		xml.startTag(ElemString);
+		xml.startTag(ElemKey);
 		xml.text(safeXmlString(key));
-		xml.endTag(null, ElemKey);
+		xml.endTag(ElemKey);
 		
-		xml.startTag(null, ElemValue);
+		xml.startTag(ElemValue);
 		boolean protect = value.isProtected();
 		if (isEntryString) {
 			if (key.equals(PwDefsV4.TITLE_FIELD)) {
@@ -586,7 +612,7 @@ public class PwDbV4Output extends PwDbOutput {
 		}
 		
 		if (protect) {
-			xml.attribute(null, AttrProtected, ValTrue);
+			xml.attribute(AttrProtected, ValTrue);
 			
 			byte[] data = value.toString().getBytes("UTF-8");
 			int valLength = data.length;
@@ -594,27 +620,27 @@ public class PwDbV4Output extends PwDbOutput {
 			if (valLength > 0) {
 				byte[] encoded = new byte[valLength];
 				randomStream.processBytes(data, 0, valLength, encoded, 0);
-				xml.text(String.valueOf(Base64Coder.encode(encoded)));
+				writeBase64(encoded, valLength);
 			}
 		}
 		else {
 			xml.text(safeXmlString(value.toString()));
 		}
 		
-		xml.endTag(null, ElemValue);
-		xml.endTag(null, ElemString);
+		xml.endTag(ElemValue);
+		xml.endTag(ElemString);
 		
 	}
 
 	private void writeObject(String name, PwDeletedObject value) throws IllegalArgumentException, IllegalStateException, IOException {
 		assert(name != null && value != null);
 		
-		xml.startTag(null, name);
+		xml.startTag(name);
 		
 		writeObject(ElemUuid, value.uuid);
 		writeObject(ElemDeletionTime, value.getDeletionTime());
 		
-		xml.endTag(null, name);
+		xml.endTag(name);
 	}
 
 	private void writeList(Map<String, ProtectedBinary> binaries) throws IllegalArgumentException, IllegalStateException, IOException {
@@ -629,20 +655,20 @@ public class PwDbV4Output extends PwDbOutput {
 	private void writeList(String name, List<PwDeletedObject> value) throws IllegalArgumentException, IllegalStateException, IOException {
 		assert(name != null && value != null);
 		
-		xml.startTag(null, name);
+		xml.startTag(name);
 		
 		for (PwDeletedObject pdo : value) {
 			writeObject(ElemDeletedObject, pdo);
 		}
 		
-		xml.endTag(null, name);
+		xml.endTag(name);
 		
 	}
 
 	private void writeList(String name, MemoryProtectionConfig value) throws IllegalArgumentException, IllegalStateException, IOException {
 		assert(name != null && value != null);
 		
-		xml.startTag(null, name);
+		xml.startTag(name);
 		
 		writeObject(ElemProtTitle, value.protectTitle);
 		writeObject(ElemProtUserName, value.protectUserName);
@@ -650,28 +676,28 @@ public class PwDbV4Output extends PwDbOutput {
 		writeObject(ElemProtURL, value.protectUrl);
 		writeObject(ElemProtNotes, value.protectNotes);
 		
-		xml.endTag(null, name);
+		xml.endTag(name);
 		
 	}
 	
 	private void writeList(String name, Map<String, String> customData) throws IllegalArgumentException, IllegalStateException, IOException {
 		assert(name != null && customData != null);
 		
-		xml.startTag(null, name);
+		xml.startTag(name);
 		
 		for (Entry<String, String> pair : customData.entrySet()) {
 			writeObject(ElemStringDictExItem, ElemKey, pair.getKey(), ElemValue, pair.getValue());
 			  
 		}
 		
-		xml.endTag(null, name);
+		xml.endTag(name);
 		
 	}
 	
 	private void writeList(String name, ITimeLogger it) throws IllegalArgumentException, IllegalStateException, IOException {
 		assert(name != null && it != null);
 		
-		xml.startTag(null, name);
+		xml.startTag(name);
 		
 		writeObject(ElemLastModTime, it.getLastModificationTime());
 		writeObject(ElemCreationTime, it.getCreationTime());
@@ -681,19 +707,19 @@ public class PwDbV4Output extends PwDbOutput {
 		writeObject(ElemUsageCount, it.getUsageCount());
 		writeObject(ElemLocationChanged, it.getLocationChanged());
 		
-		xml.endTag(null, name);
+		xml.endTag(name);
 	}
 
 	private void writeList(String name, List<PwEntryV4> value, boolean isHistory) throws IllegalArgumentException, IllegalStateException, IOException {
 		assert(name != null && value != null);
 		
-		xml.startTag(null, name);
+		xml.startTag(name);
 		
 		for (PwEntryV4 entry : value) {
 			writeEntry(entry, isHistory);
 		}
 		
-		xml.endTag(null, name);
+		xml.endTag(name);
 		
 	}
 
@@ -701,34 +727,34 @@ public class PwDbV4Output extends PwDbOutput {
 		List<PwIconCustom> customIcons = mPM.customIcons;
 		if (customIcons.size() == 0) return;
 		
-		xml.startTag(null, ElemCustomIcons);
+		xml.startTag(ElemCustomIcons);
 		
 		for (PwIconCustom icon : customIcons) {
-			xml.startTag(null, ElemCustomIconItem);
+			xml.startTag(ElemCustomIconItem);
 			
 			writeObject(ElemCustomIconItemID, icon.uuid);
-			writeObject(ElemCustomIconItemData, String.valueOf(Base64Coder.encode(icon.imageData)));
+			writeObject(ElemCustomIconItemData, icon.imageData, icon.imageData.length);
 			
-			xml.endTag(null, ElemCustomIconItem);
+			xml.endTag(ElemCustomIconItem);
 		}
 		
-		xml.endTag(null, ElemCustomIcons);
+		xml.endTag(ElemCustomIcons);
 	}
 	
 	private void writeBinPool() throws IllegalArgumentException, IllegalStateException, IOException {
-		xml.startTag(null, ElemBinaries);
+		xml.startTag(ElemBinaries);
 		
 		for (Entry<Integer, ProtectedBinary> pair : mPM.binPool.entrySet()) {
-			xml.startTag(null, ElemBinary);
-			xml.attribute(null, AttrId, Integer.toString(pair.getKey()));
+			xml.startTag(ElemBinary);
+			xml.attribute(AttrId, Integer.toString(pair.getKey()));
 			
 			subWriteValue(pair.getValue());
 			
-			xml.endTag(null, ElemBinary);
+			xml.endTag(ElemBinary);
 			
 		}
 		
-		xml.endTag(null, ElemBinaries);
+		xml.endTag(ElemBinaries);
 		
 	}
 
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.database.save;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+
+import com.keepassdroid.database.ITimeLogger;
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwDeletedObject;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.database.PwGroup;
+import com.keepassdroid.database.PwGroupV4;
+import com.keepassdroid.database.PwIconCustom;
+import com.keepassdroid.database.PwIconStandard;
+import com.keepassdroid.database.security.ProtectedBinary;
+import com.keepassdroid.database.security.ProtectedString;
+
+/** Compact binary form of the KDBX model objects, read back by PwModelInputV4.
+ *
+ * This is an internal format for data that never leaves the device (edit journal,
+ * caches), not an interchange format. Everything written here must be encrypted
+ * by the caller.
+ */
+public class PwModelOutputV4 {
+	private final DataOutputStream dos;
+
+	public PwModelOutputV4(OutputStream os) {
+		dos = new DataOutputStream(os);
+	}
+
+	public void flush() throws IOException {
+		dos.flush();
+	}
+
+	/** Writes the meta data and the whole group tree, but not the header fields or keys */
+	public void writeDatabase(PwDatabaseV4 db) throws IOException {
+		writeString(db.name);
+		writeDate(db.nameChanged);
+		writeDate(db.settingsChanged);
+		writeString(db.description);
+		writeDate(db.descriptionChanged);
+		writeString(db.defaultUserName);
+		writeDate(db.defaultUserNameChanged);
+		writeString(db.color);
+		dos.writeLong(db.maintenanceHistoryDays);
+		writeDate(db.keyLastChanged);
+		dos.writeLong(db.keyChangeRecDays);
+		dos.writeLong(db.keyChangeForceDays);
+		dos.writeBoolean(db.keyChangeForceOnce);
+		dos.writeBoolean(db.recycleBinEnabled);
+		writeUUID(db.recycleBinUUID);
+		writeDate(db.recycleBinChanged);
+		writeUUID(db.entryTemplatesGroup);
+		writeDate(db.entryTemplatesGroupChanged);
+		dos.writeInt(db.historyMaxItems);
+		dos.writeLong(db.historyMaxSize);
+		writeUUID(db.lastSelectedGroup);
+		writeUUID(db.lastTopVisibleGroup);
+
+		PwDatabaseV4.MemoryProtectionConfig mp = db.memoryProtection;
+		dos.writeBoolean(mp.protectTitle);
+		dos.writeBoolean(mp.protectUserName);
+		dos.writeBoolean(mp.protectPassword);
+		dos.writeBoolean(mp.protectUrl);
+		dos.writeBoolean(mp.protectNotes);
+		dos.writeBoolean(mp.autoEnableVisualHiding);
+
+		dos.writeInt(db.customIcons.size());
+		for (PwIconCustom icon : db.customIcons) {
+			writeUUID(icon.uuid);
+			writeBytes(icon.imageData);
+		}
+
+		dos.writeInt(db.binPool.size());
+		for (Entry<Integer, ProtectedBinary> pair : db.binPool.entrySet()) {
+			dos.writeInt(pair.getKey());
+			writeBinary(pair.getValue());
+		}
+
+		writeStringMap(db.customData);
+
+		dos.writeInt(db.deletedObjects.size());
+		for (PwDeletedObject pdo : db.deletedObjects) {
+			writeUUID(pdo.uuid);
+			writeDate(pdo.getDeletionTime());
+		}
+
+		writeGroupTree((PwGroupV4) db.rootGroup);
+	}
+
+	private void writeGroupTree(PwGroupV4 group) throws IOException {
+		writeGroup(group);
+
+		dos.writeInt(group.childEntries.size());
+		for (PwEntry entry : group.childEntries) {
+			writeEntry((PwEntryV4) entry);
+		}
+
+		dos.writeInt(group.childGroups.size());
+		for (PwGroup child : group.childGroups) {
+			writeGroupTree((PwGroupV4) child);
+		}
+	}
+
+	public void writeEntry(PwEntryV4 entry) throws IOException {
+		writeUUID(entry.uuid);
+		writeIcon(entry.icon);
+		writeCustomIcon(entry.customIcon);
+		writeString(entry.foregroundColor);
+		writeString(entry.backgroupColor);
+		writeString(entry.overrideURL);
+		writeString(entry.tags);
+		writeTimes(entry);
+
+		dos.writeInt(entry.strings.size());
+		for (Entry<String, ProtectedString> pair : entry.strings.entrySet()) {
+			writeString(pair.getKey());
+			ProtectedString value = pair.getValue();
+			dos.writeBoolean(value.isProtected());
+			writeString(value.toString());
+		}
+
+		dos.writeInt(entry.binaries.size());
+		for (Entry<String, ProtectedBinary> pair : entry.binaries.entrySet()) {
+			writeString(pair.getKey());
+			writeBinary(pair.getValue());
+		}
+
+		PwEntryV4.AutoType autoType = entry.autoType;
+		dos.writeBoolean(autoType.enabled);
+		dos.writeLong(autoType.obfuscationOptions);
+		writeString(autoType.defaultSequence);
+		dos.writeInt(autoType.size());
+		for (Entry<String, String> pair : autoType.entrySet()) {
+			writeString(pair.getKey());
+			writeString(pair.getValue());
+		}
+
+		writeStringMap(entry.customData);
+
+		List<PwEntryV4> history = entry.history;
+		dos.writeInt(history.size());
+		for (PwEntryV4 histEntry : history) {
+			writeEntry(histEntry);
+		}
+	}
+
+	/** Writes the group's own fields, not its children */
+	public void writeGroup(PwGroupV4 group) throws IOException {
+		writeUUID(group.uuid);
+		writeString(group.name);
+		writeString(group.notes);
+		writeIcon(group.icon);
+		writeCustomIcon(group.customIcon);
+		dos.writeBoolean(group.isExpanded);
+		writeString(group.defaultAutoTypeSequence);
+		writeBoolean(group.enableAutoType);
+		writeBoolean(group.enableSearching);
+		writeUUID(group.lastTopVisibleEntry);
+		writeTimes(group);
+		writeStringMap(group.customData);
+	}
+
+	public void writeUUID(UUID uuid) throws IOException {
+		dos.writeLong(uuid.getMostSignificantBits());
+		dos.writeLong(uuid.getLeastSignificantBits());
+	}
+
+	public void writeDate(Date date) throws IOException {
+		dos.writeLong(date.getTime());
+	}
+
+	/** Length prefixed UTF-8, since DataOutputStream.writeUTF is limited to 64k */
+	public void writeString(String str) throws IOException {
+		if (str == null) {
+			dos.writeInt(-1);
+			return;
+		}
+
+		byte[] data = str.getBytes("UTF-8");
+		dos.writeInt(data.length);
+		dos.write(data);
+	}
+
+	public void writeBytes(byte[] data) throws IOException {
+		if (data == null) {
+			dos.writeInt(-1);
+			return;
+		}
+
+		dos.writeInt(data.length);
+		dos.write(data);
+	}
+
+	public void writeBinary(ProtectedBinary pb) throws IOException {
+		dos.writeBoolean(pb.isProtected());
+		writeBytes(pb.getData());
+	}
+
+	public void writeBoolean(Boolean value) throws IOException {
+		if (value == null) {
+			dos.writeByte(-1);
+		} else {
+			dos.writeByte(value ? 1 : 0);
+		}
+	}
+
+	public void writeInt(int value) throws IOException {
+		dos.writeInt(value);
+	}
+
+	public void writeLong(long value) throws IOException {
+		dos.writeLong(value);
+	}
+
+	public void writeByte(int value) throws IOException {
+		dos.writeByte(value);
+	}
+
+	public void writeStringMap(Map<String, String> map) throws IOException {
+		dos.writeInt(map.size());
+		for (Entry<String, String> pair : map.entrySet()) {
+			writeString(pair.getKey());
+			writeString(pair.getValue());
+		}
+	}
+
+	private void writeIcon(PwIconStandard icon) throws IOException {
+		dos.writeInt(icon == null ? -1 : icon.iconId);
+	}
+
+	private void writeCustomIcon(PwIconCustom icon) throws IOException {
+		if (icon == null) {
+			icon = PwIconCustom.ZERO;
+		}
+
+		writeUUID(icon.uuid);
+	}
+
+	private void writeTimes(ITimeLogger it) throws IOException {
+		writeDate(it.getCreationTime());
+		writeDate(it.getLastModificationTime());
+		writeDate(it.getLastAccessTime());
+		writeDate(it.getExpiryTime());
+		dos.writeBoolean(it.expires());
+		dos.writeLong(it.getUsageCount());
+		writeDate(it.getLocationChanged());
+	}
+
+}
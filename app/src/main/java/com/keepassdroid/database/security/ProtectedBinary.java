@@ -27,6 +27,8 @@ public class ProtectedBinary {
 	
 	private byte[] data;
 	private boolean protect;
+	private int contentHash;
+	private boolean contentHashSet = false;
 	
 	public boolean isProtected() {
 		return protect;
@@ -59,7 +61,23 @@ public class ProtectedBinary {
 	}
 	
 	public boolean equals(ProtectedBinary rhs) {
+		if (this == rhs) {
+			return true;
+		}
+
 		return (protect == rhs.protect) && Arrays.equals(data, rhs.data);
 	}
 
+	/** Hash of the contents, computed once and cached since the data is not
+	 *  expected to change after construction
+	 */
+	public int contentHash() {
+		if (!contentHashSet) {
+			contentHash = Arrays.hashCode(data);
+			contentHashSet = true;
+		}
+
+		return contentHash;
+	}
+
 }
@@ -0,0 +1,417 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.fingerprint;
+
+import android.app.KeyguardManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.provider.Settings;
+import android.security.keystore.KeyPermanentlyInvalidatedException;
+import android.security.keystore.KeyProperties;
+import android.security.keystore.UserNotAuthenticatedException;
+import android.util.Log;
+
+import com.android.keepass.R;
+import com.keepassdroid.compat.KeyGenParameterSpecCompat;
+import com.keepassdroid.compat.KeyguardManagerCompat;
+import com.keepassdroid.crypto.keyDerivation.TransformedKey;
+import com.keepassdroid.timers.QuickUnlockAlarm;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import biz.source_code.base64Coder.Base64Coder;
+
+/**
+ * Keeps the derived key of recently opened databases, so they can be reopened without
+ * running the key derivation or typing the password.
+ *
+ * Each entry is encrypted with a random AES key, which is wrapped with an RSA key pair in
+ * the Android key store. Wrapping only needs the public key, so entries can be stored and
+ * refreshed after saves at any time. Unwrapping needs the private key, which the key store
+ * only releases shortly after the user has unlocked the device or confirmed the device
+ * PIN, pattern or fingerprint.
+ *
+ * Entries expire after the configured window, and all of them are dropped after a restart.
+ * An alarm deletes each entry when its window is over, and the key store key with the last one.
+ *
+ * This does not use the FingerPrintHelper key. That is an AES key bound to a fingerprint
+ * prompt for every use, encrypting included, so refreshing an entry after each save would
+ * prompt, and it needs enrolled fingerprints where this only needs a secure lock screen.
+ */
+public class QuickUnlockStore {
+    private static final String TAG = "QuickUnlockStore";
+
+    /** The device credential has to be confirmed before the key store releases the key */
+    public static class AuthenticationRequiredException extends GeneralSecurityException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final String ALIAS_KEY = "quick-unlock-key";
+    private static final String PREFS_NAME = "quickunlock";
+    private static final String PREF_BOOT = "boot";
+    private static final String PREF_WRAPPED_PREFIX = "wrapped_";
+    private static final String PREF_DATA_PREFIX = "data_";
+    private static final String PREF_EXPIRES_PREFIX = "expires_";
+
+    private static final String WRAP_TRANSFORMATION = "RSA/ECB/PKCS1Padding";
+    private static final String DATA_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int DATA_KEY_LENGTH = 32;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+
+    /** Seconds after a device unlock or credential confirmation that the private key is usable */
+    private static final int AUTH_VALIDITY_SECONDS = 30;
+
+    /** Slack allowed when comparing estimated boot times, which drift with clock adjustments */
+    private static final long BOOT_TIME_TOLERANCE = 60 * 1000;
+
+    private final Context ctx;
+    private final SharedPreferences prefs;
+
+    public QuickUnlockStore(Context ctx) {
+        this.ctx = ctx.getApplicationContext();
+        prefs = ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    public boolean isEnabled() {
+        if (!isSupported()) {
+            return false;
+        }
+
+        SharedPreferences appPrefs = PreferenceManager.getDefaultSharedPreferences(ctx);
+        if (!appPrefs.getBoolean(ctx.getString(R.string.quick_unlock_key),
+                ctx.getResources().getBoolean(R.bool.quick_unlock_default))) {
+            return false;
+        }
+
+        KeyguardManager keyguardManager = (KeyguardManager) ctx.getSystemService(Context.KEYGUARD_SERVICE);
+        return KeyguardManagerCompat.isKeyguardSecure(keyguardManager);
+    }
+
+    private long getWindow() {
+        SharedPreferences appPrefs = PreferenceManager.getDefaultSharedPreferences(ctx);
+        String window = appPrefs.getString(ctx.getString(R.string.quick_unlock_timeout_key),
+                ctx.getString(R.string.quick_unlock_timeout_default));
+        try {
+            return Long.parseLong(window);
+        } catch (NumberFormatException e) {
+            return Long.parseLong(ctx.getString(R.string.quick_unlock_timeout_default));
+        }
+    }
+
+    /** True if an unexpired entry exists for the database */
+    public boolean has(Uri uri) {
+        purge();
+
+        return prefs.contains(PREF_DATA_PREFIX + uri.toString());
+    }
+
+    /** Remember the key of a database just opened with its password, for the configured window */
+    public void store(Uri uri, TransformedKey key) {
+        if (!isEnabled() || key == null) {
+            return;
+        }
+
+        purge();
+        write(uri, key, SystemClock.elapsedRealtime() + getWindow());
+    }
+
+    /** Replace the key of a remembered database after a save, without extending its window */
+    public void refresh(Uri uri, TransformedKey key) {
+        if (!isEnabled() || key == null || !has(uri)) {
+            return;
+        }
+
+        long expires = prefs.getLong(PREF_EXPIRES_PREFIX + uri.toString(), 0);
+        write(uri, key, expires);
+    }
+
+    /**
+     * @return The remembered key, or null if there is none or it can no longer be decrypted
+     * @throws AuthenticationRequiredException if the user has to confirm the device
+     *         credential first
+     */
+    public TransformedKey load(Uri uri) throws GeneralSecurityException {
+        if (!isSupported() || !has(uri)) {
+            return null;
+        }
+
+        String name = uri.toString();
+        byte[] wrapped = Base64Coder.decode(prefs.getString(PREF_WRAPPED_PREFIX + name, ""));
+        byte[] data = Base64Coder.decode(prefs.getString(PREF_DATA_PREFIX + name, ""));
+
+        byte[] dataKey;
+        try {
+            KeyStore keyStore = getKeyStore();
+            PrivateKey privateKey = (PrivateKey) keyStore.getKey(ALIAS_KEY, null);
+            if (privateKey == null) {
+                clearAll();
+                return null;
+            }
+
+            Cipher cipher = Cipher.getInstance(WRAP_TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, privateKey);
+            dataKey = cipher.doFinal(wrapped);
+        } catch (InvalidKeyException e) {
+            // The key store exceptions only exist from M, which isSupported checks above
+            if (e instanceof UserNotAuthenticatedException) {
+                throw new AuthenticationRequiredException();
+            } else if (e instanceof KeyPermanentlyInvalidatedException) {
+                // The lock screen was removed or changed
+                deleteKey();
+                return null;
+            }
+            throw e;
+        } catch (IOException e) {
+            throw new GeneralSecurityException(e);
+        }
+
+        try {
+            if (data.length <= IV_LENGTH) {
+                clear(uri);
+                return null;
+            }
+
+            Cipher cipher = Cipher.getInstance(DATA_TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(dataKey, "AES"),
+                    new GCMParameterSpec(TAG_LENGTH, data, 0, IV_LENGTH));
+            byte[] plain = cipher.doFinal(data, IV_LENGTH, data.length - IV_LENGTH);
+
+            try {
+                return TransformedKey.deserialize(plain);
+            } finally {
+                Arrays.fill(plain, (byte) 0);
+            }
+        } catch (GeneralSecurityException | IOException e) {
+            Log.w(TAG, "Discarding unreadable entry", e);
+            clear(uri);
+            return null;
+        } finally {
+            Arrays.fill(dataKey, (byte) 0);
+        }
+    }
+
+    public void clear(Uri uri) {
+        String name = uri.toString();
+        prefs.edit()
+                .remove(PREF_WRAPPED_PREFIX + name)
+                .remove(PREF_DATA_PREFIX + name)
+                .remove(PREF_EXPIRES_PREFIX + name)
+                .apply();
+    }
+
+    public void clearAll() {
+        prefs.edit().clear().apply();
+        QuickUnlockAlarm.cancel(ctx);
+    }
+
+    /**
+     * Drop entries past their window, and every entry if the device restarted since they were
+     * stored. The key store key is deleted along with the last entry. Sets the alarm for the
+     * next entry to expire.
+     */
+    public void purge() {
+        if (!isEnabled()) {
+            if (!prefs.getAll().isEmpty()) {
+                deleteKey();
+            }
+            return;
+        }
+
+        long boot = getBoot();
+        if (prefs.contains(PREF_BOOT) && !sameBoot(prefs.getLong(PREF_BOOT, 0), boot)) {
+            deleteKey();
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        long next = Long.MAX_VALUE;
+        boolean removed = false;
+        SharedPreferences.Editor editor = prefs.edit();
+        for (Map.Entry<String, ?> pref : prefs.getAll().entrySet()) {
+            String key = pref.getKey();
+            if (!key.startsWith(PREF_EXPIRES_PREFIX)) {
+                continue;
+            }
+
+            Object expires = pref.getValue();
+            if (!(expires instanceof Long) || (Long) expires <= now) {
+                String name = key.substring(PREF_EXPIRES_PREFIX.length());
+                editor.remove(PREF_WRAPPED_PREFIX + name);
+                editor.remove(PREF_DATA_PREFIX + name);
+                editor.remove(key);
+                removed = true;
+            } else {
+                next = Math.min(next, (Long) expires);
+            }
+        }
+        editor.apply();
+
+        if (next != Long.MAX_VALUE) {
+            QuickUnlockAlarm.schedule(ctx, next);
+        } else if (removed) {
+            deleteKey();
+        } else {
+            QuickUnlockAlarm.cancel(ctx);
+        }
+    }
+
+    private void write(Uri uri, TransformedKey key, long expires) {
+        byte[] dataKey = new byte[DATA_KEY_LENGTH];
+        byte[] plain = null;
+        try {
+            SecureRandom random = new SecureRandom();
+            random.nextBytes(dataKey);
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+
+            plain = key.serialize();
+            Cipher cipher = Cipher.getInstance(DATA_TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(dataKey, "AES"),
+                    new GCMParameterSpec(TAG_LENGTH, iv));
+            byte[] ct = cipher.doFinal(plain);
+
+            byte[] data = new byte[IV_LENGTH + ct.length];
+            System.arraycopy(iv, 0, data, 0, IV_LENGTH);
+            System.arraycopy(ct, 0, data, IV_LENGTH, ct.length);
+
+            Cipher wrapCipher = Cipher.getInstance(WRAP_TRANSFORMATION);
+            wrapCipher.init(Cipher.ENCRYPT_MODE, getPublicKey());
+            byte[] wrapped = wrapCipher.doFinal(dataKey);
+
+            String name = uri.toString();
+            prefs.edit()
+                    .putLong(PREF_BOOT, getBoot())
+                    .putString(PREF_WRAPPED_PREFIX + name, new String(Base64Coder.encode(wrapped)))
+                    .putString(PREF_DATA_PREFIX + name, new String(Base64Coder.encode(data)))
+                    .putLong(PREF_EXPIRES_PREFIX + name, expires)
+                    .apply();
+            QuickUnlockAlarm.schedule(ctx, nextExpiry(expires));
+        } catch (Exception e) {
+            // Quick unlock is a convenience, fall back to the password
+            Log.w(TAG, "Unable to store key", e);
+            clear(uri);
+        } finally {
+            Arrays.fill(dataKey, (byte) 0);
+            if (plain != null) {
+                Arrays.fill(plain, (byte) 0);
+            }
+        }
+    }
+
+    /** The earliest expiry time among the stored entries and expires */
+    private long nextExpiry(long expires) {
+        for (Map.Entry<String, ?> pref : prefs.getAll().entrySet()) {
+            if (pref.getKey().startsWith(PREF_EXPIRES_PREFIX) && pref.getValue() instanceof Long) {
+                expires = Math.min(expires, (Long) pref.getValue());
+            }
+        }
+
+        return expires;
+    }
+
+    private PublicKey getPublicKey() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = getKeyStore();
+        if (!keyStore.containsAlias(ALIAS_KEY)) {
+            createKey();
+        }
+
+        // Key store public keys carry the restrictions of the key pair, encrypting with a
+        // plain copy avoids them and needs no authentication
+        PublicKey publicKey = keyStore.getCertificate(ALIAS_KEY).getPublicKey();
+        return KeyFactory.getInstance(publicKey.getAlgorithm())
+                .generatePublic(new X509EncodedKeySpec(publicKey.getEncoded()));
+    }
+
+    private void createKey() throws GeneralSecurityException {
+        AlgorithmParameterSpec spec = KeyGenParameterSpecCompat.build(ALIAS_KEY,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT,
+                KeyProperties.BLOCK_MODE_ECB, true, AUTH_VALIDITY_SECONDS,
+                KeyProperties.ENCRYPTION_PADDING_RSA_PKCS1);
+        if (spec == null) {
+            throw new GeneralSecurityException("Key store parameters not available");
+        }
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(KeyProperties.KEY_ALGORITHM_RSA,
+                "AndroidKeyStore");
+        generator.initialize(spec);
+        generator.generateKeyPair();
+    }
+
+    private void deleteKey() {
+        clearAll();
+        try {
+            getKeyStore().deleteEntry(ALIAS_KEY);
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to delete key", e);
+        }
+    }
+
+    private static KeyStore getKeyStore() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance("AndroidKeyStore");
+        keyStore.load(null);
+        return keyStore;
+    }
+
+    /** Boot count where available, otherwise the estimated wall clock time of the last boot */
+    private long getBoot() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            int count = Settings.Global.getInt(ctx.getContentResolver(), Settings.Global.BOOT_COUNT, -1);
+            if (count >= 0) {
+                return count;
+            }
+        }
+
+        return System.currentTimeMillis() - SystemClock.elapsedRealtime();
+    }
+
+    private static boolean sameBoot(long stored, long current) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && stored < Integer.MAX_VALUE
+                && current < Integer.MAX_VALUE) {
+            return stored == current;
+        }
+
+        return Math.abs(stored - current) <= BOOT_TIME_TOLERANCE;
+    }
+}
@@ -20,6 +20,8 @@
 
 public class Intents {
 	public static final String TIMEOUT = "com.keepassdroid.timeout";
+	public static final String EXPIRY = "com.keepassdroid.expiry";
+	public static final String QUICK_UNLOCK_EXPIRY = "com.keepassdroid.quick_unlock_expiry";
 	
 	public static final String COPY_USERNAME = "com.keepassdroid.copy_username";
 	public static final String COPY_PASSWORD = "com.keepassdroid.copy_password";
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.keepassdroid.database.ITimeLogger;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV3;
+import com.keepassdroid.database.PwGroup;
+import com.keepassdroid.database.PwGroupV3;
+
+/** The entries and groups that expire, sorted by expiry time.
+ *
+ * The ones expired at a given time, or expiring before it, are a prefix of the sorted
+ * array found with a binary search, so listing them or excluding them from a search does
+ * not look at every entry. The first time after now tells when the next one expires.
+ *
+ * As in the searches, an item is expired once the current time is after its expiry time.
+ * Items expiring at the same time are kept in the order they were indexed, tree order
+ * after a build.
+ */
+public class ExpiryIndex {
+	private long[] times = new long[16];
+	private Object[] items = new Object[16];
+	private int size = 0;
+
+	// Expiry time each item is indexed under
+	private final Map<Object, Long> indexed = new IdentityHashMap<Object, Long>();
+
+	/** Index the expiring entries and groups of a database, replacing any indexed before */
+	public synchronized void build(List<PwEntry> entries, List<PwGroup> groups) {
+		List<Item> all = new ArrayList<Item>();
+		for (PwEntry entry : entries) {
+			long time = getExpiry(entry);
+			if (time >= 0) {
+				all.add(new Item(entry, time));
+			}
+		}
+
+		for (PwGroup group : groups) {
+			long time = getExpiry(group);
+			if (time >= 0) {
+				all.add(new Item(group, time));
+			}
+		}
+
+		// Stable, so ties stay in tree order
+		Collections.sort(all, Item.TIME_ORDER);
+
+		indexed.clear();
+		size = all.size();
+		times = new long[Math.max(16, size)];
+		items = new Object[times.length];
+		for (int i = 0; i < size; i++) {
+			Item item = all.get(i);
+			times[i] = item.time;
+			items[i] = item.value;
+			indexed.put(item.value, item.time);
+		}
+	}
+
+	/** Index a new entry, or reindex one that changed */
+	public synchronized void put(PwEntry entry) {
+		update(entry, getExpiry(entry));
+	}
+
+	public synchronized void remove(PwEntry entry) {
+		unindex(entry);
+	}
+
+	/** Index a new group, or reindex one that changed */
+	public synchronized void put(PwGroup group) {
+		update(group, getExpiry(group));
+	}
+
+	public synchronized void remove(PwGroup group) {
+		unindex(group);
+	}
+
+	/** Entries expiring before time, the ones expired at that time when it is now, soonest first */
+	public List<PwEntry> getEntries(long time) {
+		return get(PwEntry.class, time);
+	}
+
+	/** Groups expiring before time, soonest first */
+	public List<PwGroup> getGroups(long time) {
+		return get(PwGroup.class, time);
+	}
+
+	/** The entries expired at now, to leave them out of a search */
+	public synchronized Set<PwEntry> getExpiredEntries(long now) {
+		Set<PwEntry> expired = Collections.newSetFromMap(new IdentityHashMap<PwEntry, Boolean>());
+		int end = lowerBound(now);
+		for (int i = 0; i < end; i++) {
+			if (items[i] instanceof PwEntry) {
+				expired.add((PwEntry) items[i]);
+			}
+		}
+
+		return expired;
+	}
+
+	/** The expiry time of the first item that is not expired at now, or -1 if there is none
+	 *
+	 * The item is expired from the millisecond after that time.
+	 */
+	public synchronized long getNextExpiry(long now) {
+		int pos = lowerBound(now);
+		return pos < size ? times[pos] : -1;
+	}
+
+	private synchronized <T> List<T> get(Class<T> type, long time) {
+		List<T> list = new ArrayList<T>();
+		int end = lowerBound(time);
+		for (int i = 0; i < end; i++) {
+			if (type.isInstance(items[i])) {
+				list.add(type.cast(items[i]));
+			}
+		}
+
+		return list;
+	}
+
+	private void update(Object item, long time) {
+		Long current = indexed.get(item);
+		if (current != null && current == time) {
+			return;
+		}
+
+		unindex(item);
+		if (time < 0) {
+			return;
+		}
+
+		// After the items with the same time
+		int pos = lowerBound(time + 1);
+		if (size == times.length) {
+			times = Arrays.copyOf(times, size * 2);
+			items = Arrays.copyOf(items, size * 2);
+		}
+		System.arraycopy(times, pos, times, pos + 1, size - pos);
+		System.arraycopy(items, pos, items, pos + 1, size - pos);
+		times[pos] = time;
+		items[pos] = item;
+		size++;
+
+		indexed.put(item, time);
+	}
+
+	private void unindex(Object item) {
+		Long time = indexed.remove(item);
+		if (time == null) {
+			return;
+		}
+
+		for (int i = lowerBound(time); i < size && times[i] == time; i++) {
+			if (items[i] == item) {
+				System.arraycopy(times, i + 1, times, i, size - i - 1);
+				System.arraycopy(items, i + 1, items, i, size - i - 1);
+				size--;
+				items[size] = null;
+				return;
+			}
+		}
+	}
+
+	/** Position of the first item with an expiry time of at least time */
+	private int lowerBound(long time) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] < time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	/** Expiry time of entry in milliseconds, or -1 if it does not expire */
+	public static long getExpiry(PwEntry entry) {
+		if (!entry.expires()) {
+			return -1;
+		}
+
+		Date date = entry.getExpiryTime();
+		return date != null ? Math.max(0, date.getTime()) : -1;
+	}
+
+	/** Expiry time of group in milliseconds, or -1 if it does not expire */
+	public static long getExpiry(PwGroup group) {
+		Date date = null;
+		if (group instanceof ITimeLogger) {
+			ITimeLogger logger = (ITimeLogger) group;
+			if (logger.expires()) {
+				date = logger.getExpiryTime();
+			}
+		} else if (group instanceof PwGroupV3) {
+			PwGroupV3 groupV3 = (PwGroupV3) group;
+			if (groupV3.tExpire != null && !PwEntryV3.IsNever(groupV3.tExpire.getJDate())) {
+				date = groupV3.tExpire.getJDate();
+			}
+		}
+
+		return date != null ? Math.max(0, date.getTime()) : -1;
+	}
+
+	private static class Item {
+		static final Comparator<Item> TIME_ORDER = new Comparator<Item>() {
+			@Override
+			public int compare(Item lhs, Item rhs) {
+				return lhs.time < rhs.time ? -1 : (lhs.time == rhs.time ? 0 : 1);
+			}
+		};
+
+		final Object value;
+		final long time;
+
+		Item(Object value, long time) {
+			this.value = value;
+			this.time = time;
+		}
+	}
+}
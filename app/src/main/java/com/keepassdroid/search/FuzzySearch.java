@@ -0,0 +1,356 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.keepassdroid.database.EntryHandler;
+import com.keepassdroid.database.NormalizedFields;
+import com.keepassdroid.database.ParallelEntrySearch;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.database.SearchParametersV4;
+
+/** Search that tolerates typos, returning the best matching entries first.
+ *
+ * A field matches if some part of it is within a few edits of the search string, found
+ * with Myers' bit-parallel edit distance algorithm in one pass over the field, after ruling
+ * out fields missing too many of its characters. Entries are scored by their best field,
+ * weighted by the kind of field, with a small boost for entries used often or recently.
+ * Only the best ones are kept, in a bounded heap per thread.
+ */
+public class FuzzySearch {
+	/** Longer search strings are matched on their first characters only */
+	public static final int MAX_LENGTH = 64;
+
+	private static final float TITLE_WEIGHT = 3.0f;
+	private static final float URL_WEIGHT = 2.0f;
+	private static final float USERNAME_WEIGHT = 1.5f;
+	private static final float NOTES_WEIGHT = 1.0f;
+	private static final float OTHER_WEIGHT = 0.5f;
+
+	private static final float MAX_USAGE_BOOST = 0.5f;
+	private static final float MAX_RECENT_BOOST = 0.5f;
+	private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+	private final Locale locale;
+	private final boolean foldAccents;
+	private final int length;
+	private final int maxErrors;
+	private final long lastBit;
+	private final long queryMask;
+
+	// Bit i set where the search string has the character at position i
+	private final long[] asciiMasks = new long[128];
+	private final char[] otherChars;
+	private final long[] otherMasks;
+
+	/**
+	 * @param query Search string, already normalized with loc and foldAccents
+	 */
+	public FuzzySearch(String query, Locale loc, boolean foldAccents) {
+		this.locale = loc;
+		this.foldAccents = foldAccents;
+
+		if (query.length() > MAX_LENGTH) {
+			query = query.substring(0, MAX_LENGTH);
+		}
+		length = query.length();
+		maxErrors = length / 3;
+		lastBit = length > 0 ? 1L << (length - 1) : 0;
+		queryMask = NormalizedFields.charMask(query);
+
+		StringBuilder others = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			char ch = query.charAt(i);
+			if (ch >= 128 && others.indexOf(String.valueOf(ch)) < 0) {
+				others.append(ch);
+			}
+		}
+		otherChars = others.toString().toCharArray();
+		otherMasks = new long[otherChars.length];
+
+		for (int i = 0; i < length; i++) {
+			char ch = query.charAt(i);
+			if (ch < 128) {
+				asciiMasks[ch] |= 1L << i;
+			} else {
+				for (int j = 0; j < otherChars.length; j++) {
+					if (otherChars[j] == ch) {
+						otherMasks[j] |= 1L << i;
+					}
+				}
+			}
+		}
+	}
+
+	/** Fewest edits turning the search string into some part of text, at most maxErrors + 1 */
+	public int distance(String text) {
+		if (length == 0) {
+			return 0;
+		}
+
+		if (text.length() < length - maxErrors) {
+			return maxErrors + 1;
+		}
+
+		// Column of the edit distance matrix kept as vertical deltas, +1 in pv and -1 in mv
+		long pv = -1L;
+		long mv = 0;
+		int score = length;
+		int best = length;
+
+		for (int i = 0; i < text.length(); i++) {
+			long eq = mask(text.charAt(i));
+
+			long xv = eq | mv;
+			long xh = (((eq & pv) + pv) ^ pv) | eq;
+			long ph = mv | ~(xh | pv);
+			long mh = pv & xh;
+
+			if ((ph & lastBit) != 0) {
+				score++;
+			} else if ((mh & lastBit) != 0) {
+				score--;
+			}
+
+			// A match may start anywhere in the text, so the top row stays at zero
+			ph <<= 1;
+			mh <<= 1;
+			pv = mh | ~(xv | ph);
+			mv = ph & xv;
+
+			if (score < best) {
+				best = score;
+				if (best == 0) {
+					break;
+				}
+			}
+		}
+
+		return Math.min(best, maxErrors + 1);
+	}
+
+	private long mask(char ch) {
+		if (ch < 128) {
+			return asciiMasks[ch];
+		}
+
+		for (int j = 0; j < otherChars.length; j++) {
+			if (otherChars[j] == ch) {
+				return otherMasks[j];
+			}
+		}
+
+		return 0;
+	}
+
+	/** How well entry matches, 0 if none of its searched fields is close enough */
+	public float score(PwEntry entry, long now) {
+		float best = 0;
+
+		NormalizedFields fields = entry.getNormalizedFields(locale);
+		for (int i = 0; i < fields.size(); i++) {
+			int kind = fields.getKind(i);
+			if (!SearchParametersV4.DEFAULT.searchInField(kind)) {
+				continue;
+			}
+
+			float weight = weight(kind);
+			if (weight <= best) {
+				continue;
+			}
+
+			// Each character of the search string missing from the field takes an edit
+			if (Long.bitCount(queryMask & ~fields.getCharMask(i, foldAccents)) > maxErrors) {
+				continue;
+			}
+
+			String str = fields.get(i, foldAccents);
+			if (str.length() == 0) {
+				continue;
+			}
+
+			int dist = distance(str);
+			if (dist <= maxErrors) {
+				best = Math.max(best, weight * (maxErrors + 1 - dist) / (maxErrors + 1));
+			}
+		}
+
+		if (best == 0) {
+			return 0;
+		}
+
+		return best + boost(entry, now);
+	}
+
+	private static float weight(int kind) {
+		switch (kind) {
+		case NormalizedFields.TITLE:
+			return TITLE_WEIGHT;
+		case NormalizedFields.URL:
+			return URL_WEIGHT;
+		case NormalizedFields.USERNAME:
+			return USERNAME_WEIGHT;
+		case NormalizedFields.NOTES:
+			return NOTES_WEIGHT;
+		default:
+			return OTHER_WEIGHT;
+		}
+	}
+
+	/** Favor entries used often, and those used lately */
+	private static float boost(PwEntry entry, long now) {
+		float boost = 0;
+
+		if (entry instanceof PwEntryV4) {
+			long usage = ((PwEntryV4) entry).getUsageCount();
+			if (usage > 0) {
+				boost += Math.min(MAX_USAGE_BOOST, (float) Math.log1p(usage) * 0.1f);
+			}
+		}
+
+		Date access = entry.getLastAccessTime();
+		if (access != null) {
+			long days = Math.max(0, (now - access.getTime()) / DAY_MILLIS);
+			boost += MAX_RECENT_BOOST / (1 + days / 7.0f);
+		}
+
+		return boost;
+	}
+
+	/** The best matches of entries, best first, ties in the order of entries
+	 *
+	 * @param limit Most entries returned
+	 * @param cancelled Checked between entries, the search stops once it is set. May be null.
+	 * @return false if the search was cancelled
+	 */
+	public boolean search(List<PwEntry> entries, final int limit, List<PwEntry> results, final AtomicBoolean cancelled) {
+		final long now = System.currentTimeMillis();
+		final List<TopMatches> slices = new ArrayList<TopMatches>();
+
+		// Each thread keeps its own best matches, merged once all are done
+		boolean completed = ParallelEntrySearch.search(entries, new ParallelEntrySearch.HandlerFactory() {
+			@Override
+			public EntryHandler<PwEntry> create(List<PwEntry> unused) {
+				TopMatches top = new TopMatches(slices.size(), limit, now, cancelled);
+				slices.add(top);
+				return top;
+			}
+		}, new ArrayList<PwEntry>());
+
+		if (!completed) {
+			return false;
+		}
+
+		List<Match> all = new ArrayList<Match>();
+		for (TopMatches top : slices) {
+			all.addAll(top.heap);
+		}
+
+		Collections.sort(all, Collections.reverseOrder(Match.RANK_ORDER));
+		for (int i = 0; i < all.size() && i < limit; i++) {
+			results.add(all.get(i).entry);
+		}
+
+		return true;
+	}
+
+	private static class Match {
+		/** Worst first */
+		static final Comparator<Match> RANK_ORDER = new Comparator<Match>() {
+			@Override
+			public int compare(Match lhs, Match rhs) {
+				int cmp = Float.compare(lhs.score, rhs.score);
+				if (cmp != 0) {
+					return cmp;
+				}
+
+				// Later in the tree ranks lower
+				if (lhs.slice != rhs.slice) {
+					return lhs.slice > rhs.slice ? -1 : 1;
+				}
+				return lhs.position > rhs.position ? -1 : (lhs.position == rhs.position ? 0 : 1);
+			}
+		};
+
+		final PwEntry entry;
+		final float score;
+		final int slice;
+		final int position;
+
+		Match(PwEntry entry, float score, int slice, int position) {
+			this.entry = entry;
+			this.score = score;
+			this.slice = slice;
+			this.position = position;
+		}
+	}
+
+	private class TopMatches extends EntryHandler<PwEntry> {
+		final PriorityQueue<Match> heap;
+		private final int slice;
+		private final int limit;
+		private final long now;
+		private final AtomicBoolean cancelled;
+		private int position = 0;
+
+		TopMatches(int slice, int limit, long now, AtomicBoolean cancelled) {
+			heap = new PriorityQueue<Match>(Math.max(1, limit), Match.RANK_ORDER);
+			this.slice = slice;
+			this.limit = limit;
+			this.now = now;
+			this.cancelled = cancelled;
+		}
+
+		@Override
+		public boolean operate(PwEntry entry) {
+			if (cancelled != null && cancelled.get()) {
+				return false;
+			}
+
+			int pos = position++;
+			if (limit <= 0) {
+				return true;
+			}
+
+			float score = score(entry, now);
+			if (score <= 0) {
+				return true;
+			}
+
+			if (heap.size() < limit) {
+				heap.add(new Match(entry, score, slice, pos));
+			} else if (score > heap.peek().score) {
+				heap.poll();
+				heap.add(new Match(entry, score, slice, pos));
+			}
+
+			return true;
+		}
+	}
+}
@@ -20,11 +20,14 @@
 package com.keepassdroid.search;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.content.Context;
 import android.content.SharedPreferences;
@@ -33,6 +36,9 @@ import android.util.Log;
 
 import com.android.keepass.R;
 import com.keepassdroid.Database;
+import com.keepassdroid.database.EntryHandler;
+import com.keepassdroid.database.NormalizedFields;
+import com.keepassdroid.database.ParallelEntrySearch;
 import com.keepassdroid.database.PwDatabase;
 import com.keepassdroid.database.PwDatabaseV3;
 import com.keepassdroid.database.PwDatabaseV4;
@@ -40,23 +46,82 @@ import com.keepassdroid.database.PwEntry;
 import com.keepassdroid.database.PwGroup;
 import com.keepassdroid.database.PwGroupV3;
 import com.keepassdroid.database.PwGroupV4;
+import com.keepassdroid.database.SearchParametersV4;
+import com.keepassdroid.utils.StrUtil;
 
 public class SearchDbHelper {
+	/** Most results shown from a fuzzy search */
+	public static final int FUZZY_MAX_RESULTS = 100;
+
+	private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
 	private final Context mCtx;
 	
 	public SearchDbHelper(Context ctx) {
 		mCtx = ctx;
 	}
 	
-	private boolean omitBackup() {
+	boolean omitBackup() {
 		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mCtx);
 		return prefs.getBoolean(mCtx.getString(R.string.omitbackup_key), mCtx.getResources().getBoolean(R.bool.omitbackup_default));
 		
 	}
+
+	boolean ignoreAccents() {
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mCtx);
+		return prefs.getBoolean(mCtx.getString(R.string.search_ignore_accents_key), mCtx.getResources().getBoolean(R.bool.search_ignore_accents_default));
+	}
+
+	boolean fuzzySearch() {
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mCtx);
+		return prefs.getBoolean(mCtx.getString(R.string.search_fuzzy_key), mCtx.getResources().getBoolean(R.bool.search_fuzzy_default));
+	}
+
+	boolean excludeExpired() {
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mCtx);
+		return prefs.getBoolean(mCtx.getString(R.string.search_exclude_expired_key), mCtx.getResources().getBoolean(R.bool.search_exclude_expired_default));
+	}
 	
 	public PwGroup search(Database db, String qStr) {
-		PwDatabase pm = db.pm;
+		PwGroup group = newResultsGroup(db.pm);
+		if (group == null) {
+			return null;
+		}
+		
+		// A site asking for its entries, found through the URL index
+		if (UrlIndex.isUrl(qStr)) {
+			List<PwEntry> site = searchUrl(db, qStr, omitBackup());
+			if (site != null && site.size() > 0) {
+				group.childEntries.addAll(site);
+				return group;
+			}
+		}
+		
+		// Only tags asked for, found through the tag index
+		List<PwEntry> tagged = searchTags(db, qStr, omitBackup());
+		if (tagged != null) {
+			group.childEntries.addAll(tagged);
+			return group;
+		}
+		
+		// Search all entries
+		Locale loc = Locale.getDefault();
+		boolean foldAccents = ignoreAccents();
+		String query = StrUtil.normalizeForSearch(qStr, loc, foldAccents);
+
+		if (fuzzySearch() && query.length() > 0) {
+			searchFuzzy(db, query, loc, foldAccents, omitBackup(), group.childEntries, null);
+			return group;
+		}
 
+		List<PwEntry> searchable = getSearchableEntries(db, query, loc, foldAccents, omitBackup());
+		searchEntries(searchable, query, loc, foldAccents, group.childEntries, null);
+		
+		return group;
+	}
+
+	/** Empty group to hold the results of a search of pm */
+	PwGroup newResultsGroup(PwDatabase pm) {
 		PwGroup group;
 		if ( pm instanceof PwDatabaseV3 ) {
 			group = new PwGroupV3();
@@ -68,12 +133,182 @@ public class SearchDbHelper {
 		}
 		group.name = mCtx.getString(R.string.search_results);
 		group.childEntries = new ArrayList<PwEntry>();
-		
-		// Search all entries
-		Locale loc = Locale.getDefault();
-		qStr = qStr.toLowerCase(loc);
+
+		return group;
+	}
+
+	/** Entries that need to be checked for query, in tree order
+	 *
+	 * @param query Search string, already normalized with loc and foldAccents
+	 */
+	List<PwEntry> getSearchableEntries(Database db, String query, Locale loc, boolean foldAccents, boolean isOmitBackup) {
+		// Narrow down to the entries that can contain the search string, when the index is built
+		Set<PwEntry> candidates = null;
+		TrigramIndex index = db.searchIndex;
+		if (index != null) {
+			candidates = index.candidates(query, loc, foldAccents);
+			if (candidates != null && candidates.isEmpty()) {
+				return new ArrayList<PwEntry>();
+			}
+		}
+
+		return getSearchableEntries(db.pm, isOmitBackup, candidates, getExpired(db));
+	}
+
+	/** The entries to leave out of searches because they expired, or null if none are */
+	private Set<PwEntry> getExpired(Database db) {
+		ExpiryIndex index = db.expiryIndex;
+		if (index == null || !excludeExpired()) {
+			return null;
+		}
+
+		// Taken from the front of the index, without checking the other entries
+		return index.getExpiredEntries(System.currentTimeMillis());
+	}
+
+	/** entries without the ones that expired, if those are excluded from searches */
+	List<PwEntry> removeExpired(Database db, List<PwEntry> entries) {
+		Set<PwEntry> expired = getExpired(db);
+		if (expired == null || expired.isEmpty()) {
+			return entries;
+		}
+
+		List<PwEntry> remaining = new ArrayList<PwEntry>(entries.size());
+		for (PwEntry entry : entries) {
+			if (!expired.contains(entry)) {
+				remaining.add(entry);
+			}
+		}
+
+		return remaining;
+	}
+
+	/** Add the entries of searchable that match query to results, in order
+	 *
+	 * @param cancelled Checked between entries, the search stops once it is set. May be null.
+	 * @return false if the search was cancelled
+	 */
+	boolean searchEntries(List<PwEntry> searchable, final String query, final Locale loc, final boolean foldAccents,
+			List<PwEntry> results, final AtomicBoolean cancelled) {
+		// Large databases are split across threads, with the results kept in tree order
+		return ParallelEntrySearch.search(searchable, new ParallelEntrySearch.HandlerFactory() {
+			@Override
+			public EntryHandler<PwEntry> create(final List<PwEntry> results) {
+				return new EntryHandler<PwEntry>() {
+					@Override
+					public boolean operate(PwEntry entry) {
+						if (cancelled != null && cancelled.get()) {
+							return false;
+						}
+
+						processEntries(entry, results, query, loc, foldAccents);
+						return true;
+					}
+				};
+			}
+		}, results);
+	}
+	
+	/** Entries in searchable groups for the site of url, or null if the URL index is not built */
+	List<PwEntry> searchUrl(Database db, String url, boolean isOmitBackup) {
+		UrlIndex index = db.urlIndex;
+		if (index == null) {
+			return null;
+		}
+
+		List<PwEntry> site = new ArrayList<PwEntry>();
+		for (PwEntry entry : index.lookup(url)) {
+			if (isSearchable(db.pm, entry, isOmitBackup)) {
+				site.add(entry);
+			}
+		}
+
+		return removeExpired(db, site);
+	}
+
+	/** Entries in searchable groups passing a search like tag:work -tag:old, in tree order
+	 *
+	 * @return The entries, or null if qStr is not a tag search or there is no tag index
+	 */
+	List<PwEntry> searchTags(Database db, String qStr, boolean isOmitBackup) {
+		TagIndex index = db.tagIndex;
+		if (index == null || !(db.pm instanceof PwDatabaseV4)) {
+			return null;
+		}
+
+		TagIndex.Filter filter = TagIndex.Filter.parse(qStr);
+		if (filter == null) {
+			return null;
+		}
+
+		Set<PwEntry> matched = Collections.newSetFromMap(new IdentityHashMap<PwEntry, Boolean>());
+		matched.addAll(index.filter(filter));
+
+		return getSearchableEntries(db.pm, isOmitBackup, matched, getExpired(db));
+	}
+
+	/** Entries in searchable groups and groups that expired, or expire within days, soonest
+	 *  first, found through the expiry index
+	 *
+	 * @return The group holding them, or null if there is no expiry index
+	 */
+	public PwGroup searchExpiring(Database db, int days) {
+		ExpiryIndex index = db.expiryIndex;
+		PwGroup group = newResultsGroup(db.pm);
+		if (index == null || group == null) {
+			return null;
+		}
+
+		if (days > 0) {
+			group.name = mCtx.getString(R.string.expiring_results, days);
+		} else {
+			group.name = mCtx.getString(R.string.expired_results);
+		}
+
+		long before = System.currentTimeMillis() + days * DAY_MILLIS;
 		boolean isOmitBackup = omitBackup();
-		
+		for (PwEntry entry : index.getEntries(before)) {
+			if (isSearchable(db.pm, entry, isOmitBackup)) {
+				group.childEntries.add(entry);
+			}
+		}
+		group.childGroups.addAll(index.getGroups(before));
+
+		return group;
+	}
+
+	/** Whether entry is in a group that is searched, as are all the groups above it */
+	private boolean isSearchable(PwDatabase pm, PwEntry entry, boolean isOmitBackup) {
+		for (PwGroup group = entry.getParent(); group != null; group = group.getParent()) {
+			if (!pm.isGroupSearchable(group, isOmitBackup)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/** Add the best matches for query to results, allowing for typos, best first
+	 *
+	 * @param cancelled Checked between entries, the search stops once it is set. May be null.
+	 * @return false if the search was cancelled
+	 */
+	boolean searchFuzzy(Database db, String query, Locale loc, boolean foldAccents, boolean isOmitBackup,
+			List<PwEntry> results, AtomicBoolean cancelled) {
+		// The trigram index only finds exact matches, so every entry is scored
+		List<PwEntry> searchable = getSearchableEntries(db.pm, isOmitBackup, null, getExpired(db));
+		FuzzySearch fuzzy = new FuzzySearch(query, loc, foldAccents);
+
+		return fuzzy.search(searchable, FUZZY_MAX_RESULTS, results, cancelled);
+	}
+	
+	/** Entries of the searchable groups, breadth first, limited to candidates and without
+	 *  excluded, when those are not null
+	 */
+	private List<PwEntry> getSearchableEntries(PwDatabase pm, boolean isOmitBackup, Set<PwEntry> candidates,
+			Set<PwEntry> excluded) {
+		List<PwEntry> searchable = new ArrayList<PwEntry>();
+
 		Queue<PwGroup> worklist = new LinkedList<PwGroup>();
 		if (pm.rootGroup != null) {
 			worklist.add(pm.rootGroup);
@@ -84,7 +319,10 @@ public class SearchDbHelper {
 			
 			if (pm.isGroupSearchable(top, isOmitBackup)) {
 				for (PwEntry entry : top.childEntries) {
-					processEntries(entry, group.childEntries, qStr, loc);
+					if ((candidates == null || candidates.contains(entry))
+							&& (excluded == null || !excluded.contains(entry))) {
+						searchable.add(entry);
+					}
 				}
 				
 				for (PwGroup childGroup : top.childGroups) {
@@ -94,21 +332,22 @@ public class SearchDbHelper {
 				}
 			}
 		}
-		
-		return group;
+
+		return searchable;
 	}
 	
-	public void processEntries(PwEntry entry, List<PwEntry> results, String qStr, Locale loc) {
-		// Search all strings in the entry
-		Iterator<String> iter = entry.stringIterator();
-		while (iter.hasNext()) {
-			String str = iter.next();
-			if (str != null && str.length() != 0) {
-				String lower = str.toLowerCase(loc);
-				if (lower.contains(qStr)) {
-					results.add(entry);
-					break;
-				}
+	public void processEntries(PwEntry entry, List<PwEntry> results, String qStr, Locale loc, boolean foldAccents) {
+		// Search all strings in the entry, lower cased once and kept with the entry
+		NormalizedFields fields = entry.getNormalizedFields(loc);
+		for (int i = 0; i < fields.size(); i++) {
+			if (!SearchParametersV4.DEFAULT.searchInField(fields.getKind(i))) {
+				continue;
+			}
+
+			String str = fields.get(i, foldAccents);
+			if (str.length() != 0 && str.contains(qStr)) {
+				results.add(entry);
+				break;
 			}
 		}
 	}
@@ -19,22 +19,35 @@
  */
 package com.keepassdroid.search;
 
+import android.app.Activity;
 import android.app.SearchManager;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
 
 import com.android.keepass.KeePass;
 import com.keepassdroid.Database;
 import com.keepassdroid.GroupBaseActivity;
 import com.keepassdroid.PwGroupListAdapter;
 import com.keepassdroid.app.App;
+import com.keepassdroid.database.PwGroup;
 import com.keepassdroid.view.GroupEmptyView;
 import com.keepassdroid.view.GroupViewOnlyView;
 
 public class SearchResults extends GroupBaseActivity {
+	/** Show the entries expired or expiring within this many days instead of searching */
+	public static final String KEY_EXPIRING_DAYS = "expiring_days";
+	
+	public static void launchExpiring(Activity act, int days) {
+		Intent i = new Intent(act, SearchResults.class);
+		i.putExtra(KEY_EXPIRING_DAYS, days);
+		
+		act.startActivityForResult(i, 0);
+	}
 	
 	private Database mDb;
-	//private String mQuery;
+	private String mQuery = "";
+	private Handler mHandler;
 	
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -47,24 +60,96 @@ public class SearchResults extends GroupBaseActivity {
 		setResult(KeePass.EXIT_NORMAL);
 		
 		mDb = App.getDB();
+		mHandler = new Handler();
 		
 		// Likely the app has been killed exit the activity 
 		if ( ! mDb.Loaded() ) {
 			finish();
 		}
 
-		performSearch(getSearchStr(getIntent()));
+		handleIntent(getIntent());
+		
+	}
+	
+	@Override
+	protected void onNewIntent(Intent intent) {
+		super.onNewIntent(intent);
+		setIntent(intent);
+		
+		// Searching again from the results, refines them when the query was extended
+		handleIntent(intent);
+	}
+	
+	@Override
+	public boolean onSearchRequested() {
+		// Start from the current query so typing more only narrows the results down
+		startSearch(mQuery, false, null, false);
+		return true;
+	}
+	
+	@Override
+	protected void onDestroy() {
+		if ( mDb != null && mDb.searchSession != null ) {
+			mDb.searchSession.cancel();
+		}
+		
+		super.onDestroy();
+	}
+	
+	private void handleIntent(Intent intent) {
+		if ( intent.hasExtra(KEY_EXPIRING_DAYS) ) {
+			showExpiring(intent.getIntExtra(KEY_EXPIRING_DAYS, 0));
+		} else {
+			performSearch(getSearchStr(intent));
+		}
+	}
+	
+	private void showExpiring(int days) {
+		// Drop a search still running, its results would replace these
+		mQuery = "";
+		if ( mDb.searchSession != null ) {
+			mDb.searchSession.cancel();
+		}
+		
+		if ( mDb.searchHelper == null ) {
+			return;
+		}
 		
+		PwGroup group = mDb.searchHelper.searchExpiring(mDb, days);
+		if ( group != null ) {
+			showResults(group);
+		}
 	}
 	
 	private void performSearch(String query) {
-		query(query.trim());
+		final String trimmed = query.trim();
+		mQuery = trimmed;
+		
+		// Search in the background, a newer query cancels this one
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				final PwGroup group = mDb.Search(trimmed);
+				if ( group == null ) {
+					return;
+				}
+				
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						if ( trimmed.equals(mQuery) && ! isFinishing() ) {
+							showResults(group);
+						}
+					}
+				});
+			}
+		}, "Search").start();
 	}
 	
-	private void query(String query) {
-		mGroup = mDb.Search(query);
+	private void showResults(PwGroup group) {
+		mGroup = group;
 
-		if ( mGroup == null || mGroup.childEntries.size() < 1 ) {
+		if ( mGroup.childEntries.size() < 1 ) {
 			setContentView(new GroupEmptyView(this));
 		} else {
 			setContentView(new GroupViewOnlyView(this));
@@ -74,18 +159,6 @@ public class SearchResults extends GroupBaseActivity {
 		
 		setListAdapter(new PwGroupListAdapter(this, mGroup));
 	}
-	
-	/*
-	@Override
-	protected void onNewIntent(Intent intent) {
-		super.onNewIntent(intent);
-		
-		mQuery = getSearchStr(intent);
-		performSearch();
-		//mGroup = processSearchIntent(intent);
-		//assert(mGroup != null);
-	}
-	*/
 
 	private String getSearchStr(Intent queryIntent) {
         // get and process search query here
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.keepassdroid.Database;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwGroup;
+import com.keepassdroid.utils.StrUtil;
+
+/** Runs the searches of a search as you type, keeping the results of the last one.
+ *
+ * When a query contains the previous one, as when another character was typed, only the
+ * previous results can match, so those are searched instead of the whole database. Other
+ * queries search everything again. Starting a search cancels the one still running.
+ *
+ * The kept results are dropped whenever an entry is added, edited or deleted. Fuzzy
+ * searches, and lookups of the entries for a URL or with some tags, are always run in full.
+ */
+public class SearchSession {
+	private final Database db;
+
+	private AtomicBoolean running;
+	private int version = 0;
+
+	private String lastQuery;
+	private Locale lastLocale;
+	private boolean lastFoldAccents;
+	private boolean lastOmitBackup;
+	private boolean lastExcludeExpired;
+	private List<PwEntry> lastResults;
+
+	public SearchSession(Database db) {
+		this.db = db;
+	}
+
+	/** Search for qStr, may be called from any thread
+	 *
+	 * @return The results, or null if the search was cancelled by a newer one
+	 */
+	public PwGroup search(String qStr) {
+		SearchDbHelper helper = db.searchHelper;
+		if (helper == null) {
+			return null;
+		}
+
+		AtomicBoolean cancelled = new AtomicBoolean(false);
+		int startVersion;
+		String prevQuery;
+		Locale prevLocale;
+		boolean prevFoldAccents;
+		boolean prevOmitBackup;
+		boolean prevExcludeExpired;
+		List<PwEntry> prevResults;
+
+		synchronized (this) {
+			if (running != null) {
+				running.set(true);
+			}
+			running = cancelled;
+
+			startVersion = version;
+			prevQuery = lastQuery;
+			prevLocale = lastLocale;
+			prevFoldAccents = lastFoldAccents;
+			prevOmitBackup = lastOmitBackup;
+			prevExcludeExpired = lastExcludeExpired;
+			prevResults = lastResults;
+		}
+
+		PwGroup group = helper.newResultsGroup(db.pm);
+		if (group == null) {
+			return null;
+		}
+
+		Locale loc = Locale.getDefault();
+		boolean foldAccents = helper.ignoreAccents();
+		boolean omitBackup = helper.omitBackup();
+		boolean excludeExpired = helper.excludeExpired();
+		String query = StrUtil.normalizeForSearch(qStr, loc, foldAccents);
+
+		// A site asking for its entries, found through the URL index
+		if (UrlIndex.isUrl(qStr)) {
+			List<PwEntry> site = helper.searchUrl(db, qStr, omitBackup);
+			if (site != null && site.size() > 0) {
+				group.childEntries.addAll(site);
+				finished(cancelled);
+				return group;
+			}
+		}
+
+		List<PwEntry> tagged = helper.searchTags(db, qStr, omitBackup);
+		if (tagged != null) {
+			group.childEntries.addAll(tagged);
+			finished(cancelled);
+			return group;
+		}
+
+		// Ranked results are not all the entries that match, so there is nothing to refine
+		if (helper.fuzzySearch() && query.length() > 0) {
+			if (!helper.searchFuzzy(db, query, loc, foldAccents, omitBackup, group.childEntries, cancelled)) {
+				return null;
+			}
+
+			finished(cancelled);
+			return group;
+		}
+
+		List<PwEntry> searchable;
+		if (prevResults != null && loc.equals(prevLocale) && foldAccents == prevFoldAccents
+				&& omitBackup == prevOmitBackup && excludeExpired == prevExcludeExpired
+				&& query.contains(prevQuery)) {
+			// Some may have expired since
+			searchable = helper.removeExpired(db, prevResults);
+		} else {
+			searchable = helper.getSearchableEntries(db, query, loc, foldAccents, omitBackup);
+		}
+
+		if (!helper.searchEntries(searchable, query, loc, foldAccents, group.childEntries, cancelled)) {
+			return null;
+		}
+
+		synchronized (this) {
+			finished(cancelled);
+
+			// Only keep the results if no entry changed while searching
+			if (version == startVersion) {
+				lastQuery = query;
+				lastLocale = loc;
+				lastFoldAccents = foldAccents;
+				lastOmitBackup = omitBackup;
+				lastExcludeExpired = excludeExpired;
+				lastResults = new ArrayList<PwEntry>(group.childEntries);
+			}
+		}
+
+		return group;
+	}
+
+	private synchronized void finished(AtomicBoolean cancelled) {
+		if (running == cancelled) {
+			running = null;
+		}
+	}
+
+	/** Stop the search in progress, if any */
+	public synchronized void cancel() {
+		if (running != null) {
+			running.set(true);
+			running = null;
+		}
+	}
+
+	/** Forget the last results after entries changed, the next search covers everything */
+	public synchronized void invalidate() {
+		version++;
+		lastQuery = null;
+		lastResults = null;
+	}
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.search;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.utils.StrUtil;
+
+/** Index of the tags of .kdbx entries.
+ *
+ * Each distinct tag is kept once in a dictionary, case insensitively, with the set of
+ * entries having it as a bit set over entry ordinals. Filters on several tags are then a
+ * few bit set operations, and the number of entries per tag is the size of its set.
+ */
+public class TagIndex {
+	/** Separators accepted between tags, the first is used when writing a new list */
+	private static final String SEPARATORS = ";,:";
+
+	private final Map<String, Integer> tagIds = new HashMap<String, Integer>();
+	private final List<String> tagNames = new ArrayList<String>();
+	private final List<BitSet> tagEntries = new ArrayList<BitSet>();
+
+	private final Map<PwEntry, Integer> ordinals = new IdentityHashMap<PwEntry, Integer>();
+	private final List<PwEntry> entries = new ArrayList<PwEntry>();
+	private final List<int[]> entryTags = new ArrayList<int[]>();
+	private final ArrayDeque<Integer> freeOrdinals = new ArrayDeque<Integer>();
+	private final BitSet live = new BitSet();
+
+	public synchronized void build(List<PwEntry> all) {
+		for (PwEntry entry : all) {
+			index(entry);
+		}
+	}
+
+	/** Index a new entry, or reindex one whose tags changed */
+	public synchronized void put(PwEntry entry) {
+		unindex(entry);
+		index(entry);
+	}
+
+	public synchronized void remove(PwEntry entry) {
+		unindex(entry);
+	}
+
+	/** All tags in use, in the spelling first seen, sorted by name */
+	public synchronized List<String> getTags() {
+		List<String> tags = new ArrayList<String>();
+		for (int id = 0; id < tagNames.size(); id++) {
+			if (!tagEntries.get(id).isEmpty()) {
+				tags.add(tagNames.get(id));
+			}
+		}
+
+		Collections.sort(tags, String.CASE_INSENSITIVE_ORDER);
+		return tags;
+	}
+
+	/** Which tags entries must have, may have, or must not have */
+	public static class Filter {
+		private static final String PREFIX = "tag:";
+
+		/** Tags an entry must all have */
+		public final List<String> all = new ArrayList<String>();
+		/** Groups of tags an entry must have at least one of */
+		public final List<List<String>> anyOf = new ArrayList<List<String>>();
+		/** Tags an entry must not have */
+		public final List<String> none = new ArrayList<String>();
+
+		/** Parse a search made only of terms like tag:work, tag:home|family or -tag:old
+		 *
+		 * @return The filter, or null if str has other terms
+		 */
+		public static Filter parse(String str) {
+			List<String> terms = StrUtil.splitSearchTerms(str);
+			if (terms.isEmpty()) {
+				return null;
+			}
+
+			Filter filter = new Filter();
+			for (String term : terms) {
+				boolean negated = term.startsWith("-");
+				String rest = negated ? term.substring(1) : term;
+				if (!rest.regionMatches(true, 0, PREFIX, 0, PREFIX.length())) {
+					return null;
+				}
+
+				List<String> tags = new ArrayList<String>();
+				for (String tag : rest.substring(PREFIX.length()).split("\\|")) {
+					if (tag.trim().length() > 0) {
+						tags.add(tag.trim());
+					}
+				}
+
+				if (tags.isEmpty()) {
+					return null;
+				}
+
+				if (negated) {
+					filter.none.addAll(tags);
+				} else if (tags.size() == 1) {
+					filter.all.add(tags.get(0));
+				} else {
+					filter.anyOf.add(tags);
+				}
+			}
+
+			return filter;
+		}
+	}
+
+	/** Entries passing filter, all indexed entries if it only excludes tags */
+	public synchronized List<PwEntry> filter(Filter filter) {
+		BitSet result = (BitSet) live.clone();
+
+		for (String tag : filter.all) {
+			Integer id = tagIds.get(key(tag));
+			if (id == null) {
+				return new ArrayList<PwEntry>();
+			}
+			result.and(tagEntries.get(id));
+		}
+
+		for (List<String> any : filter.anyOf) {
+			BitSet union = new BitSet();
+			for (String tag : any) {
+				Integer id = tagIds.get(key(tag));
+				if (id != null) {
+					union.or(tagEntries.get(id));
+				}
+			}
+			result.and(union);
+		}
+
+		for (String tag : filter.none) {
+			Integer id = tagIds.get(key(tag));
+			if (id != null) {
+				result.andNot(tagEntries.get(id));
+			}
+		}
+
+		return toEntries(result);
+	}
+
+	/** Number of entries with each tag, most used first */
+	public synchronized Map<String, Integer> getFacets() {
+		return facets(null);
+	}
+
+	/** Number of entries of within with each tag, most used first */
+	public synchronized Map<String, Integer> getFacets(Collection<PwEntry> within) {
+		BitSet set = new BitSet();
+		for (PwEntry entry : within) {
+			Integer ordinal = ordinals.get(entry);
+			if (ordinal != null) {
+				set.set(ordinal);
+			}
+		}
+
+		return facets(set);
+	}
+
+	private Map<String, Integer> facets(BitSet within) {
+		final List<String> names = new ArrayList<String>();
+		final Map<String, Integer> counts = new HashMap<String, Integer>();
+
+		for (int id = 0; id < tagNames.size(); id++) {
+			BitSet set = tagEntries.get(id);
+			int count;
+			if (within == null) {
+				count = set.cardinality();
+			} else {
+				BitSet both = (BitSet) set.clone();
+				both.and(within);
+				count = both.cardinality();
+			}
+
+			if (count > 0) {
+				names.add(tagNames.get(id));
+				counts.put(tagNames.get(id), count);
+			}
+		}
+
+		Collections.sort(names, new Comparator<String>() {
+			@Override
+			public int compare(String lhs, String rhs) {
+				int cmp = counts.get(rhs) - counts.get(lhs);
+				return cmp != 0 ? cmp : String.CASE_INSENSITIVE_ORDER.compare(lhs, rhs);
+			}
+		});
+
+		Map<String, Integer> facets = new LinkedHashMap<String, Integer>();
+		for (String name : names) {
+			facets.put(name, counts.get(name));
+		}
+
+		return facets;
+	}
+
+	private List<PwEntry> toEntries(BitSet set) {
+		List<PwEntry> list = new ArrayList<PwEntry>(set.cardinality());
+		for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+			list.add(entries.get(i));
+		}
+
+		return list;
+	}
+
+	private void index(PwEntry entry) {
+		if (!(entry instanceof PwEntryV4)) {
+			return;
+		}
+
+		// Entries without tags are indexed too, for filters that only exclude tags
+		List<String> tags = parseTags(((PwEntryV4) entry).tags);
+
+		int ordinal;
+		Integer free = freeOrdinals.poll();
+		if (free != null) {
+			ordinal = free;
+		} else {
+			ordinal = entries.size();
+			entries.add(null);
+			entryTags.add(null);
+		}
+
+		int[] ids = new int[tags.size()];
+		for (int i = 0; i < ids.length; i++) {
+			String tag = tags.get(i);
+			String key = key(tag);
+
+			Integer id = tagIds.get(key);
+			if (id == null) {
+				id = tagNames.size();
+				tagIds.put(key, id);
+				tagNames.add(tag);
+				tagEntries.add(new BitSet());
+			}
+
+			tagEntries.get(id).set(ordinal);
+			ids[i] = id;
+		}
+
+		ordinals.put(entry, ordinal);
+		entries.set(ordinal, entry);
+		entryTags.set(ordinal, ids);
+		live.set(ordinal);
+	}
+
+	private void unindex(PwEntry entry) {
+		Integer ordinal = ordinals.remove(entry);
+		if (ordinal == null) {
+			return;
+		}
+
+		for (int id : entryTags.get(ordinal)) {
+			tagEntries.get(id).clear(ordinal);
+		}
+
+		entries.set(ordinal, null);
+		entryTags.set(ordinal, null);
+		live.clear(ordinal);
+		freeOrdinals.push(ordinal);
+	}
+
+	private static String key(String tag) {
+		return tag.trim().toLowerCase(Locale.ENGLISH);
+	}
+
+	/** The tags in a Tags field, trimmed, without empty or repeated ones */
+	public static List<String> parseTags(String str) {
+		List<String> tags = new ArrayList<String>();
+		if (str == null) {
+			return tags;
+		}
+
+		int start = 0;
+		for (int i = 0; i <= str.length(); i++) {
+			if (i == str.length() || SEPARATORS.indexOf(str.charAt(i)) >= 0) {
+				String tag = str.substring(start, i).trim();
+				if (tag.length() > 0 && !containsIgnoreCase(tags, tag)) {
+					tags.add(tag);
+				}
+				start = i + 1;
+			}
+		}
+
+		return tags;
+	}
+
+	/** Tags as written to a Tags field, separated the way existing was
+	 *
+	 * @param existing Current value of the field, may be null
+	 */
+	public static String formatTags(List<String> tags, String existing) {
+		char separator = SEPARATORS.charAt(0);
+		if (existing != null) {
+			for (int i = 0; i < existing.length(); i++) {
+				if (SEPARATORS.indexOf(existing.charAt(i)) >= 0) {
+					separator = existing.charAt(i);
+					break;
+				}
+			}
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (String tag : tags) {
+			if (sb.length() > 0) {
+				sb.append(separator);
+			}
+			sb.append(tag);
+		}
+
+		return sb.toString();
+	}
+
+	private static boolean containsIgnoreCase(List<String> list, String str) {
+		for (String s : list) {
+			if (s.equalsIgnoreCase(str)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.search;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.keepassdroid.database.NormalizedFields;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.SearchParametersV4;
+
+/** In memory index from the three character sequences of the searchable entry fields to
+ *  the entries containing them.
+ *
+ * A search string of three or more characters can only be found in entries that have all
+ * of its trigrams, so the index narrows a search down to a few candidates, which are then
+ * checked with the usual substring search. Fields are indexed as normalized for searching,
+ * from the cache kept with each entry.
+ *
+ * Protected fields are left out unless asked for. An entry with a protected field that
+ * would be searched is then always a candidate, so the results do not change.
+ */
+public class TrigramIndex {
+	private final Locale locale;
+	private final boolean foldAccents;
+	private final boolean indexProtected;
+
+	private final Map<Long, Postings> postings = new HashMap<Long, Postings>();
+	private final Map<PwEntry, Integer> ordinals = new IdentityHashMap<PwEntry, Integer>();
+	private final List<PwEntry> entries = new ArrayList<PwEntry>();
+	private final List<long[]> entryGrams = new ArrayList<long[]>();
+	private final ArrayDeque<Integer> freeOrdinals = new ArrayDeque<Integer>();
+	private final BitSet unindexed = new BitSet();
+
+	// Entries removed while the initial build has not reached them yet
+	private final Set<PwEntry> removedWhileBuilding = Collections.newSetFromMap(new IdentityHashMap<PwEntry, Boolean>());
+
+	private long[] scratch = new long[256];
+	private boolean ready = false;
+	private volatile boolean closed = false;
+
+	/**
+	 * @param locale Locale used to lower case fields, must match the one used for searching
+	 * @param foldAccents Index fields with accents removed
+	 * @param indexProtected Include protected fields in the index
+	 */
+	public TrigramIndex(Locale locale, boolean foldAccents, boolean indexProtected) {
+		this.locale = locale;
+		this.foldAccents = foldAccents;
+		this.indexProtected = indexProtected;
+	}
+
+	/** Index all entries of a database. Meant to run in the background, edits may be
+	 *  applied with {@link #put} and {@link #remove} while it runs.
+	 */
+	public void build(List<PwEntry> all) {
+		for (PwEntry entry : all) {
+			if (closed) {
+				return;
+			}
+
+			synchronized (this) {
+				if (!ordinals.containsKey(entry) && !removedWhileBuilding.contains(entry)) {
+					index(entry);
+				}
+			}
+		}
+
+		synchronized (this) {
+			removedWhileBuilding.clear();
+			ready = !closed;
+		}
+	}
+
+	/** Stop a build in progress, the index is not used afterwards */
+	public void close() {
+		closed = true;
+	}
+
+	public synchronized boolean isReady() {
+		return ready;
+	}
+
+	/** Index a new entry, or reindex one that changed */
+	public synchronized void put(PwEntry entry) {
+		if (closed) {
+			return;
+		}
+
+		unindex(entry);
+		removedWhileBuilding.remove(entry);
+		index(entry);
+	}
+
+	public synchronized void remove(PwEntry entry) {
+		if (closed) {
+			return;
+		}
+
+		unindex(entry);
+		if (!ready) {
+			removedWhileBuilding.add(entry);
+		}
+	}
+
+	/** Entries that may contain the search string
+	 *
+	 * @param query Search string, already normalized with loc and foldAccents
+	 * @return The candidates, or null if the index can not narrow down this search
+	 */
+	public synchronized Set<PwEntry> candidates(String query, Locale loc, boolean fold) {
+		if (!ready || closed || !locale.equals(loc) || fold != foldAccents || query.length() < 3) {
+			return null;
+		}
+
+		int count = addGrams(query, 0);
+		long[] grams = Arrays.copyOf(scratch, count);
+
+		Postings[] lists = new Postings[grams.length];
+		for (int i = 0; i < grams.length; i++) {
+			lists[i] = postings.get(grams[i]);
+		}
+
+		Set<PwEntry> result = Collections.newSetFromMap(new IdentityHashMap<PwEntry, Boolean>());
+
+		if (!containsNull(lists)) {
+			// Intersect starting from the shortest list
+			Arrays.sort(lists, Postings.SIZE_ORDER);
+
+			Postings first = lists[0];
+			for (int i = 0; i < first.size; i++) {
+				int ordinal = first.ids[i];
+
+				boolean all = true;
+				for (int j = 1; j < lists.length && all; j++) {
+					all = lists[j].contains(ordinal);
+				}
+
+				if (all) {
+					result.add(entries.get(ordinal));
+				}
+			}
+		}
+
+		for (int i = unindexed.nextSetBit(0); i >= 0; i = unindexed.nextSetBit(i + 1)) {
+			result.add(entries.get(i));
+		}
+
+		return result;
+	}
+
+	private void index(PwEntry entry) {
+		int ordinal;
+		Integer free = freeOrdinals.poll();
+		if (free != null) {
+			ordinal = free;
+		} else {
+			ordinal = entries.size();
+			entries.add(null);
+			entryGrams.add(null);
+		}
+
+		int count = 0;
+		boolean skipped = false;
+
+		NormalizedFields fields = entry.getNormalizedFields(locale);
+		for (int i = 0; i < fields.size(); i++) {
+			if (!SearchParametersV4.DEFAULT.searchInField(fields.getKind(i))) {
+				continue;
+			}
+
+			String raw = fields.getRaw(i);
+			if (raw == null || raw.length() == 0) {
+				continue;
+			}
+
+			if (fields.isProtected(i) && !indexProtected) {
+				skipped = true;
+				continue;
+			}
+
+			count = addGrams(fields.get(i, foldAccents), count);
+		}
+
+		long[] grams = Arrays.copyOf(scratch, count);
+		for (long gram : grams) {
+			Postings list = postings.get(gram);
+			if (list == null) {
+				list = new Postings();
+				postings.put(gram, list);
+			}
+
+			list.add(ordinal);
+		}
+
+		ordinals.put(entry, ordinal);
+		entries.set(ordinal, entry);
+		entryGrams.set(ordinal, grams);
+		unindexed.set(ordinal, skipped);
+	}
+
+	private void unindex(PwEntry entry) {
+		Integer ordinal = ordinals.remove(entry);
+		if (ordinal == null) {
+			return;
+		}
+
+		for (long gram : entryGrams.get(ordinal)) {
+			Postings list = postings.get(gram);
+			list.remove(ordinal);
+			if (list.size == 0) {
+				postings.remove(gram);
+			}
+		}
+
+		entries.set(ordinal, null);
+		entryGrams.set(ordinal, null);
+		unindexed.clear(ordinal);
+		freeOrdinals.push(ordinal);
+	}
+
+	/** Add the distinct trigrams of str to the scratch buffer after its first count ones */
+	private int addGrams(String str, int count) {
+		int needed = count + str.length();
+		if (needed > scratch.length) {
+			scratch = Arrays.copyOf(scratch, Math.max(needed, scratch.length * 2));
+		}
+
+		for (int i = 0; i + 3 <= str.length(); i++) {
+			scratch[count++] = ((long) str.charAt(i) << 32) | ((long) str.charAt(i + 1) << 16) | str.charAt(i + 2);
+		}
+
+		// Keep them sorted and unique
+		Arrays.sort(scratch, 0, count);
+		int unique = 0;
+		for (int i = 0; i < count; i++) {
+			if (unique == 0 || scratch[unique - 1] != scratch[i]) {
+				scratch[unique++] = scratch[i];
+			}
+		}
+
+		return unique;
+	}
+
+	private static boolean containsNull(Object[] array) {
+		for (Object o : array) {
+			if (o == null) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/** Sorted list of entry ordinals */
+	private static class Postings {
+		static final Comparator<Postings> SIZE_ORDER = new Comparator<Postings>() {
+			@Override
+			public int compare(Postings lhs, Postings rhs) {
+				return lhs.size - rhs.size;
+			}
+		};
+
+		int[] ids = new int[2];
+		int size = 0;
+
+		boolean contains(int id) {
+			return Arrays.binarySearch(ids, 0, size, id) >= 0;
+		}
+
+		void add(int id) {
+			int pos = Arrays.binarySearch(ids, 0, size, id);
+			if (pos >= 0) {
+				return;
+			}
+			pos = -pos - 1;
+
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+			ids[pos] = id;
+			size++;
+		}
+
+		void remove(int id) {
+			int pos = Arrays.binarySearch(ids, 0, size, id);
+			if (pos < 0) {
+				return;
+			}
+
+			System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+			size--;
+		}
+	}
+}
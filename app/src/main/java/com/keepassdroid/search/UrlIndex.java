@@ -0,0 +1,327 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.keepassdroid.database.PwDatabase;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.utils.SprEngine;
+import com.keepassdroid.utils.StrUtil;
+
+/** Index from the host names in entry URLs to the entries, to find the entries for a site
+ *  without searching every entry.
+ *
+ * Entries are indexed under the host of their URL and override URL, with field references
+ * resolved, and under its registrable domain, so a lookup also finds the entries for the
+ * other subdomains of a site.
+ */
+public class UrlIndex {
+	private static final String REF_START = "{REF:";
+
+	// Second level labels under which country domains are registered, like co.uk
+	private static final Set<String> SECOND_LEVEL = new HashSet<String>(Arrays.asList(
+			"ac", "co", "com", "edu", "gov", "go", "ne", "net", "or", "org"));
+
+	private final PwDatabase db;
+
+	private final Map<String, List<PwEntry>> byHost = new HashMap<String, List<PwEntry>>();
+	private final Map<String, List<PwEntry>> byDomain = new HashMap<String, List<PwEntry>>();
+	private final Map<PwEntry, String[]> hosts = new IdentityHashMap<PwEntry, String[]>();
+
+	// Entries whose URLs refer to other entries, looked at again after any edit
+	private final Set<PwEntry> withRefs = Collections.newSetFromMap(new IdentityHashMap<PwEntry, Boolean>());
+
+	public UrlIndex(PwDatabase db) {
+		this.db = db;
+	}
+
+	public synchronized void build(List<PwEntry> entries) {
+		for (PwEntry entry : entries) {
+			index(entry);
+		}
+	}
+
+	/** Index a new entry, or reindex one that changed */
+	public synchronized void put(PwEntry entry) {
+		unindex(entry);
+		index(entry);
+		refreshRefs(entry);
+	}
+
+	public synchronized void remove(PwEntry entry) {
+		unindex(entry);
+		refreshRefs(entry);
+	}
+
+	/** Entries for the site of url, those with the same host first, then those for other
+	 *  hosts of the same domain, each in the order they were indexed
+	 */
+	public synchronized List<PwEntry> lookup(String url) {
+		List<PwEntry> results = new ArrayList<PwEntry>();
+
+		String host = getHost(url);
+		if (host == null) {
+			return results;
+		}
+
+		List<PwEntry> sameHost = byHost.get(host);
+		if (sameHost != null) {
+			results.addAll(sameHost);
+		}
+
+		List<PwEntry> sameDomain = byDomain.get(getDomain(host));
+		if (sameDomain != null) {
+			Set<PwEntry> seen = Collections.newSetFromMap(new IdentityHashMap<PwEntry, Boolean>());
+			seen.addAll(results);
+			for (PwEntry entry : sameDomain) {
+				if (seen.add(entry)) {
+					results.add(entry);
+				}
+			}
+		}
+
+		return results;
+	}
+
+	/** Entries with a URL for exactly this host */
+	public synchronized List<PwEntry> lookupHost(String host) {
+		List<PwEntry> list = byHost.get(host.toLowerCase(Locale.ENGLISH));
+		return list == null ? new ArrayList<PwEntry>() : new ArrayList<PwEntry>(list);
+	}
+
+	private void index(PwEntry entry) {
+		String url = entry.getUrl();
+		String override = entry instanceof PwEntryV4 ? ((PwEntryV4) entry).overrideURL : null;
+
+		boolean hasRefs = false;
+		if (hasRef(url)) {
+			url = SprEngine.getInstance(db).compile(url, entry, db);
+			hasRefs = true;
+		}
+		if (hasRef(override)) {
+			override = SprEngine.getInstance(db).compile(override, entry, db);
+			hasRefs = true;
+		}
+
+		if (hasRefs) {
+			withRefs.add(entry);
+		}
+
+		String urlHost = getHost(url);
+		String overrideHost = getHost(override);
+
+		String[] entryHosts;
+		if (urlHost == null) {
+			entryHosts = overrideHost == null ? new String[0] : new String[] { overrideHost };
+		} else if (overrideHost == null || overrideHost.equals(urlHost)) {
+			entryHosts = new String[] { urlHost };
+		} else {
+			entryHosts = new String[] { urlHost, overrideHost };
+		}
+
+		if (entryHosts.length == 0) {
+			return;
+		}
+
+		hosts.put(entry, entryHosts);
+		for (String host : entryHosts) {
+			add(byHost, host, entry);
+
+			String domain = getDomain(host);
+			List<PwEntry> list = byDomain.get(domain);
+			if (list == null || !list.contains(entry)) {
+				add(byDomain, domain, entry);
+			}
+		}
+	}
+
+	private void unindex(PwEntry entry) {
+		withRefs.remove(entry);
+
+		String[] entryHosts = hosts.remove(entry);
+		if (entryHosts == null) {
+			return;
+		}
+
+		for (String host : entryHosts) {
+			remove(byHost, host, entry);
+			remove(byDomain, getDomain(host), entry);
+		}
+	}
+
+	/** Resolve the references of the other entries again, they may point at the changed one */
+	private void refreshRefs(PwEntry changed) {
+		if (withRefs.isEmpty()) {
+			return;
+		}
+
+		for (PwEntry entry : new ArrayList<PwEntry>(withRefs)) {
+			if (entry != changed) {
+				unindex(entry);
+				index(entry);
+			}
+		}
+	}
+
+	private static void add(Map<String, List<PwEntry>> map, String key, PwEntry entry) {
+		List<PwEntry> list = map.get(key);
+		if (list == null) {
+			list = new ArrayList<PwEntry>(1);
+			map.put(key, list);
+		}
+
+		list.add(entry);
+	}
+
+	private static void remove(Map<String, List<PwEntry>> map, String key, PwEntry entry) {
+		List<PwEntry> list = map.get(key);
+		if (list == null) {
+			return;
+		}
+
+		for (int i = 0; i < list.size(); i++) {
+			if (list.get(i) == entry) {
+				list.remove(i);
+				break;
+			}
+		}
+
+		if (list.isEmpty()) {
+			map.remove(key);
+		}
+	}
+
+	private static boolean hasRef(String str) {
+		return str != null && StrUtil.indexOfIgnoreCase(str, REF_START, Locale.ENGLISH) >= 0;
+	}
+
+	/** Whether str is a URL with a host name, rather than search text */
+	public static boolean isUrl(String str) {
+		return str != null && str.indexOf("://") > 0 && getHost(str) != null;
+	}
+
+	/** The lower cased host name of url, also without a scheme, or null if it has none */
+	public static String getHost(String url) {
+		if (url == null) {
+			return null;
+		}
+
+		String str = url.trim();
+		int start = str.indexOf("://");
+		start = start < 0 ? 0 : start + 3;
+
+		int end = str.length();
+		for (int i = start; i < str.length(); i++) {
+			char ch = str.charAt(i);
+			if (ch == '/' || ch == '?' || ch == '#') {
+				end = i;
+				break;
+			}
+		}
+
+		// Drop user info and port
+		int at = str.lastIndexOf('@', end - 1);
+		if (at >= start) {
+			start = at + 1;
+		}
+
+		String host;
+		if (start < end && str.charAt(start) == '[') {
+			int close = str.indexOf(']', start);
+			if (close < 0 || close >= end) {
+				return null;
+			}
+			host = str.substring(start, close + 1);
+		} else {
+			int colon = str.indexOf(':', start);
+			if (colon >= 0 && colon < end) {
+				end = colon;
+			}
+			host = str.substring(start, end);
+
+			while (host.endsWith(".")) {
+				host = host.substring(0, host.length() - 1);
+			}
+
+			for (int i = 0; i < host.length(); i++) {
+				char ch = host.charAt(i);
+				if (!(Character.isLetterOrDigit(ch) || ch == '.' || ch == '-' || ch == '_')) {
+					return null;
+				}
+			}
+		}
+
+		if (host.length() == 0) {
+			return null;
+		}
+
+		return host.toLowerCase(Locale.ENGLISH);
+	}
+
+	/** The domain a host is registered under, like example.co.uk for www.example.co.uk.
+	 *  Addresses and single labels are their own domain.
+	 */
+	public static String getDomain(String host) {
+		if (host.startsWith("[") || isIpv4(host)) {
+			return host;
+		}
+
+		int last = host.lastIndexOf('.');
+		if (last < 0) {
+			return host;
+		}
+
+		int second = host.lastIndexOf('.', last - 1);
+		if (second < 0) {
+			return host;
+		}
+
+		// Country domains registered under a second level label, like co.uk
+		String tld = host.substring(last + 1);
+		if (tld.length() == 2 && SECOND_LEVEL.contains(host.substring(second + 1, last))) {
+			int third = host.lastIndexOf('.', second - 1);
+			return host.substring(third + 1);
+		}
+
+		return host.substring(second + 1);
+	}
+
+	private static boolean isIpv4(String host) {
+		for (int i = 0; i < host.length(); i++) {
+			char ch = host.charAt(i);
+			if (ch != '.' && (ch < '0' || ch > '9')) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
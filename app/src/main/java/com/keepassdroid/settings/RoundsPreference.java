@@ -20,6 +20,8 @@
 package com.keepassdroid.settings;
 
 
+import java.io.IOException;
+
 import android.content.Context;
 import android.os.Handler;
 import android.preference.DialogPreference;
@@ -32,8 +34,12 @@ import com.android.keepass.R;
 import com.keepassdroid.Database;
 import com.keepassdroid.ProgressTask;
 import com.keepassdroid.app.App;
+import com.keepassdroid.crypto.keyDerivation.KdfEngine;
+import com.keepassdroid.crypto.keyDerivation.KdfFactory;
+import com.keepassdroid.crypto.keyDerivation.KdfParameters;
 import com.keepassdroid.database.PwDatabase;
 import com.keepassdroid.database.edit.OnFinish;
+import com.keepassdroid.database.edit.RunnableOnFinish;
 import com.keepassdroid.database.edit.SaveDB;
 
 public class RoundsPreference extends DialogPreference {
@@ -41,6 +47,10 @@ public class RoundsPreference extends DialogPreference {
 	private PwDatabase mPM;
 	private TextView mRoundsView;
 
+	// Result of the last calibration, used if the rounds aren't edited afterwards
+	private KdfParameters mCalibrated;
+	private long mCalibratedRounds;
+
 	@Override
 	protected View onCreateDialogView() {
 		View view =  super.onCreateDialogView();
@@ -51,6 +61,16 @@ public class RoundsPreference extends DialogPreference {
 		mPM = db.pm;
 		long numRounds = mPM.getNumRounds();
 		mRoundsView.setText(Long.toString(numRounds));
+		mCalibrated = null;
+
+		view.findViewById(R.id.rounds_calibrate).setOnClickListener(new View.OnClickListener() {
+			public void onClick(View v) {
+				Handler handler = new Handler();
+				Calibrate calibrate = new Calibrate(new AfterCalibrate(handler));
+				ProgressTask pt = new ProgressTask(getContext(), calibrate, R.string.progress_calibrate);
+				pt.run();
+			}
+		});
 		
 		return view;
 	}
@@ -82,16 +102,27 @@ public class RoundsPreference extends DialogPreference {
 				rounds = 1;
 			}
 			
-			long oldRounds = mPM.getNumRounds();
+			KdfParameters oldParameters;
 			try {
-				mPM.setNumRounds(rounds);
-			} catch (NumberFormatException e) {
-				Toast.makeText(getContext(), R.string.error_rounds_too_large, Toast.LENGTH_LONG).show();
-				mPM.setNumRounds(Integer.MAX_VALUE);
+				oldParameters = mPM.getKdfParameters();
+			} catch (IOException e) {
+				Toast.makeText(getContext(), e.getMessage(), Toast.LENGTH_LONG).show();
+				return;
+			}
+
+			if ( mCalibrated != null && rounds == mCalibratedRounds ) {
+				mPM.setKdfParameters(mCalibrated);
+			} else {
+				try {
+					mPM.setNumRounds(rounds);
+				} catch (NumberFormatException e) {
+					Toast.makeText(getContext(), R.string.error_rounds_too_large, Toast.LENGTH_LONG).show();
+					mPM.setNumRounds(Integer.MAX_VALUE);
+				}
 			}
 			
 			Handler handler = new Handler();
-			SaveDB save = new SaveDB(getContext(), App.getDB(), new AfterSave(getContext(), handler, oldRounds));
+			SaveDB save = new SaveDB(getContext(), App.getDB(), new AfterSave(getContext(), handler, oldParameters));
 			ProgressTask pt = new ProgressTask(getContext(), save, R.string.saving_database);
 			pt.run();
 			
@@ -100,14 +131,14 @@ public class RoundsPreference extends DialogPreference {
 	}
 	
 	private class AfterSave extends OnFinish {
-		private long mOldRounds;
+		private KdfParameters mOldParameters;
 		private Context mCtx;
 		
-		public AfterSave(Context ctx, Handler handler, long oldRounds) {
+		public AfterSave(Context ctx, Handler handler, KdfParameters oldParameters) {
 			super(handler);
 			
 			mCtx = ctx;
-			mOldRounds = oldRounds;
+			mOldParameters = oldParameters;
 		}
 
 		@Override
@@ -119,7 +150,7 @@ public class RoundsPreference extends DialogPreference {
 				}
 			} else {
 				displayMessage(mCtx);
-				mPM.setNumRounds(mOldRounds);
+				mPM.setKdfParameters(mOldParameters);
 			}
 			
 			super.run();
@@ -127,4 +158,58 @@ public class RoundsPreference extends DialogPreference {
 		
 	}
 
+	/** Benchmark the key derivation of the database for a 1 second unlock */
+	private class Calibrate extends RunnableOnFinish {
+		private AfterCalibrate mAfter;
+
+		public Calibrate(AfterCalibrate finish) {
+			super(finish);
+
+			mAfter = finish;
+		}
+
+		@Override
+		public void run() {
+			try {
+				KdfParameters p = mPM.getKdfParameters();
+				KdfEngine kdfEngine = KdfFactory.get(p.kdfUUID);
+				if (kdfEngine == null) {
+					finish(false, getContext().getString(R.string.rounds_calibrate_unknown_kdf));
+					return;
+				}
+
+				kdfEngine.calibrate(p, KdfEngine.DefaultCalibrationMillis);
+				mAfter.mResult = p;
+				mAfter.mRounds = kdfEngine.getRounds(p);
+			} catch (IOException e) {
+				finish(false, e.getMessage());
+				return;
+			}
+
+			finish(true);
+		}
+	}
+
+	private class AfterCalibrate extends OnFinish {
+		private KdfParameters mResult;
+		private long mRounds;
+
+		public AfterCalibrate(Handler handler) {
+			super(handler);
+		}
+
+		@Override
+		public void run() {
+			if ( mSuccess ) {
+				mCalibrated = mResult;
+				mCalibratedRounds = mRounds;
+				mRoundsView.setText(Long.toString(mRounds));
+			} else {
+				displayMessage(getContext());
+			}
+
+			super.run();
+		}
+	}
+
 }
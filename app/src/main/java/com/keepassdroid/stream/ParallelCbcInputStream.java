@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.stream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.crypto.BadPaddingException;
+
+import com.keepassdroid.crypto.ParallelCbcDecryptor;
+
+/** Decrypts a CBC stream a large region at a time, with each region split across cores
+ *  by a {@link ParallelCbcDecryptor}.
+ *
+ * The last block read is always held back until the end of the input is known, so the
+ * padding is only checked on the real final block.
+ */
+public class ParallelCbcInputStream extends FilterInputStream {
+	private static final int BLOCK_SIZE = ParallelCbcDecryptor.BLOCK_SIZE;
+	private static final int DEFAULT_REGION_SIZE = 1024 * 1024;
+
+	private final ParallelCbcDecryptor decryptor;
+	private final byte[] iv;
+
+	private final byte[] inBuffer;
+	private int inLength = 0;
+	private boolean eof = false;
+
+	private final byte[] outBuffer;
+	private int outPos = 0;
+	private int outLength = 0;
+
+	public ParallelCbcInputStream(InputStream is, ParallelCbcDecryptor decryptor, byte[] iv) {
+		this(is, decryptor, iv, DEFAULT_REGION_SIZE);
+	}
+
+	/**
+	 * @param regionSize Ciphertext decrypted at a time, rounded to whole blocks
+	 */
+	public ParallelCbcInputStream(InputStream is, ParallelCbcDecryptor decryptor, byte[] iv, int regionSize) {
+		super(is);
+		this.decryptor = decryptor;
+		this.iv = iv.clone();
+
+		int blocks = Math.max(1, regionSize / BLOCK_SIZE);
+		inBuffer = new byte[(blocks + 1) * BLOCK_SIZE];
+		outBuffer = new byte[inBuffer.length];
+	}
+
+	@Override
+	public int read() throws IOException {
+		if ( outPos == outLength && !fill() ) {
+			return -1;
+		}
+
+		return outBuffer[outPos++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if ( len == 0 ) {
+			return 0;
+		}
+
+		if ( outPos == outLength && !fill() ) {
+			return -1;
+		}
+
+		int count = Math.min(len, outLength - outPos);
+		System.arraycopy(outBuffer, outPos, b, off, count);
+		outPos += count;
+
+		return count;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while ( skipped < n ) {
+			if ( outPos == outLength && !fill() ) {
+				break;
+			}
+
+			int count = (int) Math.min(n - skipped, outLength - outPos);
+			outPos += count;
+			skipped += count;
+		}
+
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return outLength - outPos;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		throw new IOException("Mark not supported");
+	}
+
+	/** Decrypt the next region into the output buffer
+	 *
+	 * @return false at the end of the stream
+	 */
+	private boolean fill() throws IOException {
+		outPos = 0;
+		outLength = 0;
+
+		while ( outLength == 0 ) {
+			if ( eof ) {
+				return false;
+			}
+
+			while ( inLength < inBuffer.length ) {
+				int read = in.read(inBuffer, inLength, inBuffer.length - inLength);
+				if ( read == -1 ) {
+					eof = true;
+					break;
+				}
+				inLength += read;
+			}
+
+			if ( ! eof ) {
+				// Hold back at least one block, it might be the last
+				int blocksLen = (inLength - BLOCK_SIZE) / BLOCK_SIZE * BLOCK_SIZE;
+				decryptor.decryptBlocks(iv, inBuffer, 0, blocksLen, outBuffer, 0);
+
+				inLength -= blocksLen;
+				System.arraycopy(inBuffer, blocksLen, inBuffer, 0, inLength);
+				outLength = blocksLen;
+			} else if ( inLength > 0 ) {
+				try {
+					outLength = decryptor.decrypt(iv, inBuffer, 0, inLength, outBuffer, 0);
+				} catch (BadPaddingException e) {
+					throw new IOException(e.getMessage());
+				}
+				inLength = 0;
+			}
+		}
+
+		return true;
+	}
+
+}
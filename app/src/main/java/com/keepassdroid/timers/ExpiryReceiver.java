@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.timers;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.support.v4.app.NotificationCompat;
+
+import com.android.keepass.R;
+import com.keepassdroid.Database;
+import com.keepassdroid.app.App;
+import com.keepassdroid.search.ExpiryIndex;
+import com.keepassdroid.search.SearchResults;
+import com.keepassdroid.utils.NotificationUtil;
+
+/** Notifies that entries expired, when the alarm set for the next expiry goes off while the
+ *  database is still open, and sets the alarm for the one after.
+ */
+public class ExpiryReceiver extends BroadcastReceiver {
+	public static final int NOTIFY_EXPIRED = 3;
+
+	@Override
+	public void onReceive(Context ctx, Intent intent) {
+		Database db = App.getDB();
+		ExpiryIndex index = db.expiryIndex;
+		if (!db.Loaded() || index == null || App.isShutdown()) {
+			return;
+		}
+
+		db.scheduleExpiryAlarm();
+
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
+		if (!prefs.getBoolean(ctx.getString(R.string.expiry_notify_key), ctx.getResources().getBoolean(R.bool.expiry_notify_default))) {
+			return;
+		}
+
+		int count = index.getEntries(System.currentTimeMillis()).size();
+		if (count == 0) {
+			return;
+		}
+
+		Intent view = new Intent(ctx, SearchResults.class);
+		view.putExtra(SearchResults.KEY_EXPIRING_DAYS, 0);
+		PendingIntent pending = PendingIntent.getActivity(ctx, 0, view, PendingIntent.FLAG_UPDATE_CURRENT);
+
+		NotificationUtil.createChannels(ctx.getApplicationContext());
+
+		String desc = ctx.getResources().getQuantityString(R.plurals.expired_notification, count, count);
+		NotificationCompat.Builder builder = new NotificationCompat.Builder(ctx,
+				NotificationUtil.EXPIRY_CHANNEL_ID);
+		Notification notify = builder.setContentIntent(pending).setContentText(desc).setContentTitle(ctx.getString(R.string.app_name))
+				.setSmallIcon(R.drawable.notify).setTicker(desc).setWhen(System.currentTimeMillis()).setAutoCancel(true).build();
+
+		NotificationManager nm = (NotificationManager) ctx.getSystemService(Context.NOTIFICATION_SERVICE);
+		nm.notify(NOTIFY_EXPIRED, notify);
+	}
+}
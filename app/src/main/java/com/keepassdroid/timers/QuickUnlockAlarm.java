@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.timers;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import com.keepassdroid.intents.Intents;
+
+/** Alarm for the next remembered quick unlock key to expire, handled by {@link QuickUnlockReceiver} */
+public class QuickUnlockAlarm {
+	private static final int REQUEST_ID = 2;
+	private static final String TAG = "KeePass QuickUnlock";
+
+	private static PendingIntent buildIntent(Context ctx) {
+		Intent intent = new Intent(ctx, QuickUnlockReceiver.class);
+		intent.setAction(Intents.QUICK_UNLOCK_EXPIRY);
+
+		return PendingIntent.getBroadcast(ctx, REQUEST_ID, intent, PendingIntent.FLAG_CANCEL_CURRENT);
+	}
+
+	/** Go off at the elapsed realtime time, or when the device next wakes after it */
+	public static void schedule(Context ctx, long time) {
+		AlarmManager am = (AlarmManager) ctx.getSystemService(Context.ALARM_SERVICE);
+
+		Log.d(TAG, "Quick unlock alarm at " + time);
+		am.set(AlarmManager.ELAPSED_REALTIME, time, buildIntent(ctx));
+	}
+
+	public static void cancel(Context ctx) {
+		AlarmManager am = (AlarmManager) ctx.getSystemService(Context.ALARM_SERVICE);
+
+		Log.d(TAG, "Quick unlock alarm cancel");
+		am.cancel(buildIntent(ctx));
+	}
+}
@@ -28,6 +28,8 @@ import android.os.Build;
 public class NotificationUtil {
     public static final String COPY_CHANNEL_ID = "copy";
     public static final String COPY_CHANNEL_NAME = "Copy username and password";
+    public static final String EXPIRY_CHANNEL_ID = "expiry";
+    public static final String EXPIRY_CHANNEL_NAME = "Expired entries";
 
     public static void createChannels(Context ctx) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -44,6 +46,12 @@ public class NotificationUtil {
             if (manager == null) return;
 
             manager.createNotificationChannel(channel);
+
+            NotificationChannel expiry = new NotificationChannel(EXPIRY_CHANNEL_ID,
+                    EXPIRY_CHANNEL_NAME, NotificationManager.IMPORTANCE_DEFAULT);
+            expiry.setLockscreenVisibility(Notification.VISIBILITY_PRIVATE);
+
+            manager.createNotificationChannel(expiry);
         }
     }
 }
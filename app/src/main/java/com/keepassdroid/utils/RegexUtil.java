@@ -0,0 +1,244 @@
+/*
+ * Copyright 2018 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+public class RegexUtil {
+	private static final int PATTERN_CACHE_SIZE = 16;
+
+	// Most recently used patterns, a search compiles the same one for every handler
+	private static final Map<String, Pattern> patterns = new LinkedHashMap<String, Pattern>(PATTERN_CACHE_SIZE, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+			return size() > PATTERN_CACHE_SIZE;
+		}
+	};
+
+	private RegexUtil() {}
+
+	public static Pattern compile(String regex, boolean ignoreCase) throws PatternSyntaxException {
+		int flags = ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0;
+		String key = flags + ":" + regex;
+
+		synchronized (patterns) {
+			Pattern pattern = patterns.get(key);
+			if (pattern != null) {
+				return pattern;
+			}
+		}
+
+		Pattern pattern = Pattern.compile(regex, flags);
+		synchronized (patterns) {
+			patterns.put(key, pattern);
+		}
+
+		return pattern;
+	}
+
+	/** The longest run of plain characters every match of regex has to contain, so text
+	 *  without it can be skipped without running the regex.
+	 *
+	 * Only looks outside of groups, and gives up on top level alternatives, inline flags
+	 * and escapes it does not know.
+	 *
+	 * @return The literal, or null if none was found
+	 */
+	public static String requiredLiteral(String regex) {
+		String best = "";
+		StringBuilder run = new StringBuilder();
+		int depth = 0;
+
+		int i = 0;
+		while (i < regex.length()) {
+			char ch = regex.charAt(i);
+
+			switch (ch) {
+			case '\\':
+				if (i + 1 >= regex.length()) {
+					return null;
+				}
+
+				char next = regex.charAt(i + 1);
+				if (Character.isLetterOrDigit(next)) {
+					// Escapes followed by more characters, like \x41 or \p{L}
+					if ("xu0123456789pPckNQE".indexOf(next) >= 0) {
+						return null;
+					}
+
+					// Character classes and anchors like \d or \b
+					best = longer(best, run);
+				} else if (depth == 0) {
+					run.append(next);
+				}
+				i += 2;
+				break;
+
+			case '[':
+				best = longer(best, run);
+				i = skipClass(regex, i);
+				if (i < 0) {
+					return null;
+				}
+				break;
+
+			case '(':
+				if (hasInlineFlags(regex, i)) {
+					return null;
+				}
+				best = longer(best, run);
+				depth++;
+				i++;
+				break;
+
+			case ')':
+				best = longer(best, run);
+				depth--;
+				i++;
+				break;
+
+			case '|':
+				// Alternatives inside a group only concern the group
+				if (depth == 0) {
+					return null;
+				}
+				i++;
+				break;
+
+			case '?':
+			case '*':
+			case '{':
+				// The previous character is optional, unless at least one is required
+				boolean optional = ch != '{' || regex.startsWith("{0", i);
+				if (optional && run.length() > 0) {
+					run.setLength(run.length() - 1);
+				}
+				best = longer(best, run);
+
+				if (ch == '{') {
+					int end = regex.indexOf('}', i);
+					if (end < 0) {
+						return null;
+					}
+					i = end;
+				}
+				i = skipQuantifierMode(regex, i + 1);
+				break;
+
+			case '+':
+				best = longer(best, run);
+				i = skipQuantifierMode(regex, i + 1);
+				break;
+
+			case '.':
+			case '^':
+			case '$':
+				best = longer(best, run);
+				i++;
+				break;
+
+			default:
+				if (depth == 0) {
+					run.append(ch);
+				}
+				i++;
+				break;
+			}
+		}
+
+		best = longer(best, run);
+		return best.length() > 0 ? best : null;
+	}
+
+	/** The longer of best and the current run, which is emptied */
+	private static String longer(String best, StringBuilder run) {
+		if (run.length() > best.length()) {
+			best = run.toString();
+		}
+		run.setLength(0);
+
+		return best;
+	}
+
+	/** Index after the character class starting at start, or -1 if it is not closed */
+	private static int skipClass(String regex, int start) {
+		int depth = 0;
+		int i = start;
+		while (i < regex.length()) {
+			char ch = regex.charAt(i);
+			if (ch == '\\') {
+				i += 2;
+				continue;
+			}
+
+			if (ch == '[') {
+				depth++;
+				i++;
+
+				// A ']' right after the opening bracket is part of the class
+				if (i < regex.length() && regex.charAt(i) == '^') {
+					i++;
+				}
+				if (i < regex.length() && regex.charAt(i) == ']') {
+					i++;
+				}
+				continue;
+			}
+
+			if (ch == ']') {
+				depth--;
+				if (depth == 0) {
+					return i + 1;
+				}
+			}
+			i++;
+		}
+
+		return -1;
+	}
+
+	/** Whether the group at start is a flag change like (?i) that applies to the rest of
+	 *  the expression
+	 */
+	private static boolean hasInlineFlags(String regex, int start) {
+		if (!regex.startsWith("(?", start)) {
+			return false;
+		}
+
+		int i = start + 2;
+		while (i < regex.length() && (Character.isLetter(regex.charAt(i)) || regex.charAt(i) == '-')) {
+			i++;
+		}
+
+		return i < regex.length() && regex.charAt(i) == ')';
+	}
+
+	/** Skip the '?' or '+' making a quantifier lazy or possessive */
+	private static int skipQuantifierMode(String regex, int i) {
+		if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+			return i + 1;
+		}
+
+		return i;
+	}
+}
@@ -19,6 +19,7 @@
  */
 package com.keepassdroid.utils;
 
+import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
@@ -42,12 +43,12 @@ public class StrUtil {
 					list.add(sb.toString());
 					sb.delete(0, len);
 				}
-				else if (ch == '\"') { 
-					quoted = !quoted;
-				}
-				else {
-					sb.append(ch);
-				}
+			}
+			else if (ch == '\"') { 
+				quoted = !quoted;
+			}
+			else {
+				sb.append(ch);
 			}
 		}
 		
@@ -58,16 +59,67 @@ public class StrUtil {
 		return list;
 	}
 	
+	/** Compares in place, one character at a time, rather than lower casing copies of both
+	 *  strings on every call. Locales with their own case rules, such as the Turkish dotted
+	 *  and dotless i, still lower case copies with the locale.
+	 */
 	public static int indexOfIgnoreCase(String text, String search, int start, Locale locale) {
 		if (text == null || search == null) return -1;
+
+		if (hasSpecialCasing(locale)) {
+			return text.toLowerCase(locale).indexOf(search.toLowerCase(locale), start);
+		}
 		
-		return text.toLowerCase(locale).indexOf(search.toLowerCase(locale), start);
+		int last = text.length() - search.length();
+		for (int i = Math.max(start, 0); i <= last; i++) {
+			if (text.regionMatches(true, i, search, 0, search.length())) {
+				return i;
+			}
+		}
+		
+		return -1;
 	}
 	
 	public static int indexOfIgnoreCase(String text, String search, Locale locale) {
 		return indexOfIgnoreCase(text, search, 0, locale);
 	}
+
+	/** Whether the locale changes the case mappings used by String.toLowerCase(Locale) */
+	private static boolean hasSpecialCasing(Locale locale) {
+		String lang = locale.getLanguage();
+		return lang.equals("tr") || lang.equals("az") || lang.equals("lt");
+	}
 	
+	/** Lower case text for a case insensitive search, optionally removing accents too */
+	public static String normalizeForSearch(String text, Locale locale, boolean foldAccents) {
+		if (text == null) { return ""; }
+
+		String lower = text.toLowerCase(locale);
+		return foldAccents ? foldAccents(lower) : lower;
+	}
+
+	/** Remove accents and other combining marks, so that accented letters match plain ones */
+	public static String foldAccents(String text) {
+		int i = 0;
+		while (i < text.length() && text.charAt(i) < 0x80) {
+			i++;
+		}
+		if (i == text.length()) {
+			return text;
+		}
+
+		String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+		StringBuilder sb = new StringBuilder(decomposed.length());
+		for (int j = 0; j < decomposed.length(); j++) {
+			char ch = decomposed.charAt(j);
+			if (Character.getType(ch) != Character.NON_SPACING_MARK) {
+				sb.append(ch);
+			}
+		}
+
+		return sb.toString();
+	}
+
 	public static String replaceAllIgnoresCase(String text, String find, String newText, Locale locale) {
 		if (text == null || find == null || newText == null) { return text; }
 		
@@ -18,9 +18,12 @@
  *
  */
 
+#include <stdarg.h>
 #include <stdio.h>
 #include <stdlib.h>
+#include <string.h>
 #include <jni.h>
+#include <cpu-features.h>
 
 #include "argon2.h"
 #include "core.h"
@@ -28,6 +31,83 @@
 static JavaVM *cached_vm;
 static jclass bad_arg, io, no_mem;
 
+/*
+ * Block filling is compiled once per instruction set, with the entry points renamed
+ * by CMakeLists.txt. core.c calls fill_segment, which forwards to the fastest variant
+ * the CPU supports.
+ */
+typedef void (*fill_segment_fn)(const argon2_instance_t *instance,
+                                argon2_position_t position);
+
+void argon2_fill_segment_ref(const argon2_instance_t *instance,
+                             argon2_position_t position);
+#ifdef ARGON2_FILL_SSSE3
+void argon2_fill_segment_ssse3(const argon2_instance_t *instance,
+                               argon2_position_t position);
+#endif
+#ifdef ARGON2_FILL_NEON
+void argon2_fill_segment_neon(const argon2_instance_t *instance,
+                              argon2_position_t position);
+#endif
+
+static int cpu_any(void) {
+    return 1;
+}
+
+#ifdef ARGON2_FILL_SSSE3
+static int cpu_ssse3(void) {
+    AndroidCpuFamily family = android_getCpuFamily();
+    return (family == ANDROID_CPU_FAMILY_X86 || family == ANDROID_CPU_FAMILY_X86_64) &&
+           (android_getCpuFeatures() & ANDROID_CPU_X86_FEATURE_SSSE3);
+}
+#endif
+
+#ifdef ARGON2_FILL_NEON
+static int cpu_neon(void) {
+    AndroidCpuFamily family = android_getCpuFamily();
+    if (family == ANDROID_CPU_FAMILY_ARM64) {
+        return 1;
+    }
+    return family == ANDROID_CPU_FAMILY_ARM &&
+           (android_getCpuFeatures() & ANDROID_CPU_ARM_FEATURE_NEON);
+}
+#endif
+
+struct fill_impl {
+    const char *name;
+    fill_segment_fn fill;
+    int (*supported)(void);
+};
+
+/* Fastest first */
+static const struct fill_impl fill_impls[] = {
+#ifdef ARGON2_FILL_SSSE3
+    { "ssse3", argon2_fill_segment_ssse3, cpu_ssse3 },
+#endif
+#ifdef ARGON2_FILL_NEON
+    { "neon", argon2_fill_segment_neon, cpu_neon },
+#endif
+    { "ref", argon2_fill_segment_ref, cpu_any }
+};
+
+#define FILL_IMPL_COUNT (sizeof(fill_impls) / sizeof(fill_impls[0]))
+
+static fill_segment_fn selected_fill = argon2_fill_segment_ref;
+
+static fill_segment_fn best_fill(void) {
+    size_t i;
+    for (i = 0; i < FILL_IMPL_COUNT; i++) {
+        if (fill_impls[i].supported()) {
+            return fill_impls[i].fill;
+        }
+    }
+    return argon2_fill_segment_ref;
+}
+
+void fill_segment(const argon2_instance_t *instance, argon2_position_t position) {
+    selected_fill(instance, position);
+}
+
 JNIEXPORT jint JNICALL JNI_OnLoad( JavaVM *vm, void *reserved ) {
     JNIEnv *env;
     jclass cls;
@@ -75,6 +155,8 @@ JNIEXPORT jint JNICALL JNI_OnLoad( JavaVM *vm, void *reserved ) {
     aes_init();
     */
 
+    selected_fill = best_fill();
+
     return JNI_VERSION_1_6;
 }
 
@@ -119,7 +201,7 @@ void throwExceptionF(JNIEnv *env, jclass exception, const char *format, ...) {
 
     va_list args;
     va_start(args, format);
-    snprintf(message, 512, format, args);
+    vsnprintf(message, 512, format, args);
     va_end(args);
 
     (*env)->ThrowNew(env, exception, message);
@@ -130,12 +212,17 @@ void throwExceptionF(JNIEnv *env, jclass exception, const char *format, ...) {
 
 JNIEXPORT jbyteArray
 JNICALL Java_com_keepassdroid_crypto_keyDerivation_Argon2Native_nTransformMasterKey(JNIEnv *env,
-   jobject this, jbyteArray password, jbyteArray salt, jint parallelism, jlong memory,
+   jobject this, jint type, jbyteArray password, jbyteArray salt, jint parallelism, jlong memory,
    jlong iterations, jbyteArray secretKey, jbyteArray associatedData, jlong version) {
 
     argon2_context context;
     uint8_t *out;
 
+    if (type != Argon2_d && type != Argon2_i && type != Argon2_id) {
+        throwExceptionF(env, bad_arg, "Unknown Argon2 type=%d", type);
+        return NULL;
+    }
+
     out = (uint8_t *) malloc(ARGON2_HASHLEN);
     if (out == NULL) {
         throwExceptionF(env, no_mem, "Not enough memory for output hash array");
@@ -170,7 +257,7 @@ JNICALL Java_com_keepassdroid_crypto_keyDerivation_Argon2Native_nTransformMaster
     context.flags = ARGON2_DEFAULT_FLAGS;
     context.version = (uint32_t) version;
 
-    int argonResult = argon2_ctx(&context, Argon2_d);
+    int argonResult = argon2_ctx(&context, (argon2_type) type);
 
     jbyteArray result;
     if (argonResult != ARGON2_OK) {
@@ -191,3 +278,69 @@ JNICALL Java_com_keepassdroid_crypto_keyDerivation_Argon2Native_nTransformMaster
 
     return result;
 }
+
+JNIEXPORT jobjectArray
+JNICALL Java_com_keepassdroid_crypto_keyDerivation_Argon2Native_nImplementations(JNIEnv *env,
+   jclass cls) {
+    jclass stringClass;
+    jobjectArray result;
+    jsize count = 0;
+    size_t i;
+
+    for (i = 0; i < FILL_IMPL_COUNT; i++) {
+        if (fill_impls[i].supported()) {
+            count++;
+        }
+    }
+
+    stringClass = (*env)->FindClass(env, "java/lang/String");
+    if (stringClass == NULL) {
+        return NULL;
+    }
+
+    result = (*env)->NewObjectArray(env, count, stringClass, NULL);
+    if (result == NULL) {
+        return NULL;
+    }
+
+    count = 0;
+    for (i = 0; i < FILL_IMPL_COUNT; i++) {
+        if (fill_impls[i].supported()) {
+            jstring name = (*env)->NewStringUTF(env, fill_impls[i].name);
+            (*env)->SetObjectArrayElement(env, result, count++, name);
+            (*env)->DeleteLocalRef(env, name);
+        }
+    }
+
+    return result;
+}
+
+JNIEXPORT jboolean
+JNICALL Java_com_keepassdroid_crypto_keyDerivation_Argon2Native_nSelectImplementation(JNIEnv *env,
+   jclass cls, jstring name) {
+    const char *nameChars;
+    jboolean found = JNI_FALSE;
+    size_t i;
+
+    if (name == NULL) {
+        selected_fill = best_fill();
+        return JNI_TRUE;
+    }
+
+    nameChars = (*env)->GetStringUTFChars(env, name, NULL);
+    if (nameChars == NULL) {
+        return JNI_FALSE;
+    }
+
+    for (i = 0; i < FILL_IMPL_COUNT; i++) {
+        if (strcmp(fill_impls[i].name, nameChars) == 0 && fill_impls[i].supported()) {
+            selected_fill = fill_impls[i].fill;
+            found = JNI_TRUE;
+            break;
+        }
+    }
+
+    (*env)->ReleaseStringUTFChars(env, name, nameChars);
+
+    return found;
+}
@@ -0,0 +1,179 @@
+/*
+  ChaCha20 stream cipher as specified in RFC 7539.
+  Copyright (C) 2018 Brian Pellin
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+#include <string.h>
+
+#include "chacha20.h"
+
+#define ROTL32(v, n) (((v) << (n)) | ((v) >> (32 - (n))))
+
+#define QUARTERROUND(a, b, c, d) \
+  a += b; d ^= a; d = ROTL32(d, 16); \
+  c += d; b ^= c; b = ROTL32(b, 12); \
+  a += b; d ^= a; d = ROTL32(d, 8); \
+  c += d; b ^= c; b = ROTL32(b, 7);
+
+#define DOUBLEROUND(x) \
+  QUARTERROUND(x[0], x[4], x[8], x[12]) \
+  QUARTERROUND(x[1], x[5], x[9], x[13]) \
+  QUARTERROUND(x[2], x[6], x[10], x[14]) \
+  QUARTERROUND(x[3], x[7], x[11], x[15]) \
+  QUARTERROUND(x[0], x[5], x[10], x[15]) \
+  QUARTERROUND(x[1], x[6], x[11], x[12]) \
+  QUARTERROUND(x[2], x[7], x[8], x[13]) \
+  QUARTERROUND(x[3], x[4], x[9], x[14])
+
+static uint32_t load32_le(const uint8_t *p) {
+  return (uint32_t)p[0] | ((uint32_t)p[1] << 8) | ((uint32_t)p[2] << 16) | ((uint32_t)p[3] << 24);
+}
+
+static void store32_le(uint8_t *p, uint32_t v) {
+  p[0] = (uint8_t)v;
+  p[1] = (uint8_t)(v >> 8);
+  p[2] = (uint8_t)(v >> 16);
+  p[3] = (uint8_t)(v >> 24);
+}
+
+/* One block of keystream for the current counter, which is then advanced */
+static void chacha20_block(uint32_t *input, uint8_t *out) {
+  uint32_t x[16];
+  int i;
+
+  memcpy(x, input, sizeof(x));
+  for (i = 0; i < 10; i++) {
+    DOUBLEROUND(x)
+  }
+  for (i = 0; i < 16; i++) {
+    store32_le(out + 4 * i, x[i] + input[i]);
+  }
+
+  input[12]++;
+}
+
+#if defined(__SSE2__) || defined(__ARM_NEON) || defined(__ARM_NEON__)
+#define CHACHA20_SIMD 1
+
+/*
+  Four blocks at once with 128 bit vectors, one block per lane. The compiler
+  turns the vector extension into SSE2 or NEON, the counters are the only
+  words that differ between the lanes.
+*/
+typedef uint32_t vec4 __attribute__ ((vector_size (16)));
+
+static void chacha20_xor_blocks4(uint32_t *input, const uint8_t *in, uint8_t *out) {
+  vec4 x[16], orig[16];
+  int i, lane;
+
+  for (i = 0; i < 16; i++) {
+    vec4 v = { input[i], input[i], input[i], input[i] };
+    orig[i] = v;
+  }
+  {
+    vec4 counters = { input[12], input[12] + 1, input[12] + 2, input[12] + 3 };
+    orig[12] = counters;
+  }
+  memcpy(x, orig, sizeof(x));
+
+  for (i = 0; i < 10; i++) {
+    DOUBLEROUND(x)
+  }
+
+  for (i = 0; i < 16; i++) {
+    x[i] += orig[i];
+  }
+  for (lane = 0; lane < 4; lane++) {
+    for (i = 0; i < 16; i++) {
+      size_t offset = CHACHA20_BLOCK_SIZE * lane + 4 * i;
+      store32_le(out + offset, load32_le(in + offset) ^ x[i][lane]);
+    }
+  }
+
+  input[12] += 4;
+}
+#endif
+
+void chacha20_init(chacha20_ctx *ctx, const uint8_t *key, const uint8_t *nonce, uint32_t counter) {
+  int i;
+
+  /* "expand 32-byte k" */
+  ctx->input[0] = 0x61707865;
+  ctx->input[1] = 0x3320646e;
+  ctx->input[2] = 0x79622d32;
+  ctx->input[3] = 0x6b206574;
+  for (i = 0; i < 8; i++) {
+    ctx->input[4 + i] = load32_le(key + 4 * i);
+  }
+  ctx->input[12] = counter;
+  for (i = 0; i < 3; i++) {
+    ctx->input[13 + i] = load32_le(nonce + 4 * i);
+  }
+
+  memset(ctx->keystream, 0, sizeof(ctx->keystream));
+  ctx->position = CHACHA20_BLOCK_SIZE;
+}
+
+static void xor_bytes(const uint8_t *in, const uint8_t *ks, uint8_t *out, size_t len) {
+  size_t i;
+  for (i = 0; i < len; i++) {
+    out[i] = in[i] ^ ks[i];
+  }
+}
+
+void chacha20_xor(chacha20_ctx *ctx, const uint8_t *in, uint8_t *out, size_t len) {
+  uint8_t *keystream = (uint8_t *)ctx->keystream;
+  size_t n;
+
+  /* use up what is left of the last block */
+  if (ctx->position < CHACHA20_BLOCK_SIZE) {
+    n = CHACHA20_BLOCK_SIZE - ctx->position;
+    if (n > len)
+      n = len;
+    xor_bytes(in, keystream + ctx->position, out, n);
+    ctx->position += n;
+    in += n;
+    out += n;
+    len -= n;
+    if (len == 0)
+      return;
+  }
+
+#if defined(CHACHA20_SIMD)
+  while (len >= 4 * CHACHA20_BLOCK_SIZE) {
+    chacha20_xor_blocks4(ctx->input, in, out);
+    in += 4 * CHACHA20_BLOCK_SIZE;
+    out += 4 * CHACHA20_BLOCK_SIZE;
+    len -= 4 * CHACHA20_BLOCK_SIZE;
+  }
+#endif
+
+  while (len >= CHACHA20_BLOCK_SIZE) {
+    chacha20_block(ctx->input, keystream);
+    xor_bytes(in, keystream, out, CHACHA20_BLOCK_SIZE);
+    in += CHACHA20_BLOCK_SIZE;
+    out += CHACHA20_BLOCK_SIZE;
+    len -= CHACHA20_BLOCK_SIZE;
+  }
+  ctx->position = CHACHA20_BLOCK_SIZE;
+
+  /* keep the rest of the keystream for the next call */
+  if (len > 0) {
+    chacha20_block(ctx->input, keystream);
+    xor_bytes(in, keystream, out, len);
+    ctx->position = len;
+  }
+}
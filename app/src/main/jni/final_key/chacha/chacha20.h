@@ -0,0 +1,47 @@
+/*
+  ChaCha20 stream cipher as specified in RFC 7539.
+  Copyright (C) 2018 Brian Pellin
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+#ifndef CHACHA20_H
+#define CHACHA20_H
+
+#include <inttypes.h>
+#include <stddef.h>
+
+#define CHACHA20_KEY_SIZE 32
+#define CHACHA20_NONCE_SIZE 12
+#define CHACHA20_BLOCK_SIZE 64
+
+/*
+  The whole cipher state is plain 32 bit words, so the caller can keep it in
+  any int array: the input block, then the unused keystream of the current
+  block and the read position in it.
+*/
+typedef struct _chacha20_ctx {
+  uint32_t input[16];
+  uint32_t keystream[16];
+  uint32_t position;
+} chacha20_ctx;
+
+#define CHACHA20_CTX_WORDS (sizeof(chacha20_ctx) / sizeof(uint32_t))
+
+void chacha20_init(chacha20_ctx *ctx, const uint8_t *key, const uint8_t *nonce, uint32_t counter);
+
+/* Encrypts or decrypts len bytes, in and out may be the same buffer */
+void chacha20_xor(chacha20_ctx *ctx, const uint8_t *in, uint8_t *out, size_t len);
+
+#endif
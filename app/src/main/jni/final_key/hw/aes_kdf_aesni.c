@@ -0,0 +1,57 @@
+/*
+  AES-KDF round loop using the x86 AES-NI instructions.
+  Copyright (C) 2018 Brian Pellin
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+#include <wmmintrin.h>
+
+#include "aes_kdf_hw.h"
+
+void aes_kdf_rounds_aesni(const uint8_t *round_keys, uint8_t *block, uint64_t rounds) {
+  const __m128i *rk = (const __m128i *)round_keys;
+  __m128i k0 = _mm_loadu_si128(rk + 0), k1 = _mm_loadu_si128(rk + 1);
+  __m128i k2 = _mm_loadu_si128(rk + 2), k3 = _mm_loadu_si128(rk + 3);
+  __m128i k4 = _mm_loadu_si128(rk + 4), k5 = _mm_loadu_si128(rk + 5);
+  __m128i k6 = _mm_loadu_si128(rk + 6), k7 = _mm_loadu_si128(rk + 7);
+  __m128i k8 = _mm_loadu_si128(rk + 8), k9 = _mm_loadu_si128(rk + 9);
+  __m128i k10 = _mm_loadu_si128(rk + 10), k11 = _mm_loadu_si128(rk + 11);
+  __m128i k12 = _mm_loadu_si128(rk + 12), k13 = _mm_loadu_si128(rk + 13);
+  __m128i k14 = _mm_loadu_si128(rk + 14);
+  __m128i s = _mm_loadu_si128((const __m128i *)block);
+  uint64_t i;
+
+  // every round depends on the previous one, so all that can be done is to keep
+  // the state and the whole key schedule in registers
+  for (i = 0; i < rounds; i++) {
+    s = _mm_xor_si128(s, k0);
+    s = _mm_aesenc_si128(s, k1);
+    s = _mm_aesenc_si128(s, k2);
+    s = _mm_aesenc_si128(s, k3);
+    s = _mm_aesenc_si128(s, k4);
+    s = _mm_aesenc_si128(s, k5);
+    s = _mm_aesenc_si128(s, k6);
+    s = _mm_aesenc_si128(s, k7);
+    s = _mm_aesenc_si128(s, k8);
+    s = _mm_aesenc_si128(s, k9);
+    s = _mm_aesenc_si128(s, k10);
+    s = _mm_aesenc_si128(s, k11);
+    s = _mm_aesenc_si128(s, k12);
+    s = _mm_aesenc_si128(s, k13);
+    s = _mm_aesenclast_si128(s, k14);
+  }
+
+  _mm_storeu_si128((__m128i *)block, s);
+}
@@ -0,0 +1,56 @@
+/*
+  AES-KDF round loop using the ARMv8 Cryptography Extensions.
+  Copyright (C) 2018 Brian Pellin
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+#include <arm_neon.h>
+
+#include "aes_kdf_hw.h"
+
+void aes_kdf_rounds_armv8(const uint8_t *round_keys, uint8_t *block, uint64_t rounds) {
+  uint8x16_t k0 = vld1q_u8(round_keys), k1 = vld1q_u8(round_keys + 16);
+  uint8x16_t k2 = vld1q_u8(round_keys + 32), k3 = vld1q_u8(round_keys + 48);
+  uint8x16_t k4 = vld1q_u8(round_keys + 64), k5 = vld1q_u8(round_keys + 80);
+  uint8x16_t k6 = vld1q_u8(round_keys + 96), k7 = vld1q_u8(round_keys + 112);
+  uint8x16_t k8 = vld1q_u8(round_keys + 128), k9 = vld1q_u8(round_keys + 144);
+  uint8x16_t k10 = vld1q_u8(round_keys + 160), k11 = vld1q_u8(round_keys + 176);
+  uint8x16_t k12 = vld1q_u8(round_keys + 192), k13 = vld1q_u8(round_keys + 208);
+  uint8x16_t k14 = vld1q_u8(round_keys + 224);
+  uint8x16_t s = vld1q_u8(block);
+  uint64_t i;
+
+  // AESE adds the round key before substituting, so the last round key is
+  // added on its own after the final AESE, which has no MixColumns
+  for (i = 0; i < rounds; i++) {
+    s = vaesmcq_u8(vaeseq_u8(s, k0));
+    s = vaesmcq_u8(vaeseq_u8(s, k1));
+    s = vaesmcq_u8(vaeseq_u8(s, k2));
+    s = vaesmcq_u8(vaeseq_u8(s, k3));
+    s = vaesmcq_u8(vaeseq_u8(s, k4));
+    s = vaesmcq_u8(vaeseq_u8(s, k5));
+    s = vaesmcq_u8(vaeseq_u8(s, k6));
+    s = vaesmcq_u8(vaeseq_u8(s, k7));
+    s = vaesmcq_u8(vaeseq_u8(s, k8));
+    s = vaesmcq_u8(vaeseq_u8(s, k9));
+    s = vaesmcq_u8(vaeseq_u8(s, k10));
+    s = vaesmcq_u8(vaeseq_u8(s, k11));
+    s = vaesmcq_u8(vaeseq_u8(s, k12));
+    s = vaeseq_u8(s, k13);
+    s = veorq_u8(s, k14);
+  }
+
+  vst1q_u8(block, s);
+}
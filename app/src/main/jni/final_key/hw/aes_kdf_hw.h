@@ -0,0 +1,40 @@
+/*
+  AES-KDF round loops using the AES instructions of the CPU.
+  Copyright (C) 2018 Brian Pellin
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+#ifndef AES_KDF_HW_H
+#define AES_KDF_HW_H
+
+#include <inttypes.h>
+
+/*
+  Each loop encrypts one 16 byte block in place "rounds" times with AES-256.
+
+  The round keys are the 15 * 16 bytes of an expanded encryption key, as laid
+  out in memory by aes_encrypt_key256 on a little endian CPU. The key schedule
+  only runs once per transformation, so it is left to the portable code.
+
+  Every loop is compiled with its own instruction set flags, so it may only be
+  called after checking the CPU at runtime.
+*/
+
+#define AES_KDF_ROUND_KEYS 15
+
+void aes_kdf_rounds_aesni(const uint8_t *round_keys, uint8_t *block, uint64_t rounds);
+void aes_kdf_rounds_armv8(const uint8_t *round_keys, uint8_t *block, uint64_t rounds);
+
+#endif
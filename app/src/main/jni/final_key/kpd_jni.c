@@ -35,8 +35,14 @@
 #include <android/log.h>
 #endif
 
+#include <cpu-features.h>
+
 #include "aes.h"
 #include "sha2.h"
+#include "hw/aes_kdf_hw.h"
+#include "chacha/chacha20.h"
+#include "salsa/salsa20.h"
+#include "twofish/twofish.h"
 
 static JavaVM *cached_vm;
 static jclass bad_arg, no_mem, bad_padding, short_buf, block_size;
@@ -62,6 +68,76 @@ typedef struct _aes_state {
 #define ALIGN_EXTRA 15
 #define ALIGN16(x) (void *)(((uintptr_t)(x)+ALIGN_EXTRA) & ~ 0x0F)
 
+typedef void (*kdf_rounds_fn)(const uint8_t *round_keys, uint8_t *block, uint64_t rounds);
+
+static void kdf_rounds_gladman(const uint8_t *round_keys, uint8_t *block, uint64_t rounds) {
+  const aes_encrypt_ctx *e_ctx = (const aes_encrypt_ctx *)round_keys;
+  uint8_t tmp[AES_BLOCK_SIZE] __attribute__ ((aligned (16)));
+  uint64_t i;
+
+  for (i = 0; i + 1 < rounds; i += 2) {
+    aes_encrypt(block, tmp, e_ctx);
+    aes_encrypt(tmp, block, e_ctx);
+  }
+  if( i < rounds ) {
+    aes_encrypt(block, tmp, e_ctx);
+    memcpy(block, tmp, AES_BLOCK_SIZE);
+  }
+}
+
+static int cpu_any(void) {
+  return 1;
+}
+
+#if defined(KPD_AES_AESNI)
+static int cpu_aesni(void) {
+  AndroidCpuFamily family = android_getCpuFamily();
+  return (family == ANDROID_CPU_FAMILY_X86 || family == ANDROID_CPU_FAMILY_X86_64) &&
+         (android_getCpuFeatures() & ANDROID_CPU_X86_FEATURE_AES);
+}
+#endif
+
+#if defined(KPD_AES_ARMV8)
+static int cpu_armv8(void) {
+  AndroidCpuFamily family = android_getCpuFamily();
+  if( family == ANDROID_CPU_FAMILY_ARM64 )
+    return (android_getCpuFeatures() & ANDROID_CPU_ARM64_FEATURE_AES) != 0;
+  return family == ANDROID_CPU_FAMILY_ARM &&
+         (android_getCpuFeatures() & ANDROID_CPU_ARM_FEATURE_AES);
+}
+#endif
+
+struct rounds_impl {
+  const char *name;
+  kdf_rounds_fn rounds;
+  int (*supported)(void);
+};
+
+// Fastest first. The hardware loops take the round keys straight from the
+// Gladman context, see aes_kdf_hw.h.
+static const struct rounds_impl rounds_impls[] = {
+#if defined(KPD_AES_AESNI)
+  { "aesni", aes_kdf_rounds_aesni, cpu_aesni },
+#endif
+#if defined(KPD_AES_ARMV8)
+  { "armv8", aes_kdf_rounds_armv8, cpu_armv8 },
+#endif
+  { "gladman", kdf_rounds_gladman, cpu_any }
+};
+
+#define ROUNDS_IMPL_COUNT (sizeof(rounds_impls) / sizeof(rounds_impls[0]))
+
+static const struct rounds_impl *selected_rounds = &rounds_impls[ROUNDS_IMPL_COUNT - 1];
+
+static const struct rounds_impl *best_rounds(void) {
+  size_t i;
+  for (i = 0; i < ROUNDS_IMPL_COUNT; i++) {
+    if( rounds_impls[i].supported() )
+      return &rounds_impls[i];
+  }
+  return &rounds_impls[ROUNDS_IMPL_COUNT - 1];
+}
+
 JNIEXPORT jint JNICALL JNI_OnLoad( JavaVM *vm, void *reserved ) {
   JNIEnv *env;
   jclass cls;
@@ -101,6 +177,8 @@ JNIEXPORT jint JNICALL JNI_OnLoad( JavaVM *vm, void *reserved ) {
 
   aes_init();
 
+  selected_rounds = best_rounds();
+
   return JNI_VERSION_1_6;
 }
 
@@ -118,22 +196,38 @@ JNIEXPORT void JNICALL JNI_OnUnload( JavaVM *vm, void *reserved ) {
   return;
 }
 
-JNIEXPORT jlong JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nInit(JNIEnv *env, jobject this, jboolean encrypting, jbyteArray key, jbyteArray iv) {
+JNIEXPORT jlong JNICALL Java_com_keepassdroid_crypto_NativeAESContextPool_nAlloc(JNIEnv *env, jclass cls) {
+  aes_state *state = (aes_state *)malloc(sizeof(aes_state));
+  if( state == NULL ) {
+    (*env)->ThrowNew(env, no_mem, "Cannot allocate memory for the encryption state");
+    return 0;
+  }
+  memset(state, 0, sizeof(aes_state));
+
+  return (jlong)state;
+}
+
+// Wipes the key schedule before the context goes back to the pool
+JNIEXPORT void JNICALL Java_com_keepassdroid_crypto_NativeAESContextPool_nClear(JNIEnv *env, jclass cls, jlong state) {
+  memset((void *)state, 0, sizeof(aes_state));
+}
+
+JNIEXPORT void JNICALL Java_com_keepassdroid_crypto_NativeAESContextPool_nFree(JNIEnv *env, jclass cls, jlong state) {
+  memset((void *)state, 0, sizeof(aes_state));
+  free((void *)state);
+}
+
+JNIEXPORT void JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nInit(JNIEnv *env, jobject this, jlong ctxPtr, jboolean encrypting, jbyteArray key, jbyteArray iv) {
   uint8_t ckey[32];
-  aes_state *state;
+  aes_state *state = (aes_state *)ctxPtr;
   jint key_len = (*env)->GetArrayLength(env, key);
   jint iv_len = (*env)->GetArrayLength(env, iv);
 
   if( ! ( key_len == 16 || key_len == 24 || key_len == 32 ) || iv_len != 16 ) {
     (*env)->ThrowNew(env, bad_arg, "Invalid length of key or iv");
-    return -1;
+    return;
   }
 
-  state = (aes_state *)malloc(sizeof(aes_state));
-  if( state == NULL ) {
-    (*env)->ThrowNew(env, no_mem, "Cannot allocate memory for the encryption state");
-    return -1;
-  }
   memset(state, 0, sizeof(aes_state));
 
   (*env)->GetByteArrayRegion(env, key, (jint)0, key_len, (jbyte *)ckey);
@@ -147,11 +241,7 @@ JNIEXPORT jlong JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nInit(JN
     aes_decrypt_key(ckey, key_len, DEC_CTX(state));
   }
 
-  return (jlong)state;
-}
-
-JNIEXPORT void JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nCleanup(JNIEnv *env, jclass this, jlong state) {
-  free((void *)state);
+  memset(ckey, 0, sizeof(ckey));
 }
 
 /*
@@ -376,6 +466,7 @@ JNIEXPORT jint JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nGetCache
 
 typedef struct _master_key {
   uint64_t rounds;
+  kdf_rounds_fn transform;
   uint32_t done[2];
   pthread_mutex_t lock1, lock2; // these lock the two halves of the key material
   uint8_t c_seed[MASTER_KEY_SIZE] __attribute__ ((aligned (16)));
@@ -388,17 +479,14 @@ void *generate_key_material(void *arg) {
   #if defined(KPD_PROFILE)
   struct timespec start, end;
   #endif
-  uint32_t i, flip = 0;
-  uint8_t *key1, *key2;
+  uint8_t *key1;
   master_key *mk = (master_key *)arg;
   aes_encrypt_ctx e_ctx[1] __attribute__ ((aligned (16)));
 
   if( mk->done[0] == 0 && pthread_mutex_trylock(&mk->lock1) == 0 ) {
     key1 = mk->key1;
-    key2 = mk->key2;
   } else if( mk->done[1] == 0 && pthread_mutex_trylock(&mk->lock2) == 0 ) {
     key1 = mk->key1 + (MASTER_KEY_SIZE/2);
-    key2 = mk->key2 + (MASTER_KEY_SIZE/2);
   } else {
     // this can only be scaled to two threads
     pthread_exit( (void *)(-1) );
@@ -408,16 +496,10 @@ void *generate_key_material(void *arg) {
   clock_gettime(CLOCK_THREAD_CPUTIME_ID, &start);
   #endif
 
+  // the round loops transform the half in place, so the result is always in key1
   aes_encrypt_key256(mk->c_seed, e_ctx);
-  for (i = 0; i < mk->rounds; i++) {
-    if ( flip ) {
-      aes_encrypt(key2, key1, e_ctx);
-      flip = 0;
-    } else {
-      aes_encrypt(key1, key2, e_ctx);
-      flip = 1;
-    }
-  }
+  mk->transform((const uint8_t *)e_ctx->ks, key1, mk->rounds);
+  memset(e_ctx, 0, sizeof(e_ctx));
 
   #if defined(KPD_PROFILE)
   clock_gettime(CLOCK_THREAD_CPUTIME_ID, &end);
@@ -435,12 +517,11 @@ void *generate_key_material(void *arg) {
     pthread_mutex_unlock(&mk->lock2);
   }
 
-  return (void *)flip;
+  return (void *)0;
 }
 
 JNIEXPORT jbyteArray JNICALL Java_com_keepassdroid_crypto_finalkey_NativeFinalKey_nTransformMasterKey(JNIEnv *env, jobject this, jbyteArray seed, jbyteArray key, jlong rounds) {
   master_key mk;
-  uint32_t flip;
   pthread_t t1, t2;
   int iret;
   void *vret1, *vret2;
@@ -461,6 +542,7 @@ JNIEXPORT jbyteArray JNICALL Java_com_keepassdroid_crypto_finalkey_NativeFinalKe
     return NULL;
   }
   mk.rounds = (uint64_t)rounds;
+  mk.transform = selected_rounds->rounds;
   mk.done[0] = mk.done[1] = 0;
   if( pthread_mutex_init(&mk.lock1, NULL) != 0 ) {
     (*env)->ThrowNew(env, bad_arg, "TransformMasterKey: failed to initialize the mutex for thread 1"); // FIXME: get a better exception class for this...
@@ -494,33 +576,247 @@ JNIEXPORT jbyteArray JNICALL Java_com_keepassdroid_crypto_finalkey_NativeFinalKe
     (*env)->ThrowNew(env, bad_arg, "TransformMasterKey: failed to join thread 2"); // FIXME: get a better exception class for this...
     return NULL;
   }
-  if( vret1 == (void *)(-1) || vret2 == (void *)(-1) || vret1 != vret2 ) {
-    (*env)->ThrowNew(env, bad_arg, "TransformMasterKey: invalid flip value(s) from completed thread(s)"); // FIXME: get a better exception class for this...
+  if( vret1 == (void *)(-1) || vret2 == (void *)(-1) ) {
+    (*env)->ThrowNew(env, bad_arg, "TransformMasterKey: invalid return value(s) from completed thread(s)"); // FIXME: get a better exception class for this...
     return NULL;
-  } else {
-    flip = (uint32_t)vret1;
   }
 
   // step 3: final SHA256 hash
   sha256_begin(h_ctx);
-  if( flip ) {
-    sha256_hash(mk.key2, MASTER_KEY_SIZE, h_ctx);
-    sha256_end(mk.key1, h_ctx);
-    flip = 0;
-  } else {
-    sha256_hash(mk.key1, MASTER_KEY_SIZE, h_ctx);
-    sha256_end(mk.key2, h_ctx);
-    flip = 1;
-  }
+  sha256_hash(mk.key1, MASTER_KEY_SIZE, h_ctx);
+  sha256_end(mk.key2, h_ctx);
 
   // step 4: send the hash into the JVM
   result = (*env)->NewByteArray(env, MASTER_KEY_SIZE);
-  if( flip )
-    (*env)->SetByteArrayRegion(env, result, 0, MASTER_KEY_SIZE, (jbyte *)mk.key2);
-  else
-    (*env)->SetByteArrayRegion(env, result, 0, MASTER_KEY_SIZE, (jbyte *)mk.key1);
+  (*env)->SetByteArrayRegion(env, result, 0, MASTER_KEY_SIZE, (jbyte *)mk.key2);
+
+  memset(&mk, 0, sizeof(mk));
+
+  return result;
+}
+
+JNIEXPORT jobjectArray JNICALL Java_com_keepassdroid_crypto_finalkey_NativeFinalKey_nImplementations(JNIEnv *env, jclass cls) {
+  jclass stringClass;
+  jobjectArray result;
+  jsize count = 0;
+  size_t i;
+
+  for (i = 0; i < ROUNDS_IMPL_COUNT; i++) {
+    if( rounds_impls[i].supported() )
+      count++;
+  }
+
+  stringClass = (*env)->FindClass(env, "java/lang/String");
+  if( stringClass == NULL )
+    return NULL;
+
+  result = (*env)->NewObjectArray(env, count, stringClass, NULL);
+  if( result == NULL )
+    return NULL;
+
+  count = 0;
+  for (i = 0; i < ROUNDS_IMPL_COUNT; i++) {
+    if( rounds_impls[i].supported() ) {
+      jstring name = (*env)->NewStringUTF(env, rounds_impls[i].name);
+      (*env)->SetObjectArrayElement(env, result, count++, name);
+      (*env)->DeleteLocalRef(env, name);
+    }
+  }
 
   return result;
 }
+
+JNIEXPORT jstring JNICALL Java_com_keepassdroid_crypto_finalkey_NativeFinalKey_nSelectedImplementation(JNIEnv *env, jclass cls) {
+  return (*env)->NewStringUTF(env, selected_rounds->name);
+}
+
+JNIEXPORT jboolean JNICALL Java_com_keepassdroid_crypto_finalkey_NativeFinalKey_nSelectImplementation(JNIEnv *env, jclass cls, jstring name) {
+  const char *nameChars;
+  jboolean found = JNI_FALSE;
+  size_t i;
+
+  if( name == NULL ) {
+    selected_rounds = best_rounds();
+    return JNI_TRUE;
+  }
+
+  nameChars = (*env)->GetStringUTFChars(env, name, NULL);
+  if( nameChars == NULL )
+    return JNI_FALSE;
+
+  for (i = 0; i < ROUNDS_IMPL_COUNT; i++) {
+    if( strcmp(rounds_impls[i].name, nameChars) == 0 && rounds_impls[i].supported() ) {
+      selected_rounds = &rounds_impls[i];
+      found = JNI_TRUE;
+      break;
+    }
+  }
+
+  (*env)->ReleaseStringUTFChars(env, name, nameChars);
+
+  return found;
+}
 #undef MASTER_KEY_SIZE
 
+// Checks that [offset, offset + len) lies within the array
+static int region_ok(JNIEnv *env, jarray array, jint offset, jint len) {
+  jsize size = (*env)->GetArrayLength(env, array);
+  return offset >= 0 && len >= 0 && offset <= size && len <= size - offset;
+}
+
+JNIEXPORT jintArray JNICALL Java_com_keepassdroid_crypto_NativeChaCha20CipherSpi_nInit(JNIEnv *env, jclass cls, jbyteArray key, jbyteArray nonce) {
+  uint8_t ckey[CHACHA20_KEY_SIZE], cnonce[CHACHA20_NONCE_SIZE];
+  chacha20_ctx ctx;
+  jintArray result;
+
+  if( (*env)->GetArrayLength(env, key) != CHACHA20_KEY_SIZE || (*env)->GetArrayLength(env, nonce) != CHACHA20_NONCE_SIZE ) {
+    (*env)->ThrowNew(env, bad_arg, "Invalid length of key or nonce");
+    return NULL;
+  }
+
+  (*env)->GetByteArrayRegion(env, key, 0, CHACHA20_KEY_SIZE, (jbyte *)ckey);
+  (*env)->GetByteArrayRegion(env, nonce, 0, CHACHA20_NONCE_SIZE, (jbyte *)cnonce);
+  chacha20_init(&ctx, ckey, cnonce, 0);
+
+  result = (*env)->NewIntArray(env, CHACHA20_CTX_WORDS);
+  if( result != NULL )
+    (*env)->SetIntArrayRegion(env, result, 0, CHACHA20_CTX_WORDS, (jint *)&ctx);
+
+  memset(ckey, 0, sizeof(ckey));
+  memset(&ctx, 0, sizeof(ctx));
+  return result;
+}
+
+JNIEXPORT void JNICALL Java_com_keepassdroid_crypto_NativeChaCha20CipherSpi_nProcess(JNIEnv *env, jclass cls, jintArray state, jbyteArray input, jint inputOffset, jint inputLen, jbyteArray output, jint outputOffset) {
+  jint *ctx;
+  jbyte *in, *out;
+
+  if( (*env)->GetArrayLength(env, state) != CHACHA20_CTX_WORDS || !region_ok(env, input, inputOffset, inputLen) || !region_ok(env, output, outputOffset, inputLen) ) {
+    (*env)->ThrowNew(env, bad_arg, "Invalid cipher state or buffer");
+    return;
+  }
+
+  ctx = (*env)->GetPrimitiveArrayCritical(env, state, NULL);
+  in = (*env)->GetPrimitiveArrayCritical(env, input, NULL);
+  out = (*env)->GetPrimitiveArrayCritical(env, output, NULL);
+  if( ctx != NULL && in != NULL && out != NULL )
+    chacha20_xor((chacha20_ctx *)ctx, (uint8_t *)in + inputOffset, (uint8_t *)out + outputOffset, (size_t)inputLen);
+
+  // Output first, the input is released without copying back
+  if( out != NULL )
+    (*env)->ReleasePrimitiveArrayCritical(env, output, out, 0);
+  if( in != NULL )
+    (*env)->ReleasePrimitiveArrayCritical(env, input, in, JNI_ABORT);
+  if( ctx != NULL )
+    (*env)->ReleasePrimitiveArrayCritical(env, state, ctx, 0);
+}
+
+JNIEXPORT jintArray JNICALL Java_com_keepassdroid_crypto_NativeSalsa20Engine_nInit(JNIEnv *env, jclass cls, jbyteArray key, jbyteArray nonce) {
+  uint8_t ckey[SALSA20_KEY_SIZE], cnonce[SALSA20_NONCE_SIZE];
+  salsa20_ctx ctx;
+  jintArray result;
+
+  if( (*env)->GetArrayLength(env, key) != SALSA20_KEY_SIZE || (*env)->GetArrayLength(env, nonce) != SALSA20_NONCE_SIZE ) {
+    (*env)->ThrowNew(env, bad_arg, "Invalid length of key or nonce");
+    return NULL;
+  }
+
+  (*env)->GetByteArrayRegion(env, key, 0, SALSA20_KEY_SIZE, (jbyte *)ckey);
+  (*env)->GetByteArrayRegion(env, nonce, 0, SALSA20_NONCE_SIZE, (jbyte *)cnonce);
+  salsa20_init(&ctx, ckey, cnonce);
+
+  result = (*env)->NewIntArray(env, SALSA20_CTX_WORDS);
+  if( result != NULL )
+    (*env)->SetIntArrayRegion(env, result, 0, SALSA20_CTX_WORDS, (jint *)&ctx);
+
+  memset(ckey, 0, sizeof(ckey));
+  memset(&ctx, 0, sizeof(ctx));
+  return result;
+}
+
+JNIEXPORT void JNICALL Java_com_keepassdroid_crypto_NativeSalsa20Engine_nProcess(JNIEnv *env, jclass cls, jintArray state, jbyteArray input, jint inputOffset, jint inputLen, jbyteArray output, jint outputOffset) {
+  jint *ctx;
+  jbyte *in, *out;
+
+  if( (*env)->GetArrayLength(env, state) != SALSA20_CTX_WORDS || !region_ok(env, input, inputOffset, inputLen) || !region_ok(env, output, outputOffset, inputLen) ) {
+    (*env)->ThrowNew(env, bad_arg, "Invalid cipher state or buffer");
+    return;
+  }
+
+  ctx = (*env)->GetPrimitiveArrayCritical(env, state, NULL);
+  in = (*env)->GetPrimitiveArrayCritical(env, input, NULL);
+  out = (*env)->GetPrimitiveArrayCritical(env, output, NULL);
+  if( ctx != NULL && in != NULL && out != NULL )
+    salsa20_xor((salsa20_ctx *)ctx, (uint8_t *)in + inputOffset, (uint8_t *)out + outputOffset, (size_t)inputLen);
+
+  // Output first, the input is released without copying back
+  if( out != NULL )
+    (*env)->ReleasePrimitiveArrayCritical(env, output, out, 0);
+  if( in != NULL )
+    (*env)->ReleasePrimitiveArrayCritical(env, input, in, JNI_ABORT);
+  if( ctx != NULL )
+    (*env)->ReleasePrimitiveArrayCritical(env, state, ctx, 0);
+}
+
+JNIEXPORT jintArray JNICALL Java_com_keepassdroid_crypto_NativeTwofishCipherSpi_nInit(JNIEnv *env, jclass cls, jbyteArray key) {
+  uint8_t ckey[32];
+  twofish_key *tkey;
+  jintArray result = NULL;
+  jint key_len = (*env)->GetArrayLength(env, key);
+
+  if( key_len != 16 && key_len != 24 && key_len != 32 ) {
+    (*env)->ThrowNew(env, bad_arg, "Invalid length of key");
+    return NULL;
+  }
+
+  tkey = (twofish_key *)malloc(sizeof(twofish_key));
+  if( tkey == NULL ) {
+    (*env)->ThrowNew(env, no_mem, "Cannot allocate memory for the key schedule");
+    return NULL;
+  }
+
+  (*env)->GetByteArrayRegion(env, key, 0, key_len, (jbyte *)ckey);
+  twofish_set_key(tkey, ckey, (size_t)key_len);
+
+  result = (*env)->NewIntArray(env, TWOFISH_KEY_WORDS);
+  if( result != NULL )
+    (*env)->SetIntArrayRegion(env, result, 0, TWOFISH_KEY_WORDS, (jint *)tkey);
+
+  memset(ckey, 0, sizeof(ckey));
+  memset(tkey, 0, sizeof(twofish_key));
+  free(tkey);
+  return result;
+}
+
+JNIEXPORT void JNICALL Java_com_keepassdroid_crypto_NativeTwofishCipherSpi_nProcess(JNIEnv *env, jclass cls, jintArray key, jboolean encrypting, jbyteArray iv, jbyteArray input, jint inputOffset, jint inputLen, jbyteArray output, jint outputOffset) {
+  uint8_t civ[TWOFISH_BLOCK_SIZE];
+  jint *tkey;
+  jbyte *in, *out;
+
+  if( (*env)->GetArrayLength(env, key) != TWOFISH_KEY_WORDS || (*env)->GetArrayLength(env, iv) != TWOFISH_BLOCK_SIZE ||
+      inputLen % TWOFISH_BLOCK_SIZE != 0 || !region_ok(env, input, inputOffset, inputLen) || !region_ok(env, output, outputOffset, inputLen) ) {
+    (*env)->ThrowNew(env, bad_arg, "Invalid key schedule or buffer");
+    return;
+  }
+
+  (*env)->GetByteArrayRegion(env, iv, 0, TWOFISH_BLOCK_SIZE, (jbyte *)civ);
+
+  tkey = (*env)->GetPrimitiveArrayCritical(env, key, NULL);
+  in = (*env)->GetPrimitiveArrayCritical(env, input, NULL);
+  out = (*env)->GetPrimitiveArrayCritical(env, output, NULL);
+  if( tkey != NULL && in != NULL && out != NULL ) {
+    if( encrypting )
+      twofish_cbc_encrypt((twofish_key *)tkey, civ, (uint8_t *)in + inputOffset, (uint8_t *)out + outputOffset, (size_t)inputLen);
+    else
+      twofish_cbc_decrypt((twofish_key *)tkey, civ, (uint8_t *)in + inputOffset, (uint8_t *)out + outputOffset, (size_t)inputLen);
+  }
+
+  if( out != NULL )
+    (*env)->ReleasePrimitiveArrayCritical(env, output, out, 0);
+  if( in != NULL )
+    (*env)->ReleasePrimitiveArrayCritical(env, input, in, JNI_ABORT);
+  if( tkey != NULL )
+    (*env)->ReleasePrimitiveArrayCritical(env, key, tkey, JNI_ABORT);
+
+  (*env)->SetByteArrayRegion(env, iv, 0, TWOFISH_BLOCK_SIZE, (jbyte *)civ);
+}
@@ -0,0 +1,131 @@
+/*
+  Salsa20/20 stream cipher with a 64 bit nonce and a 256 bit key.
+  Copyright (C) 2018 Brian Pellin
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+#include <string.h>
+
+#include "salsa20.h"
+
+#define ROTL32(v, n) (((v) << (n)) | ((v) >> (32 - (n))))
+
+#define QUARTERROUND(a, b, c, d) \
+  b ^= ROTL32(a + d, 7); \
+  c ^= ROTL32(b + a, 9); \
+  d ^= ROTL32(c + b, 13); \
+  a ^= ROTL32(d + c, 18);
+
+#define DOUBLEROUND(x) \
+  QUARTERROUND(x[0], x[4], x[8], x[12]) \
+  QUARTERROUND(x[5], x[9], x[13], x[1]) \
+  QUARTERROUND(x[10], x[14], x[2], x[6]) \
+  QUARTERROUND(x[15], x[3], x[7], x[11]) \
+  QUARTERROUND(x[0], x[1], x[2], x[3]) \
+  QUARTERROUND(x[5], x[6], x[7], x[4]) \
+  QUARTERROUND(x[10], x[11], x[8], x[9]) \
+  QUARTERROUND(x[15], x[12], x[13], x[14])
+
+static uint32_t load32_le(const uint8_t *p) {
+  return (uint32_t)p[0] | ((uint32_t)p[1] << 8) | ((uint32_t)p[2] << 16) | ((uint32_t)p[3] << 24);
+}
+
+static void store32_le(uint8_t *p, uint32_t v) {
+  p[0] = (uint8_t)v;
+  p[1] = (uint8_t)(v >> 8);
+  p[2] = (uint8_t)(v >> 16);
+  p[3] = (uint8_t)(v >> 24);
+}
+
+/* One block of keystream for the current counter, which is then advanced */
+static void salsa20_block(uint32_t *input, uint8_t *out) {
+  uint32_t x[16];
+  int i;
+
+  memcpy(x, input, sizeof(x));
+  for (i = 0; i < 10; i++) {
+    DOUBLEROUND(x)
+  }
+  for (i = 0; i < 16; i++) {
+    store32_le(out + 4 * i, x[i] + input[i]);
+  }
+
+  /* 64 bit block counter */
+  if (++input[8] == 0)
+    input[9]++;
+}
+
+void salsa20_init(salsa20_ctx *ctx, const uint8_t *key, const uint8_t *nonce) {
+  int i;
+
+  /* "expand 32-byte k" on the diagonal */
+  ctx->input[0] = 0x61707865;
+  ctx->input[5] = 0x3320646e;
+  ctx->input[10] = 0x79622d32;
+  ctx->input[15] = 0x6b206574;
+  for (i = 0; i < 4; i++) {
+    ctx->input[1 + i] = load32_le(key + 4 * i);
+    ctx->input[11 + i] = load32_le(key + 16 + 4 * i);
+  }
+  ctx->input[6] = load32_le(nonce);
+  ctx->input[7] = load32_le(nonce + 4);
+  ctx->input[8] = 0;
+  ctx->input[9] = 0;
+
+  memset(ctx->keystream, 0, sizeof(ctx->keystream));
+  ctx->position = SALSA20_BLOCK_SIZE;
+}
+
+static void xor_bytes(const uint8_t *in, const uint8_t *ks, uint8_t *out, size_t len) {
+  size_t i;
+  for (i = 0; i < len; i++) {
+    out[i] = in[i] ^ ks[i];
+  }
+}
+
+void salsa20_xor(salsa20_ctx *ctx, const uint8_t *in, uint8_t *out, size_t len) {
+  uint8_t *keystream = (uint8_t *)ctx->keystream;
+  size_t n;
+
+  /* use up what is left of the last block */
+  if (ctx->position < SALSA20_BLOCK_SIZE) {
+    n = SALSA20_BLOCK_SIZE - ctx->position;
+    if (n > len)
+      n = len;
+    xor_bytes(in, keystream + ctx->position, out, n);
+    ctx->position += n;
+    in += n;
+    out += n;
+    len -= n;
+    if (len == 0)
+      return;
+  }
+
+  while (len >= SALSA20_BLOCK_SIZE) {
+    salsa20_block(ctx->input, keystream);
+    xor_bytes(in, keystream, out, SALSA20_BLOCK_SIZE);
+    in += SALSA20_BLOCK_SIZE;
+    out += SALSA20_BLOCK_SIZE;
+    len -= SALSA20_BLOCK_SIZE;
+  }
+  ctx->position = SALSA20_BLOCK_SIZE;
+
+  /* keep the rest of the keystream for the next call */
+  if (len > 0) {
+    salsa20_block(ctx->input, keystream);
+    xor_bytes(in, keystream, out, len);
+    ctx->position = len;
+  }
+}
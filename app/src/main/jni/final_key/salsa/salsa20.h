@@ -0,0 +1,43 @@
+/*
+  Salsa20/20 stream cipher with a 64 bit nonce and a 256 bit key.
+  Copyright (C) 2018 Brian Pellin
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+#ifndef SALSA20_H
+#define SALSA20_H
+
+#include <inttypes.h>
+#include <stddef.h>
+
+#define SALSA20_KEY_SIZE 32
+#define SALSA20_NONCE_SIZE 8
+#define SALSA20_BLOCK_SIZE 64
+
+/* Same layout as chacha20_ctx, so it can live in an int array too */
+typedef struct _salsa20_ctx {
+  uint32_t input[16];
+  uint32_t keystream[16];
+  uint32_t position;
+} salsa20_ctx;
+
+#define SALSA20_CTX_WORDS (sizeof(salsa20_ctx) / sizeof(uint32_t))
+
+void salsa20_init(salsa20_ctx *ctx, const uint8_t *key, const uint8_t *nonce);
+
+/* Encrypts or decrypts len bytes, in and out may be the same buffer */
+void salsa20_xor(salsa20_ctx *ctx, const uint8_t *in, uint8_t *out, size_t len);
+
+#endif
@@ -0,0 +1,285 @@
+/*
+  Twofish block cipher with CBC mode.
+  Copyright (C) 2018 Brian Pellin
+
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+*/
+
+/*
+  Follows the specification by Schneier et al. The q permutations are built
+  from their nibble tables and the key dependent S-boxes are fully expanded
+  at key setup, so each round is four table lookups per g function.
+*/
+
+#include <string.h>
+
+#include "twofish.h"
+
+#define ROTL32(v, n) (((v) << (n)) | ((v) >> (32 - (n))))
+#define ROTR32(v, n) (((v) >> (n)) | ((v) << (32 - (n))))
+
+#define MDS_POLY 0x169
+#define RS_POLY 0x14D
+
+static const uint8_t q_tables[2][4][16] = {
+  {
+    { 0x8, 0x1, 0x7, 0xD, 0x6, 0xF, 0x3, 0x2, 0x0, 0xB, 0x5, 0x9, 0xE, 0xC, 0xA, 0x4 },
+    { 0xE, 0xC, 0xB, 0x8, 0x1, 0x2, 0x3, 0x5, 0xF, 0x4, 0xA, 0x6, 0x7, 0x0, 0x9, 0xD },
+    { 0xB, 0xA, 0x5, 0xE, 0x6, 0xD, 0x9, 0x0, 0xC, 0x8, 0xF, 0x3, 0x2, 0x4, 0x7, 0x1 },
+    { 0xD, 0x7, 0xF, 0x4, 0x1, 0x2, 0x6, 0xE, 0x9, 0xB, 0x3, 0x0, 0x8, 0x5, 0xC, 0xA }
+  },
+  {
+    { 0x2, 0x8, 0xB, 0xD, 0xF, 0x7, 0x6, 0xE, 0x3, 0x1, 0x9, 0x4, 0x0, 0xA, 0xC, 0x5 },
+    { 0x1, 0xE, 0x2, 0xB, 0x4, 0xC, 0x3, 0x7, 0x6, 0xD, 0xA, 0x5, 0xF, 0x9, 0x0, 0x8 },
+    { 0x4, 0xC, 0x7, 0x5, 0x1, 0x6, 0x9, 0xA, 0x0, 0xE, 0xD, 0x8, 0x2, 0xB, 0x3, 0xF },
+    { 0xB, 0x9, 0x5, 0x1, 0xC, 0x3, 0xD, 0xE, 0x6, 0x4, 0x7, 0xF, 0x2, 0x0, 0x8, 0xA }
+  }
+};
+
+static const uint8_t mds[4][4] = {
+  { 0x01, 0xEF, 0x5B, 0x5B },
+  { 0x5B, 0xEF, 0xEF, 0x01 },
+  { 0xEF, 0x5B, 0x01, 0xEF },
+  { 0xEF, 0x01, 0xEF, 0x5B }
+};
+
+static const uint8_t rs[4][8] = {
+  { 0x01, 0xA4, 0x55, 0x87, 0x5A, 0x58, 0xDB, 0x9E },
+  { 0xA4, 0x56, 0x82, 0xF3, 0x1E, 0xC6, 0x68, 0xE5 },
+  { 0x02, 0xA1, 0xFC, 0xC1, 0x47, 0xAE, 0x3D, 0x19 },
+  { 0xA4, 0x55, 0x87, 0x5A, 0x58, 0xDB, 0x9E, 0x03 }
+};
+
+static uint8_t q[2][256];
+static volatile int q_ready = 0;
+
+static uint8_t ror4(uint8_t x) {
+  return ((x >> 1) | (x << 3)) & 0x0F;
+}
+
+static uint8_t q_permute(const uint8_t t[4][16], uint8_t x) {
+  uint8_t a = x >> 4, b = x & 0x0F;
+  uint8_t a1 = a ^ b, b1 = (a ^ ror4(b) ^ (a << 3)) & 0x0F;
+  uint8_t a2 = t[0][a1], b2 = t[1][b1];
+  uint8_t a3 = a2 ^ b2, b3 = (a2 ^ ror4(b2) ^ (a2 << 3)) & 0x0F;
+  return (uint8_t)((t[3][b3] << 4) | t[2][a3]);
+}
+
+static void build_q(void) {
+  int i;
+  if (q_ready)
+    return;
+  /* racing threads compute identical tables, so this needs no lock */
+  for (i = 0; i < 256; i++) {
+    q[0][i] = q_permute(q_tables[0], (uint8_t)i);
+    q[1][i] = q_permute(q_tables[1], (uint8_t)i);
+  }
+  q_ready = 1;
+}
+
+static uint8_t gf_mul(uint8_t a, uint8_t b, unsigned poly) {
+  unsigned r = 0, x = a;
+  while (b) {
+    if (b & 1)
+      r ^= x;
+    x <<= 1;
+    if (x & 0x100)
+      x ^= poly;
+    b >>= 1;
+  }
+  return (uint8_t)r;
+}
+
+/* Byte j of X after the q and key word chain of h, before the MDS matrix */
+static uint8_t h_byte(int j, uint8_t x, const uint32_t *l, int k) {
+  /* which q is used at each stage for each byte, from the last key word to the first */
+  static const uint8_t order[5][4] = {
+    { 1, 0, 1, 0 },
+    { 0, 0, 1, 1 },
+    { 0, 1, 0, 1 },
+    { 1, 1, 0, 0 },
+    { 1, 0, 0, 1 }
+  };
+  int shift = 8 * j;
+
+  if (k == 4)
+    x = q[order[4][j]][x] ^ (uint8_t)(l[3] >> shift);
+  if (k >= 3)
+    x = q[order[3][j]][x] ^ (uint8_t)(l[2] >> shift);
+  x = q[order[2][j]][x] ^ (uint8_t)(l[1] >> shift);
+  x = q[order[1][j]][x] ^ (uint8_t)(l[0] >> shift);
+  return q[order[0][j]][x];
+}
+
+static uint32_t mds_column(int j, uint8_t y) {
+  return (uint32_t)gf_mul(mds[0][j], y, MDS_POLY) |
+         ((uint32_t)gf_mul(mds[1][j], y, MDS_POLY) << 8) |
+         ((uint32_t)gf_mul(mds[2][j], y, MDS_POLY) << 16) |
+         ((uint32_t)gf_mul(mds[3][j], y, MDS_POLY) << 24);
+}
+
+static uint32_t h(uint32_t x, const uint32_t *l, int k) {
+  uint32_t z = 0;
+  int j;
+  for (j = 0; j < 4; j++) {
+    z ^= mds_column(j, h_byte(j, (uint8_t)(x >> (8 * j)), l, k));
+  }
+  return z;
+}
+
+static uint32_t load32_le(const uint8_t *p) {
+  return (uint32_t)p[0] | ((uint32_t)p[1] << 8) | ((uint32_t)p[2] << 16) | ((uint32_t)p[3] << 24);
+}
+
+static void store32_le(uint8_t *p, uint32_t v) {
+  p[0] = (uint8_t)v;
+  p[1] = (uint8_t)(v >> 8);
+  p[2] = (uint8_t)(v >> 16);
+  p[3] = (uint8_t)(v >> 24);
+}
+
+int twofish_set_key(twofish_key *key, const uint8_t *user_key, size_t key_len) {
+  uint32_t me[4], mo[4], s[4];
+  int k, i, j, c;
+
+  if (key_len != 16 && key_len != 24 && key_len != 32)
+    return -1;
+  k = (int)(key_len / 8);
+
+  build_q();
+
+  for (i = 0; i < k; i++) {
+    me[i] = load32_le(user_key + 8 * i);
+    mo[i] = load32_le(user_key + 8 * i + 4);
+
+    /* S words in reverse order, as the list h takes for g */
+    s[k - 1 - i] = 0;
+    for (j = 0; j < 4; j++) {
+      uint8_t v = 0;
+      for (c = 0; c < 8; c++) {
+        v ^= gf_mul(rs[j][c], user_key[8 * i + c], RS_POLY);
+      }
+      s[k - 1 - i] |= (uint32_t)v << (8 * j);
+    }
+  }
+
+  for (i = 0; i < 20; i++) {
+    uint32_t a = h(0x02020202u * i, me, k);
+    uint32_t b = ROTL32(h(0x02020202u * i + 0x01010101u, mo, k), 8);
+    key->k[2 * i] = a + b;
+    key->k[2 * i + 1] = ROTL32(a + 2 * b, 9);
+  }
+
+  for (j = 0; j < 4; j++) {
+    for (i = 0; i < 256; i++) {
+      key->s[j][i] = mds_column(j, h_byte(j, (uint8_t)i, s, k));
+    }
+  }
+
+  memset(me, 0, sizeof(me));
+  memset(mo, 0, sizeof(mo));
+  memset(s, 0, sizeof(s));
+  return 0;
+}
+
+#define G0(key, x) ((key)->s[0][(x) & 0xFF] ^ (key)->s[1][((x) >> 8) & 0xFF] ^ \
+                    (key)->s[2][((x) >> 16) & 0xFF] ^ (key)->s[3][(x) >> 24])
+#define G1(key, x) G0(key, ROTL32(x, 8))
+
+void twofish_encrypt(const twofish_key *key, const uint8_t *in, uint8_t *out) {
+  uint32_t r0 = load32_le(in) ^ key->k[0];
+  uint32_t r1 = load32_le(in + 4) ^ key->k[1];
+  uint32_t r2 = load32_le(in + 8) ^ key->k[2];
+  uint32_t r3 = load32_le(in + 12) ^ key->k[3];
+  uint32_t t0, t1;
+  int r;
+
+  /* two rounds per iteration, so the halves swap back without moving */
+  for (r = 0; r < 16; r += 2) {
+    t0 = G0(key, r0);
+    t1 = G1(key, r1);
+    r2 = ROTR32(r2 ^ (t0 + t1 + key->k[2 * r + 8]), 1);
+    r3 = ROTL32(r3, 1) ^ (t0 + 2 * t1 + key->k[2 * r + 9]);
+
+    t0 = G0(key, r2);
+    t1 = G1(key, r3);
+    r0 = ROTR32(r0 ^ (t0 + t1 + key->k[2 * r + 10]), 1);
+    r1 = ROTL32(r1, 1) ^ (t0 + 2 * t1 + key->k[2 * r + 11]);
+  }
+
+  store32_le(out, r2 ^ key->k[4]);
+  store32_le(out + 4, r3 ^ key->k[5]);
+  store32_le(out + 8, r0 ^ key->k[6]);
+  store32_le(out + 12, r1 ^ key->k[7]);
+}
+
+void twofish_decrypt(const twofish_key *key, const uint8_t *in, uint8_t *out) {
+  uint32_t r2 = load32_le(in) ^ key->k[4];
+  uint32_t r3 = load32_le(in + 4) ^ key->k[5];
+  uint32_t r0 = load32_le(in + 8) ^ key->k[6];
+  uint32_t r1 = load32_le(in + 12) ^ key->k[7];
+  uint32_t t0, t1;
+  int r;
+
+  for (r = 14; r >= 0; r -= 2) {
+    t0 = G0(key, r2);
+    t1 = G1(key, r3);
+    r0 = ROTL32(r0, 1) ^ (t0 + t1 + key->k[2 * r + 10]);
+    r1 = ROTR32(r1 ^ (t0 + 2 * t1 + key->k[2 * r + 11]), 1);
+
+    t0 = G0(key, r0);
+    t1 = G1(key, r1);
+    r2 = ROTL32(r2, 1) ^ (t0 + t1 + key->k[2 * r + 8]);
+    r3 = ROTR32(r3 ^ (t0 + 2 * t1 + key->k[2 * r + 9]), 1);
+  }
+
+  store32_le(out, r0 ^ key->k[0]);
+  store32_le(out + 4, r1 ^ key->k[1]);
+  store32_le(out + 8, r2 ^ key->k[2]);
+  store32_le(out + 12, r3 ^ key->k[3]);
+}
+
+void twofish_cbc_encrypt(const twofish_key *key, uint8_t *iv, const uint8_t *in, uint8_t *out, size_t len) {
+  uint8_t block[TWOFISH_BLOCK_SIZE];
+  size_t i;
+
+  while (len >= TWOFISH_BLOCK_SIZE) {
+    for (i = 0; i < TWOFISH_BLOCK_SIZE; i++) {
+      block[i] = in[i] ^ iv[i];
+    }
+    twofish_encrypt(key, block, out);
+    memcpy(iv, out, TWOFISH_BLOCK_SIZE);
+    in += TWOFISH_BLOCK_SIZE;
+    out += TWOFISH_BLOCK_SIZE;
+    len -= TWOFISH_BLOCK_SIZE;
+  }
+}
+
+void twofish_cbc_decrypt(const twofish_key *key, uint8_t *iv, const uint8_t *in, uint8_t *out, size_t len) {
+  uint8_t block[TWOFISH_BLOCK_SIZE], next_iv[TWOFISH_BLOCK_SIZE];
+  size_t i;
+
+  while (len >= TWOFISH_BLOCK_SIZE) {
+    /* in and out may be the same buffer */
+    memcpy(next_iv, in, TWOFISH_BLOCK_SIZE);
+    twofish_decrypt(key, in, block);
+    for (i = 0; i < TWOFISH_BLOCK_SIZE; i++) {
+      out[i] = block[i] ^ iv[i];
+    }
+    memcpy(iv, next_iv, TWOFISH_BLOCK_SIZE);
+    in += TWOFISH_BLOCK_SIZE;
+    out += TWOFISH_BLOCK_SIZE;
+    len -= TWOFISH_BLOCK_SIZE;
+  }
+}
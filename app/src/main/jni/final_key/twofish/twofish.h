@@ -0,0 +1,49 @@
+/*
+  Twofish block cipher with CBC mode.
+  Copyright (C) 2018 Brian Pellin
+
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+*/
+
+#ifndef TWOFISH_H
+#define TWOFISH_H
+
+#include <inttypes.h>
+#include <stddef.h>
+
+#define TWOFISH_BLOCK_SIZE 16
+
+/*
+  Expanded key: the 40 round subkeys and the key dependent S-boxes with the
+  MDS matrix folded in. Plain 32 bit words, so the caller can keep it in any
+  int array.
+*/
+typedef struct _twofish_key {
+  uint32_t k[40];
+  uint32_t s[4][256];
+} twofish_key;
+
+#define TWOFISH_KEY_WORDS (sizeof(twofish_key) / sizeof(uint32_t))
+
+/* Returns 0 on success, -1 if the key is not 16, 24 or 32 bytes */
+int twofish_set_key(twofish_key *key, const uint8_t *user_key, size_t key_len);
+
+void twofish_encrypt(const twofish_key *key, const uint8_t *in, uint8_t *out);
+void twofish_decrypt(const twofish_key *key, const uint8_t *in, uint8_t *out);
+
+/* len must be a multiple of the block size, the iv is updated for the next call */
+void twofish_cbc_encrypt(const twofish_key *key, uint8_t *iv, const uint8_t *in, uint8_t *out, size_t len);
+void twofish_cbc_decrypt(const twofish_key *key, uint8_t *iv, const uint8_t *in, uint8_t *out, size_t len);
+
+#endif